@@ -0,0 +1,33 @@
+package sshephard.customer;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+/**
+ * Admission control configuration, enabled by customer.admission.enabled=true
+ * @author s.shephard2
+ *
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "customer.admission", name = "enabled")
+@EnableConfigurationProperties(AdmissionControlProperties.class)
+public class AdmissionControlConfig {
+
+	@Bean
+	public AdmissionControlFilter admissionControlFilter(AdmissionControlProperties properties) {
+		return new AdmissionControlFilter(properties);
+	}
+
+	// Ahead of the other filters except the request log, so that rejected requests cost as little as possible
+	@Bean
+	public FilterRegistrationBean admissionControlFilterRegistration(AdmissionControlFilter filter) {
+		FilterRegistrationBean registration = new FilterRegistrationBean(filter);
+		registration.addUrlPatterns("/customers", "/customers/*", "/async/customers", "/async/customers/*");
+		registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 1);
+		return registration;
+	}
+}
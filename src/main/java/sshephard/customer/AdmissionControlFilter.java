@@ -0,0 +1,262 @@
+package sshephard.customer;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Admission control for the customer routes
+ * Each client has a token bucket, rejected with 429 when empty, and each class of route has an adaptive
+ * concurrency limit, rejected with 503 when reached, so that overload on one class of route doesn't queue
+ * up requests for the others
+ * @author s.shephard2
+ *
+ */
+public class AdmissionControlFilter extends OncePerRequestFilter {
+
+	// Logger for customer.AdmissionControlFilter
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	/**
+	 * Classes of route, each with its own concurrency limit
+	 */
+	public enum RouteClass {
+		SEARCH, READ, WRITE
+	}
+
+	// Streamed search, a search whatever its path
+	private static final String STREAM = "/customers/stream";
+
+	// Header carrying the internal token, on requests the application makes to itself such as the warm-up's
+	public static final String INTERNAL_HEADER = "X-Customer-Internal";
+
+	// Known only inside this process, so that clients can't exempt themselves
+	private final String internalToken = UUID.randomUUID().toString();
+
+	private final AdmissionControlProperties properties;
+	private final Map<RouteClass, ConcurrencyLimit> limits = new EnumMap<RouteClass, ConcurrencyLimit>(RouteClass.class);
+	private final ConcurrentHashMap<String, TokenBucket> clients = new ConcurrentHashMap<String, TokenBucket>();
+	private final AtomicLong throttled = new AtomicLong();
+
+	/**
+	 * @param properties
+	 */
+	public AdmissionControlFilter(AdmissionControlProperties properties) {
+		this.properties = properties;
+		limits.put(RouteClass.SEARCH, properties.getSearch().create());
+		limits.put(RouteClass.READ, properties.getRead().create());
+		limits.put(RouteClass.WRITE, properties.getWrite().create());
+	}
+
+	/**
+	 * @param request
+	 * @return the class of a customer route, or null for any other route
+	 */
+	static RouteClass routeClass(HttpServletRequest request) {
+		String path = request.getRequestURI().substring(request.getContextPath().length());
+		// The /async routes are classified as the routes they mirror
+		if (path.startsWith("/async/")) {
+			path = path.substring("/async".length());
+		}
+		if (!path.equals("/customers") && !path.startsWith("/customers/")) {
+			return null;
+		}
+		// Multi-gets are reads, whether GET /customers?ids= or POST /customers/lookup
+		if (path.equals("/customers/lookup")) {
+			return RouteClass.READ;
+		}
+		if (path.equals(STREAM)) {
+			return RouteClass.SEARCH;
+		}
+		if (!"GET".equals(request.getMethod())) {
+			return RouteClass.WRITE;
+		}
+		if (path.length() <= "/customers/".length()) {
+			return request.getParameter("ids") != null ? RouteClass.READ : RouteClass.SEARCH;
+		}
+		return RouteClass.READ;
+	}
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		return routeClass(request) == null || internalToken.equals(request.getHeader(INTERNAL_HEADER));
+	}
+
+	/**
+	 * @return the value of INTERNAL_HEADER that exempts a request made by the application itself
+	 */
+	public String getInternalToken() {
+		return internalToken;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		// Per-client rate first, so that one busy client can't use up a route's concurrency
+		TokenBucket bucket = bucket(client(request));
+		long now = System.nanoTime();
+		if (!bucket.tryAcquire(now)) {
+			throttled.incrementAndGet();
+			reject(response, HttpStatus.TOO_MANY_REQUESTS, bucket.secondsUntilAvailable(now));
+			return;
+		}
+
+		RouteClass routeClass = routeClass(request);
+		ConcurrencyLimit limit = limits.get(routeClass);
+		if (!limit.tryAcquire()) {
+			logger.debug("{} {} rejected, {} limit {} reached", request.getMethod(), request.getRequestURI(), routeClass, limit.getLimit());
+			reject(response, HttpStatus.SERVICE_UNAVAILABLE, 1);
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			// A stream lasts as long as the client takes to read it, so its duration says nothing about load
+			boolean measured = !isStream(request);
+			AsyncCompletion.whenComplete(request, () -> {
+				if (measured) {
+					limit.release(start);
+				} else {
+					limit.releaseUnmeasured();
+				}
+			});
+		}
+	}
+
+	private static boolean isStream(HttpServletRequest request) {
+		return request.getRequestURI().substring(request.getContextPath().length()).equals("/async" + STREAM);
+	}
+
+	/**
+	 * @param request
+	 * @return the client, from the configured header if there is one and it is present, otherwise the remote address
+	 */
+	String client(HttpServletRequest request) {
+		return client(request, properties.getClientHeader());
+	}
+
+	/**
+	 * @param request
+	 * @param clientHeader header naming the client, set by a proxy in front, or null to use the remote address
+	 * @return the address the client is told apart by
+	 */
+	static String client(HttpServletRequest request, String clientHeader) {
+		String header = clientHeader == null ? null : request.getHeader(clientHeader);
+		if (header == null || header.trim().isEmpty()) {
+			return request.getRemoteAddr();
+		}
+		// The last address in a list such as X-Forwarded-For is the one added by the proxy in front, which clients can't forge
+		return header.substring(header.lastIndexOf(',') + 1).trim();
+	}
+
+	private static void reject(HttpServletResponse response, HttpStatus status, long retryAfterSeconds) {
+		// Set the status rather than sendError, so that no error page is rendered
+		response.setStatus(status.value());
+		response.setHeader("Retry-After", Long.toString(retryAfterSeconds));
+	}
+
+	private TokenBucket bucket(String client) {
+		TokenBucket bucket = clients.get(client);
+		if (bucket == null) {
+			if (clients.size() >= properties.getMaxClients()) {
+				forgetIdleClients();
+			}
+			bucket = clients.computeIfAbsent(client, key -> new TokenBucket(properties.getClientRate(), properties.getClientBurst()));
+		}
+		return bucket;
+	}
+
+	/**
+	 * A full bucket behaves the same as a new one, so it can be dropped
+	 */
+	private void forgetIdleClients() {
+		long now = System.nanoTime();
+		for (Iterator<TokenBucket> buckets = clients.values().iterator(); buckets.hasNext();) {
+			if (buckets.next().isFull(now)) {
+				buckets.remove();
+			}
+		}
+	}
+
+	/**
+	 * @param routeClass
+	 * @return the concurrency limit for the class of route
+	 */
+	public ConcurrencyLimit getLimit(RouteClass routeClass) {
+		return limits.get(routeClass);
+	}
+
+	/**
+	 * @return concurrency limit statistics for each class of route, and per-client rate limiting
+	 */
+	public Map<String, Object> statistics() {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		for (Map.Entry<RouteClass, ConcurrencyLimit> limit : limits.entrySet()) {
+			statistics.put(limit.getKey().name().toLowerCase(), limit.getValue().statistics());
+		}
+		statistics.put("clients", clients.size());
+		statistics.put("throttled", throttled.get());
+		return statistics;
+	}
+
+	/**
+	 * Token bucket, refilled continuously at a fixed rate up to its capacity
+	 */
+	static class TokenBucket {
+
+		private final double tokensPerNano;
+		private final double capacity;
+
+		// Guarded by this
+		private double tokens;
+		private long refilled;
+
+		TokenBucket(double tokensPerSecond, double capacity) {
+			this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+			this.capacity = capacity;
+			this.tokens = capacity;
+			this.refilled = System.nanoTime();
+		}
+
+		private void refill(long now) {
+			tokens = Math.min(capacity, tokens + (now - refilled) * tokensPerNano);
+			refilled = now;
+		}
+
+		synchronized boolean tryAcquire(long now) {
+			refill(now);
+			if (tokens < 1) {
+				return false;
+			}
+			tokens--;
+			return true;
+		}
+
+		synchronized boolean isFull(long now) {
+			refill(now);
+			return tokens >= capacity;
+		}
+
+		synchronized long secondsUntilAvailable(long now) {
+			refill(now);
+			return (long) Math.ceil((1 - tokens) / tokensPerNano / TimeUnit.SECONDS.toNanos(1));
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package sshephard.customer;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings for admission control, customer.admission.*
+ * @author s.shephard2
+ *
+ */
+@ConfigurationProperties(prefix = "customer.admission")
+public class AdmissionControlProperties {
+
+	// Reject requests over the limits
+	private boolean enabled;
+
+	// Sustained requests per second allowed from each client
+	private double clientRate = 100;
+
+	// Requests a client may make at once after being idle
+	private int clientBurst = 200;
+
+	// Header identifying the client when behind a proxy, e.g. X-Forwarded-For, the remote address if not set
+	private String clientHeader;
+
+	// Most clients tracked, idle clients are forgotten beyond this
+	private int maxClients = 10000;
+
+	// Concurrency limits for each route class
+	private RouteLimit search = new RouteLimit(20, 100, 250);
+	private RouteLimit read = new RouteLimit(50, 400, 50);
+	private RouteLimit write = new RouteLimit(20, 100, 250);
+
+	/**
+	 * Concurrency limit settings for one class of route
+	 */
+	public static class RouteLimit {
+
+		private int initialLimit;
+		private int minLimit = 1;
+		private int maxLimit;
+		private long targetMillis;
+
+		public RouteLimit() {
+		}
+
+		RouteLimit(int initialLimit, int maxLimit, long targetMillis) {
+			this.initialLimit = initialLimit;
+			this.maxLimit = maxLimit;
+			this.targetMillis = targetMillis;
+		}
+
+		/**
+		 * @return a new limit with these settings
+		 */
+		public ConcurrencyLimit create() {
+			return new ConcurrencyLimit(initialLimit, minLimit, maxLimit, targetMillis);
+		}
+
+		public int getInitialLimit() {
+			return initialLimit;
+		}
+
+		public void setInitialLimit(int initialLimit) {
+			this.initialLimit = initialLimit;
+		}
+
+		public int getMinLimit() {
+			return minLimit;
+		}
+
+		public void setMinLimit(int minLimit) {
+			this.minLimit = minLimit;
+		}
+
+		public int getMaxLimit() {
+			return maxLimit;
+		}
+
+		public void setMaxLimit(int maxLimit) {
+			this.maxLimit = maxLimit;
+		}
+
+		public long getTargetMillis() {
+			return targetMillis;
+		}
+
+		public void setTargetMillis(long targetMillis) {
+			this.targetMillis = targetMillis;
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public double getClientRate() {
+		return clientRate;
+	}
+
+	public void setClientRate(double clientRate) {
+		this.clientRate = clientRate;
+	}
+
+	public int getClientBurst() {
+		return clientBurst;
+	}
+
+	public void setClientBurst(int clientBurst) {
+		this.clientBurst = clientBurst;
+	}
+
+	public String getClientHeader() {
+		return clientHeader;
+	}
+
+	public void setClientHeader(String clientHeader) {
+		this.clientHeader = clientHeader;
+	}
+
+	public int getMaxClients() {
+		return maxClients;
+	}
+
+	public void setMaxClients(int maxClients) {
+		this.maxClients = maxClients;
+	}
+
+	public RouteLimit getSearch() {
+		return search;
+	}
+
+	public void setSearch(RouteLimit search) {
+		this.search = search;
+	}
+
+	public RouteLimit getRead() {
+		return read;
+	}
+
+	public void setRead(RouteLimit read) {
+		this.read = read;
+	}
+
+	public RouteLimit getWrite() {
+		return write;
+	}
+
+	public void setWrite(RouteLimit write) {
+		this.write = write;
+	}
+}
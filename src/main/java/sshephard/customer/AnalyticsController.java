@@ -0,0 +1,112 @@
+package sshephard.customer;
+
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+
+/**
+ * REST controller for analytical queries, answered from the in-memory CustomerSnapshot
+ * @author s.shephard2
+ *
+ */
+@RestController
+@Api(value="analytics")
+public class AnalyticsController {
+
+	// Logger for customer.AnalyticsController
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	// Absent unless customer.analytics.enabled=true
+	@Autowired(required = false)
+	private CustomerSnapshot snapshot;
+
+	/**
+	 * Customer counts route: GET /analytics/customers?group_by=...
+	 * @param requestParams
+	 * @return
+	 */
+	@ApiOperation(value = "Count customers in groups",
+		    notes = "Count customers grouped by group_by (email_domain, last_name, first_name, birth_year or created_year), optionally filtered by born_after, born_before, created_after, created_before, last_name and email_domain, largest groups first, up to limit groups")
+	@RequestMapping(method = RequestMethod.GET, value = "/analytics/customers", produces = "application/json")
+	public ResponseEntity<Map<String, Object>> customers(@RequestParam Map<String,String> requestParams) {
+		if (snapshot == null) {
+			return ResponseEntity.notFound().build();
+		}
+
+		CustomerSnapshot.GroupBy groupBy = CustomerSnapshot.GroupBy.parse(requestParams.get("group_by"));
+		if (groupBy == null) {
+			logger.error("Invalid group_by {}", requestParams.get("group_by"));
+			return ResponseEntity.badRequest().build();
+		}
+
+		int limit = Integer.MAX_VALUE;
+		String limitParam = requestParams.get("limit");
+		if (limitParam != null && !limitParam.isEmpty()) {
+			try {
+				limit = Integer.parseInt(limitParam);
+			} catch (NumberFormatException e) {
+				limit = 0;
+			}
+			if (limit < 1) {
+				logger.error("Invalid limit {}", limitParam);
+				return ResponseEntity.badRequest().build();
+			}
+		}
+
+		CustomerSnapshot.Filter filter = new CustomerSnapshot.Filter();
+		try {
+			// Dates formatted YYYY-MM-DD, as for GET /customers
+			String value = requestParams.get("born_after");
+			if (value != null && !value.isEmpty()) {
+				filter.setBornFromDay(SearchDates.localDate(value).toEpochDay());
+			}
+			value = requestParams.get("born_before");
+			if (value != null && !value.isEmpty()) {
+				filter.setBornBeforeDay(SearchDates.localDate(value).toEpochDay());
+			}
+			value = requestParams.get("created_after");
+			if (value != null && !value.isEmpty()) {
+				filter.setCreatedFrom(SearchDates.parse(value));
+			}
+			value = requestParams.get("created_before");
+			if (value != null && !value.isEmpty()) {
+				filter.setCreatedBefore(SearchDates.parse(value));
+			}
+		} catch (DateTimeParseException e) {
+			logger.error("Can't parse date {}", e.getParsedString());
+			return ResponseEntity.badRequest().build();
+		}
+		String lastName = requestParams.get("last_name");
+		if (lastName != null && !lastName.isEmpty()) {
+			filter.setLastName(lastName);
+		}
+		String emailDomain = requestParams.get("email_domain");
+		if (emailDomain != null && !emailDomain.isEmpty()) {
+			filter.setEmailDomain(emailDomain.toLowerCase());
+		}
+
+		List<CustomerSnapshot.Group> groups = snapshot.count(filter, groupBy);
+		long total = 0;
+		for (CustomerSnapshot.Group group : groups) {
+			total += group.getCount();
+		}
+
+		Map<String, Object> body = new LinkedHashMap<String, Object>();
+		body.put("total", total);
+		body.put("groups", groups.size() > limit ? groups.subList(0, limit) : groups);
+		return ResponseEntity.ok().body(body);
+	}
+}
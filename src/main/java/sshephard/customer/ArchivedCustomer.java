@@ -0,0 +1,223 @@
+package sshephard.customer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * Archived (cold) customer entity, moved out of the customer table by CustomerArchive
+ * The dates searches filter on are kept as indexed columns, and username and email as unique columns so that they stay
+ * unique across current and archived customers; the names are deflated into one payload when that makes it smaller
+ * @author s.shephard2
+ *
+ */
+@Entity
+@Table(name = "customer_archive", indexes = {
+	@Index(name = "customer_archive_birthdate", columnList = "birthdate"),
+	@Index(name = "customer_archive_created_at", columnList = "created_at")})
+public class ArchivedCustomer {
+
+	// Preset dictionary for the payload, since a single customer is too short for deflate to find much repetition on its own
+	private static final byte[] DICTIONARY = ("@example.com@example.org@gmail.com@hotmail.com@yahoo.com@outlook.com"
+			+ "SmithJonesWilliamsTaylorBrownDaviesEvansWilsonThomasJohnsonRobertsShephard"
+			+ "JamesMaryJohnPatriciaRobertJenniferMichaelLindaWilliamDavidStephenSteven").getBytes(StandardCharsets.UTF_8);
+
+	// Payload format, in case it ever needs to change
+	private static final int VERSION = 2;
+
+	// Same id the customer had in the customer table
+	@Id
+	private Long id;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date created_at;
+
+	@Temporal(TemporalType.DATE)
+	private Date birthdate;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date archived_at;
+
+	@Column(unique = true)
+	private String username;
+
+	@Column(unique = true)
+	private String email;
+
+	// First name, last name and display name, deflated unless that would make them longer
+	@Column(length = 1024)
+	private byte[] payload;
+
+	protected ArchivedCustomer() {
+	}
+
+	/**
+	 * @param customer
+	 * @param archivedAt
+	 * @return the archived form of the customer
+	 */
+	public static ArchivedCustomer of(Customer customer, Date archivedAt) {
+		ArchivedCustomer archived = new ArchivedCustomer();
+		archived.id = customer.getId();
+		archived.created_at = customer.getCreated_at();
+		archived.birthdate = customer.getBirthdate();
+		archived.archived_at = archivedAt;
+		archived.username = customer.getUsername();
+		archived.email = customer.getEmail();
+		archived.payload = deflate(customer);
+		return archived;
+	}
+
+	/**
+	 * @return the customer as it was when archived
+	 */
+	public Customer toCustomer() {
+		Customer customer = new Customer();
+		customer.setId(id);
+		customer.setCreated_at(created_at);
+		customer.setBirthdate(birthdate);
+		customer.setUsername(username);
+		customer.setEmail(email);
+		// A stored payload starts with its version, a deflated one with the zlib header
+		byte[] raw = payload[0] == VERSION ? payload : inflate(payload);
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw))) {
+			if (in.readByte() != VERSION) {
+				throw new IllegalStateException("Unknown archived customer payload for " + id);
+			}
+			customer.setFirst_name(readString(in));
+			customer.setLast_name(readString(in));
+			customer.setDisplay_name(readString(in));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return customer;
+	}
+
+	private static byte[] deflate(Customer customer) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(VERSION);
+			writeString(out, customer.getFirst_name());
+			writeString(out, customer.getLast_name());
+			writeString(out, customer.getDisplay_name());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		byte[] raw = bytes.toByteArray();
+
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try {
+			deflater.setDictionary(DICTIONARY);
+			deflater.setInput(raw);
+			deflater.finish();
+			ByteArrayOutputStream deflated = new ByteArrayOutputStream(raw.length);
+			byte[] buffer = new byte[256];
+			while (!deflater.finished()) {
+				deflated.write(buffer, 0, deflater.deflate(buffer));
+			}
+			// Short names can come out longer deflated, in which case they are stored as they are
+			return deflated.size() < raw.length ? deflated.toByteArray() : raw;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static byte[] inflate(byte[] deflated) {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(deflated);
+			ByteArrayOutputStream inflated = new ByteArrayOutputStream(deflated.length * 2);
+			byte[] buffer = new byte[256];
+			while (!inflater.finished()) {
+				int length = inflater.inflate(buffer);
+				if (length == 0 && inflater.needsDictionary()) {
+					inflater.setDictionary(DICTIONARY);
+				} else if (length == 0 && inflater.needsInput()) {
+					throw new IllegalStateException("Truncated archived customer payload");
+				}
+				inflated.write(buffer, 0, length);
+			}
+			return inflated.toByteArray();
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("Corrupt archived customer payload", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	/**
+	 * @return the id
+	 */
+	public Long getId() {
+		return id;
+	}
+
+	/**
+	 * @return the created_at
+	 */
+	public Date getCreated_at() {
+		return created_at;
+	}
+
+	/**
+	 * @return the birthdate
+	 */
+	public Date getBirthdate() {
+		return birthdate;
+	}
+
+	/**
+	 * @return the archived_at
+	 */
+	public Date getArchived_at() {
+		return archived_at;
+	}
+
+	/**
+	 * @return the username
+	 */
+	public String getUsername() {
+		return username;
+	}
+
+	/**
+	 * @return the email
+	 */
+	public String getEmail() {
+		return email;
+	}
+
+	/**
+	 * @return the payload
+	 */
+	public byte[] getPayload() {
+		return payload;
+	}
+}
@@ -0,0 +1,54 @@
+package sshephard.customer;
+
+import java.io.IOException;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Runs a filter's clean-up when the response is complete rather than when the servlet thread returns, so that a
+ * request handed off to another thread (the /async routes) holds its permit and is timed until it has finished
+ * @author s.shephard2
+ *
+ */
+final class AsyncCompletion implements AsyncListener {
+
+	private final Runnable action;
+
+	private AsyncCompletion(Runnable action) {
+		this.action = action;
+	}
+
+	/**
+	 * Run the action now, or once the request's asynchronous processing has completed, timed out or failed
+	 * To be called after the rest of the filter chain has returned
+	 * @param request
+	 * @param action
+	 */
+	static void whenComplete(HttpServletRequest request, Runnable action) {
+		if (request.isAsyncStarted()) {
+			request.getAsyncContext().addListener(new AsyncCompletion(action));
+		} else {
+			action.run();
+		}
+	}
+
+	// The container calls onComplete after a timeout or error too
+	@Override
+	public void onComplete(AsyncEvent event) throws IOException {
+		action.run();
+	}
+
+	@Override
+	public void onTimeout(AsyncEvent event) throws IOException {
+	}
+
+	@Override
+	public void onError(AsyncEvent event) throws IOException {
+	}
+
+	@Override
+	public void onStartAsync(AsyncEvent event) throws IOException {
+	}
+}
@@ -0,0 +1,351 @@
+package sshephard.customer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.Valid;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+
+/**
+ * Non-blocking variant of the customer routes under /async, with the same validation and responses as CustomerController
+ * Each request is handed to a fixed pool of database threads and the servlet thread returns at once, so that the number
+ * of requests in flight is limited by connections rather than servlet threads; when the threads are busy and the queue
+ * for them is full, requests are turned away with 503; GET /async/customers/stream writes
+ * every match of a search as it is read, a page at a time, reading the next page only when the client has taken the last
+ * @author s.shephard2
+ *
+ */
+@RestController
+@Api(value="async customers")
+@RequestMapping("/async")
+public class AsyncCustomerController {
+
+	// Logger for customer.AsyncCustomerController
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	// Customers read from the database for each page of a stream
+	static final int STREAM_PAGE = 500;
+
+	@Autowired
+	private CustomerController customers;
+
+	@Autowired
+	private CustomerRepository repository;
+
+	@Autowired
+	private ObjectMapper mapper;
+
+	// Blocking database calls run here, at most one per connection in the pool
+	private final ExecutorService executor;
+
+	// Requests waiting for a database thread, beyond which they are turned away with 503
+	private final int queueSize;
+
+	public AsyncCustomerController(@Value("${customer.async.threads:20}") int threads, @Value("${customer.async.queue:200}") int queueSize) {
+		AtomicInteger count = new AtomicInteger();
+		this.queueSize = queueSize;
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize), runnable -> {
+			Thread thread = new Thread(runnable, "async-customer-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Run a blocking call on the database threads, traced and routed as part of the request
+	 * @param call
+	 * @return its result, or its exception
+	 * @throws RejectedExecutionException if the queue for the database threads is full
+	 */
+	private <T> CompletableFuture<T> async(Callable<T> call) {
+		Callable<T> handedOff = ReadYourWrites.handOff(RequestTrace.handOff(call));
+		CompletableFuture<T> result = new CompletableFuture<T>();
+		executor.execute(() -> {
+			try {
+				result.complete(handedOff.call());
+			} catch (Exception e) {
+				result.completeExceptionally(e);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * SERVICE UNAVAILABLE when the database threads are busy and the queue for them is full
+	 * @param e
+	 * @return
+	 */
+	@ExceptionHandler(RejectedExecutionException.class)
+	public ResponseEntity<Void> busy(RejectedExecutionException e) {
+		logger.debug("Rejected, {} requests waiting for a database thread", queueSize);
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
+	}
+
+	/**
+	 * Search route: GET /async/customers
+	 * @param requestParams
+	 * @return
+	 */
+	@ApiOperation(value = "Search for customers without holding a servlet thread",
+		    notes = "As GET /customers")
+	@RequestMapping(method = RequestMethod.GET, value = "/customers", produces = "application/json")
+	public CompletableFuture<ResponseEntity<?>> search(@RequestParam Map<String,String> requestParams) {
+		return async(() -> customers.search(requestParams));
+	}
+
+	/**
+	 * Route to retrieve a customer: GET /async/customers/{id}
+	 * @param customerId
+	 * @return
+	 */
+	@ApiOperation(value = "Retrieve specific customer without holding a servlet thread",
+		    notes = "As GET /customers/{customerId}")
+	@RequestMapping(method = RequestMethod.GET, value = "/customers/{customerId}", produces = "application/json")
+	public CompletableFuture<ResponseEntity<Customer>> customer(@PathVariable Long customerId) {
+		return async(() -> customers.customer(customerId));
+	}
+
+	/**
+	 * Route to update every customer matching a search: PATCH /async/customers
+	 * @param requestParams
+	 * @param patch
+	 * @return
+	 */
+	@ApiOperation(value = "Update matching customers without holding a servlet thread",
+		    notes = "As PATCH /customers")
+	@RequestMapping(method = RequestMethod.PATCH, value = "/customers", produces = "application/json")
+	public CompletableFuture<ResponseEntity<Map<String, Long>>> bulkUpdate(@RequestParam Map<String,String> requestParams, @RequestBody Customer patch) {
+		return async(() -> customers.bulkUpdate(requestParams, patch));
+	}
+
+	/**
+	 * Route to delete every customer matching a search: DELETE /async/customers
+	 * @param requestParams
+	 * @return
+	 */
+	@ApiOperation(value = "Delete matching customers without holding a servlet thread",
+		    notes = "As DELETE /customers")
+	@RequestMapping(method = RequestMethod.DELETE, value = "/customers", produces = "application/json")
+	public CompletableFuture<ResponseEntity<Map<String, Long>>> bulkDelete(@RequestParam Map<String,String> requestParams) {
+		return async(() -> customers.bulkDelete(requestParams));
+	}
+
+	/**
+	 * Route to retrieve many customers at once: POST /async/customers/lookup
+	 * @param ids
+	 * @return
+	 */
+	@ApiOperation(value = "Retrieve many customers without holding a servlet thread",
+		    notes = "As POST /customers/lookup")
+	@RequestMapping(method = RequestMethod.POST, value = "/customers/lookup", produces = "application/json")
+	public CompletableFuture<ResponseEntity<CustomerLookup>> lookup(@RequestBody List<Long> ids) {
+		return async(() -> customers.lookup(ids));
+	}
+
+	/**
+	 * Route to create a customer: POST /async/customers
+	 * @param customer
+	 * @return
+	 */
+	@ApiOperation(value = "Create customer without holding a servlet thread",
+		    notes = "As POST /customers")
+	@RequestMapping(method = RequestMethod.POST, value = "/customers", produces = "application/json")
+	public CompletableFuture<ResponseEntity<Customer>> createCustomer(@Valid @RequestBody Customer customer) {
+		return async(() -> customers.createCustomer(customer));
+	}
+
+	/**
+	 * Route to update a customer: PUT /async/customers/{id}
+	 * @param customerId
+	 * @param customer
+	 * @return
+	 */
+	@ApiOperation(value = "Update existing customer without holding a servlet thread",
+		    notes = "As PUT /customers/{customerId}")
+	@RequestMapping(method = RequestMethod.PUT, value = "/customers/{customerId}", produces = "application/json")
+	public CompletableFuture<ResponseEntity<Customer>> updateCustomer(@PathVariable Long customerId, @RequestBody Customer customer) {
+		return async(() -> customers.updateCustomer(customerId, customer));
+	}
+
+	/**
+	 * Streamed search route: GET /async/customers/stream
+	 * Every customer matching the criteria, or the first limit of them, in id order, one JSON object per line
+	 * @param requestParams
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	@ApiOperation(value = "Stream every customer matching a search",
+		    notes = "Every customer matching the same criteria as GET /customers, or the first limit of them, in id order (sort=id only), as newline-delimited JSON; the next page is only read from the database once the client has received the last")
+	@RequestMapping(method = RequestMethod.GET, value = "/customers/stream", produces = "application/x-ndjson")
+	public void stream(@RequestParam Map<String,String> requestParams, HttpServletRequest request, HttpServletResponse response) throws IOException {
+		CustomerCriteria criteria = customers.criteria(requestParams);
+		// Streams are in id order, and may be cut short by any positive limit
+		String sort = requestParams.get("sort");
+		long limit = streamLimit(requestParams.get("limit"));
+		if (criteria == null || (sort != null && CustomerSort.parse(sort) != CustomerSort.ID) || limit < 0) {
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		logger.debug("/async/customers/stream GET {} limit {}", criteria, limit);
+
+		response.setContentType("application/x-ndjson");
+		AsyncContext async = request.startAsync();
+		async.setTimeout(0);
+		ServletOutputStream output = response.getOutputStream();
+		output.setWriteListener(new Stream(criteria, limit, async, response, output));
+	}
+
+	/**
+	 * @param limit
+	 * @return the limit, Long.MAX_VALUE if absent, or -1 if it is invalid
+	 */
+	private static long streamLimit(String limit) {
+		if (limit == null) {
+			return Long.MAX_VALUE;
+		}
+		try {
+			long value = Long.parseLong(limit);
+			return value < 1 ? -1 : value;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Writes a streamed search while the client keeps up, reading a page on the database threads each time the last
+	 * has been written; while the client isn't ready the container holds the connection without a thread
+	 */
+	private class Stream implements WriteListener {
+
+		private final CustomerCriteria criteria;
+		private final AsyncContext async;
+		private final HttpServletResponse response;
+		private final ServletOutputStream output;
+
+		// Customers still to be written
+		private long remaining;
+
+		// Next page to write, null while it is being read
+		private byte[] page;
+		private boolean reading;
+		private boolean last;
+		private long after = Long.MIN_VALUE;
+
+		Stream(CustomerCriteria criteria, long limit, AsyncContext async, HttpServletResponse response, ServletOutputStream output) {
+			this.criteria = criteria;
+			this.remaining = limit;
+			this.async = async;
+			this.response = response;
+			this.output = output;
+		}
+
+		@Override
+		public synchronized void onWritePossible() throws IOException {
+			while (output.isReady()) {
+				if (page != null) {
+					output.write(page);
+					page = null;
+				} else if (last) {
+					async.complete();
+					return;
+				} else {
+					if (!reading) {
+						reading = true;
+						try {
+							executor.execute(this::read);
+						} catch (RejectedExecutionException e) {
+							// Nothing written yet for the first page, so the client can be told to retry
+							if (!response.isCommitted()) {
+								response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+								response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+							}
+							onError(e);
+						}
+					}
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Read and encode the next page, then carry on writing on a container thread
+		 */
+		private void read() {
+			try {
+				int size = (int) Math.min(STREAM_PAGE, remaining);
+				List<Customer> found = repository.searchAfter(criteria, after, size);
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				for (Customer customer : found) {
+					mapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET).writeValue(bytes, customer);
+					bytes.write('\n');
+				}
+				synchronized (this) {
+					page = bytes.size() > 0 ? bytes.toByteArray() : null;
+					remaining -= found.size();
+					last = found.size() < size || remaining == 0;
+					if (!found.isEmpty()) {
+						after = found.get(found.size() - 1).getId();
+					}
+					reading = false;
+				}
+				async.start(() -> {
+					try {
+						onWritePossible();
+					} catch (IOException e) {
+						onError(e);
+					}
+				});
+			} catch (Exception e) {
+				onError(e);
+			}
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			logger.error("Stream of {} abandoned: {}", criteria, t.getMessage());
+			async.complete();
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package sshephard.customer;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+
+/**
+ * Second-level cache configuration
+ * Applies the configured sizes and time-to-live to the Hibernate cache regions, once Hibernate has created them
+ * @author s.shephard2
+ *
+ */
+@Configuration
+public class CacheConfig {
+
+	// Logger for customer.CacheConfig
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	// Entity region name is the fully qualified entity class name
+	public static final String ENTITY_REGION = Customer.class.getName();
+
+	// Hibernate is started first, so that the cache regions exist
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Value("${customer.cache.entity.max-entries:10000}")
+	private long entityMaxEntries;
+
+	@Value("${customer.cache.entity.time-to-live-seconds:600}")
+	private long entityTimeToLive;
+
+	@Value("${customer.cache.query.max-entries:1000}")
+	private long queryMaxEntries;
+
+	@Value("${customer.cache.query.time-to-live-seconds:60}")
+	private long queryTimeToLive;
+
+	/**
+	 * Resize the customer regions
+	 */
+	@PostConstruct
+	public void configureRegions() {
+		CacheManager cacheManager = CacheManager.getCacheManager("customer");
+		if (cacheManager == null) {
+			// Second-level cache is switched off
+			return;
+		}
+		configureRegion(cacheManager, ENTITY_REGION, entityMaxEntries, entityTimeToLive);
+		configureRegion(cacheManager, CustomerRepository.QUERY_CACHE_REGION, queryMaxEntries, queryTimeToLive);
+	}
+
+	private void configureRegion(CacheManager cacheManager, String region, long maxEntries, long timeToLive) {
+		Cache cache = cacheManager.getCache(region);
+		if (cache == null) {
+			logger.warn("No cache region {}", region);
+			return;
+		}
+		CacheConfiguration configuration = cache.getCacheConfiguration();
+		configuration.setMaxEntriesLocalHeap(maxEntries);
+		configuration.setTimeToLiveSeconds(timeToLive);
+		logger.info("Cache region {} maxEntries={} timeToLive={}s", region, maxEntries, timeToLive);
+	}
+}
@@ -0,0 +1,113 @@
+package sshephard.customer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive limit on concurrent requests, adjusted by additive increase/multiplicative decrease (AIMD)
+ * The limit grows by about one for each limit's worth of requests that finish within the target latency,
+ * and is cut by BACKOFF, at most once per target latency, when they take longer
+ * @author s.shephard2
+ *
+ */
+public class ConcurrencyLimit {
+
+	private static final double BACKOFF = 0.9;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final long targetNanos;
+
+	// All guarded by this
+	private double limit;
+	private int inFlight;
+	private long lastDecrease;
+	private long admitted;
+	private long rejected;
+	private long slow;
+
+	/**
+	 * @param initialLimit
+	 * @param minLimit
+	 * @param maxLimit
+	 * @param targetMillis latency above which the limit is reduced
+	 */
+	public ConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, long targetMillis) {
+		if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+			throw new IllegalArgumentException("Limits must satisfy 1 <= min <= initial <= max");
+		}
+		this.limit = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMillis);
+		this.lastDecrease = System.nanoTime() - targetNanos;
+	}
+
+	/**
+	 * @return true if the request may proceed, in which case release must be called when it finishes
+	 */
+	public synchronized boolean tryAcquire() {
+		if (inFlight >= (int) limit) {
+			rejected++;
+			return false;
+		}
+		inFlight++;
+		admitted++;
+		return true;
+	}
+
+	/**
+	 * @param startNanos System.nanoTime() when the request was admitted
+	 */
+	public synchronized void release(long startNanos) {
+		long now = System.nanoTime();
+		boolean saturated = inFlight * 2 >= limit;
+		inFlight--;
+
+		if (now - startNanos > targetNanos) {
+			slow++;
+			if (now - lastDecrease > targetNanos) {
+				limit = Math.max(minLimit, limit * BACKOFF);
+				lastDecrease = now;
+			}
+		} else if (saturated) {
+			// Only grow while the limit is actually being used
+			limit = Math.min(maxLimit, limit + 1.0 / limit);
+		}
+	}
+
+	/**
+	 * Release without adjusting the limit, for a request whose duration is set by the client rather than the server
+	 */
+	public synchronized void releaseUnmeasured() {
+		inFlight--;
+	}
+
+	/**
+	 * @return the current limit
+	 */
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	/**
+	 * @return requests in progress
+	 */
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * @return current limit, requests in progress and counts of admitted, rejected and slow requests
+	 */
+	public synchronized Map<String, Object> statistics() {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("limit", (int) limit);
+		statistics.put("inFlight", inFlight);
+		statistics.put("admitted", admitted);
+		statistics.put("rejected", rejected);
+		statistics.put("slow", slow);
+		return statistics;
+	}
+}
@@ -2,12 +2,14 @@ package sshephard.customer;
 
 import java.util.Date;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.EntityListeners;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 import javax.validation.constraints.NotNull;
@@ -15,9 +17,13 @@ import javax.validation.constraints.Past;
 import javax.validation.constraints.Pattern;
 import javax.validation.constraints.Size;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
 import org.hibernate.validator.constraints.Email;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import io.swagger.annotations.ApiModelProperty;
 
@@ -27,14 +33,28 @@ import io.swagger.annotations.ApiModelProperty;
  *
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+// Composite indexes with id let sorted, limited searches read in index order; the newest first index is in import.sql
+@Table(indexes = {
+	@Index(name = "customer_first_name_key", columnList = "first_name_key, id"),
+	@Index(name = "customer_last_name_key", columnList = "last_name_key, id"),
+	@Index(name = "customer_display_name_key", columnList = "display_name_key, id"),
+	@Index(name = "customer_birthdate", columnList = "birthdate, id"),
+	@Index(name = "customer_created_at", columnList = "created_at, id"),
+	@Index(name = "customer_updated_at", columnList = "updated_at, id"),
+	@Index(name = "customer_last_name", columnList = "last_name, id"),
+	@Index(name = "customer_first_name", columnList = "first_name, id")})
 @EntityListeners(CustomerListener.class)
 @UsernameEmail(email = "email", username = "username")
 public class Customer {
 
 	// An id that uniquely identifies the customer. This will be provided by the server when the customer is created and may not be changed.
+	// Generated by the application rather than the database, so that it is unique across shards
 	@Id
-	@GeneratedValue(strategy=GenerationType.AUTO)
-	@ApiModelProperty(notes = "Database generated customer id")
+	@GeneratedValue(generator = "customer_id")
+	@GenericGenerator(name = "customer_id", strategy = "sshephard.customer.CustomerIdGenerator")
+	@ApiModelProperty(notes = "Server generated customer id")
 	private Long id;
 	
 	// Username
@@ -78,6 +98,15 @@ public class Customer {
 	@ApiModelProperty(notes = "Automatically generated created date")
 	private Date created_at;
 	
+	/* 
+	 * The updated_at datetime when the customer was last changed, assigned by the system whenever the customer is saved.
+	 * Formatted as created_at; GET /customers/changes pages through customers in updated_at order.
+	 */
+	@JsonFormat(pattern="yyyy-MM-dd HH:mm:ss")
+	@Temporal(TemporalType.TIMESTAMP)
+	@ApiModelProperty(notes = "Automatically maintained last updated date")
+	private Date updated_at;
+	
 	/* 
 	 * The date of birth of the customer
 	 * It should be formatted 'YYYY-MM-DD' -- for example, '2016-11-08' for 'November 8, 2016'.
@@ -88,6 +117,19 @@ public class Customer {
 	@ApiModelProperty(notes = "Customer date of birth formatted YYYY-MM-DD")
 	private Date birthdate;
 	
+	// Phonetic keys for fuzzy name searches, set by CustomerListener whenever the customer is saved
+	@JsonIgnore
+	@Column(length = 6)
+	private String first_name_key;
+	
+	@JsonIgnore
+	@Column(length = 6)
+	private String last_name_key;
+	
+	@JsonIgnore
+	@Column(length = 6)
+	private String display_name_key;
+	
 	/**
 	 * Empty Javabeans constructor
 	 */
@@ -192,6 +234,20 @@ public class Customer {
 		this.created_at = created_at;
 	}
 	
+	/**
+	 * @return the updated_at
+	 */
+	public Date getUpdated_at() {
+		return updated_at;
+	}
+
+	/**
+	 * @param updated_at the updated_at to set
+	 */
+	public void setUpdated_at(Date updated_at) {
+		this.updated_at = updated_at;
+	}
+	
 	/**
 	 * @return the birthdate
 	 */
@@ -206,13 +262,55 @@ public class Customer {
 		this.birthdate = birthdate;
 	}
 
+	/**
+	 * @return the first_name_key
+	 */
+	public String getFirst_name_key() {
+		return first_name_key;
+	}
+
+	/**
+	 * @param first_name_key the first_name_key to set
+	 */
+	public void setFirst_name_key(String first_name_key) {
+		this.first_name_key = first_name_key;
+	}
+
+	/**
+	 * @return the last_name_key
+	 */
+	public String getLast_name_key() {
+		return last_name_key;
+	}
+
+	/**
+	 * @param last_name_key the last_name_key to set
+	 */
+	public void setLast_name_key(String last_name_key) {
+		this.last_name_key = last_name_key;
+	}
+
+	/**
+	 * @return the display_name_key
+	 */
+	public String getDisplay_name_key() {
+		return display_name_key;
+	}
+
+	/**
+	 * @param display_name_key the display_name_key to set
+	 */
+	public void setDisplay_name_key(String display_name_key) {
+		this.display_name_key = display_name_key;
+	}
+
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
 	@Override
 	public String toString() {
 		return "Customer [id=" + id + ", username=" + username + ", email=" + email + ", first_name=" + first_name
-				+ ", last_name=" + last_name + ", display_name=" + display_name + ", created_at=" + created_at
+				+ ", last_name=" + last_name + ", display_name=" + display_name + ", created_at=" + created_at + ", updated_at=" + updated_at
 				+ ", birthdate=" + birthdate + "]";
 	}
 
@@ -0,0 +1,308 @@
+package sshephard.customer;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Cold tier for customers: moves customers out of the customer table into customer_archive,
+ * and finds and searches them there when asked to
+ * In sharded mode each shard archives its own customers into its own customer_archive table
+ * @author s.shephard2
+ *
+ */
+@Component
+public class CustomerArchive {
+
+	// Logger for customer.CustomerArchive
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	// Most customers moved in one transaction, and most archived customers read at a time by a search
+	static final int CHUNK = 500;
+
+	// Sorts on columns of customer_archive, rather than on names in its deflated payload
+	private static final Set<CustomerSort> COLUMN_SORTS = EnumSet.of(CustomerSort.ID,
+			CustomerSort.CREATED_AT, CustomerSort.CREATED_AT_DESC, CustomerSort.BIRTHDATE, CustomerSort.BIRTHDATE_DESC);
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private ApplicationEventPublisher publisher;
+
+	@Autowired
+	private CustomerTombstones tombstones;
+
+	@Autowired
+	private DataSource dataSource;
+
+	// null unless sharded
+	private ShardRoutingDataSource shards;
+
+	@PostConstruct
+	public void init() throws SQLException {
+		if (dataSource.isWrapperFor(ShardRoutingDataSource.class)) {
+			shards = dataSource.unwrap(ShardRoutingDataSource.class);
+		}
+	}
+
+	/**
+	 * Move every customer created before a date into the archive, a chunk at a time
+	 * @param createdBefore
+	 * @return the number of customers archived
+	 */
+	public long archive(Date createdBefore) throws Exception {
+		long total = 0;
+		for (Long archived : onEveryShard(() -> archiveShard(createdBefore))) {
+			total += archived;
+		}
+		if (total > 0) {
+			logger.info("Archived {} customers created before {}", total, createdBefore);
+		}
+		return total;
+	}
+
+	private long archiveShard(Date createdBefore) {
+		TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+		long total = 0;
+		while (true) {
+			List<Long> ids = transaction.execute(status -> {
+				Date now = new Date();
+				List<Long> moved = new ArrayList<Long>();
+				for (Customer customer : entityManager.createQuery("SELECT c FROM Customer c WHERE c.created_at < :before ORDER BY c.id", Customer.class)
+						.setParameter("before", createdBefore)
+						.setMaxResults(CHUNK)
+						.getResultList()) {
+					entityManager.persist(ArchivedCustomer.of(customer, now));
+					moved.add(customer.getId());
+				}
+				if (!moved.isEmpty()) {
+					// Set-based delete, which also evicts the customers from the second-level cache
+					entityManager.createQuery("DELETE FROM Customer c WHERE c.id IN :ids")
+							.setParameter("ids", moved)
+							.executeUpdate();
+					// Incremental sync sees archived customers leave, as it does deleted ones
+					tombstones.record(entityManager, moved);
+				}
+				return moved;
+			});
+			if (ids.isEmpty()) {
+				return total;
+			}
+			total += ids.size();
+
+			// Archived customers leave the full-text index, which only covers the customer table
+			for (Long id : ids) {
+				publisher.publishEvent(CustomerChangedEvent.deleted(id));
+			}
+		}
+	}
+
+	/**
+	 * @param id
+	 * @return the archived customer, or null if there is none
+	 */
+	public Customer findById(Long id) throws Exception {
+		Callable<ArchivedCustomer> find = () -> entityManager.find(ArchivedCustomer.class, id);
+		ArchivedCustomer archived = shards == null ? find.call() : ShardContext.call(shards.shardFor(id), find);
+		return archived == null ? null : archived.toCustomer();
+	}
+
+	/**
+	 * @param ids
+	 * @return the archived customers among the ids, in no particular order
+	 */
+	public List<Customer> findByIds(Collection<Long> ids) throws Exception {
+		List<Customer> found = new ArrayList<Customer>();
+		for (List<ArchivedCustomer> archived : onEveryShard(() -> entityManager.createQuery(
+				"SELECT a FROM ArchivedCustomer a WHERE a.id IN :ids", ArchivedCustomer.class).setParameter("ids", ids).getResultList())) {
+			for (ArchivedCustomer customer : archived) {
+				found.add(customer.toCustomer());
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Whether any other customer, current or archived, has the username or email, with one query to each shard
+	 * @param id the customer's own id, null for a new customer
+	 * @param username
+	 * @param email
+	 * @return true if either is taken
+	 */
+	public boolean isTaken(Long id, String username, String email) throws Exception {
+		StringBuilder where = new StringBuilder();
+		if (username != null && !username.isEmpty()) {
+			where.append("username = :username");
+		}
+		if (email != null && !email.isEmpty()) {
+			where.append(where.length() > 0 ? " OR " : "").append("email = :email");
+		}
+		if (where.length() == 0) {
+			return false;
+		}
+		String others = " WHERE (" + where + ")" + (id == null ? "" : " AND id <> :id");
+		String sql = "SELECT COUNT(*) FROM (SELECT id FROM customer" + others + " UNION ALL SELECT id FROM customer_archive" + others + ")";
+		for (Number count : onEveryShard(() -> {
+			Query query = entityManager.createNativeQuery(sql);
+			if (username != null && !username.isEmpty()) {
+				query.setParameter("username", username);
+			}
+			if (email != null && !email.isEmpty()) {
+				query.setParameter("email", email);
+			}
+			if (id != null) {
+				query.setParameter("id", id);
+			}
+			return (Number) query.getSingleResult();
+		})) {
+			if (count.longValue() > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Search the archive; every criterion but the name is applied by the database, the name to each inflated customer
+	 * @param criteria
+	 * @return the matching archived customers, in the search's order and within its limit on each shard
+	 */
+	public List<Customer> search(CustomerCriteria criteria) throws Exception {
+		List<Customer> found = new ArrayList<Customer>();
+		for (List<Customer> customers : onEveryShard(() -> searchShard(criteria))) {
+			found.addAll(customers);
+		}
+		return found;
+	}
+
+	private List<Customer> searchShard(CustomerCriteria criteria) {
+		StringBuilder where = new StringBuilder();
+		if (criteria.getUsername() != null) {
+			where.append(" AND LOWER(a.username) LIKE :username");
+		}
+		if (criteria.getEmail() != null) {
+			where.append(" AND LOWER(a.email) LIKE :email");
+		}
+		if (criteria.getBorn_after() != null) {
+			where.append(" AND a.birthdate >= :born_after");
+		}
+		if (criteria.getBorn_before() != null) {
+			where.append(" AND a.birthdate < :born_before");
+		}
+		if (criteria.getCreated_after() != null) {
+			where.append(" AND a.created_at >= :created_after");
+		}
+		if (criteria.getCreated_before() != null) {
+			where.append(" AND a.created_at < :created_before");
+		}
+		CustomerSort sort = criteria.getSort() == null ? CustomerSort.ID : criteria.getSort();
+		Integer limit = criteria.getLimit();
+
+		// Without a name to match, and sorted by a column, the database sorts and cuts the results itself
+		if (criteria.getName() == null && COLUMN_SORTS.contains(sort)) {
+			TypedQuery<ArchivedCustomer> query = entityManager.createQuery("SELECT a FROM ArchivedCustomer a WHERE 1 = 1" + where
+					+ " ORDER BY " + sort.orderBy().replace("c.", "a."), ArchivedCustomer.class);
+			if (limit != null) {
+				query.setMaxResults(limit);
+			}
+			CustomerSearchQueries.bind(query, columns(criteria));
+			List<Customer> found = new ArrayList<Customer>();
+			for (ArchivedCustomer archived : query.getResultList()) {
+				found.add(archived.toCustomer());
+			}
+			return found;
+		}
+
+		// Otherwise a chunk at a time in id order, keeping no more than the limit of the matches in the search's order
+		String jpql = "SELECT a FROM ArchivedCustomer a WHERE a.id > :after" + where + " ORDER BY a.id";
+		List<Customer> found = new ArrayList<Customer>();
+		long after = Long.MIN_VALUE;
+		while (true) {
+			TypedQuery<ArchivedCustomer> query = entityManager.createQuery(jpql, ArchivedCustomer.class)
+					.setParameter("after", after)
+					.setMaxResults(CHUNK);
+			CustomerSearchQueries.bind(query, columns(criteria));
+			List<ArchivedCustomer> chunk = query.getResultList();
+			for (ArchivedCustomer archived : chunk) {
+				Customer customer = archived.toCustomer();
+				if (matches(customer, criteria)) {
+					found.add(customer);
+				}
+			}
+			if (limit != null && found.size() > limit) {
+				found.sort(sort.comparator());
+				found = new ArrayList<Customer>(found.subList(0, limit));
+			}
+			if (chunk.size() < CHUNK) {
+				found.sort(sort.comparator());
+				return found;
+			}
+			after = chunk.get(chunk.size() - 1).getId();
+		}
+	}
+
+	/**
+	 * @return the criteria other than the name, for binding to the archive query
+	 */
+	private static CustomerCriteria columns(CustomerCriteria criteria) {
+		CustomerCriteria columns = new CustomerCriteria();
+		columns.setUsername(criteria.getUsername());
+		columns.setEmail(criteria.getEmail());
+		columns.setBorn_after(criteria.getBorn_after());
+		columns.setBorn_before(criteria.getBorn_before());
+		columns.setCreated_after(criteria.getCreated_after());
+		columns.setCreated_before(criteria.getCreated_before());
+		return columns;
+	}
+
+	/**
+	 * The name criterion, with the same partial, case-insensitive matching as CustomerSearchQueries
+	 */
+	private static boolean matches(Customer customer, CustomerCriteria criteria) {
+		return criteria.getName() == null || contains(customer.getFirst_name(), criteria.getName())
+				|| contains(customer.getLast_name(), criteria.getName()) || contains(customer.getDisplay_name(), criteria.getName());
+	}
+
+	private static boolean contains(String value, String part) {
+		return value != null && value.toLowerCase().contains(part);
+	}
+
+	/**
+	 * Run work on each shard in turn, or just once if not sharded
+	 */
+	private <T> List<T> onEveryShard(Callable<T> work) throws Exception {
+		List<T> results = new ArrayList<T>();
+		if (shards == null) {
+			results.add(work.call());
+		} else {
+			for (int shard = 0; shard < shards.getShardCount(); shard++) {
+				results.add(ShardContext.call(shard, work));
+			}
+		}
+		return results;
+	}
+}
@@ -0,0 +1,48 @@
+package sshephard.customer;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Background archival, enabled by customer.archive.enabled=true
+ * Periodically moves customers created more than customer.archive.created-before-days ago into the archive
+ * @author s.shephard2
+ *
+ */
+@Component
+@ConditionalOnProperty(prefix = "customer.archive", name = "enabled")
+public class CustomerArchiveJob {
+
+	// Logger for customer.CustomerArchiveJob
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private CustomerArchive archive;
+
+	private final long createdBeforeDays;
+
+	/**
+	 * @param createdBeforeDays age in days at which customers are archived
+	 */
+	public CustomerArchiveJob(@Value("${customer.archive.created-before-days:1825}") long createdBeforeDays) {
+		this.createdBeforeDays = createdBeforeDays;
+	}
+
+	@Scheduled(initialDelayString = "${customer.archive.interval-millis:3600000}", fixedDelayString = "${customer.archive.interval-millis:3600000}")
+	public void archive() {
+		Date createdBefore = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(createdBeforeDays));
+		try {
+			archive.archive(createdBefore);
+		} catch (Exception e) {
+			logger.error("Archiving customers created before {} failed", createdBefore, e);
+		}
+	}
+}
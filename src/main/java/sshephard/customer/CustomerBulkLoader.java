@@ -0,0 +1,123 @@
+package sshephard.customer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Loads generated customers straight into the customer table with batched JDBC inserts,
+ * bypassing Hibernate, and routing each to its shard when sharded
+ * Afterwards the caches are cleared and the search index rebuilt, since neither saw the inserts
+ * @author s.shephard2
+ *
+ */
+@Component
+public class CustomerBulkLoader {
+
+	// Logger for customer.CustomerBulkLoader
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private static final String INSERT = "INSERT INTO customer (id, username, email, first_name, last_name, display_name, "
+			+ "created_at, updated_at, birthdate, first_name_key, last_name_key, display_name_key) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	// Rows per batch, committed together
+	private static final int BATCH_SIZE = 5000;
+
+	@Autowired
+	private DataSource dataSource;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private CustomerSearchIndex searchIndex;
+
+	@Autowired
+	private CustomerSuggestions suggestions;
+
+	// Absent unless customer.analytics.enabled=true
+	@Autowired(required = false)
+	private CustomerSnapshot snapshot;
+
+	/**
+	 * @param generator
+	 * @param rows number of customers to load
+	 * @return rows loaded per second
+	 */
+	public double load(CustomerDataGenerator generator, long rows) throws Exception {
+		long start = System.nanoTime();
+		List<DataSource> shards = ShardRoutingDataSource.shardsOf(dataSource);
+		ShardRoutingDataSource router = shards.size() > 1 ? ShardRoutingDataSource.unwrap(dataSource) : null;
+
+		List<Connection> connections = new ArrayList<Connection>();
+		List<PreparedStatement> inserts = new ArrayList<PreparedStatement>();
+		int[] batched = new int[shards.size()];
+		try {
+			for (DataSource shard : shards) {
+				Connection connection = shard.getConnection();
+				connections.add(connection);
+				connection.setAutoCommit(false);
+				inserts.add(connection.prepareStatement(INSERT));
+			}
+
+			for (long row = 0; row < rows; row++) {
+				Customer customer = generator.next();
+				int shard = router == null ? 0 : router.shardFor(customer.getId());
+				bind(inserts.get(shard), customer);
+				if (++batched[shard] == BATCH_SIZE) {
+					inserts.get(shard).executeBatch();
+					connections.get(shard).commit();
+					batched[shard] = 0;
+				}
+			}
+			for (int shard = 0; shard < shards.size(); shard++) {
+				if (batched[shard] > 0) {
+					inserts.get(shard).executeBatch();
+				}
+				connections.get(shard).commit();
+			}
+		} finally {
+			for (Connection connection : connections) {
+				connection.close();
+			}
+		}
+		double rate = rows / ((System.nanoTime() - start) / 1e9);
+		logger.info("Loaded {} generated customers at {} per second", rows, Math.round(rate));
+
+		entityManagerFactory.unwrap(SessionFactory.class).getCache().evictAllRegions();
+		searchIndex.rebuild();
+		suggestions.rebuild();
+		if (snapshot != null) {
+			snapshot.rebuild();
+		}
+		return rate;
+	}
+
+	private static void bind(PreparedStatement insert, Customer customer) throws SQLException {
+		insert.setLong(1, customer.getId());
+		insert.setString(2, customer.getUsername());
+		insert.setString(3, customer.getEmail());
+		insert.setString(4, customer.getFirst_name());
+		insert.setString(5, customer.getLast_name());
+		insert.setString(6, customer.getDisplay_name());
+		insert.setTimestamp(7, new Timestamp(customer.getCreated_at().getTime()));
+		insert.setTimestamp(8, new Timestamp(customer.getUpdated_at().getTime()));
+		insert.setDate(9, new java.sql.Date(customer.getBirthdate().getTime()));
+		insert.setString(10, customer.getFirst_name_key());
+		insert.setString(11, customer.getLast_name_key());
+		insert.setString(12, customer.getDisplay_name_key());
+		insert.addBatch();
+	}
+}
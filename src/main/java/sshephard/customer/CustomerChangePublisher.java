@@ -0,0 +1,94 @@
+package sshephard.customer;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.internal.SessionFactoryImpl;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes a CustomerChangedEvent for every customer insert, update and delete, once it has been committed
+ * Registered as a Hibernate post-commit listener, so that in-memory indexes never see rolled back changes
+ * @author s.shephard2
+ *
+ */
+@Component
+public class CustomerChangePublisher implements PostCommitInsertEventListener, PostCommitUpdateEventListener, PostCommitDeleteEventListener {
+
+	private static final long serialVersionUID = 1L;
+
+	@Autowired
+	private transient EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private transient ApplicationEventPublisher publisher;
+
+	@PostConstruct
+	public void register() {
+		EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImpl.class)
+				.getServiceRegistry().getService(EventListenerRegistry.class);
+		registry.appendListeners(EventType.POST_COMMIT_INSERT, this);
+		registry.appendListeners(EventType.POST_COMMIT_UPDATE, this);
+		registry.appendListeners(EventType.POST_COMMIT_DELETE, this);
+	}
+
+	/**
+	 * Publish changes made outside Hibernate's entity lifecycle, e.g. by bulk updates
+	 * @param event
+	 */
+	public void publish(CustomerChangedEvent event) {
+		publisher.publishEvent(event);
+	}
+
+	@Override
+	public void onPostInsert(PostInsertEvent event) {
+		if (event.getEntity() instanceof Customer) {
+			publish(CustomerChangedEvent.saved((Customer) event.getEntity()));
+		}
+	}
+
+	@Override
+	public void onPostUpdate(PostUpdateEvent event) {
+		if (event.getEntity() instanceof Customer) {
+			publish(CustomerChangedEvent.saved((Customer) event.getEntity()));
+		}
+	}
+
+	@Override
+	public void onPostDelete(PostDeleteEvent event) {
+		if (event.getEntity() instanceof Customer) {
+			publish(CustomerChangedEvent.deleted((Long) event.getId()));
+		}
+	}
+
+	@Override
+	public boolean requiresPostCommitHanding(EntityPersister persister) {
+		return persister.getMappedClass() == Customer.class;
+	}
+
+	@Override
+	public void onPostInsertCommitFailed(PostInsertEvent event) {
+		// Nothing was published for the insert
+	}
+
+	@Override
+	public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+		// Nothing was published for the update
+	}
+
+	@Override
+	public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+		// Nothing was published for the delete
+	}
+}
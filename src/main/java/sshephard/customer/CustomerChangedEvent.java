@@ -0,0 +1,56 @@
+package sshephard.customer;
+
+/**
+ * Application event for a customer that has been saved or deleted, published after the transaction commits
+ * @author s.shephard2
+ *
+ */
+public class CustomerChangedEvent {
+
+	private final Long id;
+
+	// The customer as saved, null if deleted
+	private final Customer customer;
+
+	private CustomerChangedEvent(Long id, Customer customer) {
+		this.id = id;
+		this.customer = customer;
+	}
+
+	/**
+	 * @param customer the customer as saved
+	 * @return
+	 */
+	public static CustomerChangedEvent saved(Customer customer) {
+		return new CustomerChangedEvent(customer.getId(), customer);
+	}
+
+	/**
+	 * @param id the id of the deleted customer
+	 * @return
+	 */
+	public static CustomerChangedEvent deleted(Long id) {
+		return new CustomerChangedEvent(id, null);
+	}
+
+	/**
+	 * @return the id
+	 */
+	public Long getId() {
+		return id;
+	}
+
+	/**
+	 * @return the customer as saved, or null if deleted
+	 */
+	public Customer getCustomer() {
+		return customer;
+	}
+
+	/**
+	 * @return true if the customer was deleted
+	 */
+	public boolean isDeleted() {
+		return customer == null;
+	}
+}
@@ -0,0 +1,93 @@
+package sshephard.customer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Separate entity for a page of incremental sync results
+ * @author s.shephard2
+ *
+ */
+public class CustomerChanges {
+
+	// Customers changed since the token given, in (updated_at, id) order
+	private List<Customer> customers;
+
+	// Ids of customers deleted or archived since the token given, in the order they were removed
+	private List<Long> deleted;
+
+	// Token to pass as since for the changes after these, up to the settle time once there are no more
+	private String next;
+
+	protected CustomerChanges() {
+	}
+
+	/**
+	 * @param updatedAt updated_at of a customer, or deleted_at of a removal
+	 * @param id
+	 * @return an opaque token for the position just after the change at this time to this id
+	 */
+	static String token(Date updatedAt, long id) {
+		String position = updatedAt.getTime() + "." + id;
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param token
+	 * @return the updated_at millis and id the token was made from
+	 * @throws IllegalArgumentException if it is not a token
+	 */
+	static long[] position(String token) {
+		String position = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+		int dot = position.indexOf('.');
+		if (dot < 0) {
+			throw new IllegalArgumentException("Not a changes token: " + token);
+		}
+		return new long[] {Long.parseLong(position.substring(0, dot)), Long.parseLong(position.substring(dot + 1))};
+	}
+
+	/**
+	 * @return the customers
+	 */
+	public List<Customer> getCustomers() {
+		return customers;
+	}
+
+	/**
+	 * @param customers the customers to set
+	 */
+	public void setCustomers(List<Customer> customers) {
+		this.customers = customers;
+	}
+
+	/**
+	 * @return the ids of the customers removed
+	 */
+	public List<Long> getDeleted() {
+		return deleted;
+	}
+
+	/**
+	 * @param deleted the ids of the customers removed to set
+	 */
+	public void setDeleted(List<Long> deleted) {
+		this.deleted = deleted;
+	}
+
+	/**
+	 * @return the token for the next page
+	 */
+	public String getNext() {
+		return next;
+	}
+
+	/**
+	 * @param next the token for the next page to set
+	 */
+	public void setNext(String next) {
+		this.next = next;
+	}
+
+}
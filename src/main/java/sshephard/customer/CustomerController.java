@@ -1,20 +1,27 @@
 package sshephard.customer;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import javax.validation.Valid;
+import javax.validation.Validation;
+import javax.validation.Validator;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeanWrapperImpl;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.jpa.domain.Specification;
-import org.springframework.data.jpa.domain.Specifications;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -35,11 +42,48 @@ import io.swagger.annotations.ApiOperation;
 @Api(value="customers")
 public class CustomerController {
 	
-	// Logger for customer.CustomerController
+	// Logger for customer.CustomerController, at debug level since every request is recorded by RequestLogFilter
+	// Customers are passed as arguments rather than with toString(), so that they are only formatted when debug is enabled
 	private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
+	// Default and maximum number of results for a ranked or sorted search
+	private static final int DEFAULT_LIMIT = 20;
+	private static final int MAX_LIMIT = 100;
+
+	// Fields a bulk update may set
+	private static final String[] PATCH_FIELDS = {"first_name", "last_name", "display_name", "birthdate"};
+
+	// Checks the fields a bulk update sets against the Customer constraints
+	private final Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+
+	// Most ids in one multi-get
+	static final int MAX_LOOKUP_IDS = 1000;
+
+	// Most customers in a page of changes
+	private static final int MAX_CHANGES = 1000;
+
+	// Changes are only listed once they are this old, so that a page never passes over a change still being committed
+	@Value("${customer.changes.settle-millis:1000}")
+	private long changesSettleMillis;
+	
+	// Tombstones are purged once this old, so an older token may have missed removals and is refused
+	@Value("${customer.changes.tombstone-retention-days:30}")
+	private long tombstoneRetentionDays;
+
 	@Autowired
 	private CustomerRepository repository;
+
+	@Autowired
+	private CustomerReadCoalescer reads;
+	
+	@Autowired
+	private CustomerSearchIndex searchIndex;
+	
+	@Autowired
+	private CustomerArchive archive;
+	
+	@Autowired
+	private CustomerSuggestions suggestions;
 	
 	/**
 	 * Health check route: GET / returns success
@@ -49,7 +93,7 @@ public class CustomerController {
 		    notes = "Returns OK status")
 	@RequestMapping(method = RequestMethod.GET, value = "/", produces = "application/json")
 	public ResponseEntity<?> healthCheck() {
-		logger.info("/ GET");
+		logger.debug("/ GET");
 		return ResponseEntity.ok().build();
 	}
 	
@@ -59,68 +103,297 @@ public class CustomerController {
 	 * @return
 	 */
 	@ApiOperation(value = "Search for customers",
-		    notes = "Search by any combination of name, username, email and born_after",
+		    notes = "Search by any combination of name, username, email, born_after, born_before, created_after and created_before (archived customers too with include_archived=true), optionally sorted by sort=field or sort=-field and cut to limit results, or full-text by q or phonetically by fuzzy_name (ranked, up to limit results); ids=1,2,3 fetches customers by id as POST /customers/lookup does",
 		    response = Customer.class,
 		    responseContainer = "List")
 	@RequestMapping(method = RequestMethod.GET, value = "/customers", produces = "application/json")
-	public ResponseEntity<CustomerSearch> search(@RequestParam Map<String,String> requestParams) {
-		logger.info("/customers GET");
+	public ResponseEntity<?> search(@RequestParam Map<String,String> requestParams) throws Exception {
+		logger.debug("/customers GET");
+		
+		// ids (comma separated, a multi-get rather than a search)
+		String ids = requestParams.get("ids");
+		if (ids != null) {
+			logger.debug("ids={}", ids);
+			List<Long> requested = new ArrayList<Long>();
+			try {
+				for (String id : ids.split(",")) {
+					requested.add(Long.valueOf(id.trim()));
+				}
+			} catch (NumberFormatException e) {
+				return ResponseEntity.badRequest().build();
+			}
+			return lookup(requested);
+		}
+		
+		// q (full-text search over names, username and email, most relevant first)
+		String q = requestParams.get("q");
+		if (q != null && !q.isEmpty()) {
+			logger.debug("q={}", q);
+			int limit = limit(requestParams);
+			if (limit < 0) {
+				return ResponseEntity.badRequest().build();
+			}
+			
+			// Ranked ids from the index, then hydrate them all with one query
+			List<Long> ranked = searchIndex.search(q, limit);
+			List<Customer> customers = new ArrayList<Customer>(ranked.size());
+			if (!ranked.isEmpty()) {
+				Map<Long, Customer> found = new HashMap<Long, Customer>();
+				for (Customer customer : repository.findByIdIn(ranked)) {
+					found.put(customer.getId(), customer);
+				}
+				for (Long id : ranked) {
+					if (found.containsKey(id)) {
+						customers.add(found.get(id));
+					}
+				}
+			}
+			CustomerSearch searchResult = new CustomerSearch();
+			searchResult.setCustomers(customers);
+			return ResponseEntity.ok().body(searchResult);
+		}
+		
+		// fuzzy_name (phonetic match against any of the first name, last name, and display name, closest first)
+		String fuzzy_name = requestParams.get("fuzzy_name");
+		if (fuzzy_name != null && !fuzzy_name.trim().isEmpty()) {
+			logger.debug("fuzzy_name={}", fuzzy_name);
+			int limit = limit(requestParams);
+			if (limit < 0) {
+				return ResponseEntity.badRequest().build();
+			}
+			
+			CustomerSearch searchResult = new CustomerSearch();
+			searchResult.setCustomers(repository.findByFuzzyName(fuzzy_name, limit));
+			return ResponseEntity.ok().body(searchResult);
+		}
+		
+		// Criteria, a BAD REQUEST error if there are none or any is invalid
+		CustomerCriteria criteria = criteria(requestParams);
+		if (criteria == null) {
+			return ResponseEntity.badRequest().build();
+		}
+		
+		// sort (last_name, first_name, created_at, birthdate or id, prefixed with - for descending)
+		String sort = requestParams.get("sort");
+		if (sort != null && !sort.isEmpty()) {
+			logger.debug("sort={}", sort);
+			criteria.setSort(CustomerSort.parse(sort));
+			if (criteria.getSort() == null) {
+				return ResponseEntity.badRequest().build();
+			}
+		}
+		
+		// limit (the first results only, in id order unless sorted otherwise)
+		if (requestParams.containsKey("limit")) {
+			int limit = limit(requestParams);
+			if (limit < 0) {
+				return ResponseEntity.badRequest().build();
+			}
+			criteria.setLimit(limit);
+			if (criteria.getSort() == null) {
+				criteria.setSort(CustomerSort.ID);
+			}
+		}
 		
-		List<Specification<Customer>> searchSpecifications = new ArrayList<Specification<Customer>>();
+		// Search with the precompiled query for this combination of criteria, shared with identical searches in flight
+        CustomerSearch searchResult = new CustomerSearch();
+        try {
+            searchResult.setCustomers(reads.search(criteria));
+        } catch (TooManyResultsException e) {
+            // Sharded, with more results than the shards return at once: the caller is told the most it can have
+            logger.error("{} for {}", e.getMessage(), criteria);
+            return ResponseEntity.badRequest().header("X-Max-Results", Integer.toString(e.getMaxResults())).build();
+        }
+        
+        // include_archived (archived customers too, after the others unless sorted)
+        if (Boolean.parseBoolean(requestParams.get("include_archived"))) {
+            List<Customer> customers = new ArrayList<Customer>(searchResult.getCustomers());
+            customers.addAll(archive.search(criteria));
+            if (criteria.getSort() != null) {
+                customers.sort(criteria.getSort().comparator());
+            }
+            if (criteria.getLimit() != null && customers.size() > criteria.getLimit()) {
+                customers = customers.subList(0, criteria.getLimit());
+            }
+            searchResult.setCustomers(customers);
+        }
+        return ResponseEntity.ok().body(searchResult);
+        
+	}
+	
+	/**
+	 * Criteria for a search, bulk update, bulk delete or streamed search, from the same request parameters
+	 * @param requestParams
+	 * @return the criteria, or null if there are none or any is invalid
+	 */
+	CustomerCriteria criteria(Map<String,String> requestParams) {
+		CustomerCriteria criteria = new CustomerCriteria();
 		
 		// name (which is a partial match against any of the first name, last name, and display name)
 		String name = requestParams.get("name");
 		if (name != null && !name.isEmpty()) {
-			logger.info("name={}", name);
-			// Add partial match of name to the list of search criteria
-			searchSpecifications.add(CustomerSpecifications.partialMatchName(name));
+			logger.debug("name={}", name);
+			criteria.setName(name);
 		}
 		
 		// username (partial match)
 		String username = requestParams.get("username");
 		if (username != null && !username.isEmpty()) {
-			logger.info("username={}", username);
-			// Add partial match of username to the list of search criteria
-			searchSpecifications.add(CustomerSpecifications.partialMatchUsername(username));
+			logger.debug("username={}", username);
+			criteria.setUsername(username);
 		}
 		
 		// email (partial match)
 		String email = requestParams.get("email");
 		if (email != null && !email.isEmpty()) {
-			logger.info("email={}", email);
-			// Add partial match of email to the list of search criteria
-			searchSpecifications.add(CustomerSpecifications.partialMatchEmail(email));
+			logger.debug("email={}", email);
+			criteria.setEmail(email);
+		}
+		
+		// Dates formatted YYYY-MM-DD, invalid if any can't be parsed
+		try {
+			// born_after (customers born on or after a particular date)
+			criteria.setBorn_after(dateParam(requestParams, "born_after"));
+			
+			// born_before (customers born before a particular date)
+			criteria.setBorn_before(dateParam(requestParams, "born_before"));
+			
+			// created_after (customers added on or after a particular date)
+			criteria.setCreated_after(dateParam(requestParams, "created_after"));
+			
+			// created_before (customers added before a particular date)
+			criteria.setCreated_before(dateParam(requestParams, "created_before"));
+		} catch (DateTimeParseException e) {
+			logger.error("Can't parse date {}", e.getParsedString());
+			return null;
+		}
+		
+		// No criteria at all is also an error
+		return criteria.isEmpty() ? null : criteria;
+	}
+	
+	/**
+	 * @param requestParams
+	 * @param name
+	 * @return the date parameter, or null if absent
+	 * @throws DateTimeParseException if it is not a valid YYYY-MM-DD date
+	 */
+	private Date dateParam(Map<String,String> requestParams, String name) {
+		String value = requestParams.get(name);
+		if (value == null || value.isEmpty()) {
+			return null;
+		}
+		logger.debug("{}={}", name, value);
+		return SearchDates.parse(value);
+	}
+	
+	/**
+	 * @param requestParams
+	 * @return the limit parameter for ranked and sorted searches, its default if absent, or -1 if it is invalid
+	 */
+	private static int limit(Map<String,String> requestParams) {
+		String limit = requestParams.get("limit");
+		if (limit == null) {
+			return DEFAULT_LIMIT;
+		}
+		try {
+			int value = Integer.parseInt(limit);
+			return value < 1 || value > MAX_LIMIT ? -1 : value;
+		} catch (NumberFormatException e) {
+			return -1;
 		}
+	}
+	
+	/**
+	 * Incremental sync route: GET /customers/changes?since=...
+	 * @param since token from the previous page, absent for the first
+	 * @param limit
+	 * @return
+	 */
+	@ApiOperation(value = "Customers changed since a token",
+		    notes = "Customers created or updated after the position of the since token (from the start if absent), oldest change first, and the ids of customers deleted or archived since, up to limit (default 100, at most 1000) of either, with the token for the next page; GONE if the token is older than customer.changes.tombstone-retention-days, when the sync must start again")
+	@RequestMapping(method = RequestMethod.GET, value = "/customers/changes", produces = "application/json")
+	public ResponseEntity<CustomerChanges> changes(@RequestParam(required = false) String since, @RequestParam(defaultValue = "100") int limit) {
 		
-		// born_after (date formatted YYYY-MM-DD that will return customers who started on or after a particular date)
-		String born_after = requestParams.get("born_after");
-		if (born_after != null && !born_after.isEmpty()) {
-			logger.info("born_after={}", born_after);
-			DateFormat df = new SimpleDateFormat("yyyy-MM-dd");
+		logger.debug("/customers/changes GET since={} limit={}", since, limit);
+		if (limit < 1 || limit > MAX_CHANGES) {
+			return ResponseEntity.badRequest().build();
+		}
+		Date afterUpdatedAt = null;
+		long afterId = 0;
+		if (since != null && !since.isEmpty()) {
 			try {
-				Date born_after_date = df.parse(born_after);
-				// Add search for started on or after given date to list of search criteria
-				searchSpecifications.add(CustomerSpecifications.bornAfter(born_after_date));
-			} catch (ParseException e) {
-				logger.error("Can't parse date {}", born_after);
+				long[] position = CustomerChanges.position(since);
+				afterUpdatedAt = new Date(position[0]);
+				afterId = position[1];
+			} catch (IllegalArgumentException e) {
+				logger.error("Invalid changes token {}", since);
+				return ResponseEntity.badRequest().build();
+			}
+			if (tombstoneRetentionDays > 0
+					&& afterUpdatedAt.getTime() < System.currentTimeMillis() - TimeUnit.DAYS.toMillis(tombstoneRetentionDays)) {
+				logger.error("Expired changes token {}", since);
+				return ResponseEntity.status(HttpStatus.GONE).build();
 			}
 		}
 		
-		// If there are no search criteria, return a BAD REQUEST error
-		if (searchSpecifications.isEmpty()) {
-			return ResponseEntity.badRequest().build();
+		// Changed and removed customers after the position, merged in time order and cut back to one page
+		Date before = new Date(System.currentTimeMillis() - changesSettleMillis);
+		List<Customer> changed = repository.findChanges(afterUpdatedAt, afterId, before, limit);
+		List<CustomerTombstone> removed = repository.findDeletions(afterUpdatedAt, afterId, before, limit);
+		List<Customer> customers = new ArrayList<Customer>();
+		List<Long> deleted = new ArrayList<Long>();
+		int c = 0;
+		int r = 0;
+		String next = since == null ? "" : since;
+		while (customers.size() + deleted.size() < limit && (c < changed.size() || r < removed.size())) {
+			if (r == removed.size() || (c < changed.size() && changedFirst(changed.get(c), removed.get(r)))) {
+				Customer customer = changed.get(c++);
+				customers.add(customer);
+				next = CustomerChanges.token(customer.getUpdated_at(), customer.getId());
+			} else {
+				CustomerTombstone tombstone = removed.get(r++);
+				deleted.add(tombstone.getId());
+				next = CustomerChanges.token(tombstone.getDeleted_at(), tombstone.getId());
+			}
 		}
 		
-		// AND together all the search criteria
-        Specification<Customer> search = searchSpecifications.get(0);
-        for (int i = 1; i < searchSpecifications.size(); i++) {
-        	search = Specifications.where(search).and(searchSpecifications.get(i));
-        }
+		// Every change before the settle time has been listed, so the next page starts there, and a client that keeps
+		// up never holds a token older than the tombstones kept
+		if (changed.size() < limit && removed.size() < limit && c == changed.size() && r == removed.size()) {
+			next = CustomerChanges.token(new Date(before.getTime() - 1), Long.MAX_VALUE);
+		}
+		CustomerChanges changes = new CustomerChanges();
+		changes.setCustomers(customers);
+		changes.setDeleted(deleted);
+		changes.setNext(next);
+		return ResponseEntity.ok().body(changes);
+	}
+	
+	private static boolean changedFirst(Customer customer, CustomerTombstone tombstone) {
+		int order = customer.getUpdated_at().compareTo(tombstone.getDeleted_at());
+		return order < 0 || (order == 0 && customer.getId() < tombstone.getId());
+	}
+	
+	/**
+	 * Autocomplete route: GET /customers/suggest?prefix=...
+	 * @param requestParams
+	 * @return
+	 */
+	@ApiOperation(value = "Suggest completions",
+		    notes = "Up to limit usernames (field=username, the default) or display names (field=display_name) starting with prefix, ignoring case, most common first")
+	@RequestMapping(method = RequestMethod.GET, value = "/customers/suggest", produces = "application/json")
+	public ResponseEntity<Map<String, List<String>>> suggest(@RequestParam Map<String,String> requestParams) {
 		
-        CustomerSearch searchResult = new CustomerSearch();
-        searchResult.setCustomers(repository.findAll(search));
-        return ResponseEntity.ok().body(searchResult);
-        
+		String prefix = requestParams.get("prefix");
+		String field = requestParams.getOrDefault("field", "username");
+		logger.debug("/customers/suggest GET prefix={} field={}", prefix, field);
+		CustomerSuggestions.Field suggested = CustomerSuggestions.Field.parse(field);
+		int limit = limit(requestParams);
+		if (prefix == null || prefix.isEmpty() || suggested == null || limit < 0) {
+			return ResponseEntity.badRequest().build();
+		}
+		return ResponseEntity.ok().body(Collections.singletonMap("suggestions", suggestions.suggest(suggested, prefix, limit)));
 	}
 	
 	/**
@@ -129,12 +402,15 @@ public class CustomerController {
 	 * @return
 	 */
 	@ApiOperation(value = "Retrieve specific customer",
-		    notes = "Retrieve specific customer by customerid")
+		    notes = "Retrieve specific customer by customerid, whether or not it has been archived")
 	@RequestMapping(method = RequestMethod.GET, value = "/customers/{customerId}", produces = "application/json")
-	public ResponseEntity<Customer> customer(@PathVariable Long customerId) {
+	public ResponseEntity<Customer> customer(@PathVariable Long customerId) throws Exception {
 	
-		logger.info("/customers/{} GET", customerId);
-		Customer foundCustomer = repository.findById(customerId);
+		logger.debug("/customers/{} GET", customerId);
+		Customer foundCustomer = reads.findById(customerId);
+		if (foundCustomer == null) {
+			foundCustomer = archive.findById(customerId);
+		}
 		if (foundCustomer != null) {
 			return ResponseEntity.ok().body(foundCustomer);
 		} else {
@@ -142,6 +418,111 @@ public class CustomerController {
 		}
 	}
 	
+	/**
+	 * Route to update every customer matching a search: PATCH /customers
+	 * @param requestParams
+	 * @param patch
+	 * @return
+	 */
+	@ApiOperation(value = "Update matching customers",
+		    notes = "Set the first_name, last_name, display_name and/or birthdate given of every customer matching the same criteria as a search, returning the number updated")
+	@RequestMapping(method = RequestMethod.PATCH, value = "/customers", produces = "application/json")
+	public ResponseEntity<Map<String, Long>> bulkUpdate(@RequestParam Map<String,String> requestParams, @RequestBody Customer patch) {
+		
+		logger.debug("/customers PATCH {}", patch);
+		CustomerCriteria criteria = criteria(requestParams);
+		if (criteria == null || !validPatch(patch)) {
+			return ResponseEntity.badRequest().build();
+		}
+		return ResponseEntity.ok().body(Collections.singletonMap("updated", repository.bulkUpdate(criteria, patch)));
+	}
+	
+	/**
+	 * A patch may only set fields that are not unique to a customer, and those it sets must be valid
+	 * @param patch
+	 * @return
+	 */
+	private boolean validPatch(Customer patch) {
+		if (patch.getId() != null || patch.getUsername() != null || patch.getEmail() != null || patch.getCreated_at() != null
+				|| patch.getUpdated_at() != null) {
+			return false;
+		}
+		// Fields left out are kept, so only the fields given are checked (a missing last_name is not a null one)
+		BeanWrapper values = new BeanWrapperImpl(patch);
+		boolean sets = false;
+		for (String field : PATCH_FIELDS) {
+			if (values.getPropertyValue(field) != null) {
+				sets = true;
+				if (!validator.validateProperty(patch, field).isEmpty()) {
+					return false;
+				}
+			}
+		}
+		return sets;
+	}
+	
+	/**
+	 * Route to delete every customer matching a search: DELETE /customers
+	 * @param requestParams
+	 * @return
+	 */
+	@ApiOperation(value = "Delete matching customers",
+		    notes = "Delete every customer matching the same criteria as a search, returning the number deleted")
+	@RequestMapping(method = RequestMethod.DELETE, value = "/customers", produces = "application/json")
+	public ResponseEntity<Map<String, Long>> bulkDelete(@RequestParam Map<String,String> requestParams) {
+		
+		logger.debug("/customers DELETE");
+		CustomerCriteria criteria = criteria(requestParams);
+		if (criteria == null) {
+			return ResponseEntity.badRequest().build();
+		}
+		return ResponseEntity.ok().body(Collections.singletonMap("deleted", repository.bulkDelete(criteria)));
+	}
+	
+	/**
+	 * Route to retrieve many customers at once: POST /customers/lookup
+	 * @param ids
+	 * @return
+	 */
+	@ApiOperation(value = "Retrieve many customers",
+		    notes = "Retrieve customers by a JSON array of up to 1000 customerids, whether or not they have been archived, in the order requested, with the ids not found listed as missing")
+	@RequestMapping(method = RequestMethod.POST, value = "/customers/lookup", produces = "application/json")
+	public ResponseEntity<CustomerLookup> lookup(@RequestBody List<Long> ids) throws Exception {
+		
+		logger.debug("/customers/lookup POST {}", ids);
+		if (ids.isEmpty() || ids.size() > MAX_LOOKUP_IDS || ids.contains(null)) {
+			return ResponseEntity.badRequest().build();
+		}
+		
+		// One batch from the cache and database, then back into request order, each id once
+		Map<Long, Customer> found = new HashMap<Long, Customer>();
+		for (Customer customer : repository.findByIds(ids)) {
+			found.put(customer.getId(), customer);
+		}
+		
+		// Then the archive for any not found, as GET /customers/{id} does
+		List<Long> notCurrent = ids.stream().distinct().filter(id -> !found.containsKey(id)).collect(Collectors.toList());
+		if (!notCurrent.isEmpty()) {
+			for (Customer customer : archive.findByIds(notCurrent)) {
+				found.put(customer.getId(), customer);
+			}
+		}
+		List<Customer> customers = new ArrayList<Customer>(found.size());
+		List<Long> missing = new ArrayList<Long>();
+		for (Long id : new LinkedHashSet<Long>(ids)) {
+			Customer customer = found.get(id);
+			if (customer != null) {
+				customers.add(customer);
+			} else {
+				missing.add(id);
+			}
+		}
+		CustomerLookup lookup = new CustomerLookup();
+		lookup.setCustomers(customers);
+		lookup.setMissing(missing);
+		return ResponseEntity.ok().body(lookup);
+	}
+	
 	/**
 	 * Route to create a customer: POST /customers
 	 * @param customer
@@ -152,7 +533,7 @@ public class CustomerController {
 	@RequestMapping(method = RequestMethod.POST, value = "/customers", produces = "application/json")
 	public ResponseEntity<Customer> createCustomer(@Valid @RequestBody Customer customer) {
 		
-		logger.info("/customers {} POST", customer.toString());
+		logger.debug("/customers {} POST", customer);
 			
 		Customer createdCustomer;
 		try {
@@ -174,9 +555,15 @@ public class CustomerController {
 	@ApiOperation(value = "Update existing customer",
 		    notes = "Update the values of an existing customer")
 	@RequestMapping(method = RequestMethod.PUT, value = "/customers/{customerId}", produces = "application/json")
-	public ResponseEntity<Customer> updateCustomer(@Valid @PathVariable Long customerId, @RequestBody Customer customer) {
+	public ResponseEntity<Customer> updateCustomer(@Valid @PathVariable Long customerId, @RequestBody Customer customer) throws Exception {
+		
+		logger.debug("/customers {} PUT {}", customerId, customer);
 		
-		logger.info("/customers {} PUT {}", customerId, customer.toString());
+		// The username and email may not belong to another customer, current or archived
+		if (archive.isTaken(customerId, customer.getUsername(), customer.getEmail())) {
+			logger.error("Username or email for {} already taken", customerId);
+			return ResponseEntity.badRequest().build();
+		}
 			
 		Customer updateCustomer = repository.findOne(customerId);
 		updateCustomer.setFirst_name(customer.getFirst_name());
@@ -0,0 +1,268 @@
+package sshephard.customer;
+
+import java.util.Date;
+import java.util.Objects;
+
+/**
+ * Search criteria for customers, as given on GET /customers
+ * Text criteria are stored lower case, since all text matches are case-insensitive
+ * @author s.shephard2
+ *
+ */
+public class CustomerCriteria {
+
+	// Bit for each criterion in the shape of a search
+	public static final int NAME = 1;
+	public static final int USERNAME = 1 << 1;
+	public static final int EMAIL = 1 << 2;
+	public static final int BORN_AFTER = 1 << 3;
+	public static final int BORN_BEFORE = 1 << 4;
+	public static final int CREATED_AFTER = 1 << 5;
+	public static final int CREATED_BEFORE = 1 << 6;
+
+	// Number of possible shapes, including the empty one
+	public static final int SHAPES = 1 << 7;
+
+	// Partial match against any of the first name, last name, and display name
+	private String name;
+
+	// Partial match on username
+	private String username;
+
+	// Partial match on email
+	private String email;
+
+	// Born on or after
+	private Date born_after;
+
+	// Born before
+	private Date born_before;
+
+	// Created on or after
+	private Date created_after;
+
+	// Created before
+	private Date created_before;
+
+	// Order of the results, unordered if null
+	private CustomerSort sort;
+
+	// Most results, all of them if null
+	private Integer limit;
+
+	/**
+	 * @return bit set of the criteria present
+	 */
+	public int shape() {
+		int shape = 0;
+		if (name != null) {
+			shape |= NAME;
+		}
+		if (username != null) {
+			shape |= USERNAME;
+		}
+		if (email != null) {
+			shape |= EMAIL;
+		}
+		if (born_after != null) {
+			shape |= BORN_AFTER;
+		}
+		if (born_before != null) {
+			shape |= BORN_BEFORE;
+		}
+		if (created_after != null) {
+			shape |= CREATED_AFTER;
+		}
+		if (created_before != null) {
+			shape |= CREATED_BEFORE;
+		}
+		return shape;
+	}
+
+	/**
+	 * @param sort
+	 * @param limit
+	 * @return the same criteria with another sort and limit
+	 */
+	public CustomerCriteria withSortAndLimit(CustomerSort sort, Integer limit) {
+		CustomerCriteria copy = new CustomerCriteria();
+		copy.name = name;
+		copy.username = username;
+		copy.email = email;
+		copy.born_after = born_after;
+		copy.born_before = born_before;
+		copy.created_after = created_after;
+		copy.created_before = created_before;
+		copy.sort = sort;
+		copy.limit = limit;
+		return copy;
+	}
+
+	/**
+	 * @return true if there are no criteria
+	 */
+	public boolean isEmpty() {
+		return shape() == 0;
+	}
+
+	private static String normalise(String value) {
+		return value == null || value.isEmpty() ? null : value.toLowerCase();
+	}
+
+	/**
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param name the name to set
+	 */
+	public void setName(String name) {
+		this.name = normalise(name);
+	}
+
+	/**
+	 * @return the username
+	 */
+	public String getUsername() {
+		return username;
+	}
+
+	/**
+	 * @param username the username to set
+	 */
+	public void setUsername(String username) {
+		this.username = normalise(username);
+	}
+
+	/**
+	 * @return the email
+	 */
+	public String getEmail() {
+		return email;
+	}
+
+	/**
+	 * @param email the email to set
+	 */
+	public void setEmail(String email) {
+		this.email = normalise(email);
+	}
+
+	/**
+	 * @return the born_after
+	 */
+	public Date getBorn_after() {
+		return born_after;
+	}
+
+	/**
+	 * @param born_after the born_after to set
+	 */
+	public void setBorn_after(Date born_after) {
+		this.born_after = born_after;
+	}
+
+	/**
+	 * @return the born_before
+	 */
+	public Date getBorn_before() {
+		return born_before;
+	}
+
+	/**
+	 * @param born_before the born_before to set
+	 */
+	public void setBorn_before(Date born_before) {
+		this.born_before = born_before;
+	}
+
+	/**
+	 * @return the created_after
+	 */
+	public Date getCreated_after() {
+		return created_after;
+	}
+
+	/**
+	 * @param created_after the created_after to set
+	 */
+	public void setCreated_after(Date created_after) {
+		this.created_after = created_after;
+	}
+
+	/**
+	 * @return the created_before
+	 */
+	public Date getCreated_before() {
+		return created_before;
+	}
+
+	/**
+	 * @param created_before the created_before to set
+	 */
+	public void setCreated_before(Date created_before) {
+		this.created_before = created_before;
+	}
+
+	/**
+	 * @return the sort
+	 */
+	public CustomerSort getSort() {
+		return sort;
+	}
+
+	/**
+	 * @param sort the sort to set
+	 */
+	public void setSort(CustomerSort sort) {
+		this.sort = sort;
+	}
+
+	/**
+	 * @return the limit
+	 */
+	public Integer getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @param limit the limit to set
+	 */
+	public void setLimit(Integer limit) {
+		this.limit = limit;
+	}
+
+	@Override
+	public boolean equals(Object object) {
+		if (this == object) {
+			return true;
+		}
+		if (!(object instanceof CustomerCriteria)) {
+			return false;
+		}
+		CustomerCriteria other = (CustomerCriteria) object;
+		return Objects.equals(name, other.name) && Objects.equals(username, other.username)
+				&& Objects.equals(email, other.email) && Objects.equals(born_after, other.born_after)
+				&& Objects.equals(born_before, other.born_before) && Objects.equals(created_after, other.created_after)
+				&& Objects.equals(created_before, other.created_before) && sort == other.sort
+				&& Objects.equals(limit, other.limit);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(name, username, email, born_after, born_before, created_after, created_before, sort, limit);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "CustomerCriteria [name=" + name + ", username=" + username + ", email=" + email
+				+ ", born_after=" + born_after + ", born_before=" + born_before + ", created_after=" + created_after
+				+ ", created_before=" + created_before + ", sort=" + sort + ", limit=" + limit + "]";
+	}
+}
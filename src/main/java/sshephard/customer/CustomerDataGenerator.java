@@ -0,0 +1,119 @@
+package sshephard.customer;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic generator of valid synthetic customers, for benchmarks and load tests
+ * The same seed always produces the same customers. Names follow a Zipf distribution, as real names do,
+ * usernames and emails are unique, and every customer passes the Customer validation rules
+ * Ids count up from 1, far below any id the SnowflakeIdGenerator issues, so generated and live customers never collide
+ * @author s.shephard2
+ *
+ */
+public class CustomerDataGenerator {
+
+	private static final String[] FIRST_NAMES = {
+		"James", "Mary", "John", "Patricia", "Robert", "Jennifer", "Michael", "Linda", "William", "Elizabeth",
+		"David", "Barbara", "Richard", "Susan", "Joseph", "Jessica", "Thomas", "Sarah", "Charles", "Karen",
+		"Christopher", "Nancy", "Daniel", "Lisa", "Matthew", "Margaret", "Anthony", "Betty", "Mark", "Sandra",
+		"Stephen", "Carmen", "Steven", "Dorothy", "Paul", "Kimberly", "Andrew", "Emily", "Joshua", "Donna",
+		"Kenneth", "Michelle", "Kevin", "Carol", "Brian", "Amanda", "George", "Melissa", "Edward", "Deborah",
+		"Mary-Jane", "Jean-Paul", "D'Arcy", "Anne Marie", "Siobhan", "Niamh", "Aoife", "Ciaran", "Eoin", "Saoirse"};
+
+	private static final String[] LAST_NAMES = {
+		"Smith", "Jones", "Williams", "Taylor", "Brown", "Davies", "Evans", "Wilson", "Thomas", "Johnson",
+		"Roberts", "Robinson", "Thompson", "Wright", "Walker", "White", "Edwards", "Hughes", "Green", "Hall",
+		"Lewis", "Harris", "Clarke", "Patel", "Jackson", "Wood", "Turner", "Martin", "Cooper", "Hill",
+		"Ward", "Morris", "Moore", "Clark", "Lee", "King", "Baker", "Harrison", "Morgan", "Allen",
+		"Shephard", "Shepherd", "Sheppard", "Smyth", "Smythe", "Jonas", "Thomson", "Tomlinson", "Mackenzie", "McKenzie",
+		"O'Brien", "O'Neill", "Smith-Jones", "Lloyd-Webber", "Van Der Berg", "De Souza", "Fitzgerald", "Featherstonehaugh", "Quillfeather", "Aldersey"};
+
+	private static final String[] DOMAINS = {"example.com", "example.org", "example.net", "mail.example.com"};
+
+	private static final LocalDate OLDEST_BIRTHDATE = LocalDate.of(1930, 1, 1);
+	private static final int BIRTHDATE_DAYS = 75 * 365;
+
+	// Customers are created over the two years from 2017-01-01
+	private static final long CREATED_FROM = Timestamp.valueOf("2017-01-01 00:00:00").getTime();
+	private static final long CREATED_MILLIS = 2L * 365 * 24 * 60 * 60 * 1000;
+
+	// Zipf exponent: the most common name is about 1/s times more frequent than the next, and so on
+	private static final double SKEW = 1.0;
+
+	private static final double[] FIRST_NAME_CDF = zipf(FIRST_NAMES.length);
+	private static final double[] LAST_NAME_CDF = zipf(LAST_NAMES.length);
+
+	// Phonetic keys for every name, so that they are computed once rather than per customer
+	private static final Map<String, String> KEYS = new HashMap<String, String>();
+	static {
+		for (String name : FIRST_NAMES) {
+			KEYS.put(name, FuzzyNames.key(name));
+		}
+		for (String name : LAST_NAMES) {
+			KEYS.put(name, FuzzyNames.key(name));
+		}
+	}
+
+	private final SplittableRandom random;
+	private long next = 1;
+
+	/**
+	 * @param seed
+	 */
+	public CustomerDataGenerator(long seed) {
+		this.random = new SplittableRandom(seed);
+	}
+
+	private static double[] zipf(int n) {
+		double[] cdf = new double[n];
+		double total = 0;
+		for (int rank = 1; rank <= n; rank++) {
+			total += 1.0 / Math.pow(rank, SKEW);
+			cdf[rank - 1] = total;
+		}
+		for (int i = 0; i < n; i++) {
+			cdf[i] /= total;
+		}
+		return cdf;
+	}
+
+	private String pick(String[] names, double[] cdf) {
+		int index = Arrays.binarySearch(cdf, random.nextDouble());
+		return names[Math.min(index < 0 ? -index - 1 : index, names.length - 1)];
+	}
+
+	/**
+	 * @return the next customer, with its id, created date and phonetic keys already set
+	 */
+	public Customer next() {
+		long id = next++;
+		String first = pick(FIRST_NAMES, FIRST_NAME_CDF);
+		String last = pick(LAST_NAMES, LAST_NAME_CDF);
+
+		Customer customer = new Customer();
+		customer.setId(id);
+		customer.setFirst_name(first);
+		customer.setLast_name(last);
+		customer.setDisplay_name(first + " " + last);
+
+		// The id keeps usernames and emails unique however often the names repeat; it is written in decimal so that it
+		// can't run on from the letters of the name, as "mclarke" + "7cr" would run on from "mclark" + "e7cr"
+		String username = (first.charAt(0) + last).toLowerCase().replaceAll("[^a-z]", "") + id;
+		customer.setUsername(username);
+		customer.setEmail(username + "@" + DOMAINS[(int) (id % DOMAINS.length)]);
+
+		customer.setBirthdate(java.sql.Date.valueOf(OLDEST_BIRTHDATE.plusDays(random.nextInt(BIRTHDATE_DAYS))));
+		customer.setCreated_at(new Timestamp(CREATED_FROM + (long) (random.nextDouble() * CREATED_MILLIS)));
+		customer.setUpdated_at(customer.getCreated_at());
+
+		customer.setFirst_name_key(KEYS.get(first));
+		customer.setLast_name_key(KEYS.get(last));
+		customer.setDisplay_name_key(FuzzyNames.key(customer.getDisplay_name()));
+		return customer;
+	}
+}
@@ -0,0 +1,32 @@
+package sshephard.customer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Loads customer.generator.rows generated customers at startup, for benchmarks and load tests
+ * @author s.shephard2
+ *
+ */
+@Component
+@ConditionalOnProperty(prefix = "customer.generator", name = "rows")
+public class CustomerDataLoader implements ApplicationRunner {
+
+	@Autowired
+	private CustomerBulkLoader bulkLoader;
+
+	@Value("${customer.generator.rows}")
+	private long rows;
+
+	@Value("${customer.generator.seed:42}")
+	private long seed;
+
+	@Override
+	public void run(ApplicationArguments args) throws Exception {
+		bulkLoader.load(new CustomerDataGenerator(seed), rows);
+	}
+}
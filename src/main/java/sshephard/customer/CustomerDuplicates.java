@@ -0,0 +1,477 @@
+package sshephard.customer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Detection of customers likely to be the same person registered more than once
+ * Customers are blocked twice, by normalised email local part and by phonetic last name with birthdate, and only
+ * customers in the same block are compared. Blocks are found by sorting one long per customer, its block's hash
+ * above its row number, with a parallel sort; the sorted runs are then compared on a fork-join pool
+ * @author s.shephard2
+ *
+ */
+@Component
+public class CustomerDuplicates {
+
+	// Logger for customer.CustomerDuplicates
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	// Low bits of each sort key hold the row, the rest a hash of the block
+	private static final int ROW_BITS = 27;
+	private static final long ROW_MASK = (1L << ROW_BITS) - 1;
+	static final int MAX_ROWS = 1 << ROW_BITS;
+
+	// Blocks larger than this are too common a key to tell anyone apart, and are skipped
+	static final int MAX_BLOCK = 1000;
+
+	// Rows of sorted keys compared by one fork-join task
+	private static final int COMPARE_CHUNK = 1 << 14;
+
+	// Most pairs kept in a report, highest scores first
+	static final int MAX_PAIRS = 10000;
+
+	/**
+	 * Two customers likely to be the same person
+	 */
+	public static class Pair {
+		private final long first_id;
+		private final long second_id;
+		private final double score;
+
+		Pair(long first_id, long second_id, double score) {
+			this.first_id = Math.min(first_id, second_id);
+			this.second_id = Math.max(first_id, second_id);
+			this.score = score;
+		}
+
+		/**
+		 * @return the lower id
+		 */
+		public long getFirst_id() {
+			return first_id;
+		}
+
+		/**
+		 * @return the higher id
+		 */
+		public long getSecond_id() {
+			return second_id;
+		}
+
+		/**
+		 * @return similarity from the threshold up to 1
+		 */
+		public double getScore() {
+			return score;
+		}
+	}
+
+	/**
+	 * Outcome of one run
+	 */
+	public static class Report {
+		private Date started_at;
+		private long millis;
+		private int customers;
+		private long blocks;
+		private long skipped_blocks;
+		private long comparisons;
+		private List<Pair> pairs;
+
+		public Date getStarted_at() {
+			return started_at;
+		}
+
+		public long getMillis() {
+			return millis;
+		}
+
+		public int getCustomers() {
+			return customers;
+		}
+
+		/**
+		 * @return blocks of more than one customer that were compared
+		 */
+		public long getBlocks() {
+			return blocks;
+		}
+
+		/**
+		 * @return blocks of more than MAX_BLOCK customers, not compared
+		 */
+		public long getSkipped_blocks() {
+			return skipped_blocks;
+		}
+
+		public long getComparisons() {
+			return comparisons;
+		}
+
+		/**
+		 * @return likely duplicates, highest scores first
+		 */
+		public List<Pair> getPairs() {
+			return pairs;
+		}
+	}
+
+	@Autowired
+	private DataSource dataSource;
+
+	private final ForkJoinPool pool;
+	private final double threshold;
+
+	// Latest report, null until the first run
+	private volatile Report report;
+
+	// Runs started by POST /reports/duplicates, off the request thread
+	private final ExecutorService runner = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "customer-duplicates");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	// Set while detection is running, however it was started, so that only one runs at a time
+	private final AtomicBoolean running = new AtomicBoolean();
+
+	// Columns of the customers being compared, by row, with a sort key for each blocking
+	private static class Rows {
+		private int size;
+		private long[] ids = new long[1024];
+		private String[] firstNames = new String[1024];
+		private String[] lastNames = new String[1024];
+		private String[] locals = new String[1024];
+		// Epoch day, NO_BIRTHDATE if there is none
+		private int[] birthDays = new int[1024];
+		private long[] byLocal = new long[1024];
+		private int byLocalSize;
+		private long[] byNameAndBirthdate = new long[1024];
+		private int byNameAndBirthdateSize;
+
+		void ensureCapacity() {
+			if (size == ids.length) {
+				int length = ids.length + (ids.length >> 1);
+				ids = Arrays.copyOf(ids, length);
+				firstNames = Arrays.copyOf(firstNames, length);
+				lastNames = Arrays.copyOf(lastNames, length);
+				locals = Arrays.copyOf(locals, length);
+				birthDays = Arrays.copyOf(birthDays, length);
+				byLocal = Arrays.copyOf(byLocal, length);
+				byNameAndBirthdate = Arrays.copyOf(byNameAndBirthdate, length);
+			}
+		}
+	}
+
+	private static final int NO_BIRTHDATE = Integer.MIN_VALUE;
+
+	/**
+	 * @param parallelism threads comparing customers, all processors if 0
+	 * @param threshold least score of a likely duplicate
+	 */
+	public CustomerDuplicates(@Value("${customer.duplicates.parallelism:0}") int parallelism,
+			@Value("${customer.duplicates.threshold:0.9}") double threshold) {
+		this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+		this.threshold = threshold;
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		runner.shutdownNow();
+		pool.shutdown();
+	}
+
+	/**
+	 * @return the latest report, or null if detection has not run
+	 */
+	public Report getReport() {
+		return report;
+	}
+
+	/**
+	 * @return true while detection is running
+	 */
+	public boolean isRunning() {
+		return running.get();
+	}
+
+	/**
+	 * Start detection in the background, unless it is already running
+	 * @return false if detection is already running
+	 */
+	public boolean start() {
+		if (!running.compareAndSet(false, true)) {
+			return false;
+		}
+		try {
+			runner.execute(() -> {
+				try {
+					run();
+				} catch (RuntimeException e) {
+					logger.error("Duplicate detection failed", e);
+				} finally {
+					running.set(false);
+				}
+			});
+		} catch (RuntimeException e) {
+			running.set(false);
+			throw e;
+		}
+		return true;
+	}
+
+	/**
+	 * Find likely duplicates among every customer, on every shard, and keep the report
+	 * @return the report
+	 * @throws IllegalStateException if detection is already running
+	 */
+	public Report detect() {
+		if (!running.compareAndSet(false, true)) {
+			throw new IllegalStateException("Duplicate detection is already running");
+		}
+		try {
+			return run();
+		} finally {
+			running.set(false);
+		}
+	}
+
+	private Report run() {
+		Report run = new Report();
+		run.started_at = new Date();
+		long start = System.currentTimeMillis();
+
+		Rows rows = load();
+		run.customers = rows.size;
+
+		// Sort each blocking on every core, then compare within blocks
+		Arrays.parallelSort(rows.byLocal);
+		Arrays.parallelSort(rows.byNameAndBirthdate);
+		Comparison byLocal = pool.invoke(new Compare(rows, rows.byLocal, 0, rows.byLocal.length));
+		Comparison byName = pool.invoke(new Compare(rows, rows.byNameAndBirthdate, 0, rows.byNameAndBirthdate.length));
+
+		// A pair found by both blockings is reported once
+		Map<List<Long>, Pair> pairs = new HashMap<List<Long>, Pair>();
+		for (Comparison comparison : new Comparison[] {byLocal, byName}) {
+			run.blocks += comparison.blocks;
+			run.skipped_blocks += comparison.skipped;
+			run.comparisons += comparison.comparisons;
+			for (Pair pair : comparison.pairs) {
+				pairs.put(Arrays.asList(pair.first_id, pair.second_id), pair);
+			}
+		}
+		List<Pair> sorted = new ArrayList<Pair>(pairs.values());
+		sorted.sort((a, b) -> a.score != b.score ? Double.compare(b.score, a.score)
+				: a.first_id != b.first_id ? Long.compare(a.first_id, b.first_id) : Long.compare(a.second_id, b.second_id));
+		run.pairs = sorted.size() > MAX_PAIRS ? new ArrayList<Pair>(sorted.subList(0, MAX_PAIRS)) : sorted;
+
+		run.millis = System.currentTimeMillis() - start;
+		logger.info("Duplicate detection compared {} customers in {} blocks ({} skipped) with {} comparisons, found {} pairs in {}ms",
+				run.customers, run.blocks, run.skipped_blocks, run.comparisons, sorted.size(), run.millis);
+		report = run;
+		return run;
+	}
+
+	/**
+	 * Read the compared columns of every customer, and a sort key for each blocking
+	 */
+	private Rows load() {
+		Rows rows = new Rows();
+		for (DataSource shard : ShardRoutingDataSource.shardsOf(dataSource)) {
+			JdbcTemplate jdbcTemplate = new JdbcTemplate(shard);
+			jdbcTemplate.setFetchSize(10000);
+			jdbcTemplate.query("SELECT id, first_name, last_name, last_name_key, email, username, birthdate FROM customer", resultSet -> {
+				int row = rows.size;
+				if (row == MAX_ROWS) {
+					throw new IllegalStateException("More than " + MAX_ROWS + " customers to compare");
+				}
+				rows.ensureCapacity();
+				String local = local(resultSet.getString(5), resultSet.getString(6));
+				String lastNameKey = resultSet.getString(4);
+				java.sql.Date birthdate = resultSet.getDate(7);
+				rows.ids[row] = resultSet.getLong(1);
+				rows.firstNames[row] = lower(resultSet.getString(2));
+				rows.lastNames[row] = lower(resultSet.getString(3));
+				rows.locals[row] = local;
+				rows.birthDays[row] = birthdate == null ? NO_BIRTHDATE : (int) birthdate.toLocalDate().toEpochDay();
+				if (!local.isEmpty()) {
+					rows.byLocal[rows.byLocalSize++] = sortKey(local.hashCode(), row);
+				}
+				if (lastNameKey != null && birthdate != null) {
+					rows.byNameAndBirthdate[rows.byNameAndBirthdateSize++] = sortKey(31 * lastNameKey.hashCode() + rows.birthDays[row], row);
+				}
+				rows.size++;
+			});
+		}
+		rows.byLocal = Arrays.copyOf(rows.byLocal, rows.byLocalSize);
+		rows.byNameAndBirthdate = Arrays.copyOf(rows.byNameAndBirthdate, rows.byNameAndBirthdateSize);
+		return rows;
+	}
+
+	private static long sortKey(int hash, int row) {
+		return ((long) hash << ROW_BITS) | row;
+	}
+
+	private static String lower(String value) {
+		return value == null ? null : value.toLowerCase();
+	}
+
+	/**
+	 * Normalised email local part: lower case, without any +tag, letters only, so that j.smith+shop and jsmith2 agree
+	 * Falls back to the username when there is no email
+	 * @param email
+	 * @param username
+	 * @return the normalised local part, empty if there is none
+	 */
+	static String local(String email, String username) {
+		String local = email != null && email.indexOf('@') > 0 ? email.substring(0, email.indexOf('@')) : username;
+		if (local == null) {
+			return "";
+		}
+		int tag = local.indexOf('+');
+		if (tag >= 0) {
+			local = local.substring(0, tag);
+		}
+		StringBuilder letters = new StringBuilder(local.length());
+		for (int i = 0; i < local.length(); i++) {
+			char c = Character.toLowerCase(local.charAt(i));
+			if (c >= 'a' && c <= 'z') {
+				letters.append(c);
+			}
+		}
+		return letters.toString();
+	}
+
+	/**
+	 * Similarity of two customers: different birthdates rule them out, otherwise the mean similarity
+	 * of their first names, last names and email local parts
+	 */
+	private static double score(Rows rows, int a, int b) {
+		if (rows.birthDays[a] != NO_BIRTHDATE && rows.birthDays[b] != NO_BIRTHDATE && rows.birthDays[a] != rows.birthDays[b]) {
+			return 0;
+		}
+		return (FuzzyNames.similarity(rows.firstNames[a], rows.firstNames[b])
+				+ FuzzyNames.similarity(rows.lastNames[a], rows.lastNames[b])
+				+ FuzzyNames.similarity(rows.locals[a], rows.locals[b])) / 3;
+	}
+
+	/**
+	 * Pairs and counts from comparing some of the blocks
+	 */
+	private static class Comparison {
+		private final List<Pair> pairs = new ArrayList<Pair>();
+		private long blocks;
+		private long skipped;
+		private long comparisons;
+
+		Comparison add(Comparison other) {
+			pairs.addAll(other.pairs);
+			blocks += other.blocks;
+			skipped += other.skipped;
+			comparisons += other.comparisons;
+			return this;
+		}
+	}
+
+	/**
+	 * Compares every pair within each block of a range of sorted keys, splitting it in two between blocks
+	 * while it is larger than COMPARE_CHUNK
+	 */
+	private class Compare extends RecursiveTask<Comparison> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Rows rows;
+		private final long[] keys;
+		private final int from;
+		private final int to;
+
+		Compare(Rows rows, long[] keys, int from, int to) {
+			this.rows = rows;
+			this.keys = keys;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Comparison compute() {
+			int middle = to - from > COMPARE_CHUNK ? split() : from;
+			if (middle > from) {
+				Compare left = new Compare(rows, keys, from, middle);
+				left.fork();
+				Comparison right = new Compare(rows, keys, middle, to).compute();
+				return left.join().add(right);
+			}
+
+			Comparison comparison = new Comparison();
+			int start = from;
+			while (start < to) {
+				int end = start + 1;
+				while (end < to && block(keys[end]) == block(keys[start])) {
+					end++;
+				}
+				int size = end - start;
+				if (size > MAX_BLOCK) {
+					comparison.skipped++;
+				} else if (size > 1) {
+					comparison.blocks++;
+					for (int i = start; i < end; i++) {
+						int a = (int) (keys[i] & ROW_MASK);
+						for (int j = i + 1; j < end; j++) {
+							int b = (int) (keys[j] & ROW_MASK);
+							comparison.comparisons++;
+							double score = score(rows, a, b);
+							if (score >= threshold) {
+								comparison.pairs.add(new Pair(rows.ids[a], rows.ids[b], score));
+							}
+						}
+					}
+				}
+				start = end;
+			}
+			return comparison;
+		}
+
+		/**
+		 * @return a boundary between blocks near the middle of the range, or from if the range is one block
+		 */
+		private int split() {
+			int middle = (from + to) >>> 1;
+			int split = middle;
+			while (split < to && block(keys[split]) == block(keys[split - 1])) {
+				split++;
+			}
+			if (split == to) {
+				split = middle;
+				while (split > from && block(keys[split]) == block(keys[split - 1])) {
+					split--;
+				}
+			}
+			return split;
+		}
+	}
+
+	private static long block(long key) {
+		return key >> ROW_BITS;
+	}
+}
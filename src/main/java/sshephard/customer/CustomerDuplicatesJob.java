@@ -0,0 +1,38 @@
+package sshephard.customer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Background duplicate detection, enabled by customer.duplicates.enabled=true
+ * Periodically refreshes the report served by GET /reports/duplicates
+ * @author s.shephard2
+ *
+ */
+@Component
+@ConditionalOnProperty(prefix = "customer.duplicates", name = "enabled")
+public class CustomerDuplicatesJob {
+
+	// Logger for customer.CustomerDuplicatesJob
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private CustomerDuplicates duplicates;
+
+	@Scheduled(initialDelayString = "${customer.duplicates.interval-millis:86400000}", fixedDelayString = "${customer.duplicates.interval-millis:86400000}")
+	public void detect() {
+		if (duplicates.isRunning()) {
+			logger.info("Duplicate detection is already running, skipped");
+			return;
+		}
+		try {
+			duplicates.detect();
+		} catch (Exception e) {
+			logger.error("Duplicate detection failed", e);
+		}
+	}
+}
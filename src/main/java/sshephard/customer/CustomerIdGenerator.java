@@ -0,0 +1,38 @@
+package sshephard.customer;
+
+import java.io.Serializable;
+import java.util.Properties;
+
+import org.hibernate.HibernateException;
+import org.hibernate.MappingException;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.id.Configurable;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+/**
+ * Hibernate id generator for customers
+ * Ids are generated in the application, so they are unique across shards and need no database round trip
+ * The worker id is set by spring.jpa.properties.customer.id.worker
+ * @author s.shephard2
+ *
+ */
+public class CustomerIdGenerator implements IdentifierGenerator, Configurable {
+
+	public static final String WORKER_SETTING = "customer.id.worker";
+
+	private SnowflakeIdGenerator generator;
+
+	@Override
+	public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) throws MappingException {
+		Object worker = serviceRegistry.getService(ConfigurationService.class).getSettings().get(WORKER_SETTING);
+		generator = SnowflakeIdGenerator.forWorker(worker == null ? 0 : Integer.parseInt(worker.toString()));
+	}
+
+	@Override
+	public Serializable generate(SessionImplementor session, Object object) throws HibernateException {
+		return generator.nextId();
+	}
+}
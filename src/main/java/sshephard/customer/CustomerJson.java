@@ -0,0 +1,238 @@
+package sshephard.customer;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.boot.jackson.JsonComponent;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+/**
+ * Hand-written JSON serializers for customers and search results, registered with the application's ObjectMapper
+ * The output is the same as Jackson's from the Customer annotations, byte for byte, without reflection: field names are
+ * written pre-encoded, and dates are formatted into a per-thread buffer by arithmetic rather than with a new SimpleDateFormat
+ * for each date. Customers inside other results (multi-gets, changes, the async stream) are written by the same serializer.
+ * @author s.shephard2
+ *
+ */
+@JsonComponent
+public class CustomerJson {
+
+	private static final SerializableString ID = new SerializedString("id");
+	private static final SerializableString USERNAME = new SerializedString("username");
+	private static final SerializableString EMAIL = new SerializedString("email");
+	private static final SerializableString FIRST_NAME = new SerializedString("first_name");
+	private static final SerializableString LAST_NAME = new SerializedString("last_name");
+	private static final SerializableString DISPLAY_NAME = new SerializedString("display_name");
+	private static final SerializableString CREATED_AT = new SerializedString("created_at");
+	private static final SerializableString UPDATED_AT = new SerializedString("updated_at");
+	private static final SerializableString BIRTHDATE = new SerializedString("birthdate");
+	private static final SerializableString CUSTOMERS = new SerializedString("customers");
+
+	// The @JsonFormat patterns on Customer, which SimpleDateFormat applies to the fallback path
+	static final String DATE_TIME_PATTERN = "yyyy-MM-dd HH:mm:ss";
+	static final String DATE_PATTERN = "yyyy-MM-dd";
+
+	// Start of the Gregorian calendar in local time, before which SimpleDateFormat counts Julian days
+	private static final long GREGORIAN_CUTOVER = -12219292800000L;
+
+	private static final long MILLIS_PER_DAY = 86400000L;
+
+	// Last day written with a four digit year
+	private static final long LAST_DAY = 2932896L;
+
+	// Whether SimpleDateFormat writes dates in each locale as the fast path does, in the Gregorian calendar with ASCII digits
+	private static final Map<Locale, Boolean> GREGORIAN_DIGITS = new ConcurrentHashMap<Locale, Boolean>();
+
+	// Scratch buffer for formatting dates, one per thread
+	private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[DATE_TIME_PATTERN.length()]);
+
+	/**
+	 * Writes a Customer as Jackson would from its fields and @JsonFormat patterns
+	 */
+	public static class Serializer extends JsonSerializer<Customer> {
+
+		@Override
+		public void serialize(Customer customer, JsonGenerator generator, SerializerProvider provider) throws IOException {
+			JsonInclude.Include inclusion = provider.getConfig().getDefaultPropertyInclusion(Customer.class).getValueInclusion();
+			boolean omitNull = inclusion != JsonInclude.Include.ALWAYS && inclusion != JsonInclude.Include.USE_DEFAULTS;
+			boolean omitEmpty = inclusion == JsonInclude.Include.NON_EMPTY;
+
+			generator.writeStartObject();
+			if (customer.getId() != null) {
+				generator.writeFieldName(ID);
+				generator.writeNumber(customer.getId().longValue());
+			} else if (!omitNull) {
+				generator.writeFieldName(ID);
+				generator.writeNull();
+			}
+			writeString(generator, USERNAME, customer.getUsername(), omitNull, omitEmpty);
+			writeString(generator, EMAIL, customer.getEmail(), omitNull, omitEmpty);
+			writeString(generator, FIRST_NAME, customer.getFirst_name(), omitNull, omitEmpty);
+			writeString(generator, LAST_NAME, customer.getLast_name(), omitNull, omitEmpty);
+			writeString(generator, DISPLAY_NAME, customer.getDisplay_name(), omitNull, omitEmpty);
+			writeDate(generator, provider, CREATED_AT, customer.getCreated_at(), true, omitNull, omitEmpty);
+			writeDate(generator, provider, UPDATED_AT, customer.getUpdated_at(), true, omitNull, omitEmpty);
+			writeDate(generator, provider, BIRTHDATE, customer.getBirthdate(), false, omitNull, omitEmpty);
+			generator.writeEndObject();
+		}
+	}
+
+	/**
+	 * Writes a CustomerSearch, each customer with the Customer serializer
+	 */
+	public static class SearchSerializer extends JsonSerializer<CustomerSearch> {
+
+		private final Serializer customerSerializer = new Serializer();
+
+		@Override
+		public void serialize(CustomerSearch search, JsonGenerator generator, SerializerProvider provider) throws IOException {
+			JsonInclude.Include inclusion = provider.getConfig().getDefaultPropertyInclusion(CustomerSearch.class).getValueInclusion();
+			List<Customer> customers = search.getCustomers();
+
+			generator.writeStartObject();
+			if (customers != null) {
+				if (!customers.isEmpty() || inclusion != JsonInclude.Include.NON_EMPTY) {
+					generator.writeFieldName(CUSTOMERS);
+					generator.writeStartArray();
+					for (Customer customer : customers) {
+						if (customer == null) {
+							generator.writeNull();
+						} else {
+							customerSerializer.serialize(customer, generator, provider);
+						}
+					}
+					generator.writeEndArray();
+				}
+			} else if (inclusion == JsonInclude.Include.ALWAYS || inclusion == JsonInclude.Include.USE_DEFAULTS) {
+				generator.writeFieldName(CUSTOMERS);
+				generator.writeNull();
+			}
+			generator.writeEndObject();
+		}
+	}
+
+	private static void writeString(JsonGenerator generator, SerializableString name, String value, boolean omitNull, boolean omitEmpty)
+			throws IOException {
+		if (value == null) {
+			if (!omitNull) {
+				generator.writeFieldName(name);
+				generator.writeNull();
+			}
+		} else if (!omitEmpty || !value.isEmpty()) {
+			generator.writeFieldName(name);
+			generator.writeString(value);
+		}
+	}
+
+	private static void writeDate(JsonGenerator generator, SerializerProvider provider, SerializableString name, Date value, boolean time,
+			boolean omitNull, boolean omitEmpty) throws IOException {
+		if (value == null) {
+			if (!omitNull) {
+				generator.writeFieldName(name);
+				generator.writeNull();
+			}
+			return;
+		}
+		long millis = value.getTime();
+		if (omitEmpty && millis == 0) {
+			// Jackson counts the epoch as an empty date
+			return;
+		}
+		generator.writeFieldName(name);
+		if (value instanceof java.sql.Date) {
+			// Jackson 2.8 writes a java.sql.Date, as Hibernate loads birthdates, with toString() whatever its @JsonFormat,
+			// which is yyyy-MM-dd in the JVM's default time zone rather than the mapper's
+			writeSqlDate(generator, (java.sql.Date) value, millis);
+			return;
+		}
+		TimeZone timeZone = provider.getTimeZone();
+		Locale locale = provider.getLocale();
+		long local = millis + timeZone.getOffset(millis);
+		long day = Math.floorDiv(local, MILLIS_PER_DAY);
+		if (local < GREGORIAN_CUTOVER || day > LAST_DAY || !gregorianDigits(locale)) {
+			// Julian dates, five digit years and other calendars or digits as SimpleDateFormat writes them
+			SimpleDateFormat format = new SimpleDateFormat(time ? DATE_TIME_PATTERN : DATE_PATTERN, locale);
+			format.setTimeZone(timeZone);
+			generator.writeString(format.format(value));
+			return;
+		}
+		char[] buffer = BUFFER.get();
+		int length = formatDay(buffer, day);
+		if (time) {
+			int seconds = (int) (Math.floorMod(local, MILLIS_PER_DAY) / 1000);
+			buffer[length++] = ' ';
+			length = twoDigits(buffer, length, seconds / 3600);
+			buffer[length++] = ':';
+			length = twoDigits(buffer, length, seconds / 60 % 60);
+			buffer[length++] = ':';
+			length = twoDigits(buffer, length, seconds % 60);
+		}
+		generator.writeString(buffer, 0, length);
+	}
+
+	private static void writeSqlDate(JsonGenerator generator, java.sql.Date value, long millis) throws IOException {
+		long local = millis + TimeZone.getDefault().getOffset(millis);
+		long day = Math.floorDiv(local, MILLIS_PER_DAY);
+		if (local < GREGORIAN_CUTOVER || day > LAST_DAY) {
+			generator.writeString(value.toString());
+			return;
+		}
+		char[] buffer = BUFFER.get();
+		generator.writeString(buffer, 0, formatDay(buffer, day));
+	}
+
+	/**
+	 * Write a day since the epoch as yyyy-MM-dd, converting it to a proleptic Gregorian date as LocalDate.ofEpochDay does
+	 * @param buffer
+	 * @param epochDay from the Gregorian cutover to the end of year 9999
+	 * @return characters written
+	 */
+	static int formatDay(char[] buffer, long epochDay) {
+		// Days since 0000-03-01, so that the leap day is last in its year
+		long days = epochDay + 719468;
+		long era = Math.floorDiv(days, 146097);
+		int dayOfEra = (int) (days - era * 146097);
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int monthIndex = (5 * dayOfYear + 2) / 153;
+		int dayOfMonth = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+		int month = monthIndex < 10 ? monthIndex + 3 : monthIndex - 9;
+		int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+
+		int length = twoDigits(buffer, 0, year / 100);
+		length = twoDigits(buffer, length, year % 100);
+		buffer[length++] = '-';
+		length = twoDigits(buffer, length, month);
+		buffer[length++] = '-';
+		return twoDigits(buffer, length, dayOfMonth);
+	}
+
+	private static int twoDigits(char[] buffer, int offset, int value) {
+		buffer[offset] = (char) ('0' + value / 10);
+		buffer[offset + 1] = (char) ('0' + value % 10);
+		return offset + 2;
+	}
+
+	private static boolean gregorianDigits(Locale locale) {
+		Boolean gregorian = GREGORIAN_DIGITS.get(locale);
+		if (gregorian == null) {
+			SimpleDateFormat format = new SimpleDateFormat(DATE_PATTERN, locale);
+			format.setTimeZone(TimeZone.getTimeZone("UTC"));
+			gregorian = format.format(new Date(0)).equals("1970-01-01");
+			GREGORIAN_DIGITS.put(locale, gregorian);
+		}
+		return gregorian;
+	}
+}
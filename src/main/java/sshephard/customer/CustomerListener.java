@@ -3,6 +3,7 @@ package sshephard.customer;
 import java.util.Date;
 
 import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
 
 public class CustomerListener {
 
@@ -11,13 +12,34 @@ public class CustomerListener {
 	 */
 	@PrePersist
 	public void defaults(Customer c) {
-		// Set created date to current date and time
+		// Set created and updated dates to current date and time
 		Date currentDate = new Date();		
 		c.setCreated_at(currentDate);
+		c.setUpdated_at(currentDate);
 		
 		// If display name is null or empty, set it to first name and last names joined with a space
 		if (c.getDisplay_name() == null || c.getDisplay_name().isEmpty()) {
 			c.setDisplay_name(c.getFirst_name() + " " + c.getLast_name());
 		}
+		
+		nameKeys(c);
+	}
+	
+	/**
+	 * Set the updated date before every update
+	 */
+	@PreUpdate
+	public void updated(Customer c) {
+		c.setUpdated_at(new Date());
+		nameKeys(c);
+	}
+	
+	/**
+	 * Recompute the phonetic name keys before every save, so that they never need computing at search time
+	 */
+	public void nameKeys(Customer c) {
+		c.setFirst_name_key(FuzzyNames.key(c.getFirst_name()));
+		c.setLast_name_key(FuzzyNames.key(c.getLast_name()));
+		c.setDisplay_name_key(FuzzyNames.key(c.getDisplay_name()));
 	}
 }
@@ -0,0 +1,49 @@
+package sshephard.customer;
+
+import java.util.List;
+
+/**
+ * Separate entity for multi-get results
+ * @author s.shephard2
+ *
+ */
+public class CustomerLookup {
+
+	// Customers found, in the order their ids were requested
+	private List<Customer> customers;
+
+	// Requested ids with no customer, in the order they were requested
+	private List<Long> missing;
+
+	protected CustomerLookup() {
+	}
+
+	/**
+	 * @return the customers
+	 */
+	public List<Customer> getCustomers() {
+		return customers;
+	}
+
+	/**
+	 * @param customers the customers to set
+	 */
+	public void setCustomers(List<Customer> customers) {
+		this.customers = customers;
+	}
+
+	/**
+	 * @return the missing ids
+	 */
+	public List<Long> getMissing() {
+		return missing;
+	}
+
+	/**
+	 * @param missing the missing ids to set
+	 */
+	public void setMissing(List<Long> missing) {
+		this.missing = missing;
+	}
+
+}
@@ -0,0 +1,60 @@
+package sshephard.customer;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Coalesces identical concurrent reads between CustomerController and CustomerRepository,
+ * so that a burst of the same lookup or search runs one query
+ * @author s.shephard2
+ *
+ */
+@Component
+public class CustomerReadCoalescer {
+
+	@Autowired
+	private CustomerRepository repository;
+
+	private final SingleFlight<Long, Customer> lookups = new SingleFlight<Long, Customer>();
+
+	// CustomerCriteria is already normalised: text lower case, empty values absent
+	private final SingleFlight<CustomerCriteria, List<Customer>> searches = new SingleFlight<CustomerCriteria, List<Customer>>();
+
+	/**
+	 * @param id
+	 * @return the customer, or null if there is none
+	 */
+	public Customer findById(Long id) {
+		return lookups.execute(id, () -> repository.findById(id));
+	}
+
+	/**
+	 * @param criteria
+	 * @return the customers matching the criteria
+	 */
+	public List<Customer> search(CustomerCriteria criteria) {
+		return searches.execute(criteria, () -> repository.search(criteria));
+	}
+
+	/**
+	 * @return executed, coalesced and in flight counts for lookups and searches
+	 */
+	public Map<String, Object> statistics() {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("lookups", statistics(lookups));
+		statistics.put("searches", statistics(searches));
+		return statistics;
+	}
+
+	private static Map<String, Object> statistics(SingleFlight<?, ?> flights) {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("executed", flights.getExecuted());
+		statistics.put("coalesced", flights.getCoalesced());
+		statistics.put("inFlight", flights.getInFlight());
+		return statistics;
+	}
+}
@@ -1,6 +1,13 @@
 package sshephard.customer;
 
+import java.util.Collection;
+import java.util.List;
+
+import javax.persistence.QueryHint;
+
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 
 /**
@@ -9,12 +16,38 @@ import org.springframework.data.repository.CrudRepository;
  * @author s.shephard2
  *
  */
-public interface CustomerRepository extends CrudRepository<Customer, Long>, JpaSpecificationExecutor<Customer> {
+public interface CustomerRepository extends CrudRepository<Customer, Long>, JpaSpecificationExecutor<Customer>, CustomerRepositoryCustom {
+
+	// Hibernate query cache region for customer lookups and searches
+	String QUERY_CACHE_REGION = "customer.queries";
 
 	/**
 	 * Method returning a customer entity given a unique id
+	 * Results are held in the query cache, and the customer itself in the second-level cache
 	 * @param id
 	 * @return
 	 */
+	@QueryHints({
+		@QueryHint(name = "org.hibernate.cacheable", value = "true"),
+		@QueryHint(name = "org.hibernate.cacheRegion", value = QUERY_CACHE_REGION)})
 	Customer findById(Long id);
+
+	/**
+	 * Search using a combination of CustomerSpecifications
+	 * Redeclared so that the search results are held in the query cache
+	 * @param spec
+	 * @return
+	 */
+	@Override
+	@QueryHints({
+		@QueryHint(name = "org.hibernate.cacheable", value = "true"),
+		@QueryHint(name = "org.hibernate.cacheRegion", value = QUERY_CACHE_REGION)})
+	List<Customer> findAll(Specification<Customer> spec);
+
+	/**
+	 * Batched lookup of customers by id, in a single query
+	 * @param ids
+	 * @return the customers found, in no particular order
+	 */
+	List<Customer> findByIdIn(Collection<Long> ids);
 }
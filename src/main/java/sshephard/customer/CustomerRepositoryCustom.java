@@ -0,0 +1,82 @@
+package sshephard.customer;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Customer Repository methods implemented by hand, in CustomerRepositoryImpl
+ * @author s.shephard2
+ *
+ */
+public interface CustomerRepositoryCustom {
+
+	/**
+	 * Search using the precompiled query for the shape of the criteria, in its sort order and up to its limit
+	 * @param criteria
+	 * @return
+	 */
+	List<Customer> search(CustomerCriteria criteria);
+
+	/**
+	 * One page of a search in id order, for streaming every match a page at a time
+	 * Pages are not cached, since a stream reads each page once
+	 * @param criteria
+	 * @param after the last id of the previous page, or Long.MIN_VALUE for the first page
+	 * @param size most customers in the page
+	 * @return the customers matching the criteria with ids after the given id, in id order
+	 */
+	List<Customer> searchAfter(CustomerCriteria criteria, long after, int size);
+
+	/**
+	 * One page of changed customers in (updated_at, id) order, for incremental sync
+	 * @param afterUpdatedAt updated_at of the last customer of the previous page, or null for the first page
+	 * @param afterId id of the last customer of the previous page
+	 * @param updatedBefore only customers updated before this, so that changes still being committed are not passed over
+	 * @param size most customers in the page
+	 * @return the customers after the given position, in (updated_at, id) order
+	 */
+	List<Customer> findChanges(Date afterUpdatedAt, long afterId, Date updatedBefore, int size);
+
+	/**
+	 * One page of customers removed from the customer table, deleted or archived, in (deleted_at, id) order
+	 * @param afterDeletedAt deleted_at of the last removal of the previous page, or null for the first page
+	 * @param afterId id of the last removal of the previous page
+	 * @param deletedBefore only removals before this, as for findChanges
+	 * @param size most removals in the page
+	 * @return the tombstones after the given position, in (deleted_at, id) order
+	 */
+	List<CustomerTombstone> findDeletions(Date afterDeletedAt, long afterId, Date deletedBefore, int size);
+
+	/**
+	 * Fuzzy name search: customers whose first, last or display name has one of the phonetic keys of the name,
+	 * all ranked by FuzzyNames before the closest are kept
+	 * @param name the searched name
+	 * @param limit maximum number of results
+	 * @return the closest customers, closest first
+	 */
+	List<Customer> findByFuzzyName(String name, int limit);
+
+	/**
+	 * Multi-get: customers already in the second-level cache come from there, the rest are loaded with chunked IN queries
+	 * @param ids
+	 * @return the customers found, in id order
+	 */
+	List<Customer> findByIds(Collection<Long> ids);
+
+	/**
+	 * Set-based update of every customer matching the criteria, in chunks each committed on its own
+	 * Only the names and birthdate of the patch are applied, and only those that are not null
+	 * @param criteria
+	 * @param patch
+	 * @return the number of customers updated
+	 */
+	long bulkUpdate(CustomerCriteria criteria, Customer patch);
+
+	/**
+	 * Set-based delete of every customer matching the criteria, in chunks each committed on its own
+	 * @param criteria
+	 * @return the number of customers deleted
+	 */
+	long bulkDelete(CustomerCriteria criteria);
+}
@@ -0,0 +1,298 @@
+package sshephard.customer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import javax.persistence.TemporalType;
+import javax.persistence.TypedQuery;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Implementation of the hand-written Customer Repository methods
+ * @author s.shephard2
+ *
+ */
+@Transactional(readOnly = true)
+public class CustomerRepositoryImpl implements CustomerRepositoryCustom {
+
+	// Candidates read from a name key index at a time, ranked before the next page is read
+	static final int NAME_KEY_PAGE = 1000;
+
+	// Most ids in one IN query of a multi-get
+	static final int LOOKUP_CHUNK = 100;
+
+	// One query for each indexed key column, since an OR across columns can't use their indexes
+	// Each reads a page of one key from its (key, id) index after an id, with just the names to rank
+	private static final String[] NAME_KEY_QUERIES = {
+		"SELECT c.id, c.first_name, c.last_name, c.display_name FROM Customer c WHERE c.first_name_key = :key AND c.id > :after ORDER BY c.id",
+		"SELECT c.id, c.first_name, c.last_name, c.display_name FROM Customer c WHERE c.last_name_key = :key AND c.id > :after ORDER BY c.id",
+		"SELECT c.id, c.first_name, c.last_name, c.display_name FROM Customer c WHERE c.display_name_key = :key AND c.id > :after ORDER BY c.id"};
+
+	// Most customers changed in one transaction of a bulk update or delete, to keep lock hold times short
+	static final int BULK_CHUNK = 500;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	// Bulk changes bypass CustomerChangePublisher, so they publish their own CustomerChangedEvents
+	@Autowired
+	private ApplicationEventPublisher publisher;
+
+	@Autowired
+	private CustomerTombstones tombstones;
+
+	@Override
+	public List<Customer> search(CustomerCriteria criteria) {
+		TypedQuery<Customer> query = entityManager.createQuery(CustomerSearchQueries.search(criteria.shape(), criteria.getSort()), Customer.class);
+		CustomerSearchQueries.bind(query, criteria);
+		if (criteria.getLimit() != null) {
+			// LIMIT in the SQL, so that a sorted search stops after the first rows of an index-ordered scan
+			query.setMaxResults(criteria.getLimit());
+		}
+		query.setHint("org.hibernate.cacheable", true);
+		query.setHint("org.hibernate.cacheRegion", queryCacheRegion());
+		return query.getResultList();
+	}
+
+	@Override
+	public List<Customer> searchAfter(CustomerCriteria criteria, long after, int size) {
+		String jpql = "SELECT c FROM Customer c WHERE c.id > :after AND " + CustomerSearchQueries.where(criteria.shape()) + " ORDER BY c.id";
+		TypedQuery<Customer> query = entityManager.createQuery(jpql, Customer.class);
+		CustomerSearchQueries.bind(query, criteria);
+		return query.setParameter("after", after).setMaxResults(size).getResultList();
+	}
+
+	@Override
+	public List<Customer> findChanges(Date afterUpdatedAt, long afterId, Date updatedBefore, int size) {
+		// The range on updated_at reads the (updated_at, id) index from the last position onwards
+		TypedQuery<Customer> query;
+		if (afterUpdatedAt == null) {
+			query = entityManager.createQuery("SELECT c FROM Customer c WHERE c.updated_at < :before ORDER BY c.updated_at, c.id", Customer.class);
+		} else {
+			query = entityManager.createQuery("SELECT c FROM Customer c WHERE c.updated_at >= :after AND c.updated_at < :before"
+					+ " AND (c.updated_at > :after OR c.id > :after_id) ORDER BY c.updated_at, c.id", Customer.class)
+					.setParameter("after", afterUpdatedAt, TemporalType.TIMESTAMP)
+					.setParameter("after_id", afterId);
+		}
+		return query.setParameter("before", updatedBefore, TemporalType.TIMESTAMP).setMaxResults(size).getResultList();
+	}
+
+	@Override
+	public List<CustomerTombstone> findDeletions(Date afterDeletedAt, long afterId, Date deletedBefore, int size) {
+		// As findChanges, over the (deleted_at, id) index
+		TypedQuery<CustomerTombstone> query;
+		if (afterDeletedAt == null) {
+			query = entityManager.createQuery("SELECT t FROM CustomerTombstone t WHERE t.deleted_at < :before ORDER BY t.deleted_at, t.id",
+					CustomerTombstone.class);
+		} else {
+			query = entityManager.createQuery("SELECT t FROM CustomerTombstone t WHERE t.deleted_at >= :after AND t.deleted_at < :before"
+					+ " AND (t.deleted_at > :after OR t.id > :after_id) ORDER BY t.deleted_at, t.id", CustomerTombstone.class)
+					.setParameter("after", afterDeletedAt, TemporalType.TIMESTAMP)
+					.setParameter("after_id", afterId);
+		}
+		return query.setParameter("before", deletedBefore, TemporalType.TIMESTAMP).setMaxResults(size).getResultList();
+	}
+
+	@Override
+	public List<Customer> findByFuzzyName(String name, int limit) {
+		// Every candidate is ranked as its page is read, so a very common key can't crowd out closer matches
+		FuzzyNames.Ranking ranking = new FuzzyNames.Ranking(name, limit);
+		for (String key : FuzzyNames.keys(name)) {
+			for (String jpql : NAME_KEY_QUERIES) {
+				long after = Long.MIN_VALUE;
+				List<Object[]> page;
+				do {
+					page = entityManager.createQuery(jpql, Object[].class)
+							.setParameter("key", key)
+							.setParameter("after", after)
+							.setMaxResults(NAME_KEY_PAGE)
+							.getResultList();
+					for (Object[] row : page) {
+						ranking.offer((Long) row[0], (String) row[1], (String) row[2], (String) row[3]);
+					}
+					if (!page.isEmpty()) {
+						after = (Long) page.get(page.size() - 1)[0];
+					}
+				} while (page.size() == NAME_KEY_PAGE && !ranking.isSettled(after));
+			}
+		}
+
+		// Then load only the matches that are kept
+		List<Long> ids = ranking.ids();
+		if (ids.isEmpty()) {
+			return new ArrayList<Customer>();
+		}
+		Map<Long, Customer> found = new HashMap<Long, Customer>();
+		for (Customer customer : entityManager.createQuery("SELECT c FROM Customer c WHERE c.id IN :ids", Customer.class)
+				.setParameter("ids", ids)
+				.getResultList()) {
+			found.put(customer.getId(), customer);
+		}
+		List<Customer> customers = new ArrayList<Customer>();
+		for (Long id : ids) {
+			if (found.containsKey(id)) {
+				customers.add(found.get(id));
+			}
+		}
+		return customers;
+	}
+
+	@Override
+	public List<Customer> findByIds(Collection<Long> ids) {
+		List<Customer> customers = new ArrayList<Customer>();
+		List<Long> misses = new ArrayList<Long>();
+		Cache cache = entityManager.getEntityManagerFactory().getCache();
+		for (Long id : new TreeSet<Long>(ids)) {
+			if (cache.contains(Customer.class, id)) {
+				customers.add(entityManager.find(Customer.class, id));
+			} else {
+				misses.add(id);
+			}
+		}
+
+		// Loaded customers are put in the second-level cache for next time
+		for (int from = 0; from < misses.size(); from += LOOKUP_CHUNK) {
+			customers.addAll(entityManager.createQuery("SELECT c FROM Customer c WHERE c.id IN :ids", Customer.class)
+					.setParameter("ids", misses.subList(from, Math.min(from + LOOKUP_CHUNK, misses.size())))
+					.getResultList());
+		}
+		customers.sort(Comparator.comparing(Customer::getId));
+		return customers;
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public long bulkUpdate(CustomerCriteria criteria, Customer patch) {
+		// The phonetic keys are set with the names, since a bulk update bypasses CustomerListener
+		Map<String, Object> values = new LinkedHashMap<String, Object>();
+		if (patch.getFirst_name() != null) {
+			values.put("first_name", patch.getFirst_name());
+			values.put("first_name_key", FuzzyNames.key(patch.getFirst_name()));
+		}
+		if (patch.getLast_name() != null) {
+			values.put("last_name", patch.getLast_name());
+			values.put("last_name_key", FuzzyNames.key(patch.getLast_name()));
+		}
+		if (patch.getDisplay_name() != null) {
+			values.put("display_name", patch.getDisplay_name());
+			values.put("display_name_key", FuzzyNames.key(patch.getDisplay_name()));
+		}
+		if (patch.getBirthdate() != null) {
+			values.put("birthdate", patch.getBirthdate());
+		}
+		if (values.isEmpty()) {
+			return 0;
+		}
+		values.put("updated_at", new Date());
+		List<String> assignments = new ArrayList<String>();
+		for (String field : values.keySet()) {
+			assignments.add("c." + field + " = :" + field);
+		}
+		String jpql = "UPDATE Customer c SET " + String.join(", ", assignments) + " WHERE c.id IN :ids AND " + CustomerSearchQueries.where(criteria.shape());
+
+		return inChunks(criteria, jpql, values, false);
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public long bulkDelete(CustomerCriteria criteria) {
+		String jpql = "DELETE FROM Customer c WHERE c.id IN :ids AND " + CustomerSearchQueries.where(criteria.shape());
+		return inChunks(criteria, jpql, new HashMap<String, Object>(), true);
+	}
+
+	/**
+	 * Run a bulk update or delete over the customers matching the criteria, a chunk of ids at a time in id order
+	 * The statement repeats the criteria, so that a customer changed since its id was read is only touched if it still matches
+	 * Hibernate evicts the customers and invalidates the cached searches after each chunk commits
+	 * @param criteria
+	 * @param jpql update or delete, restricted to :ids and the criteria
+	 * @param values further parameters of the statement
+	 * @param delete true if the statement deletes, so that the customers it removed are tombstoned
+	 * @return the number of customers changed
+	 */
+	private long inChunks(CustomerCriteria criteria, String jpql, Map<String, Object> values, boolean delete) {
+		String select = "SELECT c.id FROM Customer c WHERE c.id > :after AND " + CustomerSearchQueries.where(criteria.shape()) + " ORDER BY c.id";
+		TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+		long total = 0;
+		long after = Long.MIN_VALUE;
+		while (true) {
+			long from = after;
+			long[] changed = new long[1];
+			List<Long> ids = transaction.execute(status -> {
+				TypedQuery<Long> chunk = entityManager.createQuery(select, Long.class);
+				CustomerSearchQueries.bind(chunk, criteria);
+				List<Long> found = chunk.setParameter("after", from).setMaxResults(BULK_CHUNK).getResultList();
+				if (!found.isEmpty()) {
+					Query statement = entityManager.createQuery(jpql);
+					CustomerSearchQueries.bind(statement, criteria);
+					if (values.containsKey("updated_at")) {
+						// Each chunk is stamped when it runs rather than when the bulk update started, so that incremental sync sees it in order
+						values.put("updated_at", new Date());
+					}
+					values.forEach(statement::setParameter);
+					changed[0] = statement.setParameter("ids", found).executeUpdate();
+					if (delete) {
+						// The customers removed are those of the chunk no longer there
+						Set<Long> removed = new TreeSet<Long>(found);
+						removed.removeAll(entityManager.createQuery("SELECT c.id FROM Customer c WHERE c.id IN :ids", Long.class)
+								.setParameter("ids", found)
+								.getResultList());
+						tombstones.record(entityManager, removed);
+					}
+				}
+				return found;
+			});
+			if (ids.isEmpty()) {
+				return total;
+			}
+			total += changed[0];
+			publishChanges(ids);
+			after = ids.get(ids.size() - 1);
+		}
+	}
+
+	/**
+	 * Publish the outcome of a committed chunk, so that the search index follows it
+	 * The chunk is reloaded rather than assumed changed, since a customer may no longer have matched the criteria
+	 * @param ids
+	 */
+	private void publishChanges(List<Long> ids) {
+		Set<Long> deleted = new TreeSet<Long>(ids);
+		for (Customer customer : findByIds(ids)) {
+			deleted.remove(customer.getId());
+			publisher.publishEvent(CustomerChangedEvent.saved(customer));
+		}
+		for (Long id : deleted) {
+			publisher.publishEvent(CustomerChangedEvent.deleted(id));
+		}
+	}
+
+	/**
+	 * @return the query cache region, one for each shard in sharded mode since results differ between shards
+	 */
+	private static String queryCacheRegion() {
+		Integer shard = ShardContext.current();
+		return shard == null ? CustomerRepository.QUERY_CACHE_REGION : CustomerRepository.QUERY_CACHE_REGION + ".shard" + shard;
+	}
+}
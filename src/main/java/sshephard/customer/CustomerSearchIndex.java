@@ -0,0 +1,252 @@
+package sshephard.customer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.miscellaneous.ASCIIFoldingFilter;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.util.CharTokenizer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Embedded Lucene full-text index over customer names, username and email
+ * Rebuilt in bulk at startup and kept up to date from CustomerChangedEvents, with searches
+ * seeing changes within customer.search-index.max-stale-millis
+ * @author s.shephard2
+ *
+ */
+@Component
+public class CustomerSearchIndex {
+
+	// Logger for customer.CustomerSearchIndex
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	// Indexed fields, and how much a match on each counts towards relevance
+	private static final String[] FIELDS = {"last_name", "first_name", "display_name", "username", "email"};
+	private static final float[] BOOSTS = {3.0f, 2.0f, 1.5f, 1.0f, 1.0f};
+
+	private static final String ID = "id";
+
+	@Autowired
+	private DataSource dataSource;
+
+	// Directory for the index, in memory if empty
+	@Value("${customer.search-index.path:}")
+	private String path;
+
+	@Value("${customer.search-index.max-stale-millis:1000}")
+	private long maxStaleMillis;
+
+	// Splits on anything but letters and digits, so that emails are indexed by their parts
+	private final Analyzer analyzer = new Analyzer() {
+		@Override
+		protected TokenStreamComponents createComponents(String fieldName) {
+			Tokenizer tokenizer = CharTokenizer.fromTokenCharPredicate(Character::isLetterOrDigit);
+			TokenStream stream = new ASCIIFoldingFilter(new LowerCaseFilter(tokenizer));
+			return new TokenStreamComponents(tokenizer, stream);
+		}
+	};
+
+	private Directory directory;
+	private IndexWriter writer;
+	private SearcherManager searcherManager;
+	private ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
+
+	// Changes made while a rebuild is reading, to replay once it has read every customer; null unless a rebuild is running
+	private final Object pendingLock = new Object();
+	private List<CustomerChangedEvent> pending;
+
+	@PostConstruct
+	public void open() throws IOException {
+		directory = path.isEmpty() ? new ByteBuffersDirectory() : FSDirectory.open(Paths.get(path));
+		writer = new IndexWriter(directory, new IndexWriterConfig(analyzer).setOpenMode(IndexWriterConfig.OpenMode.CREATE));
+		searcherManager = new SearcherManager(writer, null);
+		reopenThread = new ControlledRealTimeReopenThread<IndexSearcher>(writer, searcherManager, maxStaleMillis / 1000.0, 0.01);
+		reopenThread.setName("customer-search-index");
+		reopenThread.setDaemon(true);
+		reopenThread.start();
+	}
+
+	@PreDestroy
+	public void close() throws IOException {
+		reopenThread.close();
+		searcherManager.close();
+		writer.close();
+		directory.close();
+	}
+
+	/**
+	 * Index every customer once the schema exists on every shard
+	 */
+	@EventListener(ContextRefreshedEvent.class)
+	public void startup() throws IOException {
+		rebuild();
+	}
+
+	/**
+	 * Index every customer, reading the columns directly so that no entities are created
+	 * Customers are indexed by id as changes are, so that a change indexed while the rebuild is reading doesn't leave a
+	 * second document for the customer; changes made meanwhile, which the read may have missed, are replayed afterwards
+	 */
+	public synchronized void rebuild() throws IOException {
+		long start = System.currentTimeMillis();
+		synchronized (pendingLock) {
+			pending = new ArrayList<CustomerChangedEvent>();
+		}
+		writer.deleteAll();
+		for (DataSource shard : ShardRoutingDataSource.shardsOf(dataSource)) {
+			JdbcTemplate jdbcTemplate = new JdbcTemplate(shard);
+			jdbcTemplate.setFetchSize(10000);
+			jdbcTemplate.query("SELECT id, last_name, first_name, display_name, username, email FROM customer", resultSet -> {
+				try {
+					writer.updateDocument(new Term(ID, Long.toString(resultSet.getLong(1))), document(resultSet.getLong(1), resultSet.getString(2), resultSet.getString(3),
+							resultSet.getString(4), resultSet.getString(5), resultSet.getString(6)));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		}
+		List<CustomerChangedEvent> replay;
+		synchronized (pendingLock) {
+			replay = pending;
+			pending = null;
+		}
+		// Applying a change the read did see as well is harmless, since it replaces the customer's document
+		for (CustomerChangedEvent event : replay) {
+			apply(event);
+		}
+		writer.commit();
+		searcherManager.maybeRefreshBlocking();
+		logger.info("Search index rebuilt with {} customers in {}ms", writer.getDocStats().numDocs, System.currentTimeMillis() - start);
+	}
+
+	private static Document document(long id, String... values) {
+		Document document = new Document();
+		document.add(new StringField(ID, Long.toString(id), Field.Store.YES));
+		for (int i = 0; i < FIELDS.length; i++) {
+			if (values[i] != null) {
+				document.add(new TextField(FIELDS[i], values[i], Field.Store.NO));
+			}
+		}
+		return document;
+	}
+
+	/**
+	 * Keep the index up to date with committed changes
+	 * @param event
+	 */
+	@EventListener
+	public void customerChanged(CustomerChangedEvent event) throws IOException {
+		synchronized (pendingLock) {
+			if (pending != null) {
+				pending.add(event);
+			}
+		}
+		apply(event);
+	}
+
+	private void apply(CustomerChangedEvent event) throws IOException {
+		Term id = new Term(ID, event.getId().toString());
+		if (event.isDeleted()) {
+			writer.deleteDocuments(id);
+		} else {
+			Customer customer = event.getCustomer();
+			writer.updateDocument(id, document(customer.getId(), customer.getLast_name(), customer.getFirst_name(),
+					customer.getDisplay_name(), customer.getUsername(), customer.getEmail()));
+		}
+	}
+
+	/**
+	 * Full-text search; every word must match the start of a word in one of the fields
+	 * Whole word matches, and matches on last name then first name, rank highest
+	 * @param text
+	 * @param limit
+	 * @return ids of the matching customers, most relevant first
+	 */
+	public List<Long> search(String text, int limit) throws IOException {
+		List<String> words = analyze(text);
+		List<Long> ids = new ArrayList<Long>();
+		if (words.isEmpty()) {
+			return ids;
+		}
+
+		BooleanQuery.Builder query = new BooleanQuery.Builder();
+		for (String word : words) {
+			BooleanQuery.Builder anyField = new BooleanQuery.Builder();
+			for (int i = 0; i < FIELDS.length; i++) {
+				Term term = new Term(FIELDS[i], word);
+				anyField.add(new BoostQuery(new TermQuery(term), BOOSTS[i] * 2), BooleanClause.Occur.SHOULD);
+				anyField.add(new BoostQuery(new PrefixQuery(term), BOOSTS[i]), BooleanClause.Occur.SHOULD);
+			}
+			query.add(anyField.build(), BooleanClause.Occur.MUST);
+		}
+
+		IndexSearcher searcher = searcherManager.acquire();
+		try {
+			for (ScoreDoc hit : searcher.search(query.build(), limit).scoreDocs) {
+				ids.add(Long.valueOf(searcher.doc(hit.doc).get(ID)));
+			}
+		} finally {
+			searcherManager.release(searcher);
+		}
+		return ids;
+	}
+
+	private List<String> analyze(String text) throws IOException {
+		List<String> words = new ArrayList<String>();
+		try (TokenStream stream = analyzer.tokenStream(FIELDS[0], text)) {
+			CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+			stream.reset();
+			while (stream.incrementToken()) {
+				words.add(term.toString());
+			}
+			stream.end();
+		}
+		return words;
+	}
+
+	/**
+	 * Wait until all changes so far are visible to searches
+	 */
+	public void refresh() throws IOException {
+		searcherManager.maybeRefreshBlocking();
+	}
+}
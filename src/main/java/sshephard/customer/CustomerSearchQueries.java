@@ -0,0 +1,107 @@
+package sshephard.customer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.Query;
+
+/**
+ * Precompiled JPQL for customer searches, one query for each shape of CustomerCriteria
+ * The query text for a shape never changes, so Hibernate translates it once (query plan cache)
+ * and the database sees the same parameterised SQL on every search (statement cache)
+ * @author s.shephard2
+ *
+ */
+public final class CustomerSearchQueries {
+
+	// WHERE clause for each shape
+	private static final String[] WHERE = new String[CustomerCriteria.SHAPES];
+
+	// Search query for each shape, unordered and then in each CustomerSort order
+	private static final String[][] SEARCH = new String[CustomerCriteria.SHAPES][CustomerSort.values().length + 1];
+
+	static {
+		for (int shape = 1; shape < CustomerCriteria.SHAPES; shape++) {
+			WHERE[shape] = buildWhere(shape);
+			SEARCH[shape][0] = "SELECT c FROM Customer c WHERE " + WHERE[shape];
+			for (CustomerSort sort : CustomerSort.values()) {
+				SEARCH[shape][sort.ordinal() + 1] = SEARCH[shape][0] + " ORDER BY " + sort.orderBy();
+			}
+		}
+	}
+
+	private CustomerSearchQueries() {
+	}
+
+	private static String buildWhere(int shape) {
+		List<String> predicates = new ArrayList<String>();
+		if ((shape & CustomerCriteria.NAME) != 0) {
+			predicates.add("(LOWER(c.first_name) LIKE :name OR LOWER(c.last_name) LIKE :name OR LOWER(c.display_name) LIKE :name)");
+		}
+		if ((shape & CustomerCriteria.USERNAME) != 0) {
+			predicates.add("LOWER(c.username) LIKE :username");
+		}
+		if ((shape & CustomerCriteria.EMAIL) != 0) {
+			predicates.add("LOWER(c.email) LIKE :email");
+		}
+		if ((shape & CustomerCriteria.BORN_AFTER) != 0) {
+			predicates.add("c.birthdate >= :born_after");
+		}
+		if ((shape & CustomerCriteria.BORN_BEFORE) != 0) {
+			predicates.add("c.birthdate < :born_before");
+		}
+		if ((shape & CustomerCriteria.CREATED_AFTER) != 0) {
+			predicates.add("c.created_at >= :created_after");
+		}
+		if ((shape & CustomerCriteria.CREATED_BEFORE) != 0) {
+			predicates.add("c.created_at < :created_before");
+		}
+		return String.join(" AND ", predicates);
+	}
+
+	/**
+	 * @param shape
+	 * @return the WHERE clause for the shape, with the customer aliased as c
+	 */
+	public static String where(int shape) {
+		return WHERE[shape];
+	}
+
+	/**
+	 * @param shape
+	 * @param sort the order of the results, or null for unordered
+	 * @return the search query for the shape, in that order
+	 */
+	public static String search(int shape, CustomerSort sort) {
+		return SEARCH[shape][sort == null ? 0 : sort.ordinal() + 1];
+	}
+
+	/**
+	 * Bind the criteria to a query built from where(criteria.shape())
+	 * @param query
+	 * @param criteria
+	 */
+	public static void bind(Query query, CustomerCriteria criteria) {
+		if (criteria.getName() != null) {
+			query.setParameter("name", "%" + criteria.getName() + "%");
+		}
+		if (criteria.getUsername() != null) {
+			query.setParameter("username", "%" + criteria.getUsername() + "%");
+		}
+		if (criteria.getEmail() != null) {
+			query.setParameter("email", "%" + criteria.getEmail() + "%");
+		}
+		if (criteria.getBorn_after() != null) {
+			query.setParameter("born_after", criteria.getBorn_after());
+		}
+		if (criteria.getBorn_before() != null) {
+			query.setParameter("born_before", criteria.getBorn_before());
+		}
+		if (criteria.getCreated_after() != null) {
+			query.setParameter("created_after", criteria.getCreated_after());
+		}
+		if (criteria.getCreated_before() != null) {
+			query.setParameter("created_before", criteria.getCreated_before());
+		}
+	}
+}
@@ -0,0 +1,660 @@
+package sshephard.customer;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory columnar snapshot of the customer table for analytical queries, enabled by customer.analytics.enabled=true
+ * One primitive array per column, with names and email domains dictionary encoded, in id order so that a customer is
+ * found by binary search. Rebuilt at startup, kept up to date from CustomerChangedEvents, and counted with
+ * parallel fork-join scans that never touch the database
+ * @author s.shephard2
+ *
+ */
+@Component
+@ConditionalOnProperty(prefix = "customer.analytics", name = "enabled")
+public class CustomerSnapshot {
+
+	// Logger for customer.CustomerSnapshot
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	// Rows scanned by one fork-join task
+	static final int SCAN_CHUNK = 1 << 16;
+
+	// Marks a missing date
+	private static final int NO_DAY = Integer.MIN_VALUE;
+	private static final long NO_TIME = Long.MIN_VALUE;
+
+	/**
+	 * What to group counts by
+	 */
+	public enum GroupBy {
+		EMAIL_DOMAIN, LAST_NAME, FIRST_NAME, BIRTH_YEAR, CREATED_YEAR;
+
+		/**
+		 * @param value e.g. email_domain
+		 * @return the grouping, or null if there is none
+		 */
+		public static GroupBy parse(String value) {
+			for (GroupBy groupBy : values()) {
+				if (groupBy.name().equalsIgnoreCase(value)) {
+					return groupBy;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Filters for a count, each ignored if not set
+	 */
+	public static class Filter {
+		private int bornFromDay = NO_DAY;
+		private int bornBeforeDay = NO_DAY;
+		private long createdFrom = NO_TIME;
+		private long createdBefore = NO_TIME;
+		private String lastName;
+		private String emailDomain;
+
+		/**
+		 * @param day epoch day customers were born on or after
+		 */
+		public void setBornFromDay(long day) {
+			this.bornFromDay = (int) day;
+		}
+
+		/**
+		 * @param day epoch day customers were born before
+		 */
+		public void setBornBeforeDay(long day) {
+			this.bornBeforeDay = (int) day;
+		}
+
+		/**
+		 * @param date customers were created on or after
+		 */
+		public void setCreatedFrom(Date date) {
+			this.createdFrom = date.getTime();
+		}
+
+		/**
+		 * @param date customers were created before
+		 */
+		public void setCreatedBefore(Date date) {
+			this.createdBefore = date.getTime();
+		}
+
+		/**
+		 * @param lastName exact last name
+		 */
+		public void setLastName(String lastName) {
+			this.lastName = lastName;
+		}
+
+		/**
+		 * @param emailDomain exact email domain, lower case
+		 */
+		public void setEmailDomain(String emailDomain) {
+			this.emailDomain = emailDomain;
+		}
+	}
+
+	/**
+	 * Count of customers in one group
+	 */
+	public static class Group {
+		private final String key;
+		private final long count;
+
+		Group(String key, long count) {
+			this.key = key;
+			this.count = count;
+		}
+
+		/**
+		 * @return the group, null for customers with no value
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * @return the count
+		 */
+		public long getCount() {
+			return count;
+		}
+	}
+
+	@Autowired
+	private DataSource dataSource;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final ForkJoinPool pool;
+
+	// Columns, each row a customer, in id order
+	private int size;
+	private long[] ids = new long[1024];
+	private long[] createdAt = new long[1024];
+	private int[] birthDay = new int[1024];
+	private short[] birthYear = new short[1024];
+	private short[] createdYear = new short[1024];
+	private int[] firstName = new int[1024];
+	private int[] lastName = new int[1024];
+	private int[] emailDomain = new int[1024];
+
+	// Deleted rows, skipped by scans until compacted
+	private final BitSet deleted = new BitSet();
+	private int deletedCount;
+
+	// Range of the years in the snapshot, which year groups are counted over; 0 is no year
+	private short firstBirthYear = Short.MAX_VALUE;
+	private short lastBirthYear;
+	private short firstCreatedYear = Short.MAX_VALUE;
+	private short lastCreatedYear;
+
+	private final Dictionary firstNames = new Dictionary();
+	private final Dictionary lastNames = new Dictionary();
+	private final Dictionary emailDomains = new Dictionary();
+
+	public CustomerSnapshot() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	CustomerSnapshot(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Load every customer once the schema exists on every shard
+	 */
+	@EventListener(ContextRefreshedEvent.class)
+	public void startup() {
+		rebuild();
+	}
+
+	/**
+	 * Reload every customer, reading the columns directly so that no entities are created
+	 */
+	public void rebuild() {
+		long start = System.currentTimeMillis();
+		lock.writeLock().lock();
+		try {
+			size = 0;
+			deleted.clear();
+			deletedCount = 0;
+			firstBirthYear = firstCreatedYear = Short.MAX_VALUE;
+			lastBirthYear = lastCreatedYear = 0;
+			firstNames.clear();
+			lastNames.clear();
+			emailDomains.clear();
+			for (DataSource shard : ShardRoutingDataSource.shardsOf(dataSource)) {
+				JdbcTemplate jdbcTemplate = new JdbcTemplate(shard);
+				jdbcTemplate.setFetchSize(10000);
+				jdbcTemplate.query("SELECT id, created_at, birthdate, first_name, last_name, email FROM customer", resultSet -> {
+					append(resultSet.getLong(1), resultSet.getTimestamp(2), resultSet.getDate(3),
+							resultSet.getString(4), resultSet.getString(5), resultSet.getString(6));
+				});
+			}
+			sortById();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		logger.info("Customer snapshot rebuilt with {} customers in {}ms", size, System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Keep the snapshot up to date with committed changes
+	 * @param event
+	 */
+	@EventListener
+	public void customerChanged(CustomerChangedEvent event) {
+		if (event.isDeleted()) {
+			remove(event.getId());
+		} else {
+			put(event.getCustomer());
+		}
+	}
+
+	/**
+	 * Add or replace a customer
+	 * @param customer
+	 */
+	public void put(Customer customer) {
+		lock.writeLock().lock();
+		try {
+			int row = find(customer.getId());
+			if (row < 0) {
+				// New customers almost always have the highest id, so this is nearly always an append
+				row = -row - 1;
+				if (row < size) {
+					insertGap(row);
+				} else {
+					ensureCapacity(size + 1);
+					size++;
+				}
+			}
+			if (deleted.get(row)) {
+				// A customer removed and then saved again, as when a change to it is published after its deletion
+				deleted.clear(row);
+				deletedCount--;
+			}
+			set(row, customer.getId(), customer.getCreated_at(), customer.getBirthdate(),
+					customer.getFirst_name(), customer.getLast_name(), customer.getEmail());
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @param id of a deleted customer
+	 */
+	public void remove(Long id) {
+		lock.writeLock().lock();
+		try {
+			int row = find(id);
+			if (row >= 0 && !deleted.get(row)) {
+				deleted.set(row);
+				deletedCount++;
+				if (deletedCount > size / 4 && deletedCount > 1024) {
+					compact();
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the number of customers in the snapshot
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return size - deletedCount;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Count the customers matching a filter, in groups, with a parallel scan
+	 * @param filter
+	 * @param groupBy
+	 * @return the groups with any customers, largest first
+	 */
+	public List<Group> count(Filter filter, GroupBy groupBy) {
+		lock.readLock().lock();
+		try {
+			int lastNameCode = filter.lastName == null ? -1 : lastNames.code(filter.lastName);
+			int emailDomainCode = filter.emailDomain == null ? -1 : emailDomains.code(filter.emailDomain);
+			List<Group> groups = new ArrayList<Group>();
+			if (lastNameCode == Dictionary.UNKNOWN || emailDomainCode == Dictionary.UNKNOWN) {
+				return groups;
+			}
+
+			// Years are counted from the first year in the snapshot, after a count of customers with none
+			boolean years = groupBy == GroupBy.BIRTH_YEAR || groupBy == GroupBy.CREATED_YEAR;
+			int firstYear = groupBy == GroupBy.BIRTH_YEAR ? firstBirthYear : firstCreatedYear;
+			int lastYear = groupBy == GroupBy.BIRTH_YEAR ? lastBirthYear : lastCreatedYear;
+			int slots = years ? Math.max(1, lastYear - firstYear + 2) : dictionary(groupBy).size();
+
+			int[] counts = pool.invoke(new Scan(filter, lastNameCode, emailDomainCode, groupBy, firstYear, slots, 0, size));
+			for (int slot = 0; slot < counts.length; slot++) {
+				if (counts[slot] > 0) {
+					int code = years && slot > 0 ? firstYear + slot - 1 : slot;
+					groups.add(new Group(key(groupBy, code), counts[slot]));
+				}
+			}
+			groups.sort((a, b) -> Long.compare(b.count, a.count));
+			return groups;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private String key(GroupBy groupBy, int code) {
+		switch (groupBy) {
+		case EMAIL_DOMAIN:
+			return emailDomains.value(code);
+		case LAST_NAME:
+			return lastNames.value(code);
+		case FIRST_NAME:
+			return firstNames.value(code);
+		default:
+			return code == 0 ? null : Integer.toString(code);
+		}
+	}
+
+	/**
+	 * Counts one range of rows, splitting it in two while it is larger than SCAN_CHUNK
+	 */
+	private class Scan extends RecursiveTask<int[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Filter filter;
+		private final int lastNameCode;
+		private final int emailDomainCode;
+		private final GroupBy groupBy;
+		private final int firstYear;
+		private final int slots;
+		private final int from;
+		private final int to;
+
+		Scan(Filter filter, int lastNameCode, int emailDomainCode, GroupBy groupBy, int firstYear, int slots, int from, int to) {
+			this.filter = filter;
+			this.lastNameCode = lastNameCode;
+			this.emailDomainCode = emailDomainCode;
+			this.groupBy = groupBy;
+			this.firstYear = firstYear;
+			this.slots = slots;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected int[] compute() {
+			if (to - from > SCAN_CHUNK) {
+				int middle = (from + to) >>> 1;
+				Scan left = new Scan(filter, lastNameCode, emailDomainCode, groupBy, firstYear, slots, from, middle);
+				left.fork();
+				int[] right = new Scan(filter, lastNameCode, emailDomainCode, groupBy, firstYear, slots, middle, to).compute();
+				int[] counts = left.join();
+				for (int i = 0; i < counts.length; i++) {
+					counts[i] += right[i];
+				}
+				return counts;
+			}
+
+			int[] group = column(groupBy);
+			short[] years = groupBy == GroupBy.BIRTH_YEAR ? birthYear : groupBy == GroupBy.CREATED_YEAR ? createdYear : null;
+			int[] counts = new int[slots];
+			boolean anyDeleted = deletedCount > 0;
+			for (int row = from; row < to; row++) {
+				if (anyDeleted && deleted.get(row)) {
+					continue;
+				}
+				if (filter.bornFromDay != NO_DAY && (birthDay[row] == NO_DAY || birthDay[row] < filter.bornFromDay)) {
+					continue;
+				}
+				if (filter.bornBeforeDay != NO_DAY && (birthDay[row] == NO_DAY || birthDay[row] >= filter.bornBeforeDay)) {
+					continue;
+				}
+				if (filter.createdFrom != NO_TIME && (createdAt[row] == NO_TIME || createdAt[row] < filter.createdFrom)) {
+					continue;
+				}
+				if (filter.createdBefore != NO_TIME && (createdAt[row] == NO_TIME || createdAt[row] >= filter.createdBefore)) {
+					continue;
+				}
+				if (lastNameCode >= 0 && lastName[row] != lastNameCode) {
+					continue;
+				}
+				if (emailDomainCode >= 0 && emailDomain[row] != emailDomainCode) {
+					continue;
+				}
+				if (years == null) {
+					counts[group[row]]++;
+				} else {
+					counts[years[row] == 0 ? 0 : years[row] - firstYear + 1]++;
+				}
+			}
+			return counts;
+		}
+	}
+
+	private int[] column(GroupBy groupBy) {
+		switch (groupBy) {
+		case EMAIL_DOMAIN:
+			return emailDomain;
+		case LAST_NAME:
+			return lastName;
+		case FIRST_NAME:
+			return firstName;
+		default:
+			return null;
+		}
+	}
+
+	private Dictionary dictionary(GroupBy groupBy) {
+		switch (groupBy) {
+		case EMAIL_DOMAIN:
+			return emailDomains;
+		case LAST_NAME:
+			return lastNames;
+		default:
+			return firstNames;
+		}
+	}
+
+	/**
+	 * @return the row of the customer, or -(insertion point) - 1 if it is not in the snapshot
+	 */
+	private int find(long id) {
+		return Arrays.binarySearch(ids, 0, size, id);
+	}
+
+	private void append(long id, Date created, Date birthdate, String first, String last, String email) {
+		ensureCapacity(size + 1);
+		set(size++, id, created, birthdate, first, last, email);
+	}
+
+	private void set(int row, long id, Date created, Date birthdate, String first, String last, String email) {
+		ids[row] = id;
+		createdAt[row] = created == null ? NO_TIME : created.getTime();
+		createdYear[row] = created == null ? 0 : (short) Instant.ofEpochMilli(created.getTime()).atZone(ZoneId.systemDefault()).getYear();
+		if (created != null) {
+			firstCreatedYear = (short) Math.min(firstCreatedYear, createdYear[row]);
+			lastCreatedYear = (short) Math.max(lastCreatedYear, createdYear[row]);
+		}
+		if (birthdate == null) {
+			birthDay[row] = NO_DAY;
+			birthYear[row] = 0;
+		} else {
+			java.time.LocalDate day = new java.sql.Date(birthdate.getTime()).toLocalDate();
+			birthDay[row] = (int) day.toEpochDay();
+			birthYear[row] = (short) day.getYear();
+			firstBirthYear = (short) Math.min(firstBirthYear, birthYear[row]);
+			lastBirthYear = (short) Math.max(lastBirthYear, birthYear[row]);
+		}
+		firstName[row] = firstNames.encode(first);
+		lastName[row] = lastNames.encode(last);
+		emailDomain[row] = emailDomains.encode(domain(email));
+	}
+
+	/**
+	 * @param email
+	 * @return the part after the @, lower case, or null if there is none
+	 */
+	static String domain(String email) {
+		if (email == null) {
+			return null;
+		}
+		int at = email.lastIndexOf('@');
+		return at < 0 || at == email.length() - 1 ? null : email.substring(at + 1).toLowerCase();
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= ids.length) {
+			return;
+		}
+		int length = Math.max(capacity, ids.length + (ids.length >> 1));
+		ids = Arrays.copyOf(ids, length);
+		createdAt = Arrays.copyOf(createdAt, length);
+		birthDay = Arrays.copyOf(birthDay, length);
+		birthYear = Arrays.copyOf(birthYear, length);
+		createdYear = Arrays.copyOf(createdYear, length);
+		firstName = Arrays.copyOf(firstName, length);
+		lastName = Arrays.copyOf(lastName, length);
+		emailDomain = Arrays.copyOf(emailDomain, length);
+	}
+
+	/**
+	 * Open an empty row, keeping the rows in id order
+	 */
+	private void insertGap(int row) {
+		ensureCapacity(size + 1);
+		int moved = size - row;
+		System.arraycopy(ids, row, ids, row + 1, moved);
+		System.arraycopy(createdAt, row, createdAt, row + 1, moved);
+		System.arraycopy(birthDay, row, birthDay, row + 1, moved);
+		System.arraycopy(birthYear, row, birthYear, row + 1, moved);
+		System.arraycopy(createdYear, row, createdYear, row + 1, moved);
+		System.arraycopy(firstName, row, firstName, row + 1, moved);
+		System.arraycopy(lastName, row, lastName, row + 1, moved);
+		System.arraycopy(emailDomain, row, emailDomain, row + 1, moved);
+		for (int i = deleted.previousSetBit(size - 1); i >= row; i = deleted.previousSetBit(i - 1)) {
+			deleted.clear(i);
+			deleted.set(i + 1);
+		}
+		size++;
+	}
+
+	/**
+	 * Drop deleted rows
+	 */
+	private void compact() {
+		int to = 0;
+		for (int from = 0; from < size; from++) {
+			if (!deleted.get(from)) {
+				move(from, to++);
+			}
+		}
+		size = to;
+		deleted.clear();
+		deletedCount = 0;
+	}
+
+	private void move(int from, int to) {
+		ids[to] = ids[from];
+		createdAt[to] = createdAt[from];
+		birthDay[to] = birthDay[from];
+		birthYear[to] = birthYear[from];
+		createdYear[to] = createdYear[from];
+		firstName[to] = firstName[from];
+		lastName[to] = lastName[from];
+		emailDomain[to] = emailDomain[from];
+	}
+
+	/**
+	 * Put the rows in id order after loading several shards
+	 */
+	private void sortById() {
+		boolean sorted = true;
+		for (int row = 1; row < size && sorted; row++) {
+			sorted = ids[row - 1] < ids[row];
+		}
+		if (sorted) {
+			return;
+		}
+		Integer[] order = new Integer[size];
+		for (int row = 0; row < size; row++) {
+			order[row] = row;
+		}
+		long[] keys = ids;
+		Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+		ids = permute(ids, order);
+		createdAt = permute(createdAt, order);
+		birthDay = permute(birthDay, order);
+		birthYear = permute(birthYear, order);
+		createdYear = permute(createdYear, order);
+		firstName = permute(firstName, order);
+		lastName = permute(lastName, order);
+		emailDomain = permute(emailDomain, order);
+	}
+
+	private static long[] permute(long[] column, Integer[] order) {
+		long[] permuted = new long[column.length];
+		for (int row = 0; row < order.length; row++) {
+			permuted[row] = column[order[row]];
+		}
+		return permuted;
+	}
+
+	private static int[] permute(int[] column, Integer[] order) {
+		int[] permuted = new int[column.length];
+		for (int row = 0; row < order.length; row++) {
+			permuted[row] = column[order[row]];
+		}
+		return permuted;
+	}
+
+	private static short[] permute(short[] column, Integer[] order) {
+		short[] permuted = new short[column.length];
+		for (int row = 0; row < order.length; row++) {
+			permuted[row] = column[order[row]];
+		}
+		return permuted;
+	}
+
+	/**
+	 * Append-only dictionary encoding of strings, with code 0 for null
+	 * Only changed under the snapshot's write lock
+	 */
+	static class Dictionary {
+
+		// Code of a value that has never been seen
+		static final int UNKNOWN = -2;
+
+		private final Map<String, Integer> codes = new HashMap<String, Integer>();
+		private final List<String> values = new ArrayList<String>();
+
+		Dictionary() {
+			values.add(null);
+		}
+
+		int encode(String value) {
+			if (value == null) {
+				return 0;
+			}
+			Integer code = codes.get(value);
+			if (code == null) {
+				code = values.size();
+				codes.put(value, code);
+				values.add(value);
+			}
+			return code;
+		}
+
+		int code(String value) {
+			Integer code = codes.get(value);
+			return code == null ? UNKNOWN : code;
+		}
+
+		String value(int code) {
+			return values.get(code);
+		}
+
+		int size() {
+			return values.size();
+		}
+
+		void clear() {
+			codes.clear();
+			values.clear();
+			values.add(null);
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package sshephard.customer;
+
+import java.util.Comparator;
+import java.util.function.Function;
+
+/**
+ * Sort orders for customer searches, given as sort=field or sort=-field for descending
+ * Each breaks ties by id, so that a page of results is stable
+ * The ascending orders and newest first are backed by composite indexes on Customer, so that a limited search
+ * reads the index in order and stops early; the other descending orders sort the matches
+ * @author s.shephard2
+ *
+ */
+public enum CustomerSort {
+
+	ID("id", false, Customer::getId),
+	LAST_NAME("last_name", false, Customer::getLast_name),
+	LAST_NAME_DESC("last_name", true, Customer::getLast_name),
+	FIRST_NAME("first_name", false, Customer::getFirst_name),
+	FIRST_NAME_DESC("first_name", true, Customer::getFirst_name),
+	CREATED_AT("created_at", false, Customer::getCreated_at),
+	CREATED_AT_DESC("created_at", true, Customer::getCreated_at),
+	BIRTHDATE("birthdate", false, Customer::getBirthdate),
+	BIRTHDATE_DESC("birthdate", true, Customer::getBirthdate);
+
+	private final String field;
+	private final boolean descending;
+	private final Comparator<Customer> comparator;
+
+	<T extends Comparable<? super T>> CustomerSort(String field, boolean descending, Function<Customer, T> value) {
+		this.field = field;
+		this.descending = descending;
+
+		// Nulls first ascending and last descending, as the database sorts them
+		Comparator<Customer> order = Comparator.comparing(value, Comparator.nullsFirst(Comparator.naturalOrder()));
+		this.comparator = (descending ? order.reversed() : order).thenComparing(Customer::getId);
+	}
+
+	/**
+	 * @param sort field name, prefixed with - for descending
+	 * @return the sort order, or null if there is no such sort
+	 */
+	public static CustomerSort parse(String sort) {
+		boolean descending = sort.startsWith("-");
+		String field = descending ? sort.substring(1) : sort;
+		for (CustomerSort value : values()) {
+			if (value.field.equals(field) && value.descending == descending) {
+				return value;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the JPQL ORDER BY clause, with the customer aliased as c
+	 */
+	public String orderBy() {
+		if (this == ID) {
+			return "c.id";
+		}
+		String direction = descending ? " DESC" : "";
+		return "c." + field + direction + ", c.id";
+	}
+
+	/**
+	 * @return the same order, for merging sorted results in memory
+	 */
+	public Comparator<Customer> comparator() {
+		return comparator;
+	}
+}
@@ -0,0 +1,180 @@
+package sshephard.customer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Autocomplete over usernames and display names, from an in-memory PrefixTrie for each
+ * Rebuilt at startup and kept up to date from CustomerChangedEvents
+ * @author s.shephard2
+ *
+ */
+@Component
+public class CustomerSuggestions {
+
+	// Logger for customer.CustomerSuggestions
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	/**
+	 * Fields that can be completed
+	 */
+	public enum Field {
+		USERNAME, DISPLAY_NAME;
+
+		/**
+		 * @param value e.g. display_name
+		 * @return the field, or null if there is none
+		 */
+		public static Field parse(String value) {
+			for (Field field : values()) {
+				if (field.name().equalsIgnoreCase(value)) {
+					return field;
+				}
+			}
+			return null;
+		}
+	}
+
+	@Autowired
+	private DataSource dataSource;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private PrefixTrie usernames = new PrefixTrie();
+	private PrefixTrie displayNames = new PrefixTrie();
+
+	// Values in the tries for each customer, so that they can be taken out when it changes or is deleted
+	private Map<Long, String[]> values = new HashMap<Long, String[]>();
+
+	// Changes made while a rebuild is reading, to replay onto the rebuilt tries; null unless a rebuild is running
+	private List<CustomerChangedEvent> pending;
+
+	/**
+	 * Load every customer once the schema exists on every shard
+	 */
+	@EventListener(ContextRefreshedEvent.class)
+	public void startup() {
+		rebuild();
+	}
+
+	/**
+	 * Reload every customer, reading the columns directly so that no entities are created
+	 * Suggestions are served from the old tries while it reads; changes made meanwhile, which the read may have missed,
+	 * are replayed onto the new tries before they replace them
+	 */
+	public synchronized void rebuild() {
+		long start = System.currentTimeMillis();
+		lock.writeLock().lock();
+		try {
+			pending = new ArrayList<CustomerChangedEvent>();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		PrefixTrie newUsernames = new PrefixTrie();
+		PrefixTrie newDisplayNames = new PrefixTrie();
+		Map<Long, String[]> newValues = new HashMap<Long, String[]>();
+		for (DataSource shard : ShardRoutingDataSource.shardsOf(dataSource)) {
+			JdbcTemplate jdbcTemplate = new JdbcTemplate(shard);
+			jdbcTemplate.setFetchSize(10000);
+			jdbcTemplate.query("SELECT id, username, display_name FROM customer", resultSet -> {
+				String[] customer = {resultSet.getString(2), resultSet.getString(3)};
+				add(newUsernames, newDisplayNames, customer);
+				newValues.put(resultSet.getLong(1), customer);
+			});
+		}
+		lock.writeLock().lock();
+		try {
+			usernames = newUsernames;
+			displayNames = newDisplayNames;
+			values = newValues;
+			// Applying a change the read did see as well is harmless, since it replaces the customer's values
+			for (CustomerChangedEvent event : pending) {
+				apply(event);
+			}
+		} finally {
+			pending = null;
+			lock.writeLock().unlock();
+		}
+		logger.info("Suggestions rebuilt with {} usernames and {} display names in {}ms", newUsernames.size(), newDisplayNames.size(),
+				System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Keep the tries up to date with committed changes
+	 * @param event
+	 */
+	@EventListener
+	public void customerChanged(CustomerChangedEvent event) {
+		lock.writeLock().lock();
+		try {
+			apply(event);
+			if (pending != null) {
+				pending.add(event);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void apply(CustomerChangedEvent event) {
+		String[] previous = values.remove(event.getId());
+		if (previous != null) {
+			remove(usernames, displayNames, previous);
+		}
+		if (!event.isDeleted()) {
+			String[] customer = {event.getCustomer().getUsername(), event.getCustomer().getDisplay_name()};
+			add(usernames, displayNames, customer);
+			values.put(event.getId(), customer);
+		}
+	}
+
+	private static void add(PrefixTrie usernames, PrefixTrie displayNames, String[] customer) {
+		if (customer[0] != null) {
+			usernames.add(customer[0]);
+		}
+		if (customer[1] != null) {
+			displayNames.add(customer[1]);
+		}
+	}
+
+	private static void remove(PrefixTrie usernames, PrefixTrie displayNames, String[] customer) {
+		if (customer[0] != null) {
+			usernames.remove(customer[0]);
+		}
+		if (customer[1] != null) {
+			displayNames.remove(customer[1]);
+		}
+	}
+
+	/**
+	 * @param field
+	 * @param prefix
+	 * @param limit
+	 * @return up to limit values of the field starting with the prefix, ignoring case, most common first then alphabetically
+	 */
+	public List<String> suggest(Field field, String prefix, int limit) {
+		List<String> suggestions = new ArrayList<String>();
+		lock.readLock().lock();
+		try {
+			for (PrefixTrie.Completion completion : (field == Field.USERNAME ? usernames : displayNames).complete(prefix, limit)) {
+				suggestions.add(completion.getValue());
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return suggestions;
+	}
+}
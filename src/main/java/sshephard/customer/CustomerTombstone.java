@@ -0,0 +1,47 @@
+package sshephard.customer;
+
+import java.util.Date;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * Record of a customer removed from the customer table, deleted or archived, so that GET /customers/changes can list it
+ * Written by CustomerTombstones in the transaction that removes the customer, on the same shard
+ * @author s.shephard2
+ *
+ */
+@Entity
+@Table(name = "customer_tombstone", indexes = {
+	@Index(name = "customer_tombstone_deleted_at", columnList = "deleted_at, id")})
+public class CustomerTombstone {
+
+	// Same id the customer had in the customer table
+	@Id
+	private Long id;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date deleted_at;
+
+	protected CustomerTombstone() {
+	}
+
+	/**
+	 * @return the id
+	 */
+	public Long getId() {
+		return id;
+	}
+
+	/**
+	 * @return the deleted_at
+	 */
+	public Date getDeleted_at() {
+		return deleted_at;
+	}
+
+}
@@ -0,0 +1,112 @@
+package sshephard.customer;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+import org.hibernate.Session;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.internal.SessionFactoryImpl;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes a CustomerTombstone for every customer removed from the customer table
+ * Entity deletes are recorded by a Hibernate post-delete listener, which runs in the deleting transaction; set-based
+ * deletes (bulk DELETE and the archive) record the ids they removed themselves. The rows are written with JDBC on the
+ * transaction's own connection, so they commit or roll back with the delete and land on the customer's shard.
+ * Tombstones older than customer.changes.tombstone-retention-days are purged by CustomerTombstonesJob.
+ * @author s.shephard2
+ *
+ */
+@Component
+public class CustomerTombstones implements PostDeleteEventListener {
+
+	private static final long serialVersionUID = 1L;
+
+	// Most tombstones purged by one statement, to keep lock hold times short
+	static final int PURGE_CHUNK = 500;
+
+	@Autowired
+	private transient EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private transient DataSource dataSource;
+
+	@PostConstruct
+	public void register() {
+		EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImpl.class)
+				.getServiceRegistry().getService(EventListenerRegistry.class);
+		registry.appendListeners(EventType.POST_DELETE, this);
+	}
+
+	/**
+	 * Record customers removed in the entity manager's current transaction
+	 * @param entityManager
+	 * @param ids
+	 */
+	public void record(EntityManager entityManager, Collection<Long> ids) {
+		record(entityManager.unwrap(Session.class), ids);
+	}
+
+	private void record(Session session, Collection<Long> ids) {
+		if (ids.isEmpty()) {
+			return;
+		}
+		Timestamp now = new Timestamp(System.currentTimeMillis());
+		session.doWork(connection -> {
+			// MERGE rather than INSERT, in case an id is ever removed twice
+			try (PreparedStatement statement = connection.prepareStatement("MERGE INTO customer_tombstone (id, deleted_at) KEY (id) VALUES (?, ?)")) {
+				for (Long id : ids) {
+					statement.setLong(1, id);
+					statement.setTimestamp(2, now);
+					statement.addBatch();
+				}
+				statement.executeBatch();
+			}
+		});
+	}
+
+	/**
+	 * Delete the tombstones of customers removed before a time, a chunk at a time on every shard
+	 * @param deletedBefore
+	 * @return the number of tombstones deleted
+	 */
+	public int purge(Date deletedBefore) {
+		Timestamp before = new Timestamp(deletedBefore.getTime());
+		int purged = 0;
+		for (DataSource shard : ShardRoutingDataSource.shardsOf(dataSource)) {
+			JdbcTemplate jdbcTemplate = new JdbcTemplate(shard);
+			int chunk;
+			do {
+				chunk = jdbcTemplate.update("DELETE FROM customer_tombstone WHERE deleted_at < ? LIMIT " + PURGE_CHUNK, before);
+				purged += chunk;
+			} while (chunk == PURGE_CHUNK);
+		}
+		return purged;
+	}
+
+	@Override
+	public void onPostDelete(PostDeleteEvent event) {
+		if (event.getEntity() instanceof Customer) {
+			record(event.getSession(), Collections.singletonList((Long) event.getId()));
+		}
+	}
+
+	@Override
+	public boolean requiresPostCommitHanding(EntityPersister persister) {
+		return false;
+	}
+}
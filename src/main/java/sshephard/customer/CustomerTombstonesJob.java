@@ -0,0 +1,50 @@
+package sshephard.customer;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Background purge of tombstones older than customer.changes.tombstone-retention-days, unless that is 0
+ * GET /customers/changes refuses tokens older than the same window, since removals before it may have been purged
+ * @author s.shephard2
+ *
+ */
+@Component
+public class CustomerTombstonesJob {
+
+	// Logger for customer.CustomerTombstonesJob
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private CustomerTombstones tombstones;
+
+	private final long retentionDays;
+
+	/**
+	 * @param retentionDays age in days at which tombstones are purged, 0 to keep them indefinitely
+	 */
+	public CustomerTombstonesJob(@Value("${customer.changes.tombstone-retention-days:30}") long retentionDays) {
+		this.retentionDays = retentionDays;
+	}
+
+	@Scheduled(initialDelayString = "${customer.changes.tombstone-purge-interval-millis:3600000}", fixedDelayString = "${customer.changes.tombstone-purge-interval-millis:3600000}")
+	public void purge() {
+		if (retentionDays <= 0) {
+			return;
+		}
+		Date deletedBefore = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays));
+		try {
+			int purged = tombstones.purge(deletedBefore);
+			logger.info("Purged {} tombstones of customers removed before {}", purged, deletedBefore);
+		} catch (Exception e) {
+			logger.error("Purging tombstones of customers removed before {} failed", deletedBefore, e);
+		}
+	}
+}
@@ -0,0 +1,275 @@
+package sshephard.customer;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Startup warm-up, enabled by customer.warmup.enabled=true
+ * Once the application has started, a background thread opens the connection pool, loads the most recently changed
+ * customers into the second-level cache and replays representative requests over HTTP in rounds, until the p99 latency of
+ * a round is no better than that of the round before, so that the JIT, query plan cache and pool are warm before GET /ready
+ * reports ready. Replayed requests carry admission control's internal token, so they are not throttled.
+ * @author s.shephard2
+ *
+ */
+@Component
+@ConditionalOnProperty(prefix = "customer.warmup", name = "enabled")
+public class CustomerWarmup {
+
+	// Logger for customer.CustomerWarmup
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	// Replaced in a request by the id of each hot customer in turn
+	static final String ID = "{id}";
+
+	@Autowired
+	private DataSource dataSource;
+
+	@Autowired
+	private CustomerRepository repository;
+
+	@Autowired
+	private Environment environment;
+
+	// Absent unless customer.admission.enabled=true
+	@Autowired(required = false)
+	private AdmissionControlFilter admission;
+
+	// Request paths and query strings to replay, comma separated
+	@Value("${customer.warmup.requests:/customers/{id}}")
+	private String[] requests;
+
+	// Times each request is replayed in a round
+	@Value("${customer.warmup.round-size:100}")
+	private int roundSize;
+
+	@Value("${customer.warmup.min-rounds:3}")
+	private int minRounds;
+
+	@Value("${customer.warmup.max-rounds:20}")
+	private int maxRounds;
+
+	// Warm-up stops after this long whether or not the latency has settled
+	@Value("${customer.warmup.max-millis:60000}")
+	private long maxMillis;
+
+	// Concurrent replayed requests
+	@Value("${customer.warmup.threads:4}")
+	private int threads;
+
+	// Connections opened in each pool
+	@Value("${customer.warmup.connections:10}")
+	private int connections;
+
+	// Most recently changed customers loaded into the second-level cache
+	@Value("${customer.warmup.hot-customers:1000}")
+	private int hotCustomers;
+
+	private volatile boolean ready;
+	private volatile long elapsedMillis;
+	private volatile int openedConnections;
+	private volatile List<Long> hotIds = new ArrayList<Long>();
+	private final AtomicLong replayed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final List<Long> roundP99Micros = new CopyOnWriteArrayList<Long>();
+
+	/**
+	 * Warm up in the background once the application has started and any generated customers have been loaded
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void startup() {
+		Thread thread = new Thread(this::warmUp, "customer-warmup");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Open connections, preload hot customers and replay requests, then report ready whatever the outcome
+	 */
+	public void warmUp() {
+		long start = System.currentTimeMillis();
+		try {
+			openedConnections = openConnections();
+			hotIds = preload();
+			String port = environment.getProperty("local.server.port");
+			if (port == null) {
+				logger.info("No web server, requests not replayed");
+			} else {
+				replay("http://localhost:" + port, start + maxMillis);
+			}
+		} catch (Exception e) {
+			logger.error("Warm-up failed", e);
+		} finally {
+			elapsedMillis = System.currentTimeMillis() - start;
+			ready = true;
+		}
+		logger.info("Warmed up in {}ms with {} connections, {} hot customers and {} requests, p99 by round {}us",
+				elapsedMillis, openedConnections, hotIds.size(), replayed.get(), roundP99Micros);
+	}
+
+	/**
+	 * Borrow connections from every pool at once, so that they are all open and idle when returned
+	 * @return connections opened
+	 */
+	private int openConnections() {
+		int opened = 0;
+		for (DataSource shard : ShardRoutingDataSource.shardsOf(dataSource)) {
+			List<Connection> borrowed = new ArrayList<Connection>();
+			try {
+				while (borrowed.size() < connections) {
+					borrowed.add(shard.getConnection());
+				}
+			} catch (SQLException e) {
+				logger.warn("Opened {} of {} connections: {}", borrowed.size(), connections, e.getMessage());
+			} finally {
+				opened += borrowed.size();
+				for (Connection connection : borrowed) {
+					try {
+						connection.close();
+					} catch (SQLException e) {
+						logger.warn("Failed to return connection", e);
+					}
+				}
+			}
+		}
+		return opened;
+	}
+
+	/**
+	 * Load the most recently changed customers on each shard through the repository, caching them
+	 * @return their ids
+	 */
+	private List<Long> preload() {
+		List<Long> ids = new ArrayList<Long>();
+		if (hotCustomers <= 0) {
+			return ids;
+		}
+		for (DataSource shard : ShardRoutingDataSource.shardsOf(dataSource)) {
+			ids.addAll(new JdbcTemplate(shard).queryForList(
+					"SELECT id FROM customer ORDER BY updated_at DESC, id DESC LIMIT ?", Long.class, hotCustomers));
+		}
+		repository.findByIds(ids);
+		return ids;
+	}
+
+	/**
+	 * Replay the requests in rounds until a round's p99 stops improving, or the deadline passes
+	 * @param baseUrl
+	 * @param deadline
+	 * @throws Exception
+	 */
+	private void replay(String baseUrl, long deadline) throws Exception {
+		RestTemplate restTemplate = new RestTemplate();
+		restTemplate.setErrorHandler(new DefaultResponseErrorHandler() {
+			@Override
+			public boolean hasError(ClientHttpResponse response) {
+				return false;
+			}
+		});
+		if (admission != null) {
+			// Replayed requests all come from this one client, and would be throttled as such
+			String token = admission.getInternalToken();
+			restTemplate.getInterceptors().add((request, body, execution) -> {
+				request.getHeaders().set(AdmissionControlFilter.INTERNAL_HEADER, token);
+				return execution.execute(request, body);
+			});
+		}
+		List<Long> ids = hotIds;
+		AtomicInteger nextId = new AtomicInteger();
+		LatencyHistogram latency = new LatencyHistogram();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		try {
+			long previousP99 = Long.MAX_VALUE;
+			for (int round = 0; round < maxRounds && System.currentTimeMillis() < deadline; round++) {
+				long[] before = latency.snapshot();
+				List<Future<?>> replays = new ArrayList<Future<?>>();
+				for (int i = 0; i < roundSize; i++) {
+					for (String request : requests) {
+						if (request.contains(ID)) {
+							if (ids.isEmpty()) {
+								continue;
+							}
+							request = request.replace(ID, ids.get(Math.floorMod(nextId.getAndIncrement(), ids.size())).toString());
+						}
+						String url = baseUrl + request.trim();
+						replays.add(executor.submit(() -> {
+							long start = System.nanoTime();
+							try {
+								if (!restTemplate.getForEntity(url, byte[].class).getStatusCode().is2xxSuccessful()) {
+									failed.incrementAndGet();
+								}
+							} catch (Exception e) {
+								failed.incrementAndGet();
+							}
+							latency.record(System.nanoTime() - start);
+							replayed.incrementAndGet();
+						}));
+					}
+				}
+				for (Future<?> replay : replays) {
+					replay.get();
+				}
+				long p99 = LatencyHistogram.percentileMicros(LatencyHistogram.difference(before, latency.snapshot()), 99);
+				roundP99Micros.add(p99);
+				if (round + 1 >= minRounds && p99 >= previousP99) {
+					break;
+				}
+				previousP99 = p99;
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * @return true once warm-up has finished
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * @return progress of the warm-up
+	 */
+	public Map<String, Object> status() {
+		Map<String, Object> status = new LinkedHashMap<String, Object>();
+		status.put("ready", ready);
+		status.put("elapsed_millis", ready ? elapsedMillis : null);
+		status.put("connections", openedConnections);
+		status.put("hot_customers", hotIds.size());
+		status.put("requests", replayed.get());
+		status.put("failed_requests", failed.get());
+		status.put("round_p99_micros", new ArrayList<Long>(roundP99Micros));
+		return status;
+	}
+
+	List<Long> getHotIds() {
+		return hotIds;
+	}
+}
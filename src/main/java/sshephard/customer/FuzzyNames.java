@@ -0,0 +1,287 @@
+package sshephard.customer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.apache.commons.codec.language.DoubleMetaphone;
+
+/**
+ * Phonetic keys and edit-distance ranking for fuzzy name matching
+ * Keys are computed when a customer is saved and stored in indexed columns, so that
+ * finding candidates is an index lookup, and only the candidates are compared character by character
+ * @author s.shephard2
+ *
+ */
+public final class FuzzyNames {
+
+	// Longer than the default of 4, so that long names have fewer false candidates
+	private static final int KEY_LENGTH = 6;
+
+	// DoubleMetaphone is thread-safe once configured
+	private static final DoubleMetaphone ENCODER = new DoubleMetaphone();
+	static {
+		ENCODER.setMaxCodeLen(KEY_LENGTH);
+	}
+
+	private FuzzyNames() {
+	}
+
+	/**
+	 * @param name
+	 * @return the phonetic key to store for a name, or null if it has none
+	 */
+	public static String key(String name) {
+		if (name == null) {
+			return null;
+		}
+		String key = ENCODER.doubleMetaphone(name);
+		return key == null || key.isEmpty() ? null : key;
+	}
+
+	/**
+	 * Keys to look up for a searched name: the primary and alternate keys of the whole name and of each word in it
+	 * @param name
+	 * @return
+	 */
+	public static Set<String> keys(String name) {
+		Set<String> keys = new LinkedHashSet<String>();
+		addKeys(keys, name);
+		String[] words = name.trim().split("\\s+");
+		if (words.length > 1) {
+			for (String word : words) {
+				addKeys(keys, word);
+			}
+		}
+		return keys;
+	}
+
+	private static void addKeys(Set<String> keys, String name) {
+		String primary = ENCODER.doubleMetaphone(name);
+		if (primary != null && !primary.isEmpty()) {
+			keys.add(primary);
+			keys.add(ENCODER.doubleMetaphone(name, true));
+		}
+	}
+
+	/**
+	 * The most edits allowed between a searched name and a match
+	 * @param name
+	 * @return
+	 */
+	public static int maxDistance(String name) {
+		return 1 + name.length() / 4;
+	}
+
+	/**
+	 * Rank candidates by their closest name to the searched name, dropping any that are too far away
+	 * @param name the searched name
+	 * @param candidates customers with a matching phonetic key
+	 * @param limit maximum number of results
+	 * @return the closest customers, closest first
+	 */
+	public static List<Customer> rank(String name, List<Customer> candidates, int limit) {
+		Ranking ranking = new Ranking(name, limit);
+		Map<Long, Customer> byId = new HashMap<Long, Customer>();
+		for (Customer customer : candidates) {
+			ranking.offer(customer.getId(), customer.getFirst_name(), customer.getLast_name(), customer.getDisplay_name());
+			byId.put(customer.getId(), customer);
+		}
+		List<Customer> ranked = new ArrayList<Customer>();
+		for (Long id : ranking.ids()) {
+			ranked.add(byId.get(id));
+		}
+		return ranked;
+	}
+
+	/**
+	 * The closest matches to a searched name offered so far, at most limit of them
+	 * Candidates can be offered a page at a time as they are read, so that nothing is cut before it is ranked
+	 * @author s.shephard2
+	 *
+	 */
+	public static final class Ranking {
+
+		// Closest first, then by id so that the order is stable
+		private static final Comparator<long[]> CLOSEST_FIRST = Comparator.comparingLong((long[] match) -> match[1])
+				.thenComparingLong(match -> match[0]);
+
+		private final String searched;
+		private final int bound;
+		private final int limit;
+
+		// The kept matches as {id, distance}, the furthest at the head so that it is the one replaced
+		private final PriorityQueue<long[]> kept;
+		private final Set<Long> keptIds = new HashSet<Long>();
+
+		// Common names are shared by many candidates, so each is compared once
+		private final Map<String, Integer> distances = new HashMap<String, Integer>();
+
+		public Ranking(String name, int limit) {
+			this.searched = name.trim().toLowerCase();
+			this.bound = maxDistance(searched);
+			this.limit = limit;
+			this.kept = new PriorityQueue<long[]>(Math.max(1, Math.min(limit, 64)), CLOSEST_FIRST.reversed());
+		}
+
+		/**
+		 * Offer a candidate, keeping it if it is close enough and closer than the furthest kept so far
+		 * @param id
+		 * @param firstName
+		 * @param lastName
+		 * @param displayName
+		 */
+		public void offer(Long id, String firstName, String lastName, String displayName) {
+			if (limit < 1 || keptIds.contains(id)) {
+				return;
+			}
+			int best = Math.min(distance(firstName), Math.min(distance(lastName), distance(displayName)));
+			if (best > bound) {
+				return;
+			}
+			long[] match = {id, best};
+			if (kept.size() == limit) {
+				if (CLOSEST_FIRST.compare(match, kept.peek()) >= 0) {
+					return;
+				}
+				keptIds.remove(kept.poll()[0]);
+			}
+			kept.add(match);
+			keptIds.add(id);
+		}
+
+		/**
+		 * @param id
+		 * @return true if no candidate with a greater id could displace any kept match, so reading in id order can stop
+		 */
+		public boolean isSettled(long id) {
+			return kept.size() >= limit && (limit < 1 || kept.peek()[1] == 0 && kept.peek()[0] < id);
+		}
+
+		/**
+		 * @return ids of the kept matches, closest first
+		 */
+		public List<Long> ids() {
+			List<long[]> matches = new ArrayList<long[]>(kept);
+			matches.sort(CLOSEST_FIRST);
+			List<Long> ids = new ArrayList<Long>();
+			for (long[] match : matches) {
+				ids.add(match[0]);
+			}
+			return ids;
+		}
+
+		private int distance(String name) {
+			if (name == null) {
+				return bound + 1;
+			}
+			Integer distance = distances.get(name);
+			if (distance == null) {
+				distance = FuzzyNames.distance(searched, name, bound);
+				distances.put(name, distance);
+			}
+			return distance;
+		}
+	}
+
+	/**
+	 * Case-insensitive Levenshtein distance, giving up once it exceeds the bound
+	 * @param searched lower case searched name
+	 * @param name
+	 * @param bound
+	 * @return the distance, or bound + 1 if it is greater than the bound
+	 */
+	static int distance(String searched, String name, int bound) {
+		if (name == null) {
+			return bound + 1;
+		}
+		String target = name.toLowerCase();
+		if (Math.abs(searched.length() - target.length()) > bound) {
+			return bound + 1;
+		}
+
+		int[] previous = new int[target.length() + 1];
+		int[] current = new int[target.length() + 1];
+		for (int j = 0; j <= target.length(); j++) {
+			previous[j] = j;
+		}
+		for (int i = 1; i <= searched.length(); i++) {
+			current[0] = i;
+			int rowMin = i;
+			for (int j = 1; j <= target.length(); j++) {
+				int substitution = previous[j - 1] + (searched.charAt(i - 1) == target.charAt(j - 1) ? 0 : 1);
+				current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+				rowMin = Math.min(rowMin, current[j]);
+			}
+			if (rowMin > bound) {
+				return bound + 1;
+			}
+			int[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+		return Math.min(previous[target.length()], bound + 1);
+	}
+
+	/**
+	 * Jaro-Winkler similarity of two lower case strings, which favours strings that agree at the start
+	 * @param a
+	 * @param b
+	 * @return 1 for identical strings down to 0 for nothing in common, 0 if either is null or empty
+	 */
+	static double similarity(String a, String b) {
+		if (a == null || b == null || a.isEmpty() || b.isEmpty()) {
+			return 0;
+		}
+		if (a.equals(b)) {
+			return 1;
+		}
+
+		// Characters match if they are the same and no further apart than half the longer string
+		int window = Math.max(0, Math.max(a.length(), b.length()) / 2 - 1);
+		boolean[] aMatched = new boolean[a.length()];
+		boolean[] bMatched = new boolean[b.length()];
+		int matches = 0;
+		for (int i = 0; i < a.length(); i++) {
+			for (int j = Math.max(0, i - window); j < Math.min(b.length(), i + window + 1); j++) {
+				if (!bMatched[j] && a.charAt(i) == b.charAt(j)) {
+					aMatched[i] = true;
+					bMatched[j] = true;
+					matches++;
+					break;
+				}
+			}
+		}
+		if (matches == 0) {
+			return 0;
+		}
+
+		// Matched characters out of order
+		int transpositions = 0;
+		for (int i = 0, j = 0; i < a.length(); i++) {
+			if (aMatched[i]) {
+				while (!bMatched[j]) {
+					j++;
+				}
+				if (a.charAt(i) != b.charAt(j)) {
+					transpositions++;
+				}
+				j++;
+			}
+		}
+		double jaro = ((double) matches / a.length() + (double) matches / b.length() + (matches - transpositions / 2.0) / matches) / 3;
+
+		// Boost for a common prefix of up to 4 characters
+		int prefix = 0;
+		while (prefix < Math.min(4, Math.min(a.length(), b.length())) && a.charAt(prefix) == b.charAt(prefix)) {
+			prefix++;
+		}
+		return jaro + prefix * 0.1 * (1 - jaro);
+	}
+}
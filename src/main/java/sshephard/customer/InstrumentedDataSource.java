@@ -0,0 +1,209 @@
+package sshephard.customer;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.sql.DataSource;
+
+import org.apache.tomcat.jdbc.pool.DataSourceProxy;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * DataSource wrapper that measures the connection pool
+ * Records how long each connection takes to acquire and how long it is held, counts acquire timeouts,
+ * keeps track of borrowed connections so that leaks can be reported, and counts statements executed
+ * @author s.shephard2
+ *
+ */
+public class InstrumentedDataSource extends DelegatingDataSource {
+
+	private final String name;
+
+	private final LatencyHistogram acquireLatency = new LatencyHistogram();
+	private final LatencyHistogram holdLatency = new LatencyHistogram();
+	private final LongAdder timeouts = new LongAdder();
+	private final LongAdder statements = new LongAdder();
+	private final AtomicLong borrowIds = new AtomicLong();
+
+	// Most connections borrowed at once since the last call to resetPeakBorrowed()
+	private final AtomicInteger peakBorrowed = new AtomicInteger();
+
+	// Connections currently borrowed
+	private final Map<Long, Borrow> borrowed = new ConcurrentHashMap<Long, Borrow>();
+
+	/**
+	 * @param name for statistics and logging
+	 * @param target the connection pool
+	 */
+	public InstrumentedDataSource(String name, DataSource target) {
+		super(target);
+		this.name = name;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		long start = System.nanoTime();
+		Connection connection;
+		try {
+			connection = getTargetDataSource().getConnection();
+		} catch (SQLException e) {
+			// Most likely no connection became free within the pool's maxWait
+			timeouts.increment();
+			throw e;
+		} finally {
+			acquireLatency.record(System.nanoTime() - start);
+		}
+		return track(connection);
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return track(getTargetDataSource().getConnection(username, password));
+	}
+
+	/**
+	 * Wrap the connection so that returning it to the pool is recorded, and its statements are counted
+	 */
+	private Connection track(Connection connection) {
+		long id = borrowIds.incrementAndGet();
+		Borrow borrow = new Borrow(Thread.currentThread().getName(), System.nanoTime());
+		borrowed.put(id, borrow);
+		peakBorrowed.accumulateAndGet(borrowed.size(), Math::max);
+
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+				(proxy, method, args) -> {
+					if (method.getName().equals("close") && borrowed.remove(id) != null) {
+						holdLatency.record(System.nanoTime() - borrow.startNanos);
+					}
+					Object result = invoke(method, connection, args);
+					if (result instanceof Statement) {
+						return count((Statement) result, method.getReturnType());
+					}
+					return result;
+				});
+	}
+
+	/**
+	 * Wrap the statement so that each execution is counted
+	 * @param type the Statement interface it was created as
+	 */
+	private Object count(Statement statement, Class<?> type) {
+		return Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] {type},
+				(proxy, method, args) -> {
+					if (method.getName().startsWith("execute")) {
+						statements.increment();
+						StatementCounter.executed();
+					}
+					return invoke(method, statement, args);
+				});
+	}
+
+	private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * @param thresholdMillis
+	 * @return the threads holding a connection for longer than the threshold, and for how long in milliseconds
+	 */
+	public List<String> findLeaks(long thresholdMillis) {
+		long now = System.nanoTime();
+		List<String> leaks = new ArrayList<String>();
+		for (Borrow borrow : borrowed.values()) {
+			long heldMillis = TimeUnit.NANOSECONDS.toMillis(now - borrow.startNanos);
+			if (heldMillis > thresholdMillis) {
+				leaks.add(borrow.thread + " " + heldMillis + "ms");
+			}
+		}
+		return leaks;
+	}
+
+	/**
+	 * @return the tomcat connection pool, or null if the target is not one
+	 */
+	public DataSourceProxy getPool() {
+		return getTargetDataSource() instanceof DataSourceProxy ? (DataSourceProxy) getTargetDataSource() : null;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public LatencyHistogram getAcquireLatency() {
+		return acquireLatency;
+	}
+
+	public LatencyHistogram getHoldLatency() {
+		return holdLatency;
+	}
+
+	public long getTimeouts() {
+		return timeouts.sum();
+	}
+
+	public long getStatements() {
+		return statements.sum();
+	}
+
+	public int getBorrowed() {
+		return borrowed.size();
+	}
+
+	/**
+	 * @return most connections borrowed at once since the last reset
+	 */
+	public int resetPeakBorrowed() {
+		return peakBorrowed.getAndSet(borrowed.size());
+	}
+
+	/**
+	 * @param leakThresholdMillis
+	 * @return pool sizes, saturation, latencies and leaks for a JSON response
+	 */
+	public Map<String, Object> statistics(long leakThresholdMillis) {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		DataSourceProxy pool = getPool();
+		if (pool != null) {
+			statistics.put("size", pool.getSize());
+			statistics.put("active", pool.getActive());
+			statistics.put("idle", pool.getIdle());
+			statistics.put("max_active", pool.getMaxActive());
+			statistics.put("waiting", pool.getWaitCount());
+			statistics.put("saturation", pool.getMaxActive() == 0 ? 0.0 : (double) pool.getActive() / pool.getMaxActive());
+		}
+		statistics.put("timeouts", getTimeouts());
+		statistics.put("statements", getStatements());
+		statistics.put("acquire", acquireLatency.summary());
+		statistics.put("hold", holdLatency.summary());
+		statistics.put("leaks", findLeaks(leakThresholdMillis));
+		return statistics;
+	}
+
+	// A borrowed connection
+	private static class Borrow {
+		private final String thread;
+		private final long startNanos;
+
+		Borrow(String thread, long startNanos) {
+			this.thread = thread;
+			this.startNanos = startNanos;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package sshephard.customer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power-of-two microsecond buckets
+ * Bucket 0 holds latencies under 1us, bucket i latencies from 2^(i-1) to 2^i microseconds
+ * @author s.shephard2
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int BUCKETS = 40;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder totalNanos = new LongAdder();
+	private volatile long maxNanos;
+
+	/**
+	 * Record one latency
+	 * @param nanos
+	 */
+	public void record(long nanos) {
+		long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos));
+		int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		counts.incrementAndGet(bucket);
+		totalNanos.add(nanos);
+		if (nanos > maxNanos) {
+			maxNanos = nanos;
+		}
+	}
+
+	/**
+	 * @return a copy of the bucket counts, for comparison with a later snapshot
+	 */
+	public long[] snapshot() {
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @return total number of latencies recorded
+	 */
+	public long count() {
+		return count(snapshot());
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return upper bound of the bucket holding the percentile, in microseconds
+	 */
+	public long percentileMicros(double percentile) {
+		return percentileMicros(snapshot(), percentile);
+	}
+
+	/**
+	 * Bucket counts recorded between two snapshots
+	 * @param before
+	 * @param after
+	 * @return
+	 */
+	public static long[] difference(long[] before, long[] after) {
+		long[] difference = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			difference[i] = after[i] - before[i];
+		}
+		return difference;
+	}
+
+	public static long count(long[] snapshot) {
+		long count = 0;
+		for (long bucket : snapshot) {
+			count += bucket;
+		}
+		return count;
+	}
+
+	/**
+	 * @param snapshot bucket counts
+	 * @param percentile between 0 and 100
+	 * @return upper bound of the bucket holding the percentile, in microseconds, 0 if there are no latencies
+	 */
+	public static long percentileMicros(long[] snapshot, double percentile) {
+		long count = count(snapshot);
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(count * percentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= Math.max(1, rank)) {
+				return 1L << i;
+			}
+		}
+		return 1L << (BUCKETS - 1);
+	}
+
+	/**
+	 * @return count, mean, percentiles and max for a JSON response
+	 */
+	public Map<String, Object> summary() {
+		long[] snapshot = snapshot();
+		long count = count(snapshot);
+		Map<String, Object> summary = new LinkedHashMap<String, Object>();
+		summary.put("count", count);
+		summary.put("mean_micros", count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos.sum() / count));
+		summary.put("p50_micros", percentileMicros(snapshot, 50));
+		summary.put("p95_micros", percentileMicros(snapshot, 95));
+		summary.put("p99_micros", percentileMicros(snapshot, 99));
+		summary.put("max_micros", TimeUnit.NANOSECONDS.toMicros(maxNanos));
+		return summary;
+	}
+}
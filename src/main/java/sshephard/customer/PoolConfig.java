@@ -0,0 +1,52 @@
+package sshephard.customer;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Connection pool instrumentation
+ * The default tomcat connection pool is wrapped in an InstrumentedDataSource,
+ * the read/write splitting and sharding configurations instrument their own pools
+ * @author s.shephard2
+ *
+ */
+@Configuration
+public class PoolConfig {
+
+	@Bean
+	public static BeanPostProcessor poolInstrumentationPostProcessor() {
+		return new PoolInstrumentationPostProcessor();
+	}
+
+	/**
+	 * Wraps each tomcat connection pool bean
+	 */
+	static class PoolInstrumentationPostProcessor implements BeanPostProcessor, BeanFactoryAware {
+
+		private BeanFactory beanFactory;
+
+		@Override
+		public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+			this.beanFactory = beanFactory;
+		}
+
+		@Override
+		public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+			return bean;
+		}
+
+		@Override
+		public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+			if (bean instanceof org.apache.tomcat.jdbc.pool.DataSource) {
+				return beanFactory.getBean(PoolMonitor.class).instrument(beanName, (DataSource) bean);
+			}
+			return bean;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package sshephard.customer;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps track of the instrumented connection pools, and reports connections held for too long
+ * @author s.shephard2
+ *
+ */
+@Component
+public class PoolMonitor {
+
+	// Logger for customer.PoolMonitor
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private final List<InstrumentedDataSource> pools = new CopyOnWriteArrayList<InstrumentedDataSource>();
+
+	@Value("${customer.pool.leak-threshold-millis:30000}")
+	private long leakThresholdMillis;
+
+	/**
+	 * Instrument a connection pool
+	 * @param name
+	 * @param pool
+	 * @return the pool wrapped for instrumentation
+	 */
+	public InstrumentedDataSource instrument(String name, DataSource pool) {
+		InstrumentedDataSource instrumented = new InstrumentedDataSource(name, pool);
+		pools.add(instrumented);
+		return instrumented;
+	}
+
+	/**
+	 * Log connections that have been borrowed for longer than the leak threshold
+	 */
+	@Scheduled(fixedDelayString = "${customer.pool.leak-check-millis:10000}")
+	public void checkLeaks() {
+		for (InstrumentedDataSource pool : pools) {
+			for (String leak : pool.findLeaks(leakThresholdMillis)) {
+				logger.warn("Possible connection leak from pool {}: held by {}", pool.getName(), leak);
+			}
+		}
+	}
+
+	/**
+	 * @return statistics for each pool, by name
+	 */
+	public Map<String, Object> statistics() {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		for (InstrumentedDataSource pool : pools) {
+			statistics.put(pool.getName(), pool.statistics(leakThresholdMillis));
+		}
+		return statistics;
+	}
+
+	public List<InstrumentedDataSource> getPools() {
+		return Collections.unmodifiableList(pools);
+	}
+}
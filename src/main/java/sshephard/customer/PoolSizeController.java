@@ -0,0 +1,117 @@
+package sshephard.customer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.tomcat.jdbc.pool.DataSourceProxy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Adaptive connection pool sizing, enabled by customer.pool.adaptive.enabled=true
+ * Grows a pool while requests wait too long for a connection, unless queries are slowing down at the same time
+ * (then the database rather than the pool is the bottleneck), and shrinks it again when it is mostly idle
+ * @author s.shephard2
+ *
+ */
+@Component
+@ConditionalOnProperty(prefix = "customer.pool.adaptive", name = "enabled")
+public class PoolSizeController {
+
+	// Logger for customer.PoolSizeController
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private PoolMonitor poolMonitor;
+
+	private final int minSize;
+	private final int maxSize;
+	private final int step;
+	private final long targetWaitMicros;
+
+	// Measurements at the previous adjustment of each pool
+	private final Map<InstrumentedDataSource, Window> windows = new ConcurrentHashMap<InstrumentedDataSource, Window>();
+
+	/**
+	 * @param minSize smallest maxActive to shrink to
+	 * @param maxSize largest maxActive to grow to
+	 * @param step connections added at a time
+	 * @param targetWaitMicros 95th percentile acquire wait to stay under
+	 */
+	public PoolSizeController(
+			@Value("${customer.pool.adaptive.min-size:5}") int minSize,
+			@Value("${customer.pool.adaptive.max-size:100}") int maxSize,
+			@Value("${customer.pool.adaptive.step:5}") int step,
+			@Value("${customer.pool.adaptive.target-wait-micros:2000}") long targetWaitMicros) {
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.step = step;
+		this.targetWaitMicros = targetWaitMicros;
+	}
+
+	@Scheduled(fixedDelayString = "${customer.pool.adaptive.interval-millis:5000}")
+	public void adjustAll() {
+		for (InstrumentedDataSource pool : poolMonitor.getPools()) {
+			adjust(pool);
+		}
+	}
+
+	/**
+	 * Resize one pool from what was measured since the last adjustment
+	 * @param instrumented
+	 */
+	public void adjust(InstrumentedDataSource instrumented) {
+		DataSourceProxy pool = instrumented.getPool();
+		if (pool == null) {
+			return;
+		}
+		Window current = new Window(instrumented);
+		Window previous = windows.put(instrumented, current);
+		if (previous == null) {
+			return;
+		}
+
+		long[] acquired = LatencyHistogram.difference(previous.acquire, current.acquire);
+		long waitMicros = LatencyHistogram.percentileMicros(acquired, 95);
+		current.holdMicros = LatencyHistogram.percentileMicros(LatencyHistogram.difference(previous.hold, current.hold), 95);
+		long timeouts = current.timeouts - previous.timeouts;
+		int peak = instrumented.resetPeakBorrowed();
+
+		int size = pool.getMaxActive();
+		if ((waitMicros > targetWaitMicros || timeouts > 0) && size < maxSize) {
+			if (previous.holdMicros > 0 && current.holdMicros > previous.holdMicros * 2) {
+				logger.info("Pool {} not grown: query latency rose from {}us to {}us", instrumented.getName(), previous.holdMicros, current.holdMicros);
+				return;
+			}
+			resize(instrumented, pool, Math.min(maxSize, size + step), waitMicros, timeouts);
+		} else if (waitMicros <= targetWaitMicros / 4 && timeouts == 0 && peak < size / 2 && size > minSize) {
+			resize(instrumented, pool, Math.max(minSize, size - 1), waitMicros, timeouts);
+		}
+	}
+
+	private void resize(InstrumentedDataSource instrumented, DataSourceProxy pool, int size, long waitMicros, long timeouts) {
+		logger.info("Pool {} maxActive {} -> {} (p95 wait {}us, {} timeouts)", instrumented.getName(), pool.getMaxActive(), size, waitMicros, timeouts);
+		// maxIdle follows maxActive, so that connections are not closed and reopened under load
+		pool.setMaxActive(size);
+		pool.setMaxIdle(size);
+	}
+
+	// Measurements at one adjustment
+	private static class Window {
+		private final long[] acquire;
+		private final long[] hold;
+		private final long timeouts;
+		private long holdMicros;
+
+		Window(InstrumentedDataSource instrumented) {
+			this.acquire = instrumented.getAcquireLatency().snapshot();
+			this.hold = instrumented.getHoldLatency().snapshot();
+			this.timeouts = instrumented.getTimeouts();
+		}
+	}
+}
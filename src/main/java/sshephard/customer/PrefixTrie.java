@@ -0,0 +1,266 @@
+package sshephard.customer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Radix trie of lower case keys, each counting how many times it has been added, for top-N prefix completion
+ * Every node records the highest count beneath it, so that completions are found best first without visiting
+ * the rest of the subtree
+ * Not thread safe
+ * @author s.shephard2
+ *
+ */
+public class PrefixTrie {
+
+	private static final Node[] NO_CHILDREN = new Node[0];
+
+	private static class Node {
+		// Characters on the edge from the parent
+		private String label;
+		// Sorted by the first character of their labels
+		private Node[] children = NO_CHILDREN;
+		// Times this key has been added, and the value first added with it
+		private int count;
+		private String value;
+		// Highest count of this node and every node beneath it
+		private int max;
+
+		Node(String label) {
+			this.label = label;
+		}
+
+		int child(char c) {
+			int low = 0;
+			int high = children.length - 1;
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+				char first = children[middle].label.charAt(0);
+				if (first < c) {
+					low = middle + 1;
+				} else if (first > c) {
+					high = middle - 1;
+				} else {
+					return middle;
+				}
+			}
+			return -(low + 1);
+		}
+
+		void updateMax() {
+			int highest = count;
+			for (Node child : children) {
+				highest = Math.max(highest, child.max);
+			}
+			max = highest;
+		}
+	}
+
+	/**
+	 * A key and the number of times it has been added
+	 */
+	public static class Completion {
+		private final String value;
+		private final int count;
+
+		Completion(String value, int count) {
+			this.value = value;
+			this.count = count;
+		}
+
+		/**
+		 * @return the key as first added, before lower casing
+		 */
+		public String getValue() {
+			return value;
+		}
+
+		/**
+		 * @return the number of times the key has been added
+		 */
+		public int getCount() {
+			return count;
+		}
+	}
+
+	private final Node root = new Node("");
+	private int size;
+
+	/**
+	 * @param value added under its lower case key
+	 */
+	public void add(String value) {
+		String key = value.toLowerCase();
+		List<Node> path = new ArrayList<Node>();
+		Node node = root;
+		int i = 0;
+		while (i < key.length()) {
+			path.add(node);
+			int c = node.child(key.charAt(i));
+			if (c < 0) {
+				Node leaf = new Node(key.substring(i));
+				Node[] children = new Node[node.children.length + 1];
+				int at = -c - 1;
+				System.arraycopy(node.children, 0, children, 0, at);
+				children[at] = leaf;
+				System.arraycopy(node.children, at, children, at + 1, node.children.length - at);
+				node.children = children;
+				node = leaf;
+				break;
+			}
+			Node child = node.children[c];
+			int common = commonPrefix(child.label, key, i);
+			if (common < child.label.length()) {
+				// Split the edge where the key leaves it
+				Node middle = new Node(child.label.substring(0, common));
+				child.label = child.label.substring(common);
+				middle.children = new Node[] {child};
+				middle.max = child.max;
+				node.children[c] = middle;
+				child = middle;
+			}
+			node = child;
+			i += common;
+		}
+		if (node.count++ == 0) {
+			node.value = value;
+			size++;
+		}
+		node.updateMax();
+		for (int p = path.size() - 1; p >= 0; p--) {
+			path.get(p).updateMax();
+		}
+	}
+
+	/**
+	 * @param value removed once from under its lower case key, if it is there
+	 */
+	public void remove(String value) {
+		String key = value.toLowerCase();
+		List<Node> path = new ArrayList<Node>();
+		Node node = root;
+		int i = 0;
+		while (i < key.length()) {
+			int c = node.child(key.charAt(i));
+			if (c < 0 || !key.startsWith(node.children[c].label, i)) {
+				return;
+			}
+			path.add(node);
+			node = node.children[c];
+			i += node.label.length();
+		}
+		if (node.count == 0) {
+			return;
+		}
+		if (--node.count == 0) {
+			node.value = null;
+			size--;
+		}
+
+		// Drop nodes left with nothing beneath them, and merge those left with one child into it
+		for (int p = path.size() - 1; p >= 0; p--) {
+			Node parent = path.get(p);
+			if (node.count == 0 && node.children.length == 0) {
+				int c = parent.child(node.label.charAt(0));
+				Node[] children = new Node[parent.children.length - 1];
+				System.arraycopy(parent.children, 0, children, 0, c);
+				System.arraycopy(parent.children, c + 1, children, c, children.length - c);
+				parent.children = children;
+			} else {
+				if (node.count == 0 && node.children.length == 1) {
+					Node only = node.children[0];
+					only.label = node.label + only.label;
+					parent.children[parent.child(only.label.charAt(0))] = only;
+				}
+				node.updateMax();
+			}
+			node = parent;
+		}
+		root.updateMax();
+	}
+
+	/**
+	 * @return the number of distinct keys
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param prefix
+	 * @param limit
+	 * @return up to limit keys starting with the prefix, ignoring case, most often added first then in key order
+	 */
+	public List<Completion> complete(String prefix, int limit) {
+		String key = prefix.toLowerCase();
+		List<Completion> completions = new ArrayList<Completion>();
+
+		// Find the node at or just below the end of the prefix
+		Node node = root;
+		int i = 0;
+		while (i < key.length()) {
+			int c = node.child(key.charAt(i));
+			if (c < 0) {
+				return completions;
+			}
+			Node child = node.children[c];
+			int common = commonPrefix(child.label, key, i);
+			if (common < child.label.length() && i + common < key.length()) {
+				return completions;
+			}
+			node = child;
+			i += child.label.length();
+		}
+
+		// Best first: a subtree is ranked by its highest count, and expanded before any key that ranks lower
+		PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>(Candidate.ORDER);
+		queue.add(new Candidate(node, key.substring(0, i - node.label.length()) + node.label, false));
+		while (!queue.isEmpty() && completions.size() < limit) {
+			Candidate candidate = queue.poll();
+			if (candidate.complete) {
+				completions.add(new Completion(candidate.node.value, candidate.node.count));
+				continue;
+			}
+			if (candidate.node.count > 0) {
+				queue.add(new Candidate(candidate.node, candidate.key, true));
+			}
+			for (Node child : candidate.node.children) {
+				queue.add(new Candidate(child, candidate.key + child.label, false));
+			}
+		}
+		return completions;
+	}
+
+	private static class Candidate {
+
+		// Highest rank first, then in key order; a subtree comes before the keys beneath it that rank the same
+		static final Comparator<Candidate> ORDER = Comparator.comparingInt((Candidate candidate) -> -candidate.rank())
+				.thenComparing(candidate -> candidate.key)
+				.thenComparing(candidate -> candidate.complete);
+
+		private final Node node;
+		private final String key;
+		private final boolean complete;
+
+		Candidate(Node node, String key, boolean complete) {
+			this.node = node;
+			this.key = key;
+			this.complete = complete;
+		}
+
+		int rank() {
+			return complete ? node.count : node.max;
+		}
+	}
+
+	private static int commonPrefix(String label, String key, int from) {
+		int length = Math.min(label.length(), key.length() - from);
+		int i = 0;
+		while (i < length && label.charAt(i) == key.charAt(from + i)) {
+			i++;
+		}
+		return i;
+	}
+}
@@ -0,0 +1,116 @@
+package sshephard.customer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.apache.tomcat.jdbc.pool.DataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Routing DataSource that sends read-only transactions to a replica and everything else to the primary
+ * Must be wrapped in a LazyConnectionDataSourceProxy, so that the read-only flag of the transaction
+ * is known by the time the connection is fetched
+ * @author s.shephard2
+ *
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+
+	/**
+	 * How a replica is chosen for each read-only transaction
+	 */
+	public enum Strategy {
+		ROUND_ROBIN,
+		LEAST_LOADED
+	}
+
+	private static final String PRIMARY = "primary";
+
+	private final List<String> replicaKeys = new ArrayList<String>();
+	private final List<DataSource> replicas = new ArrayList<DataSource>();
+	private final Strategy strategy;
+	private final long stickinessMillis;
+
+	// Next replica for round-robin selection
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * @param primary DataSource for writes
+	 * @param replicas DataSources for read-only transactions
+	 * @param strategy replica selection
+	 * @param stickinessMillis a client's reads go to the primary for this long after its own write, 0 to disable
+	 */
+	public ReadWriteRoutingDataSource(DataSource primary, List<DataSource> replicas, Strategy strategy, long stickinessMillis) {
+		this.strategy = strategy;
+		this.stickinessMillis = stickinessMillis;
+
+		Map<Object, Object> targets = new HashMap<Object, Object>();
+		targets.put(PRIMARY, primary);
+		for (int i = 0; i < replicas.size(); i++) {
+			String key = "replica-" + i;
+			targets.put(key, replicas.get(i));
+			this.replicaKeys.add(key);
+			this.replicas.add(replicas.get(i));
+		}
+		setTargetDataSources(targets);
+		setDefaultTargetDataSource(primary);
+	}
+
+	@Override
+	protected Object determineCurrentLookupKey() {
+		if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+			ReadYourWrites.wrote(System.currentTimeMillis());
+			return PRIMARY;
+		}
+		if (replicaKeys.isEmpty() || System.currentTimeMillis() - ReadYourWrites.lastWrite() < stickinessMillis) {
+			// Replicas may not have caught up with this client's recent write yet
+			return PRIMARY;
+		}
+		return replicaKeys.get(selectReplica());
+	}
+
+	/**
+	 * @return the index of the replica for the next read-only transaction
+	 */
+	private int selectReplica() {
+		if (strategy == Strategy.LEAST_LOADED) {
+			int best = 0;
+			int bestActive = Integer.MAX_VALUE;
+			// Start from the round-robin position so that ties are spread across replicas
+			int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+			for (int i = 0; i < replicas.size(); i++) {
+				int candidate = (start + i) % replicas.size();
+				int active = activeConnections(replicas.get(candidate));
+				if (active < bestActive) {
+					best = candidate;
+					bestActive = active;
+				}
+			}
+			return best;
+		}
+		return Math.floorMod(next.getAndIncrement(), replicas.size());
+	}
+
+	private int activeConnections(DataSource dataSource) {
+		if (dataSource instanceof InstrumentedDataSource) {
+			return ((InstrumentedDataSource) dataSource).getBorrowed();
+		}
+		if (dataSource instanceof DataSourceProxy) {
+			return ((DataSourceProxy) dataSource).getActive();
+		}
+		return 0;
+	}
+
+	/**
+	 * @return the replica DataSources
+	 */
+	public List<DataSource> getReplicas() {
+		return Collections.unmodifiableList(replicas);
+	}
+}
@@ -0,0 +1,70 @@
+package sshephard.customer;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time of the current client's last write, for read-your-writes stickiness in ReadWriteRoutingDataSource
+ * Bound to each request by ReadYourWritesFilter from the client's cookie, so that one client's writes don't send every
+ * other client's reads to the primary; a thread with no request bound, such as a scheduled job, keeps its own
+ * @author s.shephard2
+ *
+ */
+public final class ReadYourWrites {
+
+	// Long ago enough that no stickiness applies, without overflowing when subtracted from the time
+	static final long NEVER = Long.MIN_VALUE / 2;
+
+	private static final ThreadLocal<AtomicLong> CURRENT = ThreadLocal.withInitial(() -> new AtomicLong(NEVER));
+
+	private ReadYourWrites() {
+	}
+
+	/**
+	 * Record a write by the current client
+	 * @param millis
+	 */
+	public static void wrote(long millis) {
+		CURRENT.get().set(millis);
+	}
+
+	/**
+	 * @return the time of the current client's last write, NEVER if it hasn't written
+	 */
+	public static long lastWrite() {
+		return CURRENT.get().get();
+	}
+
+	/**
+	 * Start a request for a client
+	 * @param lastWrite the client's last write as it reported it
+	 */
+	static void bind(long lastWrite) {
+		CURRENT.set(new AtomicLong(lastWrite));
+	}
+
+	/**
+	 * Finish a request
+	 */
+	static void unbind() {
+		CURRENT.remove();
+	}
+
+	/**
+	 * Carry the current client over to a call run on another thread, for work handed off by an async request
+	 * @param call
+	 * @return the call, which reads and records the same client's writes
+	 */
+	public static <T> Callable<T> handOff(Callable<T> call) {
+		AtomicLong client = CURRENT.get();
+		return () -> {
+			AtomicLong previous = CURRENT.get();
+			CURRENT.set(client);
+			try {
+				return call.call();
+			} finally {
+				CURRENT.set(previous);
+			}
+		};
+	}
+}
@@ -0,0 +1,153 @@
+package sshephard.customer;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+/**
+ * Carries each client's last write from request to request in a cookie, so that ReadWriteRoutingDataSource keeps that
+ * client's reads, and only that client's, on the primary until the replicas have caught up
+ * The cookie is set only by a write that succeeds, once its status is known but before its response is committed
+ * @author s.shephard2
+ *
+ */
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+	static final String COOKIE = "customer_last_write";
+
+	// POST routes that only read, since their request bodies are too large for a GET
+	private static final Set<String> READ_ONLY_POSTS = new HashSet<String>(Arrays.asList(
+			"/customers/lookup", "/async/customers/lookup", "/reports/duplicates"));
+
+	private static final UrlPathHelper PATHS = new UrlPathHelper();
+
+	private final long stickinessMillis;
+
+	/**
+	 * @param stickinessMillis how long reads stay on the primary after a write
+	 */
+	public ReadYourWritesFilter(long stickinessMillis) {
+		this.stickinessMillis = stickinessMillis;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		ReadYourWrites.bind(lastWrite(request));
+		try {
+			if (!isWrite(request)) {
+				chain.doFilter(request, response);
+				return;
+			}
+			WriteResponse written = new WriteResponse(response);
+			chain.doFilter(request, written);
+
+			// A response with no body is committed after the filter; an async one is written later, through the wrapper
+			if (!request.isAsyncStarted()) {
+				written.commit();
+			}
+		} finally {
+			ReadYourWrites.unbind();
+		}
+	}
+
+	private static boolean isWrite(HttpServletRequest request) {
+		String method = request.getMethod();
+		if ("GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method)) {
+			return false;
+		}
+		return !("POST".equals(method) && READ_ONLY_POSTS.contains(PATHS.getPathWithinApplication(request)));
+	}
+
+	/**
+	 * Sets the cookie when the response is about to be committed, if the write succeeded
+	 */
+	private final class WriteResponse extends HttpServletResponseWrapper {
+
+		private boolean committed;
+
+		WriteResponse(HttpServletResponse response) {
+			super(response);
+		}
+
+		void commit() {
+			if (committed) {
+				return;
+			}
+			committed = true;
+			int status = getStatus();
+			if (status >= 200 && status < 300 && !isCommitted()) {
+				Cookie cookie = new Cookie(COOKIE, Long.toString(System.currentTimeMillis()));
+				cookie.setPath("/");
+				cookie.setHttpOnly(true);
+				cookie.setMaxAge((int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(stickinessMillis + 999)));
+				addCookie(cookie);
+			}
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() throws IOException {
+			commit();
+			return super.getOutputStream();
+		}
+
+		@Override
+		public PrintWriter getWriter() throws IOException {
+			commit();
+			return super.getWriter();
+		}
+
+		@Override
+		public void flushBuffer() throws IOException {
+			commit();
+			super.flushBuffer();
+		}
+
+		@Override
+		public void sendError(int sc) throws IOException {
+			committed = true;
+			super.sendError(sc);
+		}
+
+		@Override
+		public void sendError(int sc, String msg) throws IOException {
+			committed = true;
+			super.sendError(sc, msg);
+		}
+
+		@Override
+		public void sendRedirect(String location) throws IOException {
+			committed = true;
+			super.sendRedirect(location);
+		}
+	}
+
+	private static long lastWrite(HttpServletRequest request) {
+		if (request.getCookies() != null) {
+			for (Cookie cookie : request.getCookies()) {
+				if (COOKIE.equals(cookie.getName())) {
+					try {
+						return Long.parseLong(cookie.getValue());
+					} catch (NumberFormatException e) {
+						return ReadYourWrites.NEVER;
+					}
+				}
+			}
+		}
+		return ReadYourWrites.NEVER;
+	}
+}
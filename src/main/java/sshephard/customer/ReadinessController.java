@@ -0,0 +1,42 @@
+package sshephard.customer;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+
+/**
+ * REST controller for readiness, separate from the GET / health check which succeeds as soon as the server is up
+ * @author s.shephard2
+ *
+ */
+@RestController
+@Api(value="readiness")
+public class ReadinessController {
+
+	// Absent unless customer.warmup.enabled=true
+	@Autowired(required = false)
+	private CustomerWarmup warmup;
+
+	/**
+	 * Readiness route: GET /ready
+	 * @return
+	 */
+	@ApiOperation(value = "Readiness check",
+		    notes = "Returns OK status once warm-up has finished, with its progress, or service unavailable while it is still running")
+	@RequestMapping(method = RequestMethod.GET, value = "/ready", produces = "application/json")
+	public ResponseEntity<Map<String, Object>> ready() {
+		if (warmup == null) {
+			return ResponseEntity.ok().body(Collections.<String, Object>singletonMap("ready", true));
+		}
+		return ResponseEntity.status(warmup.isReady() ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE).body(warmup.status());
+	}
+}
@@ -0,0 +1,97 @@
+package sshephard.customer;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+
+/**
+ * REST controller for data quality reports
+ * @author s.shephard2
+ *
+ */
+@RestController
+@Api(value="reports")
+public class ReportController {
+
+	// Where to follow a duplicate detection run started by POST /reports/duplicates
+	private static final URI STATUS = URI.create("/reports/duplicates/status");
+
+	@Autowired
+	private CustomerDuplicates duplicates;
+
+	/**
+	 * Duplicates report route: GET /reports/duplicates
+	 * @param limit
+	 * @return
+	 */
+	@ApiOperation(value = "Likely duplicate customers",
+		    notes = "The latest duplicate detection report, with up to limit pairs of customer ids, highest scores first; NOT FOUND until detection has run")
+	@RequestMapping(method = RequestMethod.GET, value = "/reports/duplicates", produces = "application/json")
+	public ResponseEntity<Map<String, Object>> duplicates(@RequestParam(defaultValue = "100") int limit) {
+		CustomerDuplicates.Report report = duplicates.getReport();
+		if (report == null) {
+			return ResponseEntity.notFound().build();
+		}
+		if (limit < 1) {
+			return ResponseEntity.badRequest().build();
+		}
+		return ResponseEntity.ok().body(body(report, limit));
+	}
+
+	/**
+	 * Run duplicate detection route: POST /reports/duplicates
+	 * @return
+	 */
+	@ApiOperation(value = "Detect likely duplicate customers now",
+		    notes = "Starts duplicate detection over every customer in the background, ACCEPTED with a link to its status; CONFLICT if it is already running")
+	@RequestMapping(method = RequestMethod.POST, value = "/reports/duplicates", produces = "application/json")
+	public ResponseEntity<Map<String, Object>> detectDuplicates() {
+		if (!duplicates.start()) {
+			return ResponseEntity.status(HttpStatus.CONFLICT).location(STATUS).body(status());
+		}
+		return ResponseEntity.accepted().location(STATUS).body(status());
+	}
+
+	/**
+	 * Duplicate detection status route: GET /reports/duplicates/status
+	 * @return
+	 */
+	@ApiOperation(value = "Duplicate detection status",
+		    notes = "Whether duplicate detection is running, and when the latest report was started")
+	@RequestMapping(method = RequestMethod.GET, value = "/reports/duplicates/status", produces = "application/json")
+	public ResponseEntity<Map<String, Object>> duplicatesStatus() {
+		return ResponseEntity.ok().body(status());
+	}
+
+	private Map<String, Object> status() {
+		CustomerDuplicates.Report report = duplicates.getReport();
+		Map<String, Object> body = new LinkedHashMap<String, Object>();
+		body.put("running", duplicates.isRunning());
+		body.put("report_started_at", report == null ? null : report.getStarted_at());
+		return body;
+	}
+
+	private static Map<String, Object> body(CustomerDuplicates.Report report, int limit) {
+		Map<String, Object> body = new LinkedHashMap<String, Object>();
+		body.put("started_at", report.getStarted_at());
+		body.put("millis", report.getMillis());
+		body.put("customers", report.getCustomers());
+		body.put("blocks", report.getBlocks());
+		body.put("skipped_blocks", report.getSkipped_blocks());
+		body.put("comparisons", report.getComparisons());
+		body.put("total_pairs", report.getPairs().size());
+		body.put("pairs", report.getPairs().size() > limit ? report.getPairs().subList(0, limit) : report.getPairs());
+		return body;
+	}
+}
@@ -0,0 +1,195 @@
+package sshephard.customer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Structured request log
+ * Request threads append entries to a lock-free ring buffer and a background thread formats and writes them,
+ * so that logging a request costs a few atomic operations and never blocks; entries are dropped if the buffer is full
+ * @author s.shephard2
+ *
+ */
+public class RequestLog {
+
+	// Logger for customer.RequestLog
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	// Logger the entries are written to, as one JSON object per line
+	private static final Logger REQUESTS = LoggerFactory.getLogger("customer.requests");
+
+	private final AtomicReferenceArray<Entry> entries;
+	private final int mask;
+
+	// Next sequence to claim, and next sequence to write; a slot is free once the writer has cleared it
+	private final AtomicLong tail = new AtomicLong();
+	private final AtomicLong head = new AtomicLong();
+
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+
+	private final Consumer<String> sink;
+	private final long drainIntervalMillis;
+	private final ObjectMapper mapper = new ObjectMapper();
+	private volatile Thread writer;
+
+	/**
+	 * @param capacity entries buffered, rounded up to a power of two
+	 * @param drainIntervalMillis how often the writer drains the buffer
+	 */
+	public RequestLog(int capacity, long drainIntervalMillis) {
+		this(capacity, drainIntervalMillis, REQUESTS::info);
+	}
+
+	/**
+	 * @param capacity entries buffered, rounded up to a power of two
+	 * @param drainIntervalMillis how often the writer drains the buffer
+	 * @param sink receives each formatted entry
+	 */
+	RequestLog(int capacity, long drainIntervalMillis, Consumer<String> sink) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+		this.entries = new AtomicReferenceArray<Entry>(size);
+		this.mask = size - 1;
+		this.drainIntervalMillis = drainIntervalMillis;
+		this.sink = sink;
+	}
+
+	/**
+	 * Append an entry, without blocking
+	 * @param entry
+	 * @return false if the buffer was full and the entry dropped
+	 */
+	public boolean append(Entry entry) {
+		long sequence;
+		do {
+			sequence = tail.get();
+			if (sequence - head.get() > mask) {
+				dropped.incrementAndGet();
+				return false;
+			}
+		} while (!tail.compareAndSet(sequence, sequence + 1));
+		entries.lazySet((int) sequence & mask, entry);
+		return true;
+	}
+
+	/**
+	 * Write out the entries appended so far; only called by one thread at a time
+	 * @return number of entries written
+	 */
+	int drain() {
+		int count = 0;
+		long sequence = head.get();
+		while (true) {
+			int slot = (int) sequence & mask;
+			Entry entry = entries.get(slot);
+			if (entry == null) {
+				// Empty, or claimed but not yet published
+				break;
+			}
+			entries.lazySet(slot, null);
+			head.lazySet(++sequence);
+			try {
+				sink.accept(format(entry));
+			} catch (RuntimeException e) {
+				logger.warn("Can't write request log entry {}", e.getMessage());
+			}
+			count++;
+		}
+		written.addAndGet(count);
+		return count;
+	}
+
+	private String format(Entry entry) {
+		Map<String, Object> fields = new LinkedHashMap<String, Object>();
+		fields.put("time", entry.time);
+		fields.put("client", entry.client);
+		fields.put("method", entry.method);
+		fields.put("uri", entry.uri);
+		fields.put("route", entry.route);
+		fields.put("status", entry.status);
+		fields.put("micros", entry.micros);
+		try {
+			return mapper.writeValueAsString(fields);
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Start the background writer
+	 */
+	public void start() {
+		Thread thread = new Thread(() -> {
+			while (!Thread.currentThread().isInterrupted()) {
+				if (drain() == 0) {
+					try {
+						TimeUnit.MILLISECONDS.sleep(drainIntervalMillis);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}, "customer-request-log");
+		thread.setDaemon(true);
+		thread.start();
+		writer = thread;
+	}
+
+	/**
+	 * Stop the background writer, writing out anything still buffered
+	 */
+	public void stop() throws InterruptedException {
+		Thread thread = writer;
+		if (thread != null) {
+			thread.interrupt();
+			thread.join();
+			writer = null;
+		}
+		drain();
+	}
+
+	/**
+	 * @return entries buffered, written and dropped
+	 */
+	public Map<String, Object> statistics() {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("buffered", tail.get() - head.get());
+		statistics.put("written", written.get());
+		statistics.put("dropped", dropped.get());
+		return statistics;
+	}
+
+	/**
+	 * One request, captured as plain values so that nothing is formatted on the request thread
+	 */
+	public static class Entry {
+
+		final long time;
+		final String client;
+		final String method;
+		final String uri;
+		final String route;
+		final int status;
+		final long micros;
+
+		public Entry(long time, String client, String method, String uri, String route, int status, long micros) {
+			this.time = time;
+			this.client = client;
+			this.method = method;
+			this.uri = uri;
+			this.route = route;
+			this.status = status;
+			this.micros = micros;
+		}
+	}
+}
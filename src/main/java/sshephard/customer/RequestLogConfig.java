@@ -0,0 +1,37 @@
+package sshephard.customer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+/**
+ * Structured request log configuration, enabled by customer.request-log.enabled=true
+ * Entries are written to the customer.requests logger
+ * @author s.shephard2
+ *
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "customer.request-log", name = "enabled")
+@EnableConfigurationProperties(RequestLogProperties.class)
+public class RequestLogConfig {
+
+	@Bean(initMethod = "start", destroyMethod = "stop")
+	public RequestLog requestLog(RequestLogProperties properties) {
+		return new RequestLog(properties.getCapacity(), properties.getDrainIntervalMillis());
+	}
+
+	// Ahead of admission control, so that rejected requests are recorded too, with clients told apart the same way
+	@Bean
+	public FilterRegistrationBean requestLogFilterRegistration(RequestLog requestLog, RequestLogProperties properties,
+			@Value("${customer.admission.client-header:}") String clientHeader) {
+		FilterRegistrationBean registration = new FilterRegistrationBean(new RequestLogFilter(requestLog, properties.getSample(),
+				clientHeader.isEmpty() ? null : clientHeader));
+		registration.addUrlPatterns("/customers", "/customers/*", "/async/customers", "/async/customers/*");
+		registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+		return registration;
+	}
+}
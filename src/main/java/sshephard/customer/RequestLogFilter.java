@@ -0,0 +1,71 @@
+package sshephard.customer;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import sshephard.customer.AdmissionControlFilter.RouteClass;
+
+/**
+ * Records a sample of the requests to the customer routes in the RequestLog
+ * Server errors are always recorded, whatever the sampling rate
+ * @author s.shephard2
+ *
+ */
+public class RequestLogFilter extends OncePerRequestFilter {
+
+	private final RequestLog requestLog;
+	private final Map<RouteClass, Double> sample = new EnumMap<RouteClass, Double>(RouteClass.class);
+	private final String clientHeader;
+
+	/**
+	 * @param requestLog
+	 * @param sample fraction of requests recorded for each route class by lower case name, all if absent
+	 * @param clientHeader header naming the client behind a proxy, as for admission control, or null for the remote address
+	 */
+	public RequestLogFilter(RequestLog requestLog, Map<String, Double> sample, String clientHeader) {
+		this.requestLog = requestLog;
+		this.clientHeader = clientHeader;
+		for (RouteClass routeClass : RouteClass.values()) {
+			Double rate = sample.get(routeClass.name().toLowerCase());
+			this.sample.put(routeClass, rate == null ? 1.0 : rate);
+		}
+	}
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		return AdmissionControlFilter.routeClass(request) == null;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		RouteClass routeClass = AdmissionControlFilter.routeClass(request);
+		boolean sampled = ThreadLocalRandom.current().nextDouble() < sample.get(routeClass);
+		long start = System.nanoTime();
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			// Read while the request is still in scope; an async request is logged with its final status once complete
+			String client = AdmissionControlFilter.client(request, clientHeader);
+			String method = request.getMethod();
+			String uri = request.getRequestURI();
+			AsyncCompletion.whenComplete(request, () -> {
+				int status = response.getStatus();
+				if (sampled || status >= 500) {
+					requestLog.append(new RequestLog.Entry(System.currentTimeMillis(), client, method, uri, routeClass.name().toLowerCase(),
+							status, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start)));
+				}
+			});
+		}
+	}
+}
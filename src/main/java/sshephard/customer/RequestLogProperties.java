@@ -0,0 +1,59 @@
+package sshephard.customer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings for the structured request log, customer.request-log.*
+ * @author s.shephard2
+ *
+ */
+@ConfigurationProperties(prefix = "customer.request-log")
+public class RequestLogProperties {
+
+	// Record requests to the customer routes
+	private boolean enabled;
+
+	// Entries buffered for the writer, rounded up to a power of two; entries are dropped when it is full
+	private int capacity = 8192;
+
+	// How often the writer drains the buffer
+	private long drainIntervalMillis = 100;
+
+	// Fraction of requests recorded for each route class (search, read, write), all if absent
+	private Map<String, Double> sample = new HashMap<String, Double>();
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public void setCapacity(int capacity) {
+		this.capacity = capacity;
+	}
+
+	public long getDrainIntervalMillis() {
+		return drainIntervalMillis;
+	}
+
+	public void setDrainIntervalMillis(long drainIntervalMillis) {
+		this.drainIntervalMillis = drainIntervalMillis;
+	}
+
+	public Map<String, Double> getSample() {
+		return sample;
+	}
+
+	public void setSample(Map<String, Double> sample) {
+		this.sample = sample;
+	}
+}
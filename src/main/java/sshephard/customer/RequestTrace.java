@@ -0,0 +1,242 @@
+package sshephard.customer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lightweight per-request trace: timed spans for each phase of the request, and the SQL it ran
+ * Held in a ThreadLocal by TracingFilter, and handed off with the work of an async request; spans and statements
+ * outside a traced request are ignored
+ * @author s.shephard2
+ *
+ */
+public final class RequestTrace {
+
+	private static final ThreadLocal<RequestTrace> CURRENT = new ThreadLocal<RequestTrace>();
+
+	// Bounds on what one trace holds, so that a runaway request can't use unbounded memory
+	private static final int MAX_SPANS = 200;
+	private static final int MAX_STATEMENTS = 100;
+
+	private final String method;
+	private final String uri;
+	private final long time = System.currentTimeMillis();
+	private final long startNanos = System.nanoTime();
+	private final List<Span> spans = new ArrayList<Span>();
+	private final List<Map<String, Object>> statements = new ArrayList<Map<String, Object>>();
+	private int depth;
+	private int droppedSpans;
+	private int droppedStatements;
+	private long micros = -1;
+	private int status;
+	private int statementCount;
+	// Statements executed on other threads for an async request
+	private int handedOffStatements;
+
+	private RequestTrace(String method, String uri) {
+		this.method = method;
+		this.uri = uri;
+	}
+
+	/**
+	 * Start tracing the current request
+	 * @param method
+	 * @param uri
+	 * @return the trace
+	 */
+	public static RequestTrace begin(String method, String uri) {
+		RequestTrace trace = new RequestTrace(method, uri);
+		CURRENT.set(trace);
+		return trace;
+	}
+
+	/**
+	 * @return the trace for the current request, or null if it is not traced
+	 */
+	public static RequestTrace current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Stop tracing the current request
+	 * @param status response status
+	 * @param statementCount SQL statements executed
+	 */
+	public void end(int status, int statementCount) {
+		this.status = status;
+		this.statementCount = statementCount + handedOffStatements;
+		this.micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+		if (CURRENT.get() == this) {
+			CURRENT.remove();
+		}
+	}
+
+	/**
+	 * Stop tracing on this thread, leaving the trace open
+	 */
+	public static void detach() {
+		CURRENT.remove();
+	}
+
+	/**
+	 * Carry the current request's trace over to a call run on another thread
+	 * @param call
+	 * @return the call, which runs with the trace current and adds the statements it executes to the trace
+	 */
+	public static <T> Callable<T> handOff(Callable<T> call) {
+		RequestTrace trace = CURRENT.get();
+		if (trace == null) {
+			return call;
+		}
+		return () -> {
+			CURRENT.set(trace);
+			StatementCounter.Scope statements = StatementCounter.begin();
+			try {
+				return call.call();
+			} finally {
+				statements.close();
+				trace.handedOffStatements += statements.getCount();
+				CURRENT.remove();
+			}
+		};
+	}
+
+	/**
+	 * Open a span, to be closed with try-with-resources
+	 * @param name
+	 * @return the span, which does nothing if the request is not traced
+	 */
+	public static Span span(String name) {
+		RequestTrace trace = CURRENT.get();
+		if (trace == null) {
+			return Span.NONE;
+		}
+		if (trace.spans.size() >= MAX_SPANS) {
+			trace.droppedSpans++;
+			return Span.NONE;
+		}
+		Span span = new Span(trace, name, trace.depth++);
+		trace.spans.add(span);
+		return span;
+	}
+
+	/**
+	 * Close the most recent span with the name, if it is still open
+	 * For phases that begin and end in different callbacks
+	 * @param name
+	 */
+	public static void close(String name) {
+		RequestTrace trace = CURRENT.get();
+		if (trace == null) {
+			return;
+		}
+		for (int i = trace.spans.size() - 1; i >= 0; i--) {
+			Span span = trace.spans.get(i);
+			if (span.name.equals(name)) {
+				span.close();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Attach a SQL statement to the current request, and the innermost span that is open
+	 * @param sql
+	 */
+	public static void statement(String sql) {
+		RequestTrace trace = CURRENT.get();
+		if (trace == null) {
+			return;
+		}
+		if (trace.statements.size() >= MAX_STATEMENTS) {
+			trace.droppedStatements++;
+			return;
+		}
+		Map<String, Object> statement = new LinkedHashMap<String, Object>();
+		statement.put("span", trace.innermostOpenSpan());
+		statement.put("sql", sql);
+		trace.statements.add(statement);
+	}
+
+	private String innermostOpenSpan() {
+		for (int i = spans.size() - 1; i >= 0; i--) {
+			if (spans.get(i).endNanos == 0) {
+				return spans.get(i).name;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return total time in microseconds, or -1 if the request hasn't finished
+	 */
+	public long getMicros() {
+		return micros;
+	}
+
+	/**
+	 * @return the trace as nested maps, for JSON; spans are in the order they started, with their nesting depth
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> trace = new LinkedHashMap<String, Object>();
+		trace.put("time", time);
+		trace.put("method", method);
+		trace.put("uri", uri);
+		trace.put("status", status);
+		trace.put("micros", micros);
+		List<Map<String, Object>> spanMaps = new ArrayList<Map<String, Object>>();
+		for (Span span : spans) {
+			spanMaps.add(span.toMap());
+		}
+		trace.put("spans", spanMaps);
+		trace.put("statementCount", statementCount);
+		trace.put("statements", statements);
+		if (droppedSpans > 0 || droppedStatements > 0) {
+			trace.put("droppedSpans", droppedSpans);
+			trace.put("droppedStatements", droppedStatements);
+		}
+		return trace;
+	}
+
+	/**
+	 * One timed phase of a request
+	 */
+	public static final class Span implements AutoCloseable {
+
+		// Returned when the request is not traced
+		static final Span NONE = new Span(null, null, 0);
+
+		private final RequestTrace trace;
+		private final String name;
+		private final int depth;
+		private final long startNanos = System.nanoTime();
+		private long endNanos;
+
+		private Span(RequestTrace trace, String name, int depth) {
+			this.trace = trace;
+			this.name = name;
+			this.depth = depth;
+		}
+
+		@Override
+		public void close() {
+			if (trace != null && endNanos == 0) {
+				endNanos = System.nanoTime();
+				trace.depth--;
+			}
+		}
+
+		private Map<String, Object> toMap() {
+			Map<String, Object> span = new LinkedHashMap<String, Object>();
+			span.put("name", name);
+			span.put("depth", depth);
+			span.put("startMicros", TimeUnit.NANOSECONDS.toMicros(startNanos - trace.startNanos));
+			span.put("micros", endNanos == 0 ? -1 : TimeUnit.NANOSECONDS.toMicros(endNanos - startNanos));
+			return span;
+		}
+	}
+}
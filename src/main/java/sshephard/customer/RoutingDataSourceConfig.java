@@ -0,0 +1,60 @@
+package sshephard.customer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceBuilder;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+/**
+ * Read/write splitting configuration, enabled by customer.datasource.routing.enabled=true
+ * The primary uses the spring.datasource.* settings, the replicas customer.datasource.routing.replicas[n].*
+ * Read-your-writes stickiness is per client, carried between requests in a cookie by ReadYourWritesFilter
+ * @author s.shephard2
+ *
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "customer.datasource.routing", name = "enabled")
+@EnableConfigurationProperties(RoutingDataSourceProperties.class)
+public class RoutingDataSourceConfig {
+
+	@Bean
+	@Primary
+	public DataSource dataSource(DataSourceProperties properties, RoutingDataSourceProperties routing, PoolMonitor poolMonitor) {
+		DataSource primary = poolMonitor.instrument("primary", properties.initializeDataSourceBuilder().build());
+
+		List<DataSource> replicas = new ArrayList<DataSource>();
+		for (RoutingDataSourceProperties.Replica replica : routing.getReplicas()) {
+			replicas.add(poolMonitor.instrument("replica-" + replicas.size(), DataSourceBuilder.create(properties.getClassLoader())
+					.driverClassName(properties.determineDriverClassName())
+					.url(replica.getUrl())
+					.username(replica.getUsername() != null ? replica.getUsername() : properties.determineUsername())
+					.password(replica.getPassword() != null ? replica.getPassword() : properties.determinePassword())
+					.build()));
+		}
+
+		ReadWriteRoutingDataSource routingDataSource = new ReadWriteRoutingDataSource(
+				primary, replicas, routing.getStrategy(), routing.getStickinessMillis());
+		routingDataSource.afterPropertiesSet();
+
+		// Defer fetching the connection until the transaction is set up, so that it can be routed by its read-only flag
+		return new LazyConnectionDataSourceProxy(routingDataSource);
+	}
+
+	// Every route may read, so every request carries its client's last write
+	@Bean
+	public FilterRegistrationBean readYourWritesFilterRegistration(RoutingDataSourceProperties routing) {
+		FilterRegistrationBean registration = new FilterRegistrationBean(new ReadYourWritesFilter(routing.getStickinessMillis()));
+		registration.addUrlPatterns("/*");
+		return registration;
+	}
+}
@@ -0,0 +1,93 @@
+package sshephard.customer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings for read/write splitting, customer.datasource.routing.*
+ * @author s.shephard2
+ *
+ */
+@ConfigurationProperties(prefix = "customer.datasource.routing")
+public class RoutingDataSourceProperties {
+
+	// Send read-only transactions to the replicas
+	private boolean enabled;
+
+	// Replica selection
+	private ReadWriteRoutingDataSource.Strategy strategy = ReadWriteRoutingDataSource.Strategy.ROUND_ROBIN;
+
+	// Reads go to the primary for this long after a write, 0 to disable
+	private long stickinessMillis;
+
+	// Replica connection settings
+	private List<Replica> replicas = new ArrayList<Replica>();
+
+	/**
+	 * Connection settings for one replica
+	 */
+	public static class Replica {
+
+		private String url;
+		private String username;
+		private String password;
+
+		public String getUrl() {
+			return url;
+		}
+
+		public void setUrl(String url) {
+			this.url = url;
+		}
+
+		public String getUsername() {
+			return username;
+		}
+
+		public void setUsername(String username) {
+			this.username = username;
+		}
+
+		public String getPassword() {
+			return password;
+		}
+
+		public void setPassword(String password) {
+			this.password = password;
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public ReadWriteRoutingDataSource.Strategy getStrategy() {
+		return strategy;
+	}
+
+	public void setStrategy(ReadWriteRoutingDataSource.Strategy strategy) {
+		this.strategy = strategy;
+	}
+
+	public long getStickinessMillis() {
+		return stickinessMillis;
+	}
+
+	public void setStickinessMillis(long stickinessMillis) {
+		this.stickinessMillis = stickinessMillis;
+	}
+
+	public List<Replica> getReplicas() {
+		return replicas;
+	}
+
+	public void setReplicas(List<Replica> replicas) {
+		this.replicas = replicas;
+	}
+}
@@ -0,0 +1,41 @@
+package sshephard.customer;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.Date;
+
+/**
+ * Parses the YYYY-MM-DD dates used in search parameters
+ * Unlike SimpleDateFormat the formatter is immutable, so one instance is shared by all requests
+ * @author s.shephard2
+ *
+ */
+public final class SearchDates {
+
+	// Strict, so that e.g. 2017-02-30 is rejected rather than rolled over into March
+	private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("uuuu-MM-dd").withResolverStyle(ResolverStyle.STRICT);
+
+	private SearchDates() {
+	}
+
+	/**
+	 * @param value date formatted YYYY-MM-DD
+	 * @return the start of that day in the server time zone, as dates and times are stored
+	 * @throws DateTimeParseException if the value is not a valid date
+	 */
+	public static Date parse(String value) {
+		return Date.from(localDate(value).atStartOfDay(ZoneId.systemDefault()).toInstant());
+	}
+
+	/**
+	 * @param value date formatted YYYY-MM-DD
+	 * @return the date
+	 * @throws DateTimeParseException if the value is not a valid date
+	 */
+	public static LocalDate localDate(String value) {
+		return LocalDate.parse(value, FORMAT);
+	}
+}
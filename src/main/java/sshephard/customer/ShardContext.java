@@ -0,0 +1,56 @@
+package sshephard.customer;
+
+import java.util.concurrent.Callable;
+
+/**
+ * The shard that the current thread's database work is routed to
+ * @author s.shephard2
+ *
+ */
+public final class ShardContext {
+
+	private static final ThreadLocal<Integer> CURRENT = new ThreadLocal<Integer>();
+
+	private ShardContext() {
+	}
+
+	/**
+	 * @return the current shard, or null if none has been chosen
+	 */
+	public static Integer current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Route to a shard until clear() is called
+	 * @param shard
+	 */
+	public static void bind(int shard) {
+		CURRENT.set(shard);
+	}
+
+	public static void clear() {
+		CURRENT.remove();
+	}
+
+	/**
+	 * Run work against a shard
+	 * @param shard
+	 * @param work
+	 * @return the result of the work
+	 * @throws Exception
+	 */
+	public static <T> T call(int shard, Callable<T> work) throws Exception {
+		Integer previous = CURRENT.get();
+		CURRENT.set(shard);
+		try {
+			return work.call();
+		} finally {
+			if (previous == null) {
+				CURRENT.remove();
+			} else {
+				CURRENT.set(previous);
+			}
+		}
+	}
+}
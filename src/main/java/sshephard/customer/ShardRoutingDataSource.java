@@ -0,0 +1,97 @@
+package sshephard.customer;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+/**
+ * Routing DataSource for hash-sharded customer storage
+ * Connections go to the shard in the ShardContext, or to shard 0 if none has been chosen
+ * Must be wrapped in a LazyConnectionDataSourceProxy, so that the shard can be chosen after the transaction begins
+ * @author s.shephard2
+ *
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource {
+
+	private final List<DataSource> shards;
+
+	/**
+	 * @param shards DataSource for each shard
+	 */
+	public ShardRoutingDataSource(List<DataSource> shards) {
+		if (shards.isEmpty()) {
+			throw new IllegalArgumentException("At least one shard is required");
+		}
+		this.shards = new ArrayList<DataSource>(shards);
+
+		Map<Object, Object> targets = new HashMap<Object, Object>();
+		for (int i = 0; i < shards.size(); i++) {
+			targets.put(i, shards.get(i));
+		}
+		setTargetDataSources(targets);
+		setDefaultTargetDataSource(shards.get(0));
+	}
+
+	@Override
+	protected Object determineCurrentLookupKey() {
+		return ShardContext.current();
+	}
+
+	/**
+	 * @param dataSource the application DataSource
+	 * @return the ShardRoutingDataSource behind it
+	 */
+	public static ShardRoutingDataSource unwrap(DataSource dataSource) {
+		try {
+			return dataSource.unwrap(ShardRoutingDataSource.class);
+		} catch (SQLException e) {
+			throw new IllegalStateException("DataSource is not sharded", e);
+		}
+	}
+
+	/**
+	 * @param dataSource the application DataSource
+	 * @return the DataSource for each shard, or just the DataSource itself if it is not sharded
+	 */
+	public static List<DataSource> shardsOf(DataSource dataSource) {
+		try {
+			if (dataSource.isWrapperFor(ShardRoutingDataSource.class)) {
+				return dataSource.unwrap(ShardRoutingDataSource.class).getShards();
+			}
+		} catch (SQLException e) {
+			throw new IllegalStateException(e);
+		}
+		return Collections.singletonList(dataSource);
+	}
+
+	/**
+	 * @param id customer id
+	 * @return the shard that owns the customer
+	 */
+	public int shardFor(Long id) {
+		// Ids are time ordered, so mix the bits before taking the remainder
+		long hash = id * 0x9E3779B97F4A7C15L;
+		return (int) Math.floorMod(hash ^ (hash >>> 32), (long) shards.size());
+	}
+
+	/**
+	 * @return the number of shards
+	 */
+	public int getShardCount() {
+		return shards.size();
+	}
+
+	/**
+	 * @return the DataSource for each shard
+	 */
+	public List<DataSource> getShards() {
+		return Collections.unmodifiableList(shards);
+	}
+}
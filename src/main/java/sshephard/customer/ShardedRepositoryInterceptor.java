@@ -0,0 +1,395 @@
+package sshephard.customer;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Routes CustomerRepository calls in sharded mode
+ * Calls for one customer go to the shard that owns it, searches fan out to every shard in parallel
+ * and the sorted results are combined with a bounded k-way merge
+ * @author s.shephard2
+ *
+ */
+public class ShardedRepositoryInterceptor implements MethodInterceptor {
+
+	private static final Sort BY_ID = new Sort("id");
+
+	private static final Comparator<Customer> ID_ORDER = Comparator.comparing(Customer::getId);
+	private static final Comparator<Customer> CHANGE_ORDER = Comparator.comparing(Customer::getUpdated_at).thenComparing(Customer::getId);
+	private static final Comparator<CustomerTombstone> DELETION_ORDER = Comparator.comparing(CustomerTombstone::getDeleted_at)
+			.thenComparing(CustomerTombstone::getId);
+
+	// The unsharded repository, called with the shard chosen
+	private final CustomerRepository repository;
+	private final ShardRoutingDataSource shards;
+	private final PlatformTransactionManager transactionManager;
+	private final int maxResults;
+	private final ExecutorService executor;
+
+	public ShardedRepositoryInterceptor(CustomerRepository repository, ShardRoutingDataSource shards,
+			PlatformTransactionManager transactionManager, int maxResults) {
+		this.repository = repository;
+		this.shards = shards;
+		this.transactionManager = transactionManager;
+		this.maxResults = maxResults;
+
+		AtomicInteger threads = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(Math.max(2, shards.getShardCount() * 2), runnable -> {
+			Thread thread = new Thread(runnable, "shard-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Override
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+		if (ShardContext.current() != null) {
+			// Already routed
+			return invocation.proceed();
+		}
+
+		Method method = invocation.getMethod();
+		Object[] args = invocation.getArguments();
+
+		// findById, findOne, exists, delete by id
+		if (args.length == 1 && args[0] instanceof Long) {
+			return onShard(shards.shardFor((Long) args[0]), method, args);
+		}
+		if (args.length == 1 && args[0] instanceof Customer) {
+			Customer customer = (Customer) args[0];
+			if (method.getName().equals("save") && customer.getId() == null) {
+				return insert(customer);
+			}
+			return onShard(shards.shardFor(customer.getId()), method, args);
+		}
+		if (method.getName().equals("findAll") && args.length == 1 && args[0] instanceof Specification) {
+			@SuppressWarnings("unchecked")
+			Specification<Customer> spec = (Specification<Customer>) args[0];
+			return search(method, spec);
+		}
+		if (method.getName().equals("findByIds")) {
+			@SuppressWarnings("unchecked")
+			Collection<Long> ids = (Collection<Long>) args[0];
+			return lookup(method, ids);
+		}
+		// A page of a streamed search: each shard's page merged and cut back to one page, so that no id is skipped
+		if (method.getName().equals("searchAfter")) {
+			return merge(scatterSorted(method, args, ID_ORDER), (Integer) args[2]);
+		}
+		// A page of changes: each shard's page merged in (updated_at, id) order and cut back to one page
+		if (method.getName().equals("findChanges")) {
+			return merge(scatterSorted(method, args, CHANGE_ORDER), CHANGE_ORDER, (Integer) args[3]);
+		}
+		// A page of deletions likewise, in (deleted_at, id) order
+		if (method.getName().equals("findDeletions")) {
+			return merge(scatterSorted(method, args, DELETION_ORDER), DELETION_ORDER, (Integer) args[3]);
+		}
+		// Fuzzy name search: each shard's closest matches, ranked again together
+		if (method.getName().equals("findByFuzzyName")) {
+			return rank(method, args);
+		}
+		// Searches by criteria; bulk updates and deletes by criteria are scattered and their counts added
+		if (args.length == 1 && args[0] instanceof CustomerCriteria && List.class.isAssignableFrom(method.getReturnType())) {
+			return search(method, (CustomerCriteria) args[0]);
+		}
+		// Batch saves, deletes and lookups of customers or ids: each shard is called with only those it owns
+		if (args.length == 1 && args[0] instanceof Iterable && ownedByShard((Iterable<?>) args[0])) {
+			return batch(method, (Iterable<?>) args[0]);
+		}
+		return scatter(method, args);
+	}
+
+	private static boolean ownedByShard(Iterable<?> batch) {
+		for (Object value : batch) {
+			if (!(value instanceof Customer || value instanceof Long)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Split a batch of customers or ids by the shard that owns each, and call each shard with its part
+	 * New customers in a batch save are inserted one at a time, on the shard that owns the generated id
+	 * @return saved customers in the order of the batch, other customers merged in id order
+	 */
+	private Object batch(Method method, Iterable<?> batch) throws Throwable {
+		boolean save = method.getName().equals("save");
+		List<Object> saved = new ArrayList<Object>();
+		Map<Integer, List<Object>> owned = new TreeMap<Integer, List<Object>>();
+		Map<Integer, List<Integer>> positions = new TreeMap<Integer, List<Integer>>();
+		for (Object value : batch) {
+			Long id = value instanceof Customer ? ((Customer) value).getId() : (Long) value;
+			if (save && id == null) {
+				saved.add(insert((Customer) value));
+				continue;
+			}
+			int shard = shards.shardFor(id);
+			owned.computeIfAbsent(shard, key -> new ArrayList<Object>()).add(value);
+			positions.computeIfAbsent(shard, key -> new ArrayList<Integer>()).add(saved.size());
+			saved.add(null);
+		}
+
+		List<Iterator<Customer>> found = new ArrayList<Iterator<Customer>>();
+		for (Map.Entry<Integer, List<Object>> shard : owned.entrySet()) {
+			Object result = onShard(shard.getKey(), method, new Object[] {shard.getValue()});
+			if (save) {
+				// save returns one customer for each one passed, in the same order
+				Iterator<Integer> position = positions.get(shard.getKey()).iterator();
+				for (Object customer : (Iterable<?>) result) {
+					saved.set(position.next(), customer);
+				}
+			} else if (result instanceof Iterable) {
+				@SuppressWarnings("unchecked")
+				Iterable<Customer> customers = (Iterable<Customer>) result;
+				List<Customer> values = new ArrayList<Customer>();
+				customers.forEach(values::add);
+				values.sort(ID_ORDER);
+				found.add(values.iterator());
+			}
+		}
+
+		if (save) {
+			return saved;
+		}
+		return Iterable.class.isAssignableFrom(method.getReturnType()) ? merge(found, Integer.MAX_VALUE) : null;
+	}
+
+	/**
+	 * Save a new customer on the shard that owns its generated id
+	 */
+	private Customer insert(Customer customer) {
+		try {
+			return new TransactionTemplate(transactionManager).execute(status -> {
+				// The id is generated without a database round trip, and the insert is only flushed on commit
+				Customer saved = repository.save(customer);
+				ShardContext.bind(shards.shardFor(saved.getId()));
+				return saved;
+			});
+		} finally {
+			ShardContext.clear();
+		}
+	}
+
+	/**
+	 * Multi-get, with each shard asked in parallel for just the ids it owns
+	 */
+	private List<Customer> lookup(Method method, Collection<Long> ids) throws Throwable {
+		Map<Integer, List<Long>> owned = new TreeMap<Integer, List<Long>>();
+		for (Long id : ids) {
+			owned.computeIfAbsent(shards.shardFor(id), shard -> new ArrayList<Long>()).add(id);
+		}
+
+		List<Future<Object>> results = new ArrayList<Future<Object>>();
+		for (Map.Entry<Integer, List<Long>> shard : owned.entrySet()) {
+			Object[] args = {shard.getValue()};
+			results.add(executor.submit(() -> ShardContext.call(shard.getKey(), () -> method.invoke(repository, args))));
+		}
+		return merge(sorted(results), Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Parallel search of every shard by criteria, merged in the search's order
+	 * Each shard returns at most one more than the limit, or than maxResults if there is no lower limit, so that no shard
+	 * reads every match, and a search with more matches than maxResults is refused rather than cut short
+	 */
+	private List<Customer> search(Method method, CustomerCriteria criteria) throws Throwable {
+		boolean capped = criteria.getLimit() == null || criteria.getLimit() > maxResults;
+		int limit = capped ? maxResults : criteria.getLimit();
+		CustomerSort sort = criteria.getSort() == null ? CustomerSort.ID : criteria.getSort();
+		Comparator<Customer> order = sort.comparator();
+
+		Object[] bounded = {criteria.withSortAndLimit(sort, limit + 1)};
+		return cap(merge(scatterSorted(method, bounded, order), order, limit + 1), limit, capped);
+	}
+
+	/**
+	 * Parallel search of every shard by specification, merged in id order and bounded as a search by criteria
+	 */
+	private List<Customer> search(Method method, Specification<Customer> spec) throws Throwable {
+		Pageable page = new PageRequest(0, maxResults + 1, BY_ID);
+		List<Future<List<Customer>>> results = new ArrayList<Future<List<Customer>>>();
+		for (int shard = 0; shard < shards.getShardCount(); shard++) {
+			int target = shard;
+			results.add(executor.submit(() -> ShardContext.call(target, () -> repository.findAll(spec, page).getContent())));
+		}
+
+		List<Iterator<Customer>> sorted = new ArrayList<Iterator<Customer>>();
+		for (Future<List<Customer>> result : results) {
+			sorted.add(get(result).iterator());
+		}
+		return cap(merge(sorted, maxResults + 1), maxResults, true);
+	}
+
+	/**
+	 * Fuzzy name search of every shard in parallel, the union of each shard's closest matches ranked again,
+	 * since no shard's closest matches can be displaced by a match on another shard that it did not see
+	 */
+	private List<Customer> rank(Method method, Object[] args) throws Throwable {
+		List<Customer> union = new ArrayList<Customer>();
+		for (Future<Object> result : submitAll(method, args)) {
+			@SuppressWarnings("unchecked")
+			List<Customer> closest = (List<Customer>) get(result);
+			union.addAll(closest);
+		}
+		return FuzzyNames.rank((String) args[0], union, (Integer) args[1]);
+	}
+
+	/**
+	 * @param merged results, fetched one beyond the limit
+	 * @param capped whether the limit is maxResults rather than the caller's own
+	 * @return the results, cut to the caller's own limit
+	 * @throws TooManyResultsException if there were more results than maxResults
+	 */
+	private List<Customer> cap(List<Customer> merged, int limit, boolean capped) {
+		if (merged.size() <= limit) {
+			return merged;
+		}
+		if (capped) {
+			throw new TooManyResultsException(maxResults);
+		}
+		return new ArrayList<Customer>(merged.subList(0, limit));
+	}
+
+	/**
+	 * Any other call runs on every shard in parallel
+	 * Collections of customers are merged in id order, counts are added together
+	 */
+	private Object scatter(Method method, Object[] args) throws Throwable {
+		List<Future<Object>> results = submitAll(method, args);
+
+		Class<?> returnType = method.getReturnType();
+		if (returnType == long.class || returnType == Long.class) {
+			long total = 0;
+			for (Future<Object> result : results) {
+				total += (Long) get(result);
+			}
+			return total;
+		}
+		if (Iterable.class.isAssignableFrom(returnType)) {
+			return merge(sorted(results), Integer.MAX_VALUE);
+		}
+
+		// Single results, e.g. findOne(Specification), come from the first shard that has one
+		Object found = null;
+		for (Future<Object> result : results) {
+			Object value = get(result);
+			if (found == null) {
+				found = value;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Run a call returning customers on every shard in parallel
+	 * @return each shard's customers, sorted in the given order
+	 */
+	private <T> List<Iterator<T>> scatterSorted(Method method, Object[] args, Comparator<? super T> order) throws Throwable {
+		return sorted(submitAll(method, args), order);
+	}
+
+	private List<Future<Object>> submitAll(Method method, Object[] args) {
+		List<Future<Object>> results = new ArrayList<Future<Object>>();
+		for (int shard = 0; shard < shards.getShardCount(); shard++) {
+			int target = shard;
+			results.add(executor.submit(() -> ShardContext.call(target, () -> method.invoke(repository, args))));
+		}
+		return results;
+	}
+
+	private static List<Iterator<Customer>> sorted(List<Future<Object>> results) throws Throwable {
+		return sorted(results, ID_ORDER);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> List<Iterator<T>> sorted(List<Future<Object>> results, Comparator<? super T> order) throws Throwable {
+		List<Iterator<T>> sorted = new ArrayList<Iterator<T>>();
+		for (Future<Object> result : results) {
+			List<T> values = new ArrayList<T>();
+			((Iterable<T>) get(result)).forEach(values::add);
+			values.sort(order);
+			sorted.add(values.iterator());
+		}
+		return sorted;
+	}
+
+	private Object onShard(int shard, Method method, Object[] args) throws Throwable {
+		try {
+			return ShardContext.call(shard, () -> method.invoke(repository, args));
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * k-way merge of lists sorted by id, stopping after limit customers
+	 */
+	static List<Customer> merge(List<Iterator<Customer>> sorted, int limit) {
+		return merge(sorted, ID_ORDER, limit);
+	}
+
+	/**
+	 * k-way merge of lists sorted in the given order, stopping after limit values
+	 */
+	static <T> List<T> merge(List<Iterator<T>> sorted, Comparator<? super T> order, int limit) {
+		PriorityQueue<Head<T>> heads = new PriorityQueue<Head<T>>(Math.max(1, sorted.size()), (a, b) -> order.compare(a.value, b.value));
+		for (Iterator<T> iterator : sorted) {
+			if (iterator.hasNext()) {
+				heads.add(new Head<T>(iterator.next(), iterator));
+			}
+		}
+
+		List<T> merged = new ArrayList<T>();
+		while (!heads.isEmpty() && merged.size() < limit) {
+			Head<T> head = heads.poll();
+			merged.add(head.value);
+			if (head.rest.hasNext()) {
+				heads.add(new Head<T>(head.rest.next(), head.rest));
+			}
+		}
+		return merged;
+	}
+
+	private static <T> T get(Future<T> result) throws Throwable {
+		try {
+			return result.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof InvocationTargetException ? cause.getCause() : cause;
+		}
+	}
+
+	// Next value from one shard's results
+	private static class Head<T> {
+		private final T value;
+		private final Iterator<T> rest;
+
+		Head(T value, Iterator<T> rest) {
+			this.value = value;
+			this.rest = rest;
+		}
+	}
+}
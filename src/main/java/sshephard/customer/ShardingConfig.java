@@ -0,0 +1,174 @@
+package sshephard.customer;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceBuilder;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Hash-sharded customer storage, enabled by customer.sharding.enabled=true
+ * Shards are listed in customer.sharding.shards[n].*, with the driver and default credentials from spring.datasource.*
+ * Username and email uniqueness is only enforced within each shard.
+ * @author s.shephard2
+ *
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "customer.sharding", name = "enabled")
+@EnableConfigurationProperties(ShardingProperties.class)
+public class ShardingConfig {
+
+	@Bean
+	@Primary
+	public DataSource dataSource(DataSourceProperties properties, ShardingProperties sharding, PoolMonitor poolMonitor) {
+		List<DataSource> shards = new ArrayList<DataSource>();
+		for (ShardingProperties.Shard shard : sharding.getShards()) {
+			shards.add(poolMonitor.instrument("shard-" + shards.size(), DataSourceBuilder.create(properties.getClassLoader())
+					.driverClassName(properties.determineDriverClassName())
+					.url(shard.getUrl())
+					.username(shard.getUsername() != null ? shard.getUsername() : properties.determineUsername())
+					.password(shard.getPassword() != null ? shard.getPassword() : properties.determinePassword())
+					.build()));
+		}
+		ShardRoutingDataSource shardRoutingDataSource = new ShardRoutingDataSource(shards);
+		shardRoutingDataSource.afterPropertiesSet();
+
+		// Defer fetching the connection until the shard is known
+		return new LazyConnectionDataSourceProxy(shardRoutingDataSource);
+	}
+
+	@Bean
+	public static BeanPostProcessor shardedRepositoryPostProcessor() {
+		return new ShardedRepositoryPostProcessor();
+	}
+
+	@Bean
+	public ShardSchemaInitializer shardSchemaInitializer(DataSource dataSource, EntityManagerFactory entityManagerFactory) {
+		return new ShardSchemaInitializer(ShardRoutingDataSource.unwrap(dataSource));
+	}
+
+	/**
+	 * Copies the schema Hibernate created on the first shard to any other shard that has no customer table yet
+	 * Existing shards are left as they are, so their customers survive a restart; changes to the schema of an existing
+	 * shard, and schemas on databases other than H2, are for a migration tool
+	 */
+	static class ShardSchemaInitializer {
+
+		// Logger for customer.ShardingConfig.ShardSchemaInitializer
+		private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+		private final ShardRoutingDataSource shards;
+
+		ShardSchemaInitializer(ShardRoutingDataSource shards) {
+			this.shards = shards;
+		}
+
+		@PostConstruct
+		public void createShardSchemas() throws SQLException {
+			List<String> script = null;
+			for (int shard = 1; shard < shards.getShardCount(); shard++) {
+				DataSource target = shards.getShards().get(shard);
+				if (hasCustomerTable(target)) {
+					continue;
+				}
+				if (script == null) {
+					script = schemaScript(shards.getShards().get(0));
+				}
+				if (script == null) {
+					logger.warn("Shard {} has no customer table; create its schema with a migration tool", shard);
+					continue;
+				}
+				logger.info("Creating the customer schema on shard {}", shard);
+				JdbcTemplate jdbcTemplate = new JdbcTemplate(target);
+				for (String statement : script) {
+					jdbcTemplate.execute(statement);
+				}
+			}
+			logger.info("Customers sharded across {} databases", shards.getShardCount());
+		}
+
+		private static boolean hasCustomerTable(DataSource dataSource) throws SQLException {
+			try (Connection connection = dataSource.getConnection()) {
+				DatabaseMetaData metaData = connection.getMetaData();
+				for (String name : new String[] {"CUSTOMER", "customer"}) {
+					try (ResultSet tables = metaData.getTables(null, null, name, new String[] {"TABLE"})) {
+						if (tables.next()) {
+							return true;
+						}
+					}
+				}
+				return false;
+			}
+		}
+
+		/**
+		 * @return the statements that create the first shard's schema, without its data, or null if it isn't H2
+		 */
+		private static List<String> schemaScript(DataSource dataSource) throws SQLException {
+			try (Connection connection = dataSource.getConnection()) {
+				if (!"H2".equals(connection.getMetaData().getDatabaseProductName())) {
+					return null;
+				}
+			}
+			return new JdbcTemplate(dataSource).queryForList("SCRIPT NODATA", String.class);
+		}
+	}
+
+	/**
+	 * Wraps the CustomerRepository so that its calls are routed to the shards
+	 */
+	static class ShardedRepositoryPostProcessor implements BeanPostProcessor, BeanFactoryAware {
+
+		private BeanFactory beanFactory;
+
+		@Override
+		public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+			this.beanFactory = beanFactory;
+		}
+
+		@Override
+		public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+			return bean;
+		}
+
+		@Override
+		public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+			if (!(bean instanceof CustomerRepository)) {
+				return bean;
+			}
+			ShardRoutingDataSource shards = ShardRoutingDataSource.unwrap(beanFactory.getBean(DataSource.class));
+			ShardingProperties properties = beanFactory.getBean(ShardingProperties.class);
+			PlatformTransactionManager transactionManager = beanFactory.getBean(PlatformTransactionManager.class);
+
+			ProxyFactory proxyFactory = new ProxyFactory();
+			proxyFactory.setTarget(bean);
+			proxyFactory.addInterface(CustomerRepository.class);
+			proxyFactory.addAdvice(new ShardedRepositoryInterceptor((CustomerRepository) bean, shards,
+					transactionManager, properties.getMaxResults()));
+			return proxyFactory.getProxy(bean.getClass().getClassLoader());
+		}
+	}
+}
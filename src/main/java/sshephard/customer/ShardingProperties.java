@@ -0,0 +1,82 @@
+package sshephard.customer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings for hash-sharded customer storage, customer.sharding.*
+ * @author s.shephard2
+ *
+ */
+@ConfigurationProperties(prefix = "customer.sharding")
+public class ShardingProperties {
+
+	// Partition customers across the shards by id hash
+	private boolean enabled;
+
+	// Most customers returned by a search across all shards
+	private int maxResults = 1000;
+
+	// Shard connection settings, the first shard also holds the schema Hibernate creates
+	private List<Shard> shards = new ArrayList<Shard>();
+
+	/**
+	 * Connection settings for one shard
+	 */
+	public static class Shard {
+
+		private String url;
+		private String username;
+		private String password;
+
+		public String getUrl() {
+			return url;
+		}
+
+		public void setUrl(String url) {
+			this.url = url;
+		}
+
+		public String getUsername() {
+			return username;
+		}
+
+		public void setUsername(String username) {
+			this.username = username;
+		}
+
+		public String getPassword() {
+			return password;
+		}
+
+		public void setPassword(String password) {
+			this.password = password;
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getMaxResults() {
+		return maxResults;
+	}
+
+	public void setMaxResults(int maxResults) {
+		this.maxResults = maxResults;
+	}
+
+	public List<Shard> getShards() {
+		return shards;
+	}
+
+	public void setShards(List<Shard> shards) {
+		this.shards = shards;
+	}
+}
@@ -0,0 +1,91 @@
+package sshephard.customer;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent calls with the same key, so that only the first runs and the others wait for and share its result
+ * Nothing is cached: once the first call finishes, the next call with the key runs again
+ * @author s.shephard2
+ *
+ * @param <K> key, which must implement equals and hashCode
+ * @param <V> result
+ */
+public class SingleFlight<K, V> {
+
+	private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<K, CompletableFuture<V>>();
+	private final LongAdder executed = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+
+	/**
+	 * @param key
+	 * @param call
+	 * @return the result of call, or of the identical call already in flight
+	 * @throws RuntimeException thrown by the call, whichever caller ran it
+	 */
+	public V execute(K key, Callable<V> call) {
+		CompletableFuture<V> flight = new CompletableFuture<V>();
+		CompletableFuture<V> leader = inFlight.putIfAbsent(key, flight);
+		if (leader != null) {
+			coalesced.increment();
+			return await(leader);
+		}
+
+		executed.increment();
+		try {
+			V result = call.call();
+			flight.complete(result);
+			return result;
+		} catch (Throwable e) {
+			flight.completeExceptionally(e);
+			throw propagate(e);
+		} finally {
+			inFlight.remove(key, flight);
+		}
+	}
+
+	private static <V> V await(CompletableFuture<V> flight) {
+		try {
+			return flight.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted waiting for coalesced call", e);
+		} catch (ExecutionException e) {
+			throw propagate(e.getCause());
+		}
+	}
+
+	private static RuntimeException propagate(Throwable e) {
+		if (e instanceof RuntimeException) {
+			return (RuntimeException) e;
+		}
+		if (e instanceof Error) {
+			throw (Error) e;
+		}
+		return new IllegalStateException(e);
+	}
+
+	/**
+	 * @return calls that ran
+	 */
+	public long getExecuted() {
+		return executed.sum();
+	}
+
+	/**
+	 * @return calls that shared the result of one already in flight
+	 */
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+
+	/**
+	 * @return calls running now
+	 */
+	public int getInFlight() {
+		return inFlight.size();
+	}
+}
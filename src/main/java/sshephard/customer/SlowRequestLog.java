@@ -0,0 +1,74 @@
+package sshephard.customer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Writes the traces of requests over a threshold to the customer.slow-requests logger, and keeps the most recent
+ * @author s.shephard2
+ *
+ */
+public class SlowRequestLog {
+
+	// Logger the slow traces are written to, as one JSON object per line
+	private static final Logger SLOW_REQUESTS = LoggerFactory.getLogger("customer.slow-requests");
+
+	private final long thresholdMicros;
+	private final int capacity;
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	// Guarded by itself
+	private final Deque<Map<String, Object>> recent = new ArrayDeque<Map<String, Object>>();
+
+	/**
+	 * @param thresholdMillis requests taking at least this long are logged
+	 * @param capacity number of recent slow traces kept
+	 */
+	public SlowRequestLog(long thresholdMillis, int capacity) {
+		this.thresholdMicros = TimeUnit.MILLISECONDS.toMicros(thresholdMillis);
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Log the trace of a finished request if it was slow
+	 * @param trace
+	 */
+	public void completed(RequestTrace trace) {
+		if (trace.getMicros() < thresholdMicros) {
+			return;
+		}
+		Map<String, Object> slow = trace.toMap();
+		if (SLOW_REQUESTS.isWarnEnabled()) {
+			try {
+				SLOW_REQUESTS.warn(mapper.writeValueAsString(slow));
+			} catch (JsonProcessingException e) {
+				SLOW_REQUESTS.warn("Can't format slow request trace {}", e.getMessage());
+			}
+		}
+		synchronized (recent) {
+			if (recent.size() >= capacity) {
+				recent.removeLast();
+			}
+			recent.addFirst(slow);
+		}
+	}
+
+	/**
+	 * @return the most recent slow traces, newest first
+	 */
+	public List<Map<String, Object>> recent() {
+		synchronized (recent) {
+			return new ArrayList<Map<String, Object>>(recent);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package sshephard.customer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Snowflake-style generator of globally unique, time ordered ids
+ * An id is the milliseconds since 2017-01-01 (41 bits), the worker id (4 bits) and a per-millisecond sequence (8 bits),
+ * which keeps ids within 53 bits so that they survive JSON parsing in JavaScript clients
+ * @author s.shephard2
+ *
+ */
+public class SnowflakeIdGenerator {
+
+	// 2017-01-01T00:00:00Z
+	private static final long EPOCH = 1483228800000L;
+
+	private static final int WORKER_BITS = 4;
+	private static final int SEQUENCE_BITS = 8;
+
+	public static final int MAX_WORKER = (1 << WORKER_BITS) - 1;
+	private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+	// One generator per worker id, so that every user of a worker id shares the same sequence
+	private static final ConcurrentMap<Integer, SnowflakeIdGenerator> GENERATORS = new ConcurrentHashMap<Integer, SnowflakeIdGenerator>();
+
+	private final long worker;
+	private long lastTimestamp = -1L;
+	private long sequence;
+
+	private SnowflakeIdGenerator(int worker) {
+		this.worker = worker;
+	}
+
+	/**
+	 * @param worker id of this application instance, 0 to 15
+	 * @return the generator for the worker
+	 */
+	public static SnowflakeIdGenerator forWorker(int worker) {
+		if (worker < 0 || worker > MAX_WORKER) {
+			throw new IllegalArgumentException("Worker id must be between 0 and " + MAX_WORKER);
+		}
+		return GENERATORS.computeIfAbsent(worker, SnowflakeIdGenerator::new);
+	}
+
+	/**
+	 * @return the next id
+	 */
+	public synchronized long nextId() {
+		long timestamp = System.currentTimeMillis();
+		if (timestamp < lastTimestamp) {
+			// Clock moved backwards, carry on from the last timestamp rather than risk duplicates
+			timestamp = lastTimestamp;
+		}
+		if (timestamp == lastTimestamp) {
+			sequence = (sequence + 1) & SEQUENCE_MASK;
+			if (sequence == 0) {
+				// Sequence exhausted for this millisecond, wait for the next one
+				while (timestamp <= lastTimestamp) {
+					timestamp = System.currentTimeMillis();
+				}
+			}
+		} else {
+			sequence = 0;
+		}
+		lastTimestamp = timestamp;
+		return ((timestamp - EPOCH) << (WORKER_BITS + SEQUENCE_BITS)) | (worker << SEQUENCE_BITS) | sequence;
+	}
+}
@@ -0,0 +1,78 @@
+package sshephard.customer;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the SQL statements executed by the current thread, within nested scopes
+ * Statements are counted by InstrumentedDataSource as they execute, so cache hits and batching are reflected;
+ * statements run on other threads, such as shard scatter-gather workers, are not counted in the caller's scope
+ * @author s.shephard2
+ *
+ */
+public final class StatementCounter {
+
+	private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<Scope>();
+
+	private static final LongAdder TOTAL = new LongAdder();
+
+	private StatementCounter() {
+	}
+
+	/**
+	 * Start counting, until the scope is closed
+	 * @return the scope, to be closed with try-with-resources
+	 */
+	public static Scope begin() {
+		Scope scope = new Scope(CURRENT.get());
+		CURRENT.set(scope);
+		return scope;
+	}
+
+	/**
+	 * Record that a statement was executed, in every open scope
+	 */
+	static void executed() {
+		TOTAL.increment();
+		for (Scope scope = CURRENT.get(); scope != null; scope = scope.parent) {
+			scope.count++;
+		}
+	}
+
+	/**
+	 * @return statements executed by all threads
+	 */
+	public static long total() {
+		return TOTAL.sum();
+	}
+
+	/**
+	 * Statements executed on this thread since the scope began
+	 */
+	public static final class Scope implements AutoCloseable {
+
+		private final Scope parent;
+		private int count;
+
+		private Scope(Scope parent) {
+			this.parent = parent;
+		}
+
+		/**
+		 * @return statements executed so far
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		@Override
+		public void close() {
+			if (CURRENT.get() == this) {
+				if (parent == null) {
+					CURRENT.remove();
+				} else {
+					CURRENT.set(parent);
+				}
+			}
+		}
+	}
+}
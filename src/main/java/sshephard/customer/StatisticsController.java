@@ -0,0 +1,149 @@
+package sshephard.customer;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+
+/**
+ * REST controller for runtime statistics
+ * @author s.shephard2
+ *
+ */
+@RestController
+@Api(value="statistics")
+public class StatisticsController {
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private PoolMonitor poolMonitor;
+
+	@Autowired
+	private CustomerReadCoalescer customerReadCoalescer;
+
+	// Absent unless customer.request-log.enabled=true
+	@Autowired(required = false)
+	private RequestLog requestLog;
+
+	// Absent unless customer.tracing.enabled=true
+	@Autowired(required = false)
+	private SlowRequestLog slowRequestLog;
+
+	// Absent unless customer.admission.enabled=true
+	@Autowired(required = false)
+	private AdmissionControlFilter admissionControlFilter;
+
+	/**
+	 * Cache statistics route: GET /stats/cache
+	 * @return
+	 */
+	@ApiOperation(value = "Cache statistics",
+		    notes = "Second-level cache and query cache hits, misses and puts")
+	@RequestMapping(method = RequestMethod.GET, value = "/stats/cache", produces = "application/json")
+	public ResponseEntity<Map<String, Object>> cacheStatistics() {
+		Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("enabled", statistics.isStatisticsEnabled());
+		result.put("second_level_hits", statistics.getSecondLevelCacheHitCount());
+		result.put("second_level_misses", statistics.getSecondLevelCacheMissCount());
+		result.put("second_level_puts", statistics.getSecondLevelCachePutCount());
+		result.put("query_cache_hits", statistics.getQueryCacheHitCount());
+		result.put("query_cache_misses", statistics.getQueryCacheMissCount());
+		result.put("query_cache_puts", statistics.getQueryCachePutCount());
+		result.put("entity", regionStatistics(statistics, CacheConfig.ENTITY_REGION));
+		result.put("queries", regionStatistics(statistics, CustomerRepository.QUERY_CACHE_REGION));
+		return ResponseEntity.ok().body(result);
+	}
+
+	private Map<String, Object> regionStatistics(Statistics statistics, String region) {
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		SecondLevelCacheStatistics regionStatistics = statistics.getSecondLevelCacheStatistics(region);
+		if (regionStatistics != null) {
+			result.put("hits", regionStatistics.getHitCount());
+			result.put("misses", regionStatistics.getMissCount());
+			result.put("puts", regionStatistics.getPutCount());
+			result.put("size", regionStatistics.getElementCountInMemory());
+		}
+		return result;
+	}
+
+	/**
+	 * Connection pool statistics route: GET /stats/pool
+	 * @return
+	 */
+	@ApiOperation(value = "Connection pool statistics",
+		    notes = "Pool sizes, saturation, acquire and hold latency, timeouts and suspected leaks for each pool")
+	@RequestMapping(method = RequestMethod.GET, value = "/stats/pool", produces = "application/json")
+	public ResponseEntity<Map<String, Object>> poolStatistics() {
+		return ResponseEntity.ok().body(poolMonitor.statistics());
+	}
+
+	/**
+	 * Admission control statistics route: GET /stats/admission
+	 * @return
+	 */
+	@ApiOperation(value = "Admission control statistics",
+		    notes = "Concurrency limit, requests in progress, admitted, rejected and slow requests for each route class, and per-client throttling")
+	@RequestMapping(method = RequestMethod.GET, value = "/stats/admission", produces = "application/json")
+	public ResponseEntity<Map<String, Object>> admissionStatistics() {
+		if (admissionControlFilter == null) {
+			return ResponseEntity.notFound().build();
+		}
+		return ResponseEntity.ok().body(admissionControlFilter.statistics());
+	}
+
+	/**
+	 * Read coalescing statistics route: GET /stats/coalescing
+	 * @return
+	 */
+	@ApiOperation(value = "Read coalescing statistics",
+		    notes = "Lookups and searches that ran, and those that shared the result of an identical one in flight")
+	@RequestMapping(method = RequestMethod.GET, value = "/stats/coalescing", produces = "application/json")
+	public ResponseEntity<Map<String, Object>> coalescingStatistics() {
+		return ResponseEntity.ok().body(customerReadCoalescer.statistics());
+	}
+
+	/**
+	 * Request log statistics route: GET /stats/request-log
+	 * @return
+	 */
+	@ApiOperation(value = "Request log statistics",
+		    notes = "Request log entries buffered, written and dropped because the buffer was full")
+	@RequestMapping(method = RequestMethod.GET, value = "/stats/request-log", produces = "application/json")
+	public ResponseEntity<Map<String, Object>> requestLogStatistics() {
+		if (requestLog == null) {
+			return ResponseEntity.notFound().build();
+		}
+		return ResponseEntity.ok().body(requestLog.statistics());
+	}
+
+	/**
+	 * Slow request route: GET /stats/slow-requests
+	 * @return
+	 */
+	@ApiOperation(value = "Recent slow requests",
+		    notes = "Traces of the most recent requests over customer.tracing.slow-threshold-millis, newest first, with their spans and SQL")
+	@RequestMapping(method = RequestMethod.GET, value = "/stats/slow-requests", produces = "application/json")
+	public ResponseEntity<List<Map<String, Object>>> slowRequests() {
+		if (slowRequestLog == null) {
+			return ResponseEntity.notFound().build();
+		}
+		return ResponseEntity.ok().body(slowRequestLog.recent());
+	}
+}
@@ -0,0 +1,29 @@
+package sshephard.customer;
+
+/**
+ * Thrown by a sharded search with more results than customer.sharding.max-results and no lower limit, rather than
+ * returning some of them as if they were all
+ * @author s.shephard2
+ *
+ */
+public class TooManyResultsException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int maxResults;
+
+	/**
+	 * @param maxResults the most results a search returns
+	 */
+	public TooManyResultsException(int maxResults) {
+		super("More than " + maxResults + " results; narrow the search or set a limit");
+		this.maxResults = maxResults;
+	}
+
+	/**
+	 * @return the most results a search returns
+	 */
+	public int getMaxResults() {
+		return maxResults;
+	}
+}
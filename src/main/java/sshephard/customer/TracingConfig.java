@@ -0,0 +1,152 @@
+package sshephard.customer;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.Ordered;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+/**
+ * Per-request tracing configuration, enabled by customer.tracing.enabled=true
+ * Spans: binding (request body and @Valid), validation.*, controller.*, repository.* and response.write
+ * @author s.shephard2
+ *
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "customer.tracing", name = "enabled")
+public class TracingConfig extends WebMvcConfigurerAdapter {
+
+	@Bean
+	public SlowRequestLog slowRequestLog(@Value("${customer.tracing.slow-threshold-millis:500}") long thresholdMillis,
+			@Value("${customer.tracing.slow-capacity:50}") int capacity) {
+		return new SlowRequestLog(thresholdMillis, capacity);
+	}
+
+	// Inside admission control, so that rejected requests aren't traced
+	@Bean
+	public FilterRegistrationBean tracingFilterRegistration(SlowRequestLog slowRequestLog) {
+		FilterRegistrationBean registration = new FilterRegistrationBean(new TracingFilter(slowRequestLog));
+		registration.addUrlPatterns("/customers", "/customers/*", "/async/customers", "/async/customers/*");
+		registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 2);
+		return registration;
+	}
+
+	@Bean
+	public TracingAspect tracingAspect() {
+		return new TracingAspect();
+	}
+
+	// Only while tracing, so that Hibernate doesn't call it for every statement otherwise
+	@Bean
+	public static BeanPostProcessor statementInspectorPostProcessor() {
+		return new StatementInspectorPostProcessor();
+	}
+
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		registry.addInterceptor(new HandlerInterceptorAdapter() {
+
+			// Argument resolution, including reading the request body and @Valid, happens between here and the handler
+			@Override
+			public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+				RequestTrace.span("binding");
+				return true;
+			}
+
+			@Override
+			public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception e) {
+				RequestTrace.close("binding");
+				RequestTrace.close("response.write");
+			}
+		});
+	}
+
+	/**
+	 * Spans around the controller handlers and repository calls
+	 */
+	@Aspect
+	static class TracingAspect {
+
+		@Around("within(sshephard.customer.CustomerController)")
+		public Object controller(ProceedingJoinPoint joinPoint) throws Throwable {
+			RequestTrace.close("binding");
+			RequestTrace.Span span = RequestTrace.span("controller." + joinPoint.getSignature().getName());
+			try {
+				return joinPoint.proceed();
+			} finally {
+				span.close();
+			}
+		}
+
+		@Around("this(sshephard.customer.CustomerRepository)")
+		public Object repository(ProceedingJoinPoint joinPoint) throws Throwable {
+			RequestTrace.Span span = RequestTrace.span("repository." + joinPoint.getSignature().getName());
+			try {
+				return joinPoint.proceed();
+			} finally {
+				span.close();
+			}
+		}
+	}
+
+	/**
+	 * Sets TracingStatementInspector on the entity manager factory before it is built
+	 */
+	static class StatementInspectorPostProcessor implements BeanPostProcessor {
+
+		@Override
+		public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+			if (bean instanceof LocalContainerEntityManagerFactoryBean) {
+				((LocalContainerEntityManagerFactoryBean) bean).getJpaPropertyMap()
+					.put("hibernate.session_factory.statement_inspector", TracingStatementInspector.class.getName());
+			}
+			return bean;
+		}
+
+		@Override
+		public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+			return bean;
+		}
+	}
+
+	/**
+	 * Opens the response.write span just before the body is serialized; it is closed once the handler has completed
+	 * Found by component scanning, as controller advice must be, so it carries the same condition as the configuration
+	 */
+	@ControllerAdvice
+	@ConditionalOnProperty(prefix = "customer.tracing", name = "enabled")
+	static class ResponseWriteTracing implements ResponseBodyAdvice<Object> {
+
+		@Override
+		public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+			return true;
+		}
+
+		@Override
+		public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+				Class<? extends HttpMessageConverter<?>> selectedConverterType, ServerHttpRequest request, ServerHttpResponse response) {
+			RequestTrace.span("response.write");
+			return body;
+		}
+	}
+}
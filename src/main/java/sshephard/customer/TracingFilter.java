@@ -0,0 +1,45 @@
+package sshephard.customer;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Traces each customer request and counts its SQL statements, passing the finished trace to the SlowRequestLog
+ * @author s.shephard2
+ *
+ */
+public class TracingFilter extends OncePerRequestFilter {
+
+	private final SlowRequestLog slowRequestLog;
+
+	/**
+	 * @param slowRequestLog
+	 */
+	public TracingFilter(SlowRequestLog slowRequestLog) {
+		this.slowRequestLog = slowRequestLog;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		RequestTrace trace = RequestTrace.begin(request.getMethod(), request.getRequestURI());
+		StatementCounter.Scope statements = StatementCounter.begin();
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			statements.close();
+			// An async request carries on with the trace on other threads, and ends it once complete
+			RequestTrace.detach();
+			AsyncCompletion.whenComplete(request, () -> {
+				trace.end(response.getStatus(), statements.getCount());
+				slowRequestLog.completed(trace);
+			});
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package sshephard.customer;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Attaches the SQL Hibernate prepares to the RequestTrace of the current request
+ * Configured by hibernate.session_factory.statement_inspector
+ * @author s.shephard2
+ *
+ */
+public class TracingStatementInspector implements StatementInspector {
+
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	public String inspect(String sql) {
+		RequestTrace.statement(sql);
+		return sql;
+	}
+}
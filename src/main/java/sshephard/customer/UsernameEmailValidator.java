@@ -4,9 +4,11 @@ import javax.validation.ConstraintValidator;
 import javax.validation.ConstraintValidatorContext;
 
 import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.beans.factory.annotation.Autowired;
 
 /**
- * Custom validation to check that at least one of email or username is present
+ * Custom validation to check that at least one of email or username is present, and that neither belongs to another
+ * customer, current or archived
  * @author s.shephard2
  *
  */
@@ -15,6 +17,11 @@ public class UsernameEmailValidator implements ConstraintValidator<UsernameEmail
 	private String username;
 	private String email;
 
+	// Set when Spring creates the validator, for @Valid request bodies; when JPA validates an entity on save it is null,
+	// and the unique columns reject duplicates instead
+	@Autowired(required = false)
+	private CustomerArchive archive;
+
 	@Override
 	public void initialize(UsernameEmail constraint) {
 		this.username = constraint.username();
@@ -23,6 +30,33 @@ public class UsernameEmailValidator implements ConstraintValidator<UsernameEmail
 
 	@Override
 	public boolean isValid(Object object, ConstraintValidatorContext context) {
+		RequestTrace.Span span = RequestTrace.span("validation.usernameEmail");
+		try {
+			if (!isValid(object)) {
+				return false;
+			}
+			if (archive != null && isTaken(object)) {
+				context.disableDefaultConstraintViolation();
+				context.buildConstraintViolationWithTemplate("The username or email already belongs to another customer").addConstraintViolation();
+				return false;
+			}
+			return true;
+		} finally {
+			span.close();
+		}
+	}
+
+	private boolean isTaken(Object object) {
+		BeanWrapperImpl wrapper = new BeanWrapperImpl(object);
+		Long id = object instanceof Customer ? ((Customer) object).getId() : null;
+		try {
+			return archive.isTaken(id, (String) wrapper.getPropertyValue(username), (String) wrapper.getPropertyValue(email));
+		} catch (Exception e) {
+			throw new IllegalStateException("Can't check whether the username or email is taken", e);
+		}
+	}
+
+	private boolean isValid(Object object) {
 
 		String usernameValue = (String) new BeanWrapperImpl(object).getPropertyValue(username);
 		String emailValue = (String) new BeanWrapperImpl(object).getPropertyValue(email);
@@ -0,0 +1,3 @@
+-- Run by Hibernate after it creates the schema
+-- Index for newest first searches (sort=-created_at), here since Hibernate drops DESC from @Index column lists
+CREATE INDEX customer_created_at_desc ON customer (created_at DESC, id);
@@ -0,0 +1,206 @@
+package sshephard.customer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.FilterChain;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import sshephard.customer.AdmissionControlFilter.RouteClass;
+
+/**
+ * Unit tests for admission control
+ * @author s.shephard2
+ *
+ */
+public class AdmissionControlFilterTest {
+
+	/**
+	 * Each client is limited to its own rate
+	 */
+	@Test
+	public void clientRateLimit() throws Exception {
+		AdmissionControlProperties properties = new AdmissionControlProperties();
+		properties.setClientRate(1);
+		properties.setClientBurst(5);
+		AdmissionControlFilter filter = new AdmissionControlFilter(properties);
+		FilterChain chain = (request, response) -> { };
+
+		// Burst allowed, then throttled
+		for (int i = 0; i < 5; i++) {
+			assertThat(get(filter, chain, "/customers/1", "10.0.0.1").getStatus()).isEqualTo(200);
+		}
+		MockHttpServletResponse response = get(filter, chain, "/customers/1", "10.0.0.1");
+		assertThat(response.getStatus()).isEqualTo(429);
+		assertThat(response.getHeader("Retry-After")).isEqualTo("1");
+
+		// Other clients unaffected
+		assertThat(get(filter, chain, "/customers/1", "10.0.0.2").getStatus()).isEqualTo(200);
+
+		// Other routes not limited
+		assertThat(get(filter, chain, "/stats/pool", "10.0.0.1").getStatus()).isEqualTo(200);
+	}
+
+	/**
+	 * Behind a proxy, clients are told apart by the configured header rather than the proxy's address
+	 */
+	@Test
+	public void clientHeader() throws Exception {
+		AdmissionControlProperties properties = new AdmissionControlProperties();
+		properties.setClientRate(1);
+		properties.setClientBurst(1);
+		properties.setClientHeader("X-Forwarded-For");
+		AdmissionControlFilter filter = new AdmissionControlFilter(properties);
+		FilterChain chain = (request, response) -> { };
+
+		// Test: the last address is the one the proxy added, whatever the client put before it
+		assertThat(get(filter, chain, "/customers/1", "10.0.0.1", "192.168.0.1").getStatus()).isEqualTo(200);
+		assertThat(get(filter, chain, "/customers/1", "10.0.0.1", "192.168.0.2").getStatus()).isEqualTo(200);
+		assertThat(get(filter, chain, "/customers/1", "10.0.0.1", "1.2.3.4, 192.168.0.1").getStatus()).isEqualTo(429);
+
+		// Without the header, the remote address
+		assertThat(get(filter, chain, "/customers/1", "10.0.0.1", null).getStatus()).isEqualTo(200);
+		assertThat(get(filter, chain, "/customers/1", "10.0.0.1", null).getStatus()).isEqualTo(429);
+	}
+
+	/**
+	 * Lookups by id stay faster with admission control than without while searches overload the database they share
+	 */
+	@Test
+	public void readLatencyBoundedUnderSearchOverload() throws Exception {
+		AdmissionControlProperties properties = new AdmissionControlProperties();
+		properties.setClientRate(1000000);
+		properties.setClientBurst(1000000);
+		properties.getSearch().setTargetMillis(40);
+
+		// Without admission control every search is admitted and queues for the database
+		AdmissionControlProperties unlimited = new AdmissionControlProperties();
+		unlimited.setClientRate(1000000);
+		unlimited.setClientBurst(1000000);
+		unlimited.getSearch().setInitialLimit(1000);
+		unlimited.getSearch().setMaxLimit(1000);
+		unlimited.getSearch().setTargetMillis(1000000);
+
+		long uncontrolled = readP99Micros(new AdmissionControlFilter(unlimited));
+		AdmissionControlFilter filter = new AdmissionControlFilter(properties);
+		long controlled = readP99Micros(filter);
+
+		// Test
+		assertThat(controlled).isLessThan(uncontrolled);
+		assertThat((Long) filter.getLimit(AdmissionControlFilter.RouteClass.SEARCH).statistics().get("rejected")).isGreaterThan(0L);
+		assertThat(filter.getLimit(AdmissionControlFilter.RouteClass.SEARCH).getLimit()).isLessThan(20);
+	}
+
+	/**
+	 * Async routes are classified as the routes they mirror, and hold their permit until the response is complete
+	 */
+	@Test
+	public void asyncRequestsHeldUntilComplete() throws Exception {
+		AdmissionControlFilter filter = new AdmissionControlFilter(new AdmissionControlProperties());
+		assertThat(AdmissionControlFilter.routeClass(new MockHttpServletRequest("GET", "/async/customers/1"))).isEqualTo(RouteClass.READ);
+		assertThat(AdmissionControlFilter.routeClass(new MockHttpServletRequest("POST", "/async/customers"))).isEqualTo(RouteClass.WRITE);
+		assertThat(AdmissionControlFilter.routeClass(new MockHttpServletRequest("GET", "/async/customers/stream"))).isEqualTo(RouteClass.SEARCH);
+		assertThat(AdmissionControlFilter.routeClass(new MockHttpServletRequest("GET", "/async/other"))).isNull();
+
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/async/customers/1");
+		request.setAsyncSupported(true);
+		filter.doFilter(request, new MockHttpServletResponse(), (servletRequest, servletResponse) -> servletRequest.startAsync());
+
+		// Test
+		ConcurrencyLimit read = filter.getLimit(RouteClass.READ);
+		assertThat(read.getInFlight()).isEqualTo(1);
+		request.getAsyncContext().complete();
+		assertThat(read.getInFlight()).isEqualTo(0);
+	}
+
+	/**
+	 * 32 clients searching flat out and 2 looking up by id, against a database that runs 4 queries at a time
+	 * @return p99 lookup latency in microseconds
+	 */
+	private static long readP99Micros(AdmissionControlFilter filter) throws Exception {
+		Semaphore database = new Semaphore(4, true);
+		FilterChain chain = (request, response) -> {
+			boolean search = ((MockHttpServletRequest) request).getRequestURI().equals("/customers");
+			database.acquireUninterruptibly();
+			try {
+				Thread.sleep(search ? 20 : 1);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				database.release();
+			}
+		};
+
+		AtomicBoolean running = new AtomicBoolean(true);
+		AtomicInteger rejected = new AtomicInteger();
+		List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+		ExecutorService executor = Executors.newFixedThreadPool(34);
+		for (int i = 0; i < 32; i++) {
+			executor.execute(() -> {
+				while (running.get()) {
+					if (get(filter, chain, "/customers", "10.0.0.1").getStatus() == 503) {
+						rejected.incrementAndGet();
+						sleep(5);
+					}
+				}
+			});
+		}
+		sleep(500);
+		for (int i = 0; i < 2; i++) {
+			executor.execute(() -> {
+				while (running.get()) {
+					long start = System.nanoTime();
+					assertThat(get(filter, chain, "/customers/1", "10.0.0.2").getStatus()).isEqualTo(200);
+					latencies.add(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+				}
+			});
+		}
+		sleep(1500);
+		running.set(false);
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+
+		List<Long> sorted = new ArrayList<Long>(latencies);
+		Collections.sort(sorted);
+		return sorted.get((int) (sorted.size() * 0.99));
+	}
+
+	private static MockHttpServletResponse get(AdmissionControlFilter filter, FilterChain chain, String uri, String client) {
+		return get(filter, chain, uri, client, null);
+	}
+
+	private static MockHttpServletResponse get(AdmissionControlFilter filter, FilterChain chain, String uri, String client, String forwardedFor) {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", uri);
+		request.setRemoteAddr(client);
+		if (forwardedFor != null) {
+			request.addHeader("X-Forwarded-For", forwardedFor);
+		}
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		try {
+			filter.doFilter(request, response, chain);
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+		return response;
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package sshephard.customer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.embedded.LocalServerPort;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests for the non-blocking customer routes, against a running server
+ * @author s.shephard2
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT,
+		properties = {"spring.datasource.url=jdbc:h2:mem:asynctest;DB_CLOSE_DELAY=-1", "server.tomcat.max-threads=8", "customer.admission.enabled=false"})
+public class AsyncCustomerControllerTest {
+
+	// Logger for customer.AsyncCustomerControllerTest
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private TestRestTemplate rest;
+
+	@Autowired
+	private CustomerBulkLoader bulkLoader;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private static Customer customer(String username) {
+		Customer customer = new Customer();
+		customer.setFirst_name("Perpetua");
+		customer.setLast_name("Async");
+		customer.setUsername(username);
+		customer.setEmail(username + "@example.com");
+		return customer;
+	}
+
+	/**
+	 * The async routes answer as the servlet routes do, and validate the same way
+	 */
+	@Test
+	public void sameResponses() {
+		ResponseEntity<Customer> created = rest.postForEntity("/async/customers", customer("pasync"), Customer.class);
+		assertThat(created.getStatusCode()).isEqualTo(HttpStatus.OK);
+		Long id = created.getBody().getId();
+
+		assertThat(rest.getForObject("/async/customers/" + id, String.class))
+			.isEqualTo(rest.getForObject("/customers/" + id, String.class));
+		assertThat(rest.getForObject("/async/customers?name=perpetua", String.class))
+			.isEqualTo(rest.getForObject("/customers?name=perpetua", String.class));
+		assertThat(rest.getForEntity("/async/customers/" + (id + 1000), String.class).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+
+		// Invalid customer, no criteria, bad date
+		Customer invalid = customer("pinvalid");
+		invalid.setLast_name("Async2");
+		assertThat(rest.postForEntity("/async/customers", invalid, String.class).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+		assertThat(rest.getForEntity("/async/customers", String.class).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+		assertThat(rest.getForEntity("/async/customers/stream?born_after=1970-13-01", String.class).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+	}
+
+	/**
+	 * A stream covers every match over several pages, in id order
+	 */
+	@Test
+	public void streamsEveryMatch() throws Exception {
+		bulkLoader.load(new CustomerDataGenerator(45), 1200);
+
+		// Generated customers were all created before 2019
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/async/customers/stream?created_before=2019-01-01").openConnection();
+		assertThat(connection.getResponseCode()).isEqualTo(200);
+		assertThat(connection.getContentType()).startsWith("application/x-ndjson");
+		long previous = Long.MIN_VALUE;
+		int count = 0;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				JsonNode customer = mapper.readTree(line);
+				assertThat(customer.get("id").asLong()).isGreaterThan(previous);
+				previous = customer.get("id").asLong();
+				count++;
+			}
+		}
+		assertThat(count).isEqualTo(1200);
+	}
+
+	/**
+	 * A stream is cut short by limit, and may only be sorted by id
+	 */
+	@Test
+	public void streamLimitAndSort() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			rest.postForEntity("/async/customers", customer("pstreamed" + i), Customer.class);
+		}
+
+		// Test
+		assertThat(streamed("/async/customers/stream?username=pstreamed")).isEqualTo(3);
+		assertThat(streamed("/async/customers/stream?username=pstreamed&limit=2")).isEqualTo(2);
+		assertThat(streamed("/async/customers/stream?username=pstreamed&sort=id")).isEqualTo(3);
+		assertThat(rest.getForEntity("/async/customers/stream?username=pstreamed&sort=-id", String.class).getStatusCode())
+			.isEqualTo(HttpStatus.BAD_REQUEST);
+		assertThat(rest.getForEntity("/async/customers/stream?username=pstreamed&limit=0", String.class).getStatusCode())
+			.isEqualTo(HttpStatus.BAD_REQUEST);
+	}
+
+	private int streamed(String path) {
+		String body = rest.getForObject(path, String.class);
+		return body == null ? 0 : body.split("\n").length;
+	}
+
+	/**
+	 * Requests beyond the database threads and their queue are turned away with 503
+	 */
+	@Test
+	public void busyWhenQueueFull() throws Exception {
+		AsyncCustomerController controller = new AsyncCustomerController(1, 1);
+		CustomerController blocked = Mockito.mock(CustomerController.class);
+		CountDownLatch finish = new CountDownLatch(1);
+		Mockito.when(blocked.customer(Mockito.anyLong())).thenAnswer(invocation -> {
+			finish.await();
+			return ResponseEntity.notFound().build();
+		});
+		ReflectionTestUtils.setField(controller, "customers", blocked);
+		MockMvc mvc = MockMvcBuilders.standaloneSetup(controller).build();
+
+		try {
+			// One running, one queued
+			mvc.perform(get("/async/customers/1")).andExpect(request().asyncStarted());
+			mvc.perform(get("/async/customers/2")).andExpect(request().asyncStarted());
+
+			// Test
+			mvc.perform(get("/async/customers/3"))
+				.andExpect(status().isServiceUnavailable())
+				.andExpect(header().string("Retry-After", "1"));
+		} finally {
+			finish.countDown();
+			controller.shutdown();
+		}
+	}
+
+	/**
+	 * Benchmark: many concurrent connections against the servlet and async routes, with only eight servlet threads
+	 * Scaled down to what one test process can open; each connection makes several requests
+	 */
+	@Test
+	public void concurrentConnections() throws Exception {
+		Long id = rest.postForEntity("/async/customers", customer("pbench"), Customer.class).getBody().getId();
+		for (String route : new String[] {"/customers/", "/async/customers/", "/customers/", "/async/customers/"}) {
+			int connections = 200;
+			int requests = 5;
+			ExecutorService clients = Executors.newFixedThreadPool(connections);
+			long start = System.nanoTime();
+			List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < connections; i++) {
+				results.add(clients.submit(() -> {
+					int ok = 0;
+					for (int r = 0; r < requests; r++) {
+						HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + route + id).openConnection();
+						if (connection.getResponseCode() == 200) {
+							ok++;
+						}
+						connection.getInputStream().close();
+					}
+					return ok;
+				}));
+			}
+			int ok = 0;
+			for (Future<Integer> result : results) {
+				ok += result.get();
+			}
+			long millis = (System.nanoTime() - start) / 1000000;
+			clients.shutdown();
+			logger.info("{}: {} requests over {} connections in {}ms, {} per second", route, ok, connections, millis, ok * 1000L / Math.max(1, millis));
+			assertThat(ok).isEqualTo(connections * requests);
+		}
+	}
+}
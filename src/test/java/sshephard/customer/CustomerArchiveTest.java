@@ -0,0 +1,205 @@
+package sshephard.customer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.sql.Timestamp;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+import org.hibernate.SessionFactory;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+/**
+ * Unit tests for archiving customers, in a database of their own since archival moves every old customer
+ * @author s.shephard2
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:archivetest;DB_CLOSE_DELAY=-1")
+@AutoConfigureMockMvc
+public class CustomerArchiveTest {
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private CustomerRepository customerRepository;
+
+	@Autowired
+	private CustomerArchive archive;
+
+	@Autowired
+	private DataSource dataSource;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	private Customer save(String firstName, String username) {
+		Customer customer = new Customer();
+		customer.setFirst_name(firstName);
+		customer.setLast_name("Coldstore");
+		customer.setUsername(username);
+		customer.setEmail(username + "@example.com");
+		return customerRepository.save(customer);
+	}
+
+	/**
+	 * Old customers move to the archive, leave default searches, and can still be found by id or with include_archived
+	 */
+	@Test
+	public void archiveOldCustomers() throws Exception {
+		Customer old = save("Stephen", "archived001");
+		save("Carmen", "archived002");
+		new JdbcTemplate(dataSource).update("UPDATE customer SET created_at = ? WHERE id = ?",
+				Timestamp.valueOf("2010-06-01 12:00:00"), old.getId());
+		entityManagerFactory.unwrap(SessionFactory.class).getCache().evictAllRegions();
+
+		// Test
+		assertThat(archive.archive(Timestamp.valueOf("2015-01-01 00:00:00"))).isEqualTo(1);
+		assertThat(customerRepository.findById(old.getId())).isNull();
+		assertThat(archive.archive(Timestamp.valueOf("2015-01-01 00:00:00"))).isEqualTo(0);
+
+		mvc.perform(get("/customers/" + old.getId())
+				.accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.username").value("archived001"))
+				.andExpect(jsonPath("$.email").value("archived001@example.com"))
+				.andExpect(jsonPath("$.display_name").value("Stephen Coldstore"))
+				.andExpect(jsonPath("$.created_at").value("2010-06-01 12:00:00"));
+
+		mvc.perform(get("/customers?name=coldstore")
+				.accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.customers[*].username", containsInAnyOrder("archived002")));
+
+		mvc.perform(get("/customers?name=coldstore&include_archived=true")
+				.accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.customers[*].username", containsInAnyOrder("archived001", "archived002")));
+
+		// Date criteria are applied to the archive too
+		mvc.perform(get("/customers?name=stephen&created_after=2011-01-01&include_archived=true")
+				.accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.customers.length()").value(0));
+	}
+
+	/**
+	 * Archive searches filter, sort and limit in the database unless they match names, and in memory when they do
+	 */
+	@Test
+	public void searchArchiveInOrder() throws Exception {
+		String[] names = {"Mabel", "Zelda", "Agnes"};
+		for (int i = 0; i < names.length; i++) {
+			Customer customer = save(names[i], "archsort00" + i);
+			new JdbcTemplate(dataSource).update("UPDATE customer SET last_name = 'Frostbox', display_name = NULL, created_at = ? WHERE id = ?",
+					Timestamp.valueOf("200" + i + "-06-01 12:00:00"), customer.getId());
+		}
+		entityManagerFactory.unwrap(SessionFactory.class).getCache().evictAllRegions();
+		archive.archive(Timestamp.valueOf("2005-01-01 00:00:00"));
+
+		CustomerCriteria byUsername = new CustomerCriteria();
+		byUsername.setUsername("ARCHSORT");
+		byUsername.setSort(CustomerSort.CREATED_AT_DESC);
+		byUsername.setLimit(2);
+
+		CustomerCriteria byName = new CustomerCriteria();
+		byName.setName("frostbox");
+		byName.setCreated_before(Timestamp.valueOf("2005-01-01 00:00:00"));
+		byName.setSort(CustomerSort.FIRST_NAME);
+		byName.setLimit(2);
+
+		// Test
+		assertThat(archive.search(byUsername)).extracting(Customer::getUsername).containsExactly("archsort002", "archsort001");
+		assertThat(archive.search(byName)).extracting(Customer::getFirst_name).containsExactly("Agnes", "Mabel");
+	}
+
+	/**
+	 * Archived customers are found by multi-gets, and keep their username and email from being reused
+	 */
+	@Test
+	public void archivedCustomersStayUnique() throws Exception {
+		Customer old = save("Stephen", "archived003");
+		Customer current = save("Carmen", "archived004");
+		new JdbcTemplate(dataSource).update("UPDATE customer SET created_at = ? WHERE id = ?",
+				Timestamp.valueOf("2010-06-01 12:00:00"), old.getId());
+		assertThat(archive.archive(Timestamp.valueOf("2015-01-01 00:00:00"))).isEqualTo(1);
+
+		// Test
+		mvc.perform(get("/customers?ids=" + current.getId() + "," + old.getId() + ",1")
+				.accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.customers[*].username", contains("archived004", "archived003")))
+				.andExpect(jsonPath("$.missing[*]", contains(1)));
+		mvc.perform(post("/customers/lookup")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("[" + old.getId() + "]"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.customers[0].display_name").value("Stephen Coldstore"));
+
+		mvc.perform(post("/customers")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"last_name\":\"Coldstore\",\"username\":\"archived003\"}"))
+				.andExpect(status().isBadRequest());
+		mvc.perform(post("/customers")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"last_name\":\"Coldstore\",\"email\":\"archived003@example.com\"}"))
+				.andExpect(status().isBadRequest());
+		mvc.perform(put("/customers/" + current.getId())
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"last_name\":\"Coldstore\",\"username\":\"archived003\"}"))
+				.andExpect(status().isBadRequest());
+
+		// A customer keeps its own username and email when updated
+		mvc.perform(put("/customers/" + current.getId())
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"first_name\":\"Carmel\",\"last_name\":\"Coldstore\",\"username\":\"archived004\",\"email\":\"archived004@example.com\"}"))
+				.andExpect(status().isOk());
+		mvc.perform(post("/customers")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"last_name\":\"Coldstore\",\"username\":\"archived005\"}"))
+				.andExpect(status().isOk());
+	}
+
+	/**
+	 * The payload survives the round trip, is deflated when that makes it smaller, and stored as it is otherwise
+	 */
+	@Test
+	public void payloadIsCompressed() {
+		Customer customer = save("Christopher", "christopher.williams.payload");
+		customer.setLast_name("Christopherson");
+		customer.setDisplay_name("Christopher Christopherson");
+		ArchivedCustomer archived = ArchivedCustomer.of(customer, new java.util.Date());
+
+		// Test
+		Customer restored = archived.toCustomer();
+		assertThat(restored.getUsername()).isEqualTo(customer.getUsername());
+		assertThat(restored.getEmail()).isEqualTo(customer.getEmail());
+		assertThat(restored.getLast_name()).isEqualTo(customer.getLast_name());
+		assertThat(restored.getDisplay_name()).isEqualTo(customer.getDisplay_name());
+		int text = customer.getFirst_name().length() + customer.getLast_name().length() + customer.getDisplay_name().length();
+		assertThat(archived.getPayload().length).isLessThan(text);
+
+		// Too short to gain from deflating: the version, then each name with its length
+		Customer shortNames = save("Al", "al.payload");
+		ArchivedCustomer stored = ArchivedCustomer.of(shortNames, new java.util.Date());
+		assertThat(stored.toCustomer().getDisplay_name()).isEqualTo(shortNames.getDisplay_name());
+		assertThat(stored.getPayload().length).isEqualTo(1 + 3 * 3 + "Al".length() + "Coldstore".length() + shortNames.getDisplay_name().length());
+	}
+}
@@ -0,0 +1,161 @@
+package sshephard.customer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+/**
+ * Unit tests for bulk update and delete by search criteria
+ * @author s.shephard2
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+public class CustomerBulkOperationsTest {
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private CustomerRepository customerRepository;
+
+	@Autowired
+	private CustomerSearchIndex searchIndex;
+
+	private List<Customer> save(String lastName, String username, int count) {
+		List<Customer> customers = new ArrayList<Customer>();
+		for (int i = 0; i < count; i++) {
+			Customer customer = new Customer();
+			customer.setFirst_name("Carmen");
+			customer.setLast_name(lastName);
+			customer.setUsername(username + i);
+			customers.add(customer);
+		}
+		List<Customer> saved = new ArrayList<Customer>();
+		customerRepository.save(customers).forEach(saved::add);
+		return saved;
+	}
+
+	private static CustomerCriteria name(String name) {
+		CustomerCriteria criteria = new CustomerCriteria();
+		criteria.setName(name);
+		return criteria;
+	}
+
+	/**
+	 * Update more customers than one chunk; caches, phonetic keys and the search index all follow
+	 */
+	@Test
+	public void bulkUpdate() throws Exception {
+		List<Customer> customers = save("Bulkington", "bulkupdate", CustomerRepositoryImpl.BULK_CHUNK * 2 + 10);
+		Long id = customers.get(0).getId();
+
+		// Cache the customer and the search first
+		assertThat(customerRepository.findById(id).getLast_name()).isEqualTo("Bulkington");
+		assertThat(customerRepository.search(name("bulkington"))).hasSize(customers.size());
+
+		// Test
+		mvc.perform(patch("/customers?name=bulkington")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"last_name\":\"Bulkley\",\"birthdate\":\"1980-05-01\"}"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.updated").value(customers.size()));
+
+		assertThat(customerRepository.findById(id).getLast_name()).isEqualTo("Bulkley");
+		// Display names are kept, as they are by PUT
+		assertThat(customerRepository.search(name("bulkington"))).extracting(Customer::getLast_name).containsOnly("Bulkley");
+		assertThat(customerRepository.search(name("bulkley"))).hasSize(customers.size());
+		assertThat(customerRepository.findByFuzzyName("Bulkley", 10)).extracting(Customer::getId).contains(id);
+		searchIndex.refresh();
+		assertThat(searchIndex.search("bulkley", 5)).hasSize(5);
+		assertThat(searchIndex.search("bulkley carmen", 5)).hasSize(5);
+	}
+
+	/**
+	 * Delete only the matching customers, and drop them from caches and the search index
+	 */
+	@Test
+	public void bulkDelete() throws Exception {
+		List<Customer> customers = save("Deletington", "bulkdelete", 3);
+		save("Deletington", "bulkkeep", 1);
+		Long id = customers.get(0).getId();
+		assertThat(customerRepository.findById(id)).isNotNull();
+
+		// Test
+		mvc.perform(delete("/customers?username=bulkdelete"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.deleted").value(3));
+
+		assertThat(customerRepository.findById(id)).isNull();
+		assertThat(customerRepository.search(name("deletington"))).extracting(Customer::getUsername).containsExactly("bulkkeep0");
+		searchIndex.refresh();
+		assertThat(searchIndex.search("deletington", 5)).hasSize(1);
+	}
+
+	/**
+	 * A patch need not set last_name, which is required of a customer but kept when left out
+	 */
+	@Test
+	public void patchWithoutLastName() throws Exception {
+		List<Customer> customers = save("Partington", "bulkpartial", 2);
+		Long id = customers.get(0).getId();
+
+		// Test
+		mvc.perform(patch("/customers?username=bulkpartial")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"first_name\":\"Carla\"}"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.updated").value(2));
+		mvc.perform(patch("/customers?username=bulkpartial")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"birthdate\":\"1975-06-30\"}"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.updated").value(2));
+
+		Customer customer = customerRepository.findById(id);
+		assertThat(customer.getFirst_name()).isEqualTo("Carla");
+		assertThat(customer.getLast_name()).isEqualTo("Partington");
+		assertThat(new SimpleDateFormat("yyyy-MM-dd").format(customer.getBirthdate())).isEqualTo("1975-06-30");
+	}
+
+	/**
+	 * Bulk operations need criteria, and may only set valid, non-unique fields
+	 */
+	@Test
+	public void badRequests() throws Exception {
+		mvc.perform(delete("/customers"))
+				.andExpect(status().isBadRequest());
+		mvc.perform(patch("/customers")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"last_name\":\"Jones\"}"))
+				.andExpect(status().isBadRequest());
+		mvc.perform(patch("/customers?name=jones")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"username\":\"everyone\"}"))
+				.andExpect(status().isBadRequest());
+		mvc.perform(patch("/customers?name=jones")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"first_name\":\"J0nes\"}"))
+				.andExpect(status().isBadRequest());
+		mvc.perform(patch("/customers?name=jones")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{}"))
+				.andExpect(status().isBadRequest());
+	}
+}
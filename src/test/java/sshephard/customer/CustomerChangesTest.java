@@ -0,0 +1,213 @@
+package sshephard.customer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests for updated_at tracking and incremental sync
+ * @author s.shephard2
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"spring.datasource.url=jdbc:h2:mem:changestest;DB_CLOSE_DELAY=-1", "customer.changes.settle-millis=0"})
+@AutoConfigureMockMvc
+public class CustomerChangesTest {
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private CustomerRepository customerRepository;
+
+	@Autowired
+	private EntityManager entityManager;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private CustomerArchive archive;
+
+	@Autowired
+	private CustomerTombstones tombstones;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private Customer save(String username) {
+		Customer customer = new Customer();
+		customer.setFirst_name("Imogen");
+		customer.setLast_name("Changes");
+		customer.setUsername(username);
+		return customerRepository.save(customer);
+	}
+
+	/**
+	 * Page through every change after the token, returning the usernames and the last token
+	 */
+	private String sync(String since, int limit, List<String> usernames) throws Exception {
+		return sync(since, limit, usernames, new ArrayList<Long>());
+	}
+
+	/**
+	 * Page through every change after the token, returning the usernames, the ids removed and the last token
+	 */
+	private String sync(String since, int limit, List<String> usernames, List<Long> deleted) throws Exception {
+		// Changes are only listed once their updated_at is in the past
+		Thread.sleep(5);
+		String token = since;
+		while (true) {
+			String url = "/customers/changes?limit=" + limit + (token.isEmpty() ? "" : "&since=" + token);
+			JsonNode page = mapper.readTree(mvc.perform(get(url)).andExpect(status().isOk()).andReturn().getResponse().getContentAsString());
+			for (JsonNode customer : page.get("customers")) {
+				usernames.add(customer.get("username").asText());
+			}
+			for (JsonNode id : page.get("deleted")) {
+				deleted.add(id.asLong());
+			}
+			assertThat(page.get("customers").size() + page.get("deleted").size()).isLessThanOrEqualTo(limit);
+			if (page.get("customers").size() == 0 && page.get("deleted").size() == 0) {
+				return page.get("next").asText();
+			}
+			token = page.get("next").asText();
+		}
+	}
+
+	/**
+	 * A full sync, then only what changed since, whether saved one at a time or in bulk
+	 */
+	@Test
+	public void incrementalSync() throws Exception {
+		List<Customer> customers = new ArrayList<Customer>();
+		for (int i = 0; i < 5; i++) {
+			customers.add(save("changes" + i));
+		}
+		assertThat(customers.get(0).getUpdated_at()).isEqualTo(customers.get(0).getCreated_at());
+
+		List<String> usernames = new ArrayList<String>();
+		String token = sync("", 2, usernames);
+		assertThat(usernames).containsSubsequence("changes0", "changes1", "changes2", "changes3", "changes4");
+
+		// One customer updated
+		Thread.sleep(5);
+		Customer updated = customerRepository.findOne(customers.get(3).getId());
+		updated.setFirst_name("Imelda");
+		updated = customerRepository.save(updated);
+		assertThat(updated.getUpdated_at()).isAfter(updated.getCreated_at());
+		usernames.clear();
+		token = sync(token, 2, usernames);
+		assertThat(usernames).containsExactly("changes3");
+
+		// Nothing changed, but the token moves on to the settle time
+		usernames.clear();
+		String unchanged = sync(token, 2, usernames);
+		assertThat(usernames).isEmpty();
+		assertThat(CustomerChanges.position(unchanged)[0]).isGreaterThan(CustomerChanges.position(token)[0]);
+		token = unchanged;
+
+		// Bulk update
+		mvc.perform(patch("/customers?username=changes")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"display_name\": \"Imogen Bulk\"}"))
+				.andExpect(status().isOk());
+		usernames.clear();
+		sync(token, 2, usernames);
+		assertThat(usernames).containsOnly("changes0", "changes1", "changes2", "changes3", "changes4").hasSize(5);
+	}
+
+	/**
+	 * Customers deleted one at a time, deleted in bulk or archived are listed as deleted, once each
+	 */
+	@Test
+	public void removalsSynced() throws Exception {
+		Long deleted = save("removeddelete").getId();
+		Long bulkDeleted = save("removedbulk").getId();
+		Long archived = save("removedarchive").getId();
+		Long kept = save("removedkept").getId();
+		jdbcTemplate.update("UPDATE customer SET created_at = '2000-01-01 00:00:00' WHERE id = ?", archived);
+		String token = sync("", 3, new ArrayList<String>());
+
+		// Test
+		customerRepository.delete(deleted);
+		mvc.perform(delete("/customers?username=removedbulk")).andExpect(status().isOk());
+		assertThat(archive.archive(java.sql.Date.valueOf("2001-01-01"))).isEqualTo(1);
+
+		List<String> usernames = new ArrayList<String>();
+		List<Long> removed = new ArrayList<Long>();
+		token = sync(token, 2, usernames, removed);
+		assertThat(removed).containsExactly(deleted, bulkDeleted, archived);
+		assertThat(usernames).isEmpty();
+		assertThat(customerRepository.findById(kept)).isNotNull();
+
+		// Nothing removed since
+		removed.clear();
+		sync(token, 2, usernames, removed);
+		assertThat(removed).isEmpty();
+	}
+
+	/**
+	 * Tombstones past the retention window are purged, and tokens older than it are refused
+	 */
+	@Test
+	public void tombstonesExpire() throws Exception {
+		Long old = save("expiredold").getId();
+		Long recent = save("expiredrecent").getId();
+		customerRepository.delete(old);
+		customerRepository.delete(recent);
+		jdbcTemplate.update("UPDATE customer_tombstone SET deleted_at = '2000-01-01 00:00:00' WHERE id = ?", old);
+
+		// Test
+		assertThat(tombstones.purge(java.sql.Date.valueOf("2001-01-01"))).isEqualTo(1);
+		assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM customer_tombstone WHERE id IN (?, ?)", Long.class, old, recent))
+			.isEqualTo(1);
+		String expired = CustomerChanges.token(java.sql.Date.valueOf("2001-01-01"), 0);
+		mvc.perform(get("/customers/changes?since=" + expired)).andExpect(status().isGone());
+		String current = CustomerChanges.token(new java.util.Date(System.currentTimeMillis() - 60000), 0);
+		mvc.perform(get("/customers/changes?since=" + current)).andExpect(status().isOk());
+	}
+
+	/**
+	 * Bad tokens and limits are rejected, and updated_at can't be set by a bulk update
+	 */
+	@Test
+	public void invalidRequests() throws Exception {
+		mvc.perform(get("/customers/changes?since=bm90LWEtdG9rZW4")).andExpect(status().isBadRequest());
+		mvc.perform(get("/customers/changes?since=!!!")).andExpect(status().isBadRequest());
+		mvc.perform(get("/customers/changes?limit=1001")).andExpect(status().isBadRequest());
+		mvc.perform(patch("/customers?username=changes")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"updated_at\": \"2017-01-01 00:00:00\"}"))
+				.andExpect(status().isBadRequest());
+	}
+
+	/**
+	 * A page of changes is read from the (updated_at, id) index in order
+	 */
+	@Test
+	public void changesUseIndexOrder() {
+		String plan = (String) entityManager
+				.createNativeQuery("EXPLAIN SELECT * FROM customer WHERE updated_at >= NOW() AND (updated_at > NOW() OR id > 5) ORDER BY updated_at, id LIMIT 100")
+				.getSingleResult();
+		assertThat(plan).contains("CUSTOMER_UPDATED_AT").contains("index sorted");
+	}
+}
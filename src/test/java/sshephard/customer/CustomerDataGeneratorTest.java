@@ -0,0 +1,98 @@
+package sshephard.customer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.validation.Validation;
+import javax.validation.Validator;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Tests for the synthetic customer generator and bulk loader
+ * @author s.shephard2
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:generatortest;DB_CLOSE_DELAY=-1")
+public class CustomerDataGeneratorTest {
+
+	@Autowired
+	private CustomerRepository customerRepository;
+
+	@Autowired
+	private CustomerBulkLoader bulkLoader;
+
+	/**
+	 * The same seed produces the same customers
+	 */
+	@Test
+	public void deterministic() {
+		CustomerDataGenerator first = new CustomerDataGenerator(7);
+		CustomerDataGenerator second = new CustomerDataGenerator(7);
+		for (int i = 0; i < 1000; i++) {
+			Customer a = first.next();
+			Customer b = second.next();
+			assertThat(a.getUsername()).isEqualTo(b.getUsername());
+			assertThat(a.getDisplay_name()).isEqualTo(b.getDisplay_name());
+			assertThat(a.getBirthdate()).isEqualTo(b.getBirthdate());
+			assertThat(a.getCreated_at()).isEqualTo(b.getCreated_at());
+		}
+		assertThat(new CustomerDataGenerator(8).next().getBirthdate())
+			.isNotEqualTo(new CustomerDataGenerator(7).next().getBirthdate());
+	}
+
+	/**
+	 * Generated customers are valid and unique, and their names are skewed towards the most common
+	 */
+	@Test
+	public void validUniqueAndSkewed() {
+		Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+		CustomerDataGenerator generator = new CustomerDataGenerator(42);
+		Set<String> usernames = new HashSet<String>();
+		Set<String> emails = new HashSet<String>();
+		Map<String, Integer> lastNames = new HashMap<String, Integer>();
+		for (int i = 0; i < 20000; i++) {
+			Customer customer = generator.next();
+			assertThat(validator.validate(customer)).isEmpty();
+			assertThat(usernames.add(customer.getUsername())).isTrue();
+			assertThat(emails.add(customer.getEmail())).isTrue();
+			lastNames.merge(customer.getLast_name(), 1, Integer::sum);
+		}
+		assertThat(lastNames.get("Smith")).isGreaterThan(10 * lastNames.get("Aldersey"));
+	}
+
+	/**
+	 * Usernames stay unique at a million customers, where a name and an id could otherwise run together ("mclark" + "e7cr"
+	 * and "mclarke" + "7cr")
+	 */
+	@Test
+	public void uniqueAtScale() {
+		CustomerDataGenerator generator = new CustomerDataGenerator(42);
+		Set<String> usernames = new HashSet<String>();
+		for (int i = 0; i < 1000000; i++) {
+			assertThat(usernames.add(generator.next().getUsername())).isTrue();
+		}
+	}
+
+	/**
+	 * Bulk load generated customers and read them back through the repository
+	 */
+	@Test
+	public void bulkLoad() throws Exception {
+		long before = customerRepository.count();
+		double rate = bulkLoader.load(new CustomerDataGenerator(42), 100000);
+		assertThat(customerRepository.count()).isEqualTo(before + 100000);
+		assertThat(customerRepository.findOne(1L).getDisplay_name())
+			.isEqualTo(new CustomerDataGenerator(42).next().getDisplay_name());
+		assertThat(rate).isGreaterThan(0);
+	}
+}
@@ -0,0 +1,130 @@
+package sshephard.customer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+
+/**
+ * Tests for duplicate customer detection
+ * @author s.shephard2
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:duplicatestest;DB_CLOSE_DELAY=-1")
+@AutoConfigureMockMvc
+public class CustomerDuplicatesTest {
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private CustomerRepository customerRepository;
+
+	@Autowired
+	private CustomerBulkLoader bulkLoader;
+
+	@Autowired
+	private CustomerDuplicates duplicates;
+
+	private Customer save(String firstName, String lastName, String email, String birthdate) {
+		Customer customer = new Customer();
+		customer.setFirst_name(firstName);
+		customer.setLast_name(lastName);
+		customer.setUsername(email.substring(0, email.indexOf('@')).replaceAll("[^a-z0-9]", "") + "dup");
+		customer.setEmail(email);
+		customer.setBirthdate(SearchDates.parse(birthdate));
+		return customerRepository.save(customer);
+	}
+
+	private static String pair(Customer a, Customer b) {
+		return Math.min(a.getId(), b.getId()) + "-" + Math.max(a.getId(), b.getId());
+	}
+
+	/**
+	 * Email local parts are compared without dots, tags and digits
+	 */
+	@Test
+	public void normalisesLocalParts() {
+		assertThat(CustomerDuplicates.local("J.Smith+shop@example.com", "ignored")).isEqualTo("jsmith");
+		assertThat(CustomerDuplicates.local(null, "jsmith_1980")).isEqualTo("jsmith");
+		assertThat(CustomerDuplicates.local(null, null)).isEmpty();
+		assertThat(FuzzyNames.similarity("martha", "marhta")).isBetween(0.96, 0.97);
+		assertThat(FuzzyNames.similarity("smith", "smith")).isEqualTo(1.0);
+		assertThat(FuzzyNames.similarity("abc", "xyz")).isEqualTo(0.0);
+	}
+
+	/**
+	 * Planted duplicates are found among generated customers, through either blocking
+	 */
+	@Test
+	public void findsPlantedDuplicates() throws Exception {
+		bulkLoader.load(new CustomerDataGenerator(47), 50000);
+		Customer john = save("John", "Smithers", "jsmithers@example.com", "1980-01-01");
+		Customer jon = save("Jon", "Smithers", "j.smithers+shop@mail.example", "1980-01-01");
+		save("Jane", "Smithers", "jsmithers2@example.com", "1985-06-30");
+		Customer catherine = save("Catherine", "Foxley", "cfoxley@example.com", "1975-03-12");
+		Customer katherine = save("Katherine", "Foxley", "kfoxley@example.com", "1975-03-12");
+
+		CustomerDuplicates.Report report = duplicates.detect();
+		assertThat(report.getCustomers()).isGreaterThanOrEqualTo(50005);
+		assertThat(report.getPairs())
+			.extracting(pair -> pair.getFirst_id() + "-" + pair.getSecond_id())
+			.contains(pair(john, jon), pair(catherine, katherine));
+		for (CustomerDuplicates.Pair pair : report.getPairs()) {
+			assertThat(pair.getScore()).isGreaterThanOrEqualTo(0.9);
+		}
+
+		mvc.perform(get("/reports/duplicates?limit=1"))
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.customers").value(report.getCustomers()))
+			.andExpect(jsonPath("$.pairs.length()").value(1));
+	}
+
+	/**
+	 * Detection requested over HTTP runs in the background, one run at a time
+	 * @throws Exception
+	 */
+	@Test
+	public void detectsInBackground() throws Exception {
+		save("Rosalind", "Quillfeather", "rquillfeather@example.com", "1969-11-02");
+		save("Rosalind", "Quillfeather", "rquillfeather+shop@mail.example", "1969-11-02");
+
+		mvc.perform(post("/reports/duplicates"))
+			.andExpect(status().isAccepted())
+			.andExpect(header().string("Location", "/reports/duplicates/status"));
+		for (int i = 0; i < 600 && duplicates.isRunning(); i++) {
+			Thread.sleep(100);
+		}
+
+		// Test
+		mvc.perform(get("/reports/duplicates/status"))
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.running").value(false));
+		assertThat(duplicates.getReport()).isNotNull();
+
+		// A second run is refused while one is in progress
+		AtomicBoolean running = (AtomicBoolean) ReflectionTestUtils.getField(duplicates, "running");
+		running.set(true);
+		try {
+			mvc.perform(post("/reports/duplicates"))
+				.andExpect(status().isConflict())
+				.andExpect(jsonPath("$.running").value(true));
+		} finally {
+			running.set(false);
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package sshephard.customer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+
+/**
+ * Tests and benchmark for the hand-written customer serializers, against Jackson's output from the Customer annotations
+ * @author s.shephard2
+ *
+ */
+public class CustomerJsonTest {
+
+	// Logger for customer.CustomerJsonTest
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private static ObjectMapper handWritten() {
+		SimpleModule module = new SimpleModule();
+		module.addSerializer(Customer.class, new CustomerJson.Serializer());
+		module.addSerializer(CustomerSearch.class, new CustomerJson.SearchSerializer());
+		return new ObjectMapper().registerModule(module);
+	}
+
+	private static CustomerSearch search(List<Customer> customers) {
+		CustomerSearch search = new CustomerSearch();
+		search.setCustomers(customers);
+		return search;
+	}
+
+	private static List<Customer> generated(int count) {
+		CustomerDataGenerator generator = new CustomerDataGenerator(42);
+		List<Customer> customers = new ArrayList<Customer>(count);
+		for (int i = 0; i < count; i++) {
+			customers.add(generator.next());
+		}
+		return customers;
+	}
+
+	private static Date date(String pattern, String value) throws Exception {
+		SimpleDateFormat format = new SimpleDateFormat(pattern);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.parse(value);
+	}
+
+	/**
+	 * Customers with nulls, characters to escape and dates at the edges of the fast path
+	 */
+	private static List<Customer> awkward() throws Exception {
+		List<Customer> customers = new ArrayList<Customer>();
+		customers.add(new Customer());
+
+		String[] names = {"O'Brien", "Zoë \"Zed\"", "back\\slash", "tab\tline\nend", " \u0001", ""};
+		String[] dates = {"1500-06-01 12:00:00", "1582-10-04 23:59:59", "1582-10-15 00:00:00", "1899-12-31 23:59:59",
+				"1969-12-31 23:59:59", "1970-01-01 00:00:00", "2000-02-29 12:34:56", "2016-03-27 01:30:00", "9999-12-31 23:59:59",
+				"10000-01-01 00:00:00"};
+		for (int i = 0; i < dates.length; i++) {
+			Customer customer = new Customer();
+			customer.setId((long) i - 2);
+			customer.setUsername(names[i % names.length]);
+			customer.setFirst_name(names[(i + 1) % names.length]);
+			customer.setLast_name(names[(i + 2) % names.length]);
+			customer.setCreated_at(date("yyyy-MM-dd HH:mm:ss", dates[i]));
+			customer.setUpdated_at(new Date(customer.getCreated_at().getTime() + 999));
+			customer.setBirthdate(date("yyyy-MM-dd", dates[i].substring(0, dates[i].indexOf(' '))));
+			customers.add(customer);
+		}
+		return customers;
+	}
+
+	/**
+	 * Byte for byte the same as Jackson's output, in any time zone and locale the mapper is configured with
+	 * @throws Exception
+	 */
+	@Test
+	public void sameAsJackson() throws Exception {
+		List<Customer> customers = generated(10000);
+		customers.addAll(awkward());
+		CustomerSearch search = search(customers);
+
+		for (String zone : Arrays.asList("UTC", "Europe/London", "America/New_York", "Asia/Kolkata", "Pacific/Chatham")) {
+			for (Locale locale : Arrays.asList(Locale.UK, new Locale("th", "TH", "TH"))) {
+				ObjectMapper jackson = new ObjectMapper().setTimeZone(TimeZone.getTimeZone(zone)).setLocale(locale);
+				ObjectMapper handWritten = handWritten().setTimeZone(TimeZone.getTimeZone(zone)).setLocale(locale);
+
+				assertThat(new String(handWritten.writeValueAsBytes(search), "UTF-8")).isEqualTo(new String(jackson.writeValueAsBytes(search), "UTF-8"));
+				for (Customer customer : customers.subList(customers.size() - 11, customers.size())) {
+					assertThat(handWritten.writeValueAsString(customer)).isEqualTo(jackson.writeValueAsString(customer));
+				}
+			}
+		}
+
+		// Results containing customers, and empty results
+		ObjectMapper jackson = new ObjectMapper();
+		ObjectMapper handWritten = handWritten();
+		CustomerLookup lookup = new CustomerLookup();
+		lookup.setCustomers(customers.subList(0, 100));
+		lookup.setMissing(Arrays.asList(1L, 2L));
+		assertThat(handWritten.writeValueAsString(lookup)).isEqualTo(jackson.writeValueAsString(lookup));
+		assertThat(handWritten.writeValueAsString(search(null))).isEqualTo(jackson.writeValueAsString(search(null)));
+		assertThat(handWritten.writeValueAsString(search(new ArrayList<Customer>())))
+			.isEqualTo(jackson.writeValueAsString(search(new ArrayList<Customer>())));
+	}
+
+	/**
+	 * Nulls and empty strings are left out as Jackson leaves them out
+	 * @throws Exception
+	 */
+	@Test
+	public void sameInclusion() throws Exception {
+		CustomerSearch search = search(awkward());
+		for (JsonInclude.Include inclusion : Arrays.asList(JsonInclude.Include.NON_NULL, JsonInclude.Include.NON_EMPTY)) {
+			ObjectMapper jackson = new ObjectMapper().setSerializationInclusion(inclusion);
+			ObjectMapper handWritten = handWritten().setSerializationInclusion(inclusion);
+			assertThat(handWritten.writeValueAsString(search)).isEqualTo(jackson.writeValueAsString(search));
+			assertThat(handWritten.writeValueAsString(search(new ArrayList<Customer>())))
+				.isEqualTo(jackson.writeValueAsString(search(new ArrayList<Customer>())));
+		}
+	}
+
+	/**
+	 * Serialize a page of 1000 customers repeatedly with each mapper, for time and bytes allocated
+	 * @throws Exception
+	 */
+	@Test
+	public void benchmark() throws Exception {
+		CustomerSearch search = search(generated(1000));
+		ObjectMapper jackson = new ObjectMapper();
+		ObjectMapper handWritten = handWritten();
+		ByteArrayOutputStream output = new ByteArrayOutputStream(1 << 20);
+
+		for (int round = 0; round < 3; round++) {
+			long[] jacksonCost = serialize(jackson, search, output, 500);
+			long[] handWrittenCost = serialize(handWritten, search, output, 500);
+			logger.info("1000 customers, 500 times: Jackson {}ms {}KB allocated a time, hand-written {}ms {}KB allocated a time",
+					jacksonCost[0], jacksonCost[1] / 500 / 1024, handWrittenCost[0], handWrittenCost[1] / 500 / 1024);
+		}
+	}
+
+	/**
+	 * @return milliseconds taken and bytes allocated by this thread
+	 */
+	private static long[] serialize(ObjectMapper mapper, Object value, ByteArrayOutputStream output, int times) throws Exception {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		long allocated = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		for (int i = 0; i < times; i++) {
+			output.reset();
+			mapper.writeValue(output, value);
+		}
+		return new long[] {(System.nanoTime() - start) / 1000000, threads.getThreadAllocatedBytes(thread) - allocated};
+	}
+}
@@ -0,0 +1,171 @@
+package sshephard.customer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+
+/**
+ * SQL statement budgets for each customer route
+ * Fails when a route starts executing more statements than it should, e.g. an N+1 query or an extra round trip;
+ * if a change legitimately needs another statement, update the budget here
+ * @author s.shephard2
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+public class CustomerQueryBudgetTest {
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private CustomerRepository customerRepository;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private CustomerSearchIndex searchIndex;
+
+	private Customer customer;
+
+	@Before
+	public void setUp() {
+		// Create customer entities, then start each test with cold caches
+		for (int i = 0; i < 5; i++) {
+			Customer other = new Customer();
+			other.setFirst_name("Carmen");
+			other.setLast_name("Budgetson");
+			other.setUsername("budget-other" + System.nanoTime());
+			customerRepository.save(other);
+		}
+		customer = new Customer();
+		customer.setFirst_name("Stephen");
+		customer.setLast_name("Budgetson");
+		customer.setUsername("budget" + System.nanoTime());
+		customer = customerRepository.save(customer);
+		entityManagerFactory.unwrap(SessionFactory.class).getCache().evictAllRegions();
+	}
+
+	/**
+	 * @return the number of statements the request executed
+	 */
+	private int statements(RequestBuilder request) throws Exception {
+		try (StatementCounter.Scope scope = StatementCounter.begin()) {
+			mvc.perform(request).andExpect(status().isOk());
+			return scope.getCount();
+		}
+	}
+
+	/**
+	 * One query, then served from the query and second-level caches
+	 */
+	@Test
+	public void getBudget() throws Exception {
+		// Test
+		assertThat(statements(get("/customers/" + customer.getId()))).isEqualTo(1);
+		assertThat(statements(get("/customers/" + customer.getId()))).isEqualTo(0);
+	}
+
+	/**
+	 * One query for a page of ids and one to look for the misses in the archive, none once they are all in the
+	 * second-level cache
+	 */
+	@Test
+	public void multiGetBudget() throws Exception {
+		List<Long> ids = new ArrayList<Long>();
+		for (Customer found : customerRepository.search(criteria("budgetson"))) {
+			ids.add(found.getId());
+		}
+		entityManagerFactory.unwrap(SessionFactory.class).getCache().evictAllRegions();
+		String page = ids.stream().map(String::valueOf).collect(Collectors.joining(","));
+
+		// Test, with id 1 as a miss
+		assertThat(statements(get("/customers?ids=" + page + ",1"))).isEqualTo(2);
+		assertThat(statements(post("/customers/lookup")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("[" + page + "]"))).isEqualTo(0);
+	}
+
+	private static CustomerCriteria criteria(String name) {
+		CustomerCriteria criteria = new CustomerCriteria();
+		criteria.setName(name);
+		return criteria;
+	}
+
+	/**
+	 * One query however many customers match
+	 */
+	@Test
+	public void searchBudget() throws Exception {
+		// Test
+		assertThat(statements(get("/customers?name=budgetson"))).isEqualTo(1);
+		assertThat(statements(get("/customers?name=budgetson&born_after=1900-01-01&created_after=2000-01-01"))).isEqualTo(1);
+		assertThat(statements(get("/customers?name=budgetson&sort=last_name&limit=3"))).isEqualTo(1);
+	}
+
+	/**
+	 * One query to load the ranked customers, however many match
+	 */
+	@Test
+	public void fullTextSearchBudget() throws Exception {
+		searchIndex.refresh();
+
+		// Test
+		assertThat(statements(get("/customers?q=budgetson"))).isEqualTo(1);
+	}
+
+	/**
+	 * One page of the (key, id) index of each key column, then one query to load the closest
+	 */
+	@Test
+	public void fuzzyNameSearchBudget() throws Exception {
+		// Test
+		assertThat(statements(get("/customers?fuzzy_name=budgetsen"))).isEqualTo(4);
+	}
+
+	/**
+	 * One query checking the username and email against current and archived customers, then one insert; ids are
+	 * generated without a round trip
+	 */
+	@Test
+	public void createBudget() throws Exception {
+		// Test
+		assertThat(statements(post("/customers")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"first_name\":\"Carmen\",\"last_name\":\"Jones\",\"username\":\"budget-create\"}"))).isEqualTo(2);
+	}
+
+	/**
+	 * The same check on username and email, load the customer, then one update; the merge finds it in the second-level
+	 * cache
+	 */
+	@Test
+	public void updateBudget() throws Exception {
+		// Test
+		assertThat(statements(put("/customers/" + customer.getId())
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"first_name\":\"Steven\",\"last_name\":\"Budgetson\",\"username\":\"" + customer.getUsername() + "\"}"))).isEqualTo(3);
+	}
+}
@@ -0,0 +1,93 @@
+package sshephard.customer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Unit tests for the second-level and query caches
+ * @author s.shephard2
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class CustomerRepositoryCacheTest {
+
+	@Autowired
+	private CustomerRepository customerRepository;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	private Statistics statistics;
+
+	@Before
+	public void setUp() {
+		statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		entityManagerFactory.unwrap(SessionFactory.class).getCache().evictAllRegions();
+	}
+
+	/**
+	 * Repeat lookups by id are served from the second-level cache
+	 */
+	@Test
+	public void repeatFindOneIsCached() {
+		// Create customer entity
+		Customer customer = new Customer();
+		customer.setFirst_name("Stephen");
+		customer.setLast_name("Shephard");
+		customer.setUsername("cache001");
+		customer = customerRepository.save(customer);
+
+		// First lookup loads from the database, second from the cache
+		customerRepository.findOne(customer.getId());
+		long hits = statistics.getSecondLevelCacheHitCount();
+		Customer found = customerRepository.findOne(customer.getId());
+
+		// Test
+		assertThat(found.getUsername()).isEqualTo("cache001");
+		assertThat(statistics.getSecondLevelCacheHitCount()).isEqualTo(hits + 1);
+	}
+
+	/**
+	 * Saving a customer invalidates cached search results
+	 */
+	@Test
+	public void saveInvalidatesQueryCache() {
+		// Create customer entity
+		Customer customer1 = new Customer();
+		customer1.setFirst_name("Carmen");
+		customer1.setLast_name("Jones");
+		customer1.setUsername("cache002");
+		customerRepository.save(customer1);
+
+		// Repeat search is a query cache hit
+		customerRepository.findAll(CustomerSpecifications.partialMatchUsername("cache00"));
+		long hits = statistics.getQueryCacheHitCount();
+		List<Customer> results = customerRepository.findAll(CustomerSpecifications.partialMatchUsername("cache00"));
+		assertThat(statistics.getQueryCacheHitCount()).isEqualTo(hits + 1);
+		assertThat(results).hasSize(1);
+
+		// Create second customer entity, which should appear in the same search
+		Customer customer2 = new Customer();
+		customer2.setFirst_name("John");
+		customer2.setLast_name("Smith");
+		customer2.setUsername("cache003");
+		customerRepository.save(customer2);
+
+		// Test
+		results = customerRepository.findAll(CustomerSpecifications.partialMatchUsername("cache00"));
+		assertThat(results).hasSize(2);
+	}
+}
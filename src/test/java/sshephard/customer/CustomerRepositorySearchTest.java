@@ -2,6 +2,7 @@ package sshephard.customer;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.time.LocalDate;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
@@ -10,6 +11,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 import org.springframework.test.context.junit4.SpringRunner;
 
@@ -24,6 +26,7 @@ import sshephard.customer.CustomerSpecifications;
  */
 @RunWith(SpringRunner.class)
 @DataJpaTest
+@Import(CustomerTombstones.class)
 public class CustomerRepositorySearchTest {
 
 	@Autowired
@@ -196,5 +199,231 @@ public class CustomerRepositorySearchTest {
 		// Test
 		assertThat(results.get(0).getId()).isEqualTo(customer1.getId());
 	}
-
-}
\ No newline at end of file
+	
+	/**
+	 * Search by a combination of criteria with the precompiled query
+	 */
+	@Test
+	public void searchCriteria() {
+		// Create customer entities
+		Customer customer1 = new Customer();
+		customer1.setFirst_name("Carmen");
+		customer1.setLast_name("Jones");
+		customer1.setUsername("username003");
+		customer1.setEmail("carmen@spring.com");
+		Calendar dob = Calendar.getInstance();
+		dob.set(1971, Calendar.DECEMBER,18);
+		customer1.setBirthdate(dob.getTime());
+		entityManager.persist(customer1);
+		
+		Customer customer2 = new Customer();
+		customer2.setFirst_name("Carmen");
+		customer2.setLast_name("Smith");
+		customer2.setUsername("username004");
+		dob.set(1960, Calendar.MARCH,1);
+		customer2.setBirthdate(dob.getTime());
+		entityManager.persist(customer2);
+		entityManager.flush();
+		
+		// Search by name and born after date
+		CustomerCriteria criteria = new CustomerCriteria();
+		criteria.setName("CARMEN");
+		Calendar searchDate = Calendar.getInstance();
+		searchDate.set(1970, Calendar.JANUARY,1);
+		criteria.setBorn_after(searchDate.getTime());
+		List<Customer> results = customerRepository.search(criteria);
+		
+		// Test
+		assertThat(results).extracting(Customer::getId).containsExactly(customer1.getId());
+		
+		// Search by name, username and email
+		criteria = new CustomerCriteria();
+		criteria.setName("carm");
+		criteria.setUsername("name00");
+		criteria.setEmail("@spring");
+		
+		// Test
+		assertThat(customerRepository.search(criteria)).extracting(Customer::getId).containsExactly(customer1.getId());
+	}
+	
+	/**
+	 * Every shape of criteria has its own precompiled query
+	 */
+	@Test
+	public void searchQueryShapes() {
+		// Test
+		for (int shape = 1; shape < CustomerCriteria.SHAPES; shape++) {
+			assertThat(CustomerSearchQueries.search(shape, null)).startsWith("SELECT c FROM Customer c WHERE ");
+			assertThat(CustomerSearchQueries.search(shape, null)).isSameAs(CustomerSearchQueries.search(shape, null));
+			assertThat(CustomerSearchQueries.search(shape, CustomerSort.ID)).isSameAs(CustomerSearchQueries.search(shape, CustomerSort.ID));
+		}
+		assertThat(CustomerSearchQueries.search(CustomerCriteria.USERNAME | CustomerCriteria.EMAIL, null))
+			.isEqualTo("SELECT c FROM Customer c WHERE LOWER(c.username) LIKE :username AND LOWER(c.email) LIKE :email");
+		assertThat(CustomerSearchQueries.search(CustomerCriteria.USERNAME, CustomerSort.CREATED_AT_DESC))
+			.isEqualTo("SELECT c FROM Customer c WHERE LOWER(c.username) LIKE :username ORDER BY c.created_at DESC, c.id");
+	}
+	
+	/**
+	 * Search by birth and creation date ranges
+	 */
+	@Test
+	public void searchDateRanges() {
+		// Create customer entities
+		Customer customer1 = new Customer();
+		customer1.setFirst_name("Carmen");
+		customer1.setLast_name("Jones");
+		customer1.setUsername("range001");
+		customer1.setBirthdate(SearchDates.parse("1971-12-18"));
+		entityManager.persist(customer1);
+		
+		Customer customer2 = new Customer();
+		customer2.setFirst_name("John");
+		customer2.setLast_name("Smith");
+		customer2.setUsername("range002");
+		customer2.setBirthdate(SearchDates.parse("1972-01-01"));
+		entityManager.persist(customer2);
+		entityManager.flush();
+		
+		// Born in 1971: born_after is inclusive, born_before exclusive
+		CustomerCriteria criteria = new CustomerCriteria();
+		criteria.setBorn_after(SearchDates.parse("1971-01-01"));
+		criteria.setBorn_before(SearchDates.parse("1972-01-01"));
+		assertThat(customerRepository.search(criteria)).extracting(Customer::getId).containsExactly(customer1.getId());
+		
+		// Created since yesterday
+		criteria = new CustomerCriteria();
+		criteria.setCreated_after(SearchDates.parse(LocalDate.now().minusDays(1).toString()));
+		criteria.setCreated_before(SearchDates.parse(LocalDate.now().plusDays(1).toString()));
+		criteria.setUsername("range00");
+		assertThat(customerRepository.search(criteria)).extracting(Customer::getId).containsOnly(customer1.getId(), customer2.getId());
+		
+		// Created before today
+		criteria.setCreated_after(null);
+		criteria.setCreated_before(SearchDates.parse(LocalDate.now().toString()));
+		assertThat(customerRepository.search(criteria)).isEmpty();
+	}
+	
+	/**
+	 * Misspelt names find customers through their phonetic keys, closest first
+	 */
+	@Test
+	public void searchFuzzyName() {
+		
+		// Create customer entities
+		Customer customer1 = new Customer();
+		customer1.setFirst_name("Stephen");
+		customer1.setLast_name("Shephard");
+		customer1.setUsername("fuzzy001");
+		entityManager.persist(customer1);
+		
+		Customer customer2 = new Customer();
+		customer2.setFirst_name("Steven");
+		customer2.setLast_name("Shepherd");
+		customer2.setUsername("fuzzy002");
+		entityManager.persist(customer2);
+		
+		Customer customer3 = new Customer();
+		customer3.setFirst_name("Carmen");
+		customer3.setLast_name("Jones");
+		customer3.setUsername("fuzzy003");
+		entityManager.persist(customer3);
+		entityManager.flush();
+		
+		// Keys are computed on save
+		assertThat(customer1.getLast_name_key()).isEqualTo(FuzzyNames.key("Shephard"));
+		
+		// Test
+		List<Customer> results = customerRepository.findByFuzzyName("Shephurd", 10);
+		assertThat(results).extracting(Customer::getUsername).containsExactly("fuzzy001", "fuzzy002");
+		
+		results = customerRepository.findByFuzzyName("Stefen", 10);
+		assertThat(results).extracting(Customer::getUsername).containsExactly("fuzzy002", "fuzzy001");
+		
+		results = customerRepository.findByFuzzyName("Steven Shephard", 10);
+		assertThat(results).extracting(Customer::getUsername).containsExactly("fuzzy002", "fuzzy001");
+		
+		// Renaming updates the keys
+		customer3.setLast_name("Shepherd");
+		entityManager.flush();
+		assertThat(customer3.getLast_name_key()).isEqualTo(FuzzyNames.key("Shepherd"));
+		
+		results = customerRepository.findByFuzzyName("Jones", 10);
+		assertThat(results).isEmpty();
+	}
+	
+	/**
+	 * Every candidate for a common key is ranked, so the closest is found however many come before it
+	 */
+	@Test
+	public void searchFuzzyNameRanksEveryCandidate() {
+		
+		// More near matches than one page of a key, then the exact match
+		for (int i = 0; i < CustomerRepositoryImpl.NAME_KEY_PAGE + 10; i++) {
+			Customer customer = new Customer();
+			customer.setFirst_name("Ann");
+			customer.setLast_name("Smyth");
+			customer.setUsername("fuzzycommon" + i);
+			entityManager.persist(customer);
+		}
+		Customer exact = new Customer();
+		exact.setFirst_name("Ann");
+		exact.setLast_name("Smith");
+		exact.setUsername("fuzzyexact");
+		entityManager.persist(exact);
+		entityManager.flush();
+		assertThat(exact.getLast_name_key()).isEqualTo(FuzzyNames.key("Smyth"));
+		
+		// Test
+		List<Customer> results = customerRepository.findByFuzzyName("Smith", 2);
+		assertThat(results).extracting(Customer::getUsername).containsExactly("fuzzyexact", "fuzzycommon0");
+	}
+	
+	/**
+	 * Sorted searches come back in order, cut to the limit
+	 */
+	@Test
+	public void searchSortedTopK() {
+		// Create customer entities
+		String[] lastNames = {"Morgan", "Allen", "Turner", "Baker", "Hill"};
+		String[] birthdates = {"1980-03-01", "1975-07-12", "1990-01-30", "1968-11-05", "1985-06-15"};
+		for (int i = 0; i < lastNames.length; i++) {
+			Customer customer = new Customer();
+			customer.setFirst_name("Sorted");
+			customer.setLast_name(lastNames[i]);
+			customer.setUsername("sorted00" + i);
+			customer.setBirthdate(SearchDates.parse(birthdates[i]));
+			entityManager.persist(customer);
+		}
+		entityManager.flush();
+		
+		// Test
+		CustomerCriteria criteria = new CustomerCriteria();
+		criteria.setUsername("sorted00");
+		criteria.setSort(CustomerSort.LAST_NAME);
+		criteria.setLimit(3);
+		assertThat(customerRepository.search(criteria)).extracting(Customer::getLast_name).containsExactly("Allen", "Baker", "Hill");
+		
+		criteria.setSort(CustomerSort.BIRTHDATE_DESC);
+		assertThat(customerRepository.search(criteria)).extracting(Customer::getLast_name).containsExactly("Turner", "Hill", "Morgan");
+		
+		criteria.setSort(CustomerSort.LAST_NAME_DESC);
+		criteria.setLimit(null);
+		assertThat(customerRepository.search(criteria)).extracting(Customer::getLast_name).containsExactly("Turner", "Morgan", "Hill", "Baker", "Allen");
+	}
+	
+	/**
+	 * The indexed sort orders are read from an index in order, rather than sorting every match
+	 */
+	@Test
+	public void sortedSearchUsesIndexOrder() {
+		String[] orderBy = {"last_name, id", "first_name, id", "created_at DESC, id", "birthdate, id", "id"};
+		for (String order : orderBy) {
+			String plan = (String) entityManager.getEntityManager()
+					.createNativeQuery("EXPLAIN SELECT * FROM customer WHERE LOWER(display_name) LIKE '%sorted%' ORDER BY " + order + " LIMIT 20")
+					.getSingleResult();
+			
+			// Test
+			assertThat(plan).as(order).contains("index sorted");
+		}
+	}
+}
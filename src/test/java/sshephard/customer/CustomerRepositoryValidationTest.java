@@ -9,6 +9,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 import org.springframework.test.context.junit4.SpringRunner;
 
@@ -22,6 +23,7 @@ import sshephard.customer.CustomerRepository;
  */
 @RunWith(SpringRunner.class)
 @DataJpaTest
+@Import(CustomerTombstones.class)
 public class CustomerRepositoryValidationTest {
 
 	@Autowired
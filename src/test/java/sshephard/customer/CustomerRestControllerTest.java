@@ -1,20 +1,27 @@
 package sshephard.customer;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.CoreMatchers.is;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.util.Arrays;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import sshephard.customer.Customer;
 import sshephard.customer.CustomerController;
 import sshephard.customer.CustomerRepository;
@@ -26,6 +33,7 @@ import sshephard.customer.CustomerRepository;
  */
 @RunWith(SpringRunner.class)
 @WebMvcTest(CustomerController.class)
+@Import(CustomerReadCoalescer.class)
 public class CustomerRestControllerTest {
 
 	@Autowired
@@ -34,6 +42,18 @@ public class CustomerRestControllerTest {
 	@MockBean
 	private CustomerRepository customerRepository;
 	
+	@MockBean
+	private CustomerSearchIndex customerSearchIndex;
+	
+	@MockBean
+	private CustomerArchive customerArchive;
+	
+	@MockBean
+	private CustomerSuggestions customerSuggestions;
+	
+	@Autowired
+	private ObjectMapper objectMapper;
+	
 	@Test
 	public void getCustomer() throws Exception {
 		
@@ -49,4 +69,148 @@ public class CustomerRestControllerTest {
 				.andExpect(status().isOk())
 				.andExpect(jsonPath("$.username", is(customer.getUsername())));
 	}
+	
+	@Test
+	public void getCustomerWithHandWrittenSerializer() throws Exception {
+		
+		Customer customer = new Customer();
+		customer.setId(1L);
+		customer.setUsername("sjshephard001");
+		customer.setCreated_at(java.sql.Timestamp.valueOf("2016-11-08 22:18:03"));
+		customer.setBirthdate(java.sql.Date.valueOf("1980-02-29"));
+		
+		Mockito.when(customerRepository.findById(1L)).thenReturn(customer);
+		
+		assertThat(objectMapper.getSerializerProviderInstance().findValueSerializer(Customer.class))
+			.isInstanceOf(CustomerJson.Serializer.class);
+		mvc.perform(get("/customers/1")
+				.accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.birthdate", is("1980-02-29")))
+				.andExpect(jsonPath("$.updated_at", is((Object) null)));
+	}
+	
+	@Test
+	public void fullTextSearchKeepsRankOrder() throws Exception {
+		
+		Customer first = new Customer();
+		first.setId(2L);
+		first.setUsername("ranked001");
+		Customer second = new Customer();
+		second.setId(1L);
+		second.setUsername("ranked002");
+		
+		// Index ranks customer 2 first, repository returns them in id order
+		Mockito.when(customerSearchIndex.search("shephard", 20)).thenReturn(Arrays.asList(2L, 1L));
+		Mockito.when(customerRepository.findByIdIn(Arrays.asList(2L, 1L))).thenReturn(Arrays.asList(second, first));
+		
+		mvc.perform(get("/customers?q=shephard")
+				.accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.customers[0].username", is("ranked001")))
+				.andExpect(jsonPath("$.customers[1].username", is("ranked002")));
+	}
+	
+	@Test
+	public void fullTextSearchRejectsBadLimit() throws Exception {
+		
+		mvc.perform(get("/customers?q=shephard&limit=1000")
+				.accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isBadRequest());
+	}
+	
+	@Test
+	public void searchRejectsInvalidDate() throws Exception {
+		
+		mvc.perform(get("/customers?name=carmen&born_before=2017-02-30")
+				.accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isBadRequest());
+	}
+	
+	@Test
+	public void multiGetKeepsRequestOrderAndListsMisses() throws Exception {
+		
+		Customer first = new Customer();
+		first.setId(2L);
+		first.setUsername("lookup001");
+		Customer second = new Customer();
+		second.setId(1L);
+		second.setUsername("lookup002");
+		
+		// Repository returns the customers found in id order
+		Mockito.when(customerRepository.findByIds(Arrays.asList(2L, 3L, 1L, 2L))).thenReturn(Arrays.asList(second, first));
+		
+		mvc.perform(get("/customers?ids=2,3,1,2")
+				.accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.customers.length()", is(2)))
+				.andExpect(jsonPath("$.customers[0].username", is("lookup001")))
+				.andExpect(jsonPath("$.customers[1].username", is("lookup002")))
+				.andExpect(jsonPath("$.missing[0]", is(3)));
+	}
+	
+	@Test
+	public void multiGetRejectsBadIds() throws Exception {
+		
+		mvc.perform(get("/customers?ids=1,two")
+				.accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isBadRequest());
+		mvc.perform(post("/customers/lookup")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("[]"))
+				.andExpect(status().isBadRequest());
+	}
+	
+	@Test
+	public void sortedSearchPassesSortAndLimit() throws Exception {
+		
+		Customer customer = new Customer();
+		customer.setId(1L);
+		customer.setUsername("sorted001");
+		
+		CustomerCriteria criteria = new CustomerCriteria();
+		criteria.setName("carmen");
+		criteria.setSort(CustomerSort.CREATED_AT_DESC);
+		criteria.setLimit(5);
+		Mockito.when(customerRepository.search(criteria)).thenReturn(Arrays.asList(customer));
+		
+		mvc.perform(get("/customers?name=carmen&sort=-created_at&limit=5")
+				.accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.customers[0].username", is("sorted001")));
+	}
+	
+	@Test
+	public void sortedSearchRejectsBadSort() throws Exception {
+		
+		mvc.perform(get("/customers?name=carmen&sort=email")
+				.accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isBadRequest());
+		mvc.perform(get("/customers?name=carmen&limit=0")
+				.accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isBadRequest());
+	}
+	
+	@Test
+	public void suggestReturnsCompletions() throws Exception {
+		
+		Mockito.when(customerSuggestions.suggest(CustomerSuggestions.Field.DISPLAY_NAME, "ste", 5))
+			.thenReturn(Arrays.asList("Stephen Shephard", "Steve Smith"));
+		
+		mvc.perform(get("/customers/suggest?prefix=ste&field=display_name&limit=5")
+				.accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.suggestions[1]", is("Steve Smith")));
+	}
+	
+	@Test
+	public void suggestRejectsBadParameters() throws Exception {
+		
+		mvc.perform(get("/customers/suggest?field=username")
+				.accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isBadRequest());
+		mvc.perform(get("/customers/suggest?prefix=ste&field=email")
+				.accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isBadRequest());
+	}
 }
@@ -0,0 +1,137 @@
+package sshephard.customer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Unit tests for the full-text search index
+ * @author s.shephard2
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class CustomerSearchIndexTest {
+
+	@Autowired
+	private CustomerRepository customerRepository;
+
+	@Autowired
+	private CustomerSearchIndex searchIndex;
+
+	/**
+	 * Last name matches rank above email matches, whole words above prefixes
+	 */
+	@Test
+	public void searchRanksByRelevance() throws Exception {
+		// Create customer entities
+		Customer byEmail = new Customer();
+		byEmail.setFirst_name("Carmen");
+		byEmail.setLast_name("Jones");
+		byEmail.setUsername("index001");
+		byEmail.setEmail("carmen@quillfeather.com");
+		byEmail = customerRepository.save(byEmail);
+
+		Customer byPrefix = new Customer();
+		byPrefix.setFirst_name("John");
+		byPrefix.setLast_name("Quillfeathers");
+		byPrefix.setUsername("index002");
+		byPrefix = customerRepository.save(byPrefix);
+
+		Customer byName = new Customer();
+		byName.setFirst_name("Stephen");
+		byName.setLast_name("Quillfeather");
+		byName.setUsername("index003");
+		byName = customerRepository.save(byName);
+		searchIndex.refresh();
+
+		// Test
+		List<Long> ids = searchIndex.search("quillfeather", 10);
+		assertThat(ids).containsExactly(byName.getId(), byPrefix.getId(), byEmail.getId());
+		assertThat(searchIndex.search("Stephen QUILL", 10)).containsExactly(byName.getId());
+		assertThat(searchIndex.search("quillfeather", 1)).containsExactly(byName.getId());
+	}
+
+	/**
+	 * Updates and deletes are reflected in search results
+	 */
+	@Test
+	public void searchSeesChanges() throws Exception {
+		// Create customer entity
+		Customer customer = new Customer();
+		customer.setFirst_name("Stephen");
+		customer.setLast_name("Marchbanks");
+		customer.setUsername("index004");
+		customer = customerRepository.save(customer);
+		searchIndex.refresh();
+		assertThat(searchIndex.search("marchbanks", 10)).containsExactly(customer.getId());
+
+		// Rename
+		customer.setLast_name("Aldersey");
+		customer.setDisplay_name("Stephen Aldersey");
+		customerRepository.save(customer);
+		searchIndex.refresh();
+		assertThat(searchIndex.search("marchbanks", 10)).isEmpty();
+		assertThat(searchIndex.search("aldersey", 10)).containsExactly(customer.getId());
+
+		// Delete
+		customerRepository.delete(customer.getId());
+		searchIndex.refresh();
+		assertThat(searchIndex.search("aldersey", 10)).isEmpty();
+	}
+
+	/**
+	 * A change indexed while a rebuild is reading leaves one document for the customer, and one the read missed is kept
+	 * @throws Exception
+	 */
+	@Test
+	public void changesDuringRebuild() throws Exception {
+		Customer customer = new Customer();
+		customer.setFirst_name("Stephen");
+		customer.setLast_name("Wolstenholme");
+		customer.setUsername("index005");
+		Customer saved = customerRepository.save(customer);
+		Customer missed = new Customer();
+		missed.setId(Long.MAX_VALUE);
+		missed.setLast_name("Wolstenholme");
+		missed.setUsername("index006");
+
+		// The changes are delivered after the index is cleared and before the read reaches the customers
+		DataSource original = (DataSource) ReflectionTestUtils.getField(searchIndex, "dataSource");
+		ReflectionTestUtils.setField(searchIndex, "dataSource", new DelegatingDataSource(original) {
+			@Override
+			public Connection getConnection() throws SQLException {
+				try {
+					searchIndex.customerChanged(CustomerChangedEvent.saved(saved));
+					searchIndex.customerChanged(CustomerChangedEvent.saved(missed));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return super.getConnection();
+			}
+		});
+		try {
+			searchIndex.rebuild();
+		} finally {
+			ReflectionTestUtils.setField(searchIndex, "dataSource", original);
+		}
+
+		// Test
+		assertThat(searchIndex.search("wolstenholme", 10)).containsExactlyInAnyOrder(saved.getId(), Long.MAX_VALUE);
+		searchIndex.customerChanged(CustomerChangedEvent.deleted(Long.MAX_VALUE));
+	}
+}
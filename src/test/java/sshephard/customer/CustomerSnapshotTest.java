@@ -0,0 +1,210 @@
+package sshephard.customer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+
+/**
+ * Tests for the columnar customer snapshot and the analytics route
+ * @author s.shephard2
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"spring.datasource.url=jdbc:h2:mem:analyticstest;DB_CLOSE_DELAY=-1", "customer.analytics.enabled=true"})
+@AutoConfigureMockMvc
+public class CustomerSnapshotTest {
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private CustomerRepository customerRepository;
+
+	@Autowired
+	private CustomerSnapshot snapshot;
+
+	private static Map<String, Long> counts(List<CustomerSnapshot.Group> groups) {
+		Map<String, Long> counts = new HashMap<String, Long>();
+		for (CustomerSnapshot.Group group : groups) {
+			counts.put(group.getKey(), group.getCount());
+		}
+		return counts;
+	}
+
+	/**
+	 * Grouped counts over a million generated customers match a naive count, and take milliseconds
+	 */
+	@Test
+	public void groupedCounts() {
+		CustomerSnapshot snapshot = new CustomerSnapshot(ForkJoinPool.commonPool());
+		CustomerDataGenerator generator = new CustomerDataGenerator(42);
+		long bornFrom = LocalDate.of(1970, 1, 1).toEpochDay();
+		Map<String, Long> expected = new HashMap<String, Long>();
+		for (int i = 0; i < 1000000; i++) {
+			Customer customer = generator.next();
+			snapshot.put(customer);
+			LocalDate birthdate = new java.sql.Date(customer.getBirthdate().getTime()).toLocalDate();
+			if (birthdate.toEpochDay() >= bornFrom) {
+				expected.merge(CustomerSnapshot.domain(customer.getEmail()), 1L, Long::sum);
+			}
+		}
+		assertThat(snapshot.size()).isEqualTo(1000000);
+
+		CustomerSnapshot.Filter filter = new CustomerSnapshot.Filter();
+		filter.setBornFromDay(bornFrom);
+		assertThat(counts(snapshot.count(filter, CustomerSnapshot.GroupBy.EMAIL_DOMAIN))).isEqualTo(expected);
+
+		long start = System.nanoTime();
+		List<CustomerSnapshot.Group> lastNames = null;
+		for (int i = 0; i < 10; i++) {
+			lastNames = snapshot.count(filter, CustomerSnapshot.GroupBy.LAST_NAME);
+		}
+		long millis = (System.nanoTime() - start) / 10000000;
+		assertThat(lastNames.get(0).getKey()).isEqualTo("Smith");
+		assertThat(millis).isLessThan(100);
+	}
+
+	/**
+	 * Removed and replaced customers are counted once, or not at all
+	 */
+	@Test
+	public void removeAndReplace() {
+		CustomerSnapshot snapshot = new CustomerSnapshot(ForkJoinPool.commonPool());
+		List<Customer> customers = new ArrayList<Customer>();
+		for (long id = 10; id > 0; id--) {
+			Customer customer = new Customer();
+			customer.setId(id);
+			customer.setLast_name(id % 2 == 0 ? "Even" : "Odd");
+			customer.setEmail("c" + id + "@example.com");
+			customers.add(customer);
+			snapshot.put(customer);
+		}
+		snapshot.remove(4L);
+		snapshot.remove(4L);
+		customers.get(0).setLast_name("Odd");
+		snapshot.put(customers.get(0));
+
+		Map<String, Long> counts = counts(snapshot.count(new CustomerSnapshot.Filter(), CustomerSnapshot.GroupBy.LAST_NAME));
+		assertThat(counts.get("Even")).isEqualTo(3L);
+		assertThat(counts.get("Odd")).isEqualTo(6L);
+		assertThat(snapshot.size()).isEqualTo(9);
+	}
+
+	/**
+	 * A removed customer put back is counted again, however many times that happens
+	 */
+	@Test
+	public void putAfterRemove() {
+		CustomerSnapshot snapshot = new CustomerSnapshot(ForkJoinPool.commonPool());
+		List<Customer> customers = new ArrayList<Customer>();
+		for (long id = 1; id <= 3; id++) {
+			Customer customer = new Customer();
+			customer.setId(id);
+			customer.setLast_name("Same");
+			customers.add(customer);
+			snapshot.put(customer);
+		}
+		for (int i = 0; i < 2000; i++) {
+			snapshot.remove(2L);
+			snapshot.put(customers.get(1));
+		}
+		snapshot.remove(3L);
+
+		Map<String, Long> counts = counts(snapshot.count(new CustomerSnapshot.Filter(), CustomerSnapshot.GroupBy.LAST_NAME));
+		assertThat(counts.get("Same")).isEqualTo(2L);
+		assertThat(snapshot.size()).isEqualTo(2);
+	}
+
+	/**
+	 * Years are counted over the years in the snapshot, and customers without one in a group of their own
+	 */
+	@Test
+	public void yearGroups() {
+		CustomerSnapshot snapshot = new CustomerSnapshot(ForkJoinPool.commonPool());
+		String[] birthdates = {"1950-03-01", "1951-07-15", "1951-12-31", null};
+		for (int i = 0; i < birthdates.length; i++) {
+			Customer customer = new Customer();
+			customer.setId(i + 1L);
+			customer.setBirthdate(birthdates[i] == null ? null : SearchDates.parse(birthdates[i]));
+			snapshot.put(customer);
+		}
+
+		// Test
+		Map<String, Long> counts = counts(snapshot.count(new CustomerSnapshot.Filter(), CustomerSnapshot.GroupBy.BIRTH_YEAR));
+		assertThat(counts).containsOnlyKeys("1950", "1951", null);
+		assertThat(counts.get("1950")).isEqualTo(1L);
+		assertThat(counts.get("1951")).isEqualTo(2L);
+		assertThat(counts.get(null)).isEqualTo(1L);
+		assertThat(counts(snapshot.count(new CustomerSnapshot.Filter(), CustomerSnapshot.GroupBy.CREATED_YEAR))).containsOnlyKeys((String) null);
+	}
+
+	/**
+	 * A rebuild forgets names no customer has any more
+	 */
+	@Test
+	public void rebuildClearsDictionaries() {
+		Customer gone = new Customer();
+		gone.setId(Long.MAX_VALUE);
+		gone.setLast_name("Evanescent");
+		snapshot.put(gone);
+		CustomerSnapshot.Dictionary lastNames = (CustomerSnapshot.Dictionary) ReflectionTestUtils.getField(snapshot, "lastNames");
+		assertThat(lastNames.code("Evanescent")).isGreaterThan(0);
+
+		snapshot.rebuild();
+
+		// Test
+		assertThat(lastNames.code("Evanescent")).isEqualTo(CustomerSnapshot.Dictionary.UNKNOWN);
+		assertThat(counts(snapshot.count(new CustomerSnapshot.Filter(), CustomerSnapshot.GroupBy.LAST_NAME))).doesNotContainKey("Evanescent");
+	}
+
+	/**
+	 * The analytics route follows saves and deletes
+	 */
+	@Test
+	public void followsChanges() throws Exception {
+		Customer customer = new Customer();
+		customer.setFirst_name("Ottilie");
+		customer.setLast_name("Quarmby");
+		customer.setUsername("oquarmby");
+		customer.setEmail("oquarmby@analytics.example");
+		customer = customerRepository.save(customer);
+
+		mvc.perform(get("/analytics/customers?group_by=last_name&email_domain=analytics.example"))
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.total").value(1))
+			.andExpect(jsonPath("$.groups[0].key").value("Quarmby"));
+
+		customerRepository.delete(customer.getId());
+
+		mvc.perform(get("/analytics/customers?group_by=last_name&email_domain=analytics.example"))
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.total").value(0));
+	}
+
+	/**
+	 * Unknown groupings, limits and dates are rejected
+	 */
+	@Test
+	public void invalidParameters() throws Exception {
+		mvc.perform(get("/analytics/customers?group_by=shoe_size")).andExpect(status().isBadRequest());
+		mvc.perform(get("/analytics/customers?group_by=birth_year&limit=0")).andExpect(status().isBadRequest());
+		mvc.perform(get("/analytics/customers?group_by=birth_year&born_after=1970-13-01")).andExpect(status().isBadRequest());
+	}
+}
@@ -0,0 +1,143 @@
+package sshephard.customer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Tests for the prefix trie and the suggestions kept from it
+ * @author s.shephard2
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:suggesttest;DB_CLOSE_DELAY=-1")
+public class CustomerSuggestionsTest {
+
+	@Autowired
+	private CustomerRepository customerRepository;
+
+	@Autowired
+	private CustomerSuggestions suggestions;
+
+	@Autowired
+	private DataSource dataSource;
+
+	private static List<String> values(List<PrefixTrie.Completion> completions) {
+		List<String> values = new ArrayList<String>();
+		completions.forEach(completion -> values.add(completion.getValue()));
+		return values;
+	}
+
+	/**
+	 * Completions are most common first, then alphabetical, ignoring case, and follow removals
+	 */
+	@Test
+	public void trieCompletes() {
+		PrefixTrie trie = new PrefixTrie();
+		for (String value : new String[] {"Smith", "Smyth", "smith", "Smithson", "Sm", "Shephard", "Smith", "Smythe"}) {
+			trie.add(value);
+		}
+		assertThat(trie.size()).isEqualTo(6);
+		assertThat(values(trie.complete("sm", 10))).containsExactly("Smith", "Sm", "Smithson", "Smyth", "Smythe");
+		assertThat(trie.complete("SM", 1).get(0).getCount()).isEqualTo(3);
+		assertThat(values(trie.complete("smy", 10))).containsExactly("Smyth", "Smythe");
+		assertThat(values(trie.complete("smz", 10))).isEmpty();
+		assertThat(values(trie.complete("smithsonian", 10))).isEmpty();
+
+		trie.remove("Smith");
+		trie.remove("Smith");
+		trie.remove("Smyth");
+		trie.remove("Nobody");
+		assertThat(values(trie.complete("sm", 10))).containsExactly("Sm", "Smith", "Smithson", "Smythe");
+		trie.remove("Smith");
+		trie.remove("Sm");
+		assertThat(values(trie.complete("s", 10))).containsExactly("Shephard", "Smithson", "Smythe");
+		assertThat(trie.size()).isEqualTo(3);
+	}
+
+	/**
+	 * Top completions over generated names match a naive count, in microseconds
+	 */
+	@Test
+	public void topCompletions() {
+		PrefixTrie trie = new PrefixTrie();
+		TreeMap<String, Integer> counts = new TreeMap<String, Integer>();
+		CustomerDataGenerator generator = new CustomerDataGenerator(46);
+		for (int i = 0; i < 200000; i++) {
+			String displayName = generator.next().getDisplay_name();
+			trie.add(displayName);
+			counts.merge(displayName.toLowerCase(), 1, Integer::sum);
+		}
+		List<String> expected = new ArrayList<String>(counts.subMap("ja", "jb").keySet());
+		expected.sort((a, b) -> counts.get(b) - counts.get(a) != 0 ? counts.get(b) - counts.get(a) : a.compareTo(b));
+		assertThat(values(trie.complete("Ja", 10))).extracting(String::toLowerCase).containsExactlyElementsOf(expected.subList(0, 10));
+
+		long start = System.nanoTime();
+		for (int i = 0; i < 10000; i++) {
+			trie.complete("ja", 10);
+		}
+		long micros = (System.nanoTime() - start) / 10000 / 1000;
+		assertThat(micros).isLessThan(500);
+	}
+
+	/**
+	 * Suggestions follow saves and deletes
+	 */
+	@Test
+	public void followsChanges() {
+		Customer customer = new Customer();
+		customer.setFirst_name("Zebedee");
+		customer.setLast_name("Quill");
+		customer.setUsername("zquill");
+		customer = customerRepository.save(customer);
+		assertThat(suggestions.suggest(CustomerSuggestions.Field.USERNAME, "ZQU", 5)).containsExactly("zquill");
+		assertThat(suggestions.suggest(CustomerSuggestions.Field.DISPLAY_NAME, "zeb", 5)).containsExactly("Zebedee Quill");
+
+		customer.setUsername("zquill2");
+		customerRepository.save(customer);
+		assertThat(suggestions.suggest(CustomerSuggestions.Field.USERNAME, "zqu", 5)).containsExactly("zquill2");
+
+		customerRepository.delete(customer.getId());
+		assertThat(suggestions.suggest(CustomerSuggestions.Field.USERNAME, "zqu", 5)).isEmpty();
+	}
+
+	/**
+	 * A change made while a rebuild is reading is kept, although the read missed it
+	 */
+	@Test
+	public void changesDuringRebuild() {
+		Customer missed = new Customer();
+		missed.setId(Long.MAX_VALUE);
+		missed.setUsername("zmissed");
+		missed.setDisplay_name("Zara Missed");
+
+		CustomerSuggestions rebuilding = new CustomerSuggestions();
+		// The change is committed, and its event delivered, just as the read starts
+		ReflectionTestUtils.setField(rebuilding, "dataSource", new DelegatingDataSource(dataSource) {
+			@Override
+			public Connection getConnection() throws SQLException {
+				rebuilding.customerChanged(CustomerChangedEvent.saved(missed));
+				return super.getConnection();
+			}
+		});
+		rebuilding.rebuild();
+
+		// Test
+		assertThat(rebuilding.suggest(CustomerSuggestions.Field.USERNAME, "zmis", 5)).containsExactly("zmissed");
+		assertThat(rebuilding.suggest(CustomerSuggestions.Field.DISPLAY_NAME, "zara m", 5)).containsExactly("Zara Missed");
+	}
+}
@@ -0,0 +1,107 @@
+package sshephard.customer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests for the startup warm-up and GET /ready, against a running server
+ * @author s.shephard2
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT,
+		properties = {"spring.datasource.url=jdbc:h2:mem:warmuptest;DB_CLOSE_DELAY=-1", "customer.warmup.enabled=true", "customer.admission.enabled=true",
+				"customer.admission.client-rate=1", "customer.admission.client-burst=5", "customer.generator.rows=5000", "customer.warmup.hot-customers=100", "customer.warmup.round-size=20",
+				"customer.warmup.min-rounds=2", "customer.warmup.max-rounds=5"})
+public class CustomerWarmupTest {
+
+	// Logger for customer.CustomerWarmupTest
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private TestRestTemplate rest;
+
+	@Autowired
+	private CustomerWarmup warmup;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	/**
+	 * @return GET /ready once warm-up has finished
+	 */
+	private ResponseEntity<String> awaitReady() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 60000;
+		ResponseEntity<String> response = rest.getForEntity("/ready", String.class);
+		while (response.getStatusCode() == HttpStatus.SERVICE_UNAVAILABLE && System.currentTimeMillis() < deadline) {
+			Thread.sleep(100);
+			response = rest.getForEntity("/ready", String.class);
+		}
+		return response;
+	}
+
+	/**
+	 * Warm-up finishes in the background, having replayed every request successfully despite a client rate limit that
+	 * would throttle them from any other client
+	 * @throws Exception
+	 */
+	@Test
+	public void readyAfterWarmup() throws Exception {
+		ResponseEntity<String> response = awaitReady();
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+		JsonNode status = mapper.readTree(response.getBody());
+		logger.info("Warm-up status {}", status);
+		assertThat(status.get("ready").asBoolean()).isTrue();
+		assertThat(status.get("connections").asInt()).isEqualTo(10);
+		assertThat(status.get("hot_customers").asInt()).isEqualTo(100);
+		assertThat(status.get("requests").asLong()).isGreaterThan(0);
+		assertThat(status.get("failed_requests").asLong()).isEqualTo(0);
+		assertThat(status.get("round_p99_micros").size()).isBetween(2, 5);
+
+		// The health check is unaffected
+		assertThat(rest.getForEntity("/", String.class).getStatusCode()).isEqualTo(HttpStatus.OK);
+
+		// Other requests from the same client are still limited
+		int throttled = 0;
+		for (int i = 0; i < 10; i++) {
+			if (rest.getForEntity("/customers/1", String.class).getStatusCode() == HttpStatus.TOO_MANY_REQUESTS) {
+				throttled++;
+			}
+		}
+		assertThat(throttled).isGreaterThan(0);
+	}
+
+	/**
+	 * The most recently changed customers are in the second-level cache
+	 */
+	@Test
+	public void hotCustomersCached() throws Exception {
+		awaitReady();
+		List<Long> ids = warmup.getHotIds();
+		assertThat(ids).hasSize(100);
+		for (Long id : ids) {
+			assertThat(entityManagerFactory.getCache().contains(Customer.class, id)).isTrue();
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package sshephard.customer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Load scenario for connection pool instrumentation and adaptive sizing
+ * 16 clients each hold a connection for 10ms at a time, against a pool of 2 connections with a 50ms maxWait
+ * @author s.shephard2
+ *
+ */
+public class PoolSizeControllerTest {
+
+	private static final int CLIENTS = 16;
+
+	private org.apache.tomcat.jdbc.pool.DataSource pool;
+	private InstrumentedDataSource instrumented;
+	private ExecutorService clients;
+
+	@Before
+	public void setUp() {
+		pool = new org.apache.tomcat.jdbc.pool.DataSource();
+		pool.setDriverClassName("org.h2.Driver");
+		pool.setUrl("jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1");
+		pool.setUsername("sa");
+		pool.setPassword("");
+		pool.setInitialSize(2);
+		pool.setMaxActive(2);
+		pool.setMaxIdle(2);
+		pool.setMaxWait(50);
+		instrumented = new PoolMonitor().instrument("test", pool);
+		clients = Executors.newFixedThreadPool(CLIENTS);
+	}
+
+	@After
+	public void tearDown() {
+		clients.shutdownNow();
+		pool.close();
+	}
+
+	/**
+	 * Run the load for a while
+	 * @return number of requests that could not get a connection
+	 */
+	private int runLoad(long millis) throws Exception {
+		long end = System.currentTimeMillis() + millis;
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for (int i = 0; i < CLIENTS; i++) {
+			results.add(clients.submit(() -> {
+				int failures = 0;
+				while (System.currentTimeMillis() < end) {
+					try (Connection connection = instrumented.getConnection()) {
+						connection.createStatement().execute("SELECT 1");
+						Thread.sleep(10);
+					} catch (SQLException e) {
+						failures++;
+					}
+				}
+				return failures;
+			}));
+		}
+		int failures = 0;
+		for (Future<Integer> result : results) {
+			failures += result.get();
+		}
+		return failures;
+	}
+
+	/**
+	 * Fixed pool is exhausted under load
+	 */
+	@Test
+	public void fixedPoolExhausted() throws Exception {
+		int failures = runLoad(1000);
+
+		// Test
+		assertThat(failures).isGreaterThan(0);
+		assertThat(instrumented.getTimeouts()).isEqualTo(failures);
+	}
+
+	/**
+	 * Adaptive pool grows until requests no longer wait
+	 */
+	@Test
+	public void adaptivePoolStable() throws Exception {
+		PoolSizeController controller = new PoolSizeController(2, 32, 4, 2000);
+		controller.adjust(instrumented);
+
+		// The same load at the fixed size first
+		long[] start = instrumented.getAcquireLatency().snapshot();
+		int fixedFailures = runLoad(1000);
+		long[] fixed = LatencyHistogram.difference(start, instrumented.getAcquireLatency().snapshot());
+		controller.adjust(instrumented);
+
+		// Adjust every 100ms while the load runs
+		for (int i = 0; i < 10; i++) {
+			runLoad(100);
+			controller.adjust(instrumented);
+		}
+		assertThat(pool.getMaxActive()).isGreaterThanOrEqualTo(CLIENTS);
+
+		// Steady state
+		long timeouts = instrumented.getTimeouts();
+		long[] before = instrumented.getAcquireLatency().snapshot();
+		int failures = runLoad(1000);
+		long[] during = LatencyHistogram.difference(before, instrumented.getAcquireLatency().snapshot());
+
+		// Test: timeouts at the fixed size and none once adapted, with shorter waits than at the fixed size
+		assertThat(fixedFailures).isGreaterThan(0);
+		assertThat(failures).isEqualTo(0);
+		assertThat(instrumented.getTimeouts()).isEqualTo(timeouts);
+		assertThat(LatencyHistogram.percentileMicros(during, 99)).isLessThan(LatencyHistogram.percentileMicros(fixed, 99));
+	}
+
+	/**
+	 * Connections held past the threshold are reported as leaks
+	 */
+	@Test
+	public void leakDetection() throws Exception {
+		try (Connection connection = instrumented.getConnection()) {
+			Thread.sleep(20);
+
+			// Test
+			assertThat(instrumented.findLeaks(10)).hasSize(1);
+		}
+		assertThat(instrumented.findLeaks(10)).isEmpty();
+	}
+}
@@ -0,0 +1,224 @@
+package sshephard.customer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Unit tests for read/write splitting, using H2 instances for the primary and replicas
+ * @author s.shephard2
+ *
+ */
+public class ReadWriteRoutingDataSourceTest {
+
+	private org.apache.tomcat.jdbc.pool.DataSource primary = h2("primary");
+	private org.apache.tomcat.jdbc.pool.DataSource replica1 = h2("replica1");
+	private org.apache.tomcat.jdbc.pool.DataSource replica2 = h2("replica2");
+
+	private JdbcTemplate jdbcTemplate;
+	private TransactionTemplate writeTransaction;
+	private TransactionTemplate readTransaction;
+
+	@After
+	public void tearDown() {
+		ReadYourWrites.unbind();
+		primary.close();
+		replica1.close();
+		replica2.close();
+	}
+
+	private static org.apache.tomcat.jdbc.pool.DataSource h2(String name) {
+		org.apache.tomcat.jdbc.pool.DataSource dataSource = new org.apache.tomcat.jdbc.pool.DataSource();
+		dataSource.setDriverClassName("org.h2.Driver");
+		dataSource.setUrl("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+		dataSource.setUsername("sa");
+		dataSource.setPassword("");
+		return dataSource;
+	}
+
+	private void route(ReadWriteRoutingDataSource.Strategy strategy, long stickinessMillis, DataSource... replicas) {
+		ReadWriteRoutingDataSource routing = new ReadWriteRoutingDataSource(primary, Arrays.asList(replicas), strategy, stickinessMillis);
+		routing.afterPropertiesSet();
+		DataSource dataSource = new LazyConnectionDataSourceProxy(routing);
+
+		DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		writeTransaction = new TransactionTemplate(transactionManager);
+		readTransaction = new TransactionTemplate(transactionManager);
+		readTransaction.setReadOnly(true);
+
+		// Each test is a new client, whose writes don't include the proxy checking the connection defaults
+		ReadYourWrites.unbind();
+	}
+
+	private String readDatabase() {
+		return readTransaction.execute(status -> jdbcTemplate.queryForObject("SELECT DATABASE()", String.class));
+	}
+
+	/**
+	 * Writes go to the primary, and are visible on the replica once replicated
+	 */
+	@Test
+	public void readsGoToReplica() {
+		route(ReadWriteRoutingDataSource.Strategy.ROUND_ROBIN, 0, replica1);
+		ReplicationStandIn replication = new ReplicationStandIn(primary, replica1);
+
+		// Write through the routing DataSource
+		writeTransaction.execute(status -> {
+			jdbcTemplate.execute("CREATE TABLE CUSTOMER (ID BIGINT PRIMARY KEY, USERNAME VARCHAR(100))");
+			jdbcTemplate.update("INSERT INTO CUSTOMER VALUES (1, 'stephen')");
+			return null;
+		});
+		replication.replicate();
+
+		String username = readTransaction.execute(status -> jdbcTemplate.queryForObject("SELECT USERNAME FROM CUSTOMER WHERE ID = 1", String.class));
+		String written = writeTransaction.execute(status -> jdbcTemplate.queryForObject("SELECT DATABASE()", String.class));
+
+		// Test
+		assertThat(readDatabase()).isEqualTo("REPLICA1");
+		assertThat(username).isEqualTo("stephen");
+		assertThat(written).isEqualTo("PRIMARY");
+	}
+
+	/**
+	 * Round robin alternates between replicas
+	 */
+	@Test
+	public void roundRobin() {
+		route(ReadWriteRoutingDataSource.Strategy.ROUND_ROBIN, 0, replica1, replica2);
+
+		// Test
+		String first = readDatabase();
+		String second = readDatabase();
+		assertThat(Arrays.asList(first, second)).containsExactlyInAnyOrder("REPLICA1", "REPLICA2");
+		assertThat(readDatabase()).isEqualTo(first);
+	}
+
+	/**
+	 * Least loaded avoids a replica with connections in use
+	 */
+	@Test
+	public void leastLoaded() throws Exception {
+		route(ReadWriteRoutingDataSource.Strategy.LEAST_LOADED, 0, replica1, replica2);
+
+		// Hold a connection on the first replica
+		try (Connection busy = replica1.getConnection()) {
+			// Test
+			assertThat(readDatabase()).isEqualTo("REPLICA2");
+			assertThat(readDatabase()).isEqualTo("REPLICA2");
+		}
+	}
+
+	/**
+	 * Reads stay on the primary for a while after a write
+	 */
+	@Test
+	public void readYourWrites() {
+		route(ReadWriteRoutingDataSource.Strategy.ROUND_ROBIN, 60000, replica1);
+
+		// Write through the routing DataSource
+		writeTransaction.execute(status -> jdbcTemplate.queryForObject("SELECT DATABASE()", String.class));
+
+		// Test
+		assertThat(readDatabase()).isEqualTo("PRIMARY");
+	}
+
+	/**
+	 * Stickiness is per client: another client's write doesn't keep this client's reads on the primary
+	 * @throws Exception
+	 */
+	@Test
+	public void readYourOwnWritesOnly() throws Exception {
+		route(ReadWriteRoutingDataSource.Strategy.ROUND_ROBIN, 60000, replica1);
+
+		// Another client writes
+		Thread other = new Thread(() -> writeTransaction.execute(status -> jdbcTemplate.queryForObject("SELECT DATABASE()", String.class)));
+		other.start();
+		other.join();
+
+		// Test
+		assertThat(readDatabase()).isEqualTo("REPLICA1");
+	}
+
+	/**
+	 * The filter carries a client's write to its later requests in a cookie
+	 * @throws Exception
+	 */
+	@Test
+	public void cookieCarriesWrite() throws Exception {
+		route(ReadWriteRoutingDataSource.Strategy.ROUND_ROBIN, 60000, replica1);
+		ReadYourWritesFilter filter = new ReadYourWritesFilter(60000);
+		List<String> read = new ArrayList<String>();
+		FilterChain chain = (request, response) -> read.add(readDatabase());
+		FilterChain write = (request, response) -> {
+			writeTransaction.execute(status -> jdbcTemplate.queryForObject("SELECT DATABASE()", String.class));
+			read.add(readDatabase());
+			response.getWriter().write("{}");
+			response.flushBuffer();
+		};
+
+		// A write sets the cookie, before its body commits the response
+		MockHttpServletResponse written = new MockHttpServletResponse();
+		filter.doFilter(new MockHttpServletRequest("PUT", "/customers/1"), written, write);
+		Cookie cookie = written.getCookie(ReadYourWritesFilter.COOKIE);
+
+		// A read from the same client, and one from another client
+		MockHttpServletRequest sameClient = new MockHttpServletRequest("GET", "/customers/1");
+		sameClient.setCookies(cookie);
+		MockHttpServletResponse readResponse = new MockHttpServletResponse();
+		filter.doFilter(sameClient, readResponse, chain);
+		filter.doFilter(new MockHttpServletRequest("GET", "/customers/1"), new MockHttpServletResponse(), chain);
+
+		// Test
+		assertThat(written.isCommitted()).isTrue();
+		assertThat(cookie.getMaxAge()).isEqualTo(60);
+		assertThat(cookie.isHttpOnly()).isTrue();
+		assertThat(readResponse.getCookie(ReadYourWritesFilter.COOKIE)).isNull();
+		assertThat(read).containsExactly("PRIMARY", "PRIMARY", "REPLICA1");
+		assertThat(ReadYourWrites.lastWrite()).isEqualTo(ReadYourWrites.NEVER);
+	}
+
+	/**
+	 * Read-only POST routes and failed writes set no cookie
+	 * @throws Exception
+	 */
+	@Test
+	public void onlySuccessfulWritesSetCookie() throws Exception {
+		route(ReadWriteRoutingDataSource.Strategy.ROUND_ROBIN, 60000, replica1);
+		ReadYourWritesFilter filter = new ReadYourWritesFilter(60000);
+		FilterChain chain = (request, response) -> readDatabase();
+		FilterChain rejected = (request, response) -> ((HttpServletResponse) response).sendError(HttpServletResponse.SC_BAD_REQUEST);
+
+		MockHttpServletResponse lookup = new MockHttpServletResponse();
+		filter.doFilter(new MockHttpServletRequest("POST", "/customers/lookup"), lookup, chain);
+		MockHttpServletResponse duplicates = new MockHttpServletResponse();
+		filter.doFilter(new MockHttpServletRequest("POST", "/reports/duplicates"), duplicates, chain);
+		MockHttpServletResponse failed = new MockHttpServletResponse();
+		filter.doFilter(new MockHttpServletRequest("POST", "/customers"), failed, rejected);
+		MockHttpServletResponse created = new MockHttpServletResponse();
+		filter.doFilter(new MockHttpServletRequest("POST", "/customers"), created, chain);
+
+		// Test
+		assertThat(lookup.getCookie(ReadYourWritesFilter.COOKIE)).isNull();
+		assertThat(duplicates.getCookie(ReadYourWritesFilter.COOKIE)).isNull();
+		assertThat(failed.getCookie(ReadYourWritesFilter.COOKIE)).isNull();
+		assertThat(created.getCookie(ReadYourWritesFilter.COOKIE)).isNotNull();
+	}
+}
@@ -0,0 +1,35 @@
+package sshephard.customer;
+
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Stand-in for database replication between two H2 instances
+ * Each call to replicate() copies the full schema and data of the primary to the replica
+ * @author s.shephard2
+ *
+ */
+public class ReplicationStandIn {
+
+	private final JdbcTemplate primary;
+	private final JdbcTemplate replica;
+
+	public ReplicationStandIn(DataSource primary, DataSource replica) {
+		this.primary = new JdbcTemplate(primary);
+		this.replica = new JdbcTemplate(replica);
+	}
+
+	/**
+	 * Replace the replica contents with a snapshot of the primary
+	 */
+	public void replicate() {
+		List<String> script = primary.queryForList("SCRIPT", String.class);
+		replica.execute("DROP ALL OBJECTS");
+		for (String statement : script) {
+			replica.execute(statement);
+		}
+	}
+}
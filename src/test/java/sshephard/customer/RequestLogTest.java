@@ -0,0 +1,159 @@
+package sshephard.customer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Unit tests and throughput benchmark for the request log
+ * @author s.shephard2
+ *
+ */
+public class RequestLogTest {
+
+	// Logger for customer.RequestLogTest
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private static RequestLog.Entry entry(int status) {
+		return new RequestLog.Entry(0, "10.0.0.1", "GET", "/customers/1", "read", status, 100);
+	}
+
+	/**
+	 * Entries are written in the order they were appended, as JSON
+	 */
+	@Test
+	public void appendAndDrainInOrder() {
+		List<String> lines = new ArrayList<String>();
+		RequestLog requestLog = new RequestLog(4, 100, lines::add);
+		requestLog.append(entry(200));
+		requestLog.append(entry(404));
+
+		// Test
+		assertThat(requestLog.drain()).isEqualTo(2);
+		assertThat(lines).containsExactly(
+				"{\"time\":0,\"client\":\"10.0.0.1\",\"method\":\"GET\",\"uri\":\"/customers/1\",\"route\":\"read\",\"status\":200,\"micros\":100}",
+				"{\"time\":0,\"client\":\"10.0.0.1\",\"method\":\"GET\",\"uri\":\"/customers/1\",\"route\":\"read\",\"status\":404,\"micros\":100}");
+	}
+
+	/**
+	 * A full buffer drops entries rather than blocking, and has room again once drained
+	 */
+	@Test
+	public void dropsWhenFull() {
+		List<String> lines = new ArrayList<String>();
+		RequestLog requestLog = new RequestLog(3, 100, lines::add);
+		for (int i = 0; i < 4; i++) {
+			assertThat(requestLog.append(entry(200))).isTrue();
+		}
+		assertThat(requestLog.append(entry(200))).isFalse();
+		requestLog.drain();
+
+		// Test
+		assertThat(requestLog.append(entry(200))).isTrue();
+		assertThat(requestLog.statistics()).containsEntry("written", 4L).containsEntry("dropped", 1L).containsEntry("buffered", 1L);
+	}
+
+	/**
+	 * Behind a proxy, the client is the last address in the client header, as for admission control
+	 * @throws Exception
+	 */
+	@Test
+	public void clientFromHeader() throws Exception {
+		List<String> lines = new ArrayList<String>();
+		RequestLog requestLog = new RequestLog(4, 100, lines::add);
+		Filter filter = new RequestLogFilter(requestLog, Collections.<String, Double>emptyMap(), "X-Forwarded-For");
+		MockHttpServletRequest proxied = new MockHttpServletRequest("GET", "/customers/1");
+		proxied.setRemoteAddr("10.0.0.1");
+		proxied.addHeader("X-Forwarded-For", "1.2.3.4, 192.168.0.7");
+		MockHttpServletRequest direct = new MockHttpServletRequest("GET", "/customers/1");
+		direct.setRemoteAddr("10.0.0.2");
+		filter.doFilter(proxied, new MockHttpServletResponse(), (request, response) -> { });
+		filter.doFilter(direct, new MockHttpServletResponse(), (request, response) -> { });
+		requestLog.drain();
+
+		// Test
+		assertThat(lines).hasSize(2);
+		assertThat(lines.get(0)).contains("\"client\":\"192.168.0.7\"");
+		assertThat(lines.get(1)).contains("\"client\":\"10.0.0.2\"");
+	}
+
+	/**
+	 * Throughput of lookups that write a customer as JSON, with every request logged and with none
+	 */
+	@Test
+	public void throughputBenchmark() throws Exception {
+		ObjectMapper mapper = new ObjectMapper();
+		Customer customer = new Customer();
+		customer.setId(1L);
+		customer.setFirst_name("Stephen");
+		customer.setLast_name("Shephard");
+		customer.setUsername("sjshephard001");
+		FilterChain handler = (request, response) -> {
+			((MockHttpServletResponse) response).setStatus(200);
+			mapper.writeValueAsBytes(customer);
+		};
+
+		AtomicLong lines = new AtomicLong();
+		RequestLog requestLog = new RequestLog(8192, 1, line -> lines.incrementAndGet());
+		Filter on = new RequestLogFilter(requestLog, Collections.singletonMap("read", 1.0), null);
+		Filter off = new RequestLogFilter(requestLog, Collections.singletonMap("read", 0.0), null);
+		requestLog.start();
+
+		// Warm up both, then measure
+		throughput(off, handler);
+		throughput(on, handler);
+		double offThroughput = throughput(off, handler);
+		double onThroughput = throughput(on, handler);
+		requestLog.stop();
+		logger.info("Request throughput: {} per second with request log off, {} on",
+				Math.round(offThroughput), Math.round(onThroughput));
+
+		// Test: every logged request written or counted as dropped, and the writer's formatting, which shares
+		// the CPUs with the requests, costs no more than a few times the lookup itself
+		assertThat(lines.get() + (Long) requestLog.statistics().get("dropped")).isEqualTo(2 * 4 * 100000L);
+		assertThat(onThroughput).isGreaterThan(offThroughput / 4);
+	}
+
+	/**
+	 * @return requests per second across 4 threads
+	 */
+	private static double throughput(Filter filter, FilterChain handler) throws Exception {
+		int threads = 4;
+		int requests = 100000;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		for (int t = 0; t < threads; t++) {
+			executor.execute(() -> {
+				MockHttpServletRequest request = new MockHttpServletRequest("GET", "/customers/1");
+				MockHttpServletResponse response = new MockHttpServletResponse();
+				try {
+					for (int i = 0; i < requests; i++) {
+						filter.doFilter(request, response, handler);
+					}
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			});
+		}
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+		return threads * requests / ((System.nanoTime() - start) / 1e9);
+	}
+}
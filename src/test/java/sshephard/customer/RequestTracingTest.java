@@ -0,0 +1,57 @@
+package sshephard.customer;
+
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.startsWith;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+/**
+ * Unit tests for per-request tracing and the slow request log
+ * @author s.shephard2
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"customer.tracing.enabled=true", "customer.tracing.slow-threshold-millis=0"})
+@AutoConfigureMockMvc
+public class RequestTracingTest {
+
+	@Autowired
+	private MockMvc mvc;
+
+	/**
+	 * Every phase of a request is timed, with its SQL attached
+	 */
+	@Test
+	public void slowRequestsAreTraced() throws Exception {
+		// Create customer
+		mvc.perform(post("/customers")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"first_name\":\"Carmen\",\"last_name\":\"Jones\",\"username\":\"traced001\"}"))
+				.andExpect(status().isOk());
+
+		// Test: with a zero threshold every request is slow, newest first
+		mvc.perform(get("/stats/slow-requests")
+				.accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$[0].method").value("POST"))
+				.andExpect(jsonPath("$[0].uri").value("/customers"))
+				.andExpect(jsonPath("$[0].status").value(200))
+				.andExpect(jsonPath("$[0].spans[*].name", hasItems("binding", "validation.usernameEmail",
+						"controller.createCustomer", "repository.save", "response.write")))
+				.andExpect(jsonPath("$[0].statements[0].span").value("validation.usernameEmail"))
+				.andExpect(jsonPath("$[0].statements[0].sql", startsWith("SELECT COUNT(*) FROM (SELECT id FROM customer")))
+				.andExpect(jsonPath("$[0].statements[1].span").value("repository.save"))
+				.andExpect(jsonPath("$[0].statements[1].sql", startsWith("insert into customer")));
+	}
+}
@@ -0,0 +1,367 @@
+package sshephard.customer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Unit tests for hash-sharded customer storage, with two H2 shards
+ * @author s.shephard2
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+		"customer.sharding.enabled=true",
+		"customer.sharding.shards[0].url=jdbc:h2:mem:shardtest0;DB_CLOSE_DELAY=-1",
+		"customer.sharding.shards[1].url=jdbc:h2:mem:shardtest1;DB_CLOSE_DELAY=-1",
+		"customer.sharding.max-results=100"})
+public class ShardedCustomerRepositoryTest {
+
+	@Autowired
+	private CustomerRepository customerRepository;
+
+	@Autowired
+	private DataSource dataSource;
+
+	private ShardRoutingDataSource shards;
+
+	@Before
+	public void setUp() {
+		shards = ShardRoutingDataSource.unwrap(dataSource);
+	}
+
+	private Customer save(String username) {
+		Customer customer = new Customer();
+		customer.setFirst_name("Stephen");
+		customer.setLast_name("Shephard");
+		customer.setUsername(username);
+		return customerRepository.save(customer);
+	}
+
+	private long countOnShard(int shard) {
+		return new JdbcTemplate(shards.getShards().get(shard))
+				.queryForObject("SELECT COUNT(*) FROM CUSTOMER WHERE USERNAME LIKE 'shard%'", Long.class);
+	}
+
+	/**
+	 * Customers are written to, and read from, the shard that owns their id
+	 */
+	@Test
+	public void pointReadsAndWrites() {
+		for (int i = 0; i < 20; i++) {
+			Customer customer = save("shard" + i);
+
+			// Test
+			int owner = shards.shardFor(customer.getId());
+			long onOwner = new JdbcTemplate(shards.getShards().get(owner))
+					.queryForObject("SELECT COUNT(*) FROM CUSTOMER WHERE ID = ?", Long.class, customer.getId());
+			assertThat(onOwner).isEqualTo(1);
+			assertThat(customerRepository.findById(customer.getId()).getUsername()).isEqualTo("shard" + i);
+		}
+
+		// Both shards hold some of the customers
+		assertThat(countOnShard(0)).isGreaterThan(0);
+		assertThat(countOnShard(1)).isGreaterThan(0);
+		assertThat(countOnShard(0) + countOnShard(1)).isEqualTo(20);
+
+		// Update goes back to the owning shard
+		Customer customer = customerRepository.findById(customerRepository.findAll(CustomerSpecifications.partialMatchUsername("shard7")).get(0).getId());
+		customer.setFirst_name("John");
+		customerRepository.save(customer);
+		assertThat(customerRepository.findOne(customer.getId()).getFirst_name()).isEqualTo("John");
+	}
+
+	/**
+	 * Searches cover every shard and are merged in id order
+	 */
+	@Test
+	public void scatterGatherSearch() {
+		for (int i = 0; i < 10; i++) {
+			save("gather" + i);
+		}
+
+		// Search by username
+		List<Customer> results = customerRepository.findAll(CustomerSpecifications.partialMatchUsername("gather"));
+
+		// Test
+		assertThat(results).hasSize(10);
+		for (int i = 1; i < results.size(); i++) {
+			assertThat(results.get(i).getId()).isGreaterThan(results.get(i - 1).getId());
+		}
+		assertThat(customerRepository.count()).isGreaterThanOrEqualTo(10);
+
+		// Precompiled search covers every shard too
+		CustomerCriteria criteria = new CustomerCriteria();
+		criteria.setUsername("gather");
+		assertThat(customerRepository.search(criteria)).extracting(Customer::getId)
+			.containsExactlyElementsOf(results.stream().map(Customer::getId).collect(Collectors.toList()));
+	}
+
+	/**
+	 * Fuzzy name search ranks the closest matches of every shard together
+	 */
+	@Test
+	public void fuzzyNameSearch() {
+		List<Long> ids = new ArrayList<Long>();
+		for (int i = 0; i < 10; i++) {
+			Customer customer = new Customer();
+			customer.setFirst_name("Imelda");
+			customer.setLast_name(i % 2 == 0 ? "Quartermayne" : "Quartermain");
+			customer.setUsername("fuzzyshard" + i);
+			ids.add(customerRepository.save(customer).getId());
+		}
+
+		// Test
+		List<Customer> results = customerRepository.findByFuzzyName("Quartermain", 3);
+		assertThat(results).extracting(Customer::getId).containsExactly(ids.get(1), ids.get(3), ids.get(5));
+	}
+
+	/**
+	 * Multi-get asks each shard for the ids it owns, once each
+	 */
+	@Test
+	public void multiGet() {
+		List<Long> ids = new ArrayList<Long>();
+		for (int i = 0; i < 10; i++) {
+			ids.add(save("multiget" + i).getId());
+		}
+		ids.add(1L);
+
+		// Test
+		List<Customer> found = customerRepository.findByIds(ids);
+		assertThat(found).extracting(Customer::getId).containsExactlyElementsOf(ids.subList(0, 10));
+	}
+
+	/**
+	 * Bulk updates and deletes run on every shard, and their counts are added
+	 */
+	@Test
+	public void bulkOperations() {
+		for (int i = 0; i < 10; i++) {
+			save("bulkshard" + i);
+		}
+		CustomerCriteria criteria = new CustomerCriteria();
+		criteria.setUsername("bulkshard");
+		Customer patch = new Customer();
+		patch.setFirst_name("John");
+
+		// Test
+		assertThat(customerRepository.bulkUpdate(criteria, patch)).isEqualTo(10);
+		assertThat(customerRepository.search(criteria)).extracting(Customer::getFirst_name).containsOnly("John");
+		assertThat(customerRepository.bulkDelete(criteria)).isEqualTo(10);
+		assertThat(customerRepository.search(criteria)).isEmpty();
+	}
+
+	/**
+	 * Sorted searches are merged across shards in their own order, then cut to the limit
+	 */
+	@Test
+	public void sortedTopK() {
+		String[] lastNames = {"Morgan", "Allen", "Turner", "Baker", "Hill", "Evans", "Clark", "Wood"};
+		for (int i = 0; i < lastNames.length; i++) {
+			Customer customer = new Customer();
+			customer.setFirst_name("Stephen");
+			customer.setLast_name(lastNames[i]);
+			customer.setUsername("shardsort" + i);
+			customerRepository.save(customer);
+		}
+		CustomerCriteria criteria = new CustomerCriteria();
+		criteria.setUsername("shardsort");
+		criteria.setSort(CustomerSort.LAST_NAME);
+		criteria.setLimit(4);
+
+		// Test
+		assertThat(customerRepository.search(criteria)).extracting(Customer::getLast_name).containsExactly("Allen", "Baker", "Clark", "Evans");
+	}
+
+	/**
+	 * Starting again over existing shards keeps their customers
+	 * @throws Exception
+	 */
+	@Test
+	public void restartKeepsShards() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			save("shardkeep" + i);
+		}
+		long onSecond = new JdbcTemplate(shards.getShards().get(1))
+				.queryForObject("SELECT COUNT(*) FROM CUSTOMER WHERE USERNAME LIKE 'shardkeep%'", Long.class);
+
+		// Test
+		new ShardingConfig.ShardSchemaInitializer(shards).createShardSchemas();
+		assertThat(new JdbcTemplate(shards.getShards().get(1))
+				.queryForObject("SELECT COUNT(*) FROM CUSTOMER WHERE USERNAME LIKE 'shardkeep%'", Long.class)).isEqualTo(onSecond);
+	}
+
+	/**
+	 * A search with more matches than max-results is refused rather than cut short, unless it sets a lower limit
+	 */
+	@Test
+	public void boundedSearch() {
+		List<Long> ids = new ArrayList<Long>();
+		for (int i = 0; i < 101; i++) {
+			ids.add(save("shardbound" + i).getId());
+		}
+		Collections.sort(ids);
+		CustomerCriteria criteria = new CustomerCriteria();
+		criteria.setUsername("shardbound");
+
+		// Test
+		assertThatThrownBy(() -> customerRepository.search(criteria)).isInstanceOf(TooManyResultsException.class);
+		criteria.setLimit(10);
+		assertThat(customerRepository.search(criteria)).extracting(Customer::getId).containsExactlyElementsOf(ids.subList(0, 10));
+		criteria.setLimit(100);
+		assertThat(customerRepository.search(criteria)).extracting(Customer::getId).containsExactlyElementsOf(ids.subList(0, 100));
+	}
+
+	/**
+	 * Pages of a streamed search follow on across shards, each id once
+	 */
+	@Test
+	public void searchAfterPages() {
+		List<Long> saved = new ArrayList<Long>();
+		for (int i = 0; i < 9; i++) {
+			saved.add(save("shardpage" + i).getId());
+		}
+		Collections.sort(saved);
+		CustomerCriteria criteria = new CustomerCriteria();
+		criteria.setUsername("shardpage");
+
+		// Test
+		List<Long> paged = new ArrayList<Long>();
+		long after = Long.MIN_VALUE;
+		for (List<Customer> page = customerRepository.searchAfter(criteria, after, 4); !page.isEmpty();
+				page = customerRepository.searchAfter(criteria, after, 4)) {
+			assertThat(page.size()).isLessThanOrEqualTo(4);
+			page.forEach(customer -> paged.add(customer.getId()));
+			after = page.get(page.size() - 1).getId();
+		}
+		assertThat(paged).isEqualTo(saved);
+	}
+
+	/**
+	 * Pages of changes follow on across shards in (updated_at, id) order
+	 */
+	@Test
+	public void changesInOrder() throws Exception {
+		List<Long> saved = new ArrayList<Long>();
+		for (int i = 0; i < 7; i++) {
+			saved.add(save("shardchange" + i).getId());
+			Thread.sleep(2);
+		}
+		Date before = new Date(System.currentTimeMillis() + 1);
+
+		// Test
+		List<Long> paged = new ArrayList<Long>();
+		Date afterUpdatedAt = null;
+		long afterId = 0;
+		for (List<Customer> page = customerRepository.findChanges(afterUpdatedAt, afterId, before, 3); !page.isEmpty();
+				page = customerRepository.findChanges(afterUpdatedAt, afterId, before, 3)) {
+			assertThat(page.size()).isLessThanOrEqualTo(3);
+			page.stream().filter(customer -> customer.getUsername().startsWith("shardchange")).forEach(customer -> paged.add(customer.getId()));
+			afterUpdatedAt = page.get(page.size() - 1).getUpdated_at();
+			afterId = page.get(page.size() - 1).getId();
+		}
+		assertThat(paged).isEqualTo(saved);
+	}
+
+	/**
+	 * Deletions are tombstoned on the customer's own shard, and paged in (deleted_at, id) order across shards
+	 */
+	@Test
+	public void deletionsInOrder() throws Exception {
+		List<Long> deleted = new ArrayList<Long>();
+		for (int i = 0; i < 7; i++) {
+			Long id = save("sharddelete" + i).getId();
+			customerRepository.delete(id);
+			deleted.add(id);
+			assertThat(new JdbcTemplate(shards.getShards().get(shards.shardFor(id)))
+					.queryForObject("SELECT COUNT(*) FROM CUSTOMER_TOMBSTONE WHERE ID = ?", Long.class, id)).isEqualTo(1);
+			Thread.sleep(2);
+		}
+		Date before = new Date(System.currentTimeMillis() + 1);
+
+		// Test
+		List<Long> paged = new ArrayList<Long>();
+		Date afterDeletedAt = null;
+		long afterId = 0;
+		for (List<CustomerTombstone> page = customerRepository.findDeletions(afterDeletedAt, afterId, before, 3); !page.isEmpty();
+				page = customerRepository.findDeletions(afterDeletedAt, afterId, before, 3)) {
+			assertThat(page.size()).isLessThanOrEqualTo(3);
+			page.stream().filter(tombstone -> deleted.contains(tombstone.getId())).forEach(tombstone -> paged.add(tombstone.getId()));
+			afterDeletedAt = page.get(page.size() - 1).getDeleted_at();
+			afterId = page.get(page.size() - 1).getId();
+		}
+		assertThat(paged).isEqualTo(deleted);
+	}
+
+	private static List<Customer> list(Iterable<Customer> customers) {
+		List<Customer> list = new ArrayList<Customer>();
+		customers.forEach(list::add);
+		return list;
+	}
+
+	private long rowsOf(Long id) {
+		long rows = 0;
+		for (DataSource shard : shards.getShards()) {
+			rows += new JdbcTemplate(shard).queryForObject("SELECT COUNT(*) FROM CUSTOMER WHERE ID = ?", Long.class, id);
+		}
+		return rows;
+	}
+
+	/**
+	 * Batch saves, lookups and deletes send each shard only the customers it owns
+	 */
+	@Test
+	public void batchOperations() {
+		List<Customer> batch = new ArrayList<Customer>();
+		for (int i = 0; i < 10; i++) {
+			Customer customer = new Customer();
+			customer.setFirst_name("Stephen");
+			customer.setLast_name("Shephard");
+			customer.setUsername("batch" + i);
+			batch.add(customer);
+		}
+
+		// Test
+		List<Customer> saved = list(customerRepository.save(batch));
+		assertThat(saved.stream().map(Customer::getUsername).collect(Collectors.toList()))
+			.isEqualTo(batch.stream().map(Customer::getUsername).collect(Collectors.toList()));
+		List<Long> ids = saved.stream().map(Customer::getId).collect(Collectors.toList());
+		for (Long id : ids) {
+			assertThat(rowsOf(id)).isEqualTo(1);
+		}
+
+		// Updates go back to the owning shard, without copies on the other
+		saved.forEach(customer -> customer.setFirst_name("John"));
+		saved = list(customerRepository.save(saved));
+		assertThat(saved.stream().map(Customer::getId).collect(Collectors.toList())).isEqualTo(ids);
+		for (Long id : ids) {
+			assertThat(rowsOf(id)).isEqualTo(1);
+			assertThat(customerRepository.findOne(id).getFirst_name()).isEqualTo("John");
+		}
+
+		List<Customer> found = list(customerRepository.findAll(ids));
+		assertThat(found.stream().map(Customer::getId).collect(Collectors.toList()))
+			.isEqualTo(ids.stream().sorted().collect(Collectors.toList()));
+
+		customerRepository.delete(saved);
+		for (Long id : ids) {
+			assertThat(rowsOf(id)).isEqualTo(0);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package sshephard.customer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for single-flight coalescing
+ * @author s.shephard2
+ *
+ */
+public class SingleFlightTest {
+
+	/**
+	 * Identical concurrent calls share one execution
+	 */
+	@Test
+	public void concurrentCallsCoalesce() throws Exception {
+		SingleFlight<CustomerCriteria, String> flights = new SingleFlight<CustomerCriteria, String>();
+		AtomicInteger calls = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(10);
+
+		// Keys differing only in case are the same search
+		List<Future<String>> results = new ArrayList<Future<String>>();
+		for (int i = 0; i < 10; i++) {
+			CustomerCriteria criteria = new CustomerCriteria();
+			criteria.setName(i % 2 == 0 ? "Carmen" : "CARMEN");
+			results.add(executor.submit(() -> flights.execute(criteria, () -> {
+				calls.incrementAndGet();
+				release.await();
+				return "result";
+			})));
+		}
+		while (flights.getExecuted() + flights.getCoalesced() < 10) {
+			Thread.sleep(1);
+		}
+		release.countDown();
+
+		// Test
+		for (Future<String> result : results) {
+			assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("result");
+		}
+		assertThat(calls.get()).isEqualTo(1);
+		assertThat(flights.getCoalesced()).isEqualTo(9);
+		assertThat(flights.getInFlight()).isEqualTo(0);
+
+		// Nothing is cached once the call has finished
+		assertThat(flights.execute(new CustomerCriteria(), () -> "again")).isEqualTo("again");
+		executor.shutdown();
+	}
+
+	/**
+	 * Callers waiting on a failed call see its exception
+	 */
+	@Test
+	public void errorsPropagate() throws Exception {
+		SingleFlight<Long, String> flights = new SingleFlight<Long, String>();
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+
+		Future<String> leader = executor.submit(() -> flights.execute(1L, () -> {
+			started.countDown();
+			release.await();
+			throw new IllegalArgumentException("failed");
+		}));
+		started.await();
+		Future<String> follower = executor.submit(() -> flights.execute(1L, () -> "not called"));
+		while (flights.getCoalesced() < 1) {
+			Thread.sleep(1);
+		}
+		release.countDown();
+
+		// Test
+		for (Future<String> result : Arrays.asList(leader, follower)) {
+			try {
+				result.get(5, TimeUnit.SECONDS);
+				fail("Expected the call to fail");
+			} catch (ExecutionException e) {
+				assertThat(e.getCause()).isInstanceOf(IllegalArgumentException.class).hasMessage("failed");
+			}
+		}
+		executor.shutdown();
+	}
+}